@@ -0,0 +1,169 @@
+package com.github.kaeluka.cflat.bench;
+
+import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.traversal.GenericShape;
+import com.github.kaeluka.cflat.util.Mutable;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The operations every {@link Storage} is benchmarked with. Each benchmark
+ * sweeps once over the indices of the chosen {@link IndexDistribution}, so
+ * scores are per sweep, not per single operation.
+ *
+ * Subclasses pick the storages under test by providing the {@code storage}
+ * parameter (the name of a supplier in {@link com.github.kaeluka.cflat.util.Storages})
+ * and implementing {@link #suppliers()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class AbstractStorageBenchmark {
+    private static final int RANGE_LENGTH = 16;
+    private static final int TREE_DEPTH = 10;
+    private static final Object[] BINARY_TREE = GenericShape.mkStar(2, 1);
+
+    @Param({"DENSE", "SPARSE", "CLUSTERED"})
+    public IndexDistribution distribution;
+
+    @Param({"10000"})
+    public int size;
+
+    private Supplier<Storage> supplier;
+    private int[] idxs;
+    private Storage<Integer> filled;
+    private Storage<Integer> tree;
+
+    protected abstract String storageName();
+
+    protected abstract List<Supplier<Storage>> suppliers();
+
+    @SuppressWarnings("unchecked")
+    private Storage<Integer> mkStorage() {
+        return supplier.get();
+    }
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        this.supplier = BenchUtil.byName(suppliers(), storageName());
+        this.idxs = distribution.indices(size, new Random(12345L));
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        Storage<Integer> st = mkStorage();
+        for (final int idx : idxs) {
+            st = st.set(idx, idx);
+        }
+        this.filled = st;
+
+        // a complete binary tree below the root's left child:
+        Storage<Integer> t = mkStorage().set(0, 0);
+        int levelStart = 1;
+        int levelWidth = 1;
+        for (int level = 0; level < TREE_DEPTH; level++) {
+            for (int i = levelStart; i < levelStart + levelWidth; i++) {
+                t = t.set(i, i);
+            }
+            levelStart = levelStart * 2 + 1;
+            levelWidth *= 2;
+        }
+        this.tree = t;
+    }
+
+    @Benchmark
+    public Storage<Integer> populate() {
+        Storage<Integer> st = mkStorage();
+        for (final int idx : idxs) {
+            st = st.set(idx, idx);
+        }
+        return st;
+    }
+
+    @Benchmark
+    public void get(final Blackhole bh) {
+        final Storage<Integer> st = this.filled;
+        for (final int idx : idxs) {
+            bh.consume(st.get(idx));
+        }
+    }
+
+    @Benchmark
+    public void get2(final Blackhole bh) {
+        final Storage<Integer> st = this.filled;
+        final Mutable<Integer> v2 = new Mutable<>(null);
+        for (final int idx : idxs) {
+            bh.consume(st.get2(idx, v2));
+            bh.consume(v2.x);
+        }
+    }
+
+    @Benchmark
+    public Storage<Integer> set() {
+        Storage<Integer> st = this.filled;
+        for (final int idx : idxs) {
+            st = st.set(idx, idx);
+        }
+        return this.filled = st;
+    }
+
+    @Benchmark
+    public Storage<Integer> set2() {
+        Storage<Integer> st = this.filled;
+        for (final int idx : idxs) {
+            st = st.set2(idx, idx, idx + 1);
+        }
+        return this.filled = st;
+    }
+
+    @Benchmark
+    public Storage<Integer> setRange() {
+        Storage<Integer> st = this.filled;
+        for (int i = 0; i < idxs.length; i += RANGE_LENGTH) {
+            st = st.setRange(idxs[i], idxs[i], RANGE_LENGTH);
+        }
+        return this.filled = st;
+    }
+
+    @Benchmark
+    public Storage<Integer> copyRange() {
+        Storage<Integer> st = this.filled;
+        for (int i = 0; i + 1 < idxs.length; i += RANGE_LENGTH) {
+            st = st.copyRange(idxs[i], idxs[i + 1], RANGE_LENGTH);
+        }
+        return this.filled = st;
+    }
+
+    /**
+     * Moves the left subtree of the root to the right and back, so that the
+     * tree is in the same shape for the next invocation.
+     */
+    @Benchmark
+    public Storage<Integer> moveSubtree() {
+        Storage<Integer> t = this.tree;
+        t = t.moveSubtree(1, BINARY_TREE, 2);
+        t = t.moveSubtree(2, BINARY_TREE, 1);
+        return this.tree = t;
+    }
+
+    @Benchmark
+    public void foreachNonNull(final Blackhole bh) {
+        this.filled.foreachNonNull(bh::consume);
+    }
+
+    @Benchmark
+    public long parallelForeachNonNull() {
+        final LongAdder sum = new LongAdder();
+        this.filled.parallelForeachNonNull(sum::add);
+        return sum.sum();
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.kaeluka.cflat.bench;
+
+import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.util.Storages;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a batch of updates into a fresh storage with {@link Storage#setAll},
+ * next to the loop over {@link Storage#set} it replaces, and reads it back
+ * with {@link Storage#getAll}. Scores are per batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+    @Param({
+            "TrieStorage",
+            "PMAStorage",
+            "HashMapStorage"})
+    public String storage;
+
+    @Param({"DENSE", "SPARSE", "CLUSTERED"})
+    public IndexDistribution distribution;
+
+    @Param({"100000"})
+    public int size;
+
+    private int[] idx;
+    private Object[] values;
+    private Object[] out;
+    private Storage<Object> loaded;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        final Random random = new Random(12345L);
+        idx = distribution.indices(size, random);
+        // ingest batches arrive in no particular order:
+        for (int i = idx.length - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int tmp = idx[i];
+            idx[i] = idx[j];
+            idx[j] = tmp;
+        }
+        values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = i;
+        }
+        out = new Object[size];
+        loaded = fresh().setAll(idx, values);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Storage<Object> fresh() {
+        return (Storage<Object>) BenchUtil.byName(Storages.genericStorages(), storage).get();
+    }
+
+    @Benchmark
+    public Storage<Object> setAll() {
+        return fresh().setAll(idx, values);
+    }
+
+    @Benchmark
+    public Storage<Object> setLoop() {
+        Storage<Object> ret = fresh();
+        for (int k = 0; k < idx.length; k++) {
+            ret = ret.set(idx[k], values[k]);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public Object[] getAll() {
+        loaded.getAll(idx, out);
+        return out;
+    }
+
+    @Benchmark
+    public Object[] getLoop() {
+        for (int k = 0; k < idx.length; k++) {
+            out[k] = loaded.get(idx[k]);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,19 @@
+package com.github.kaeluka.cflat.bench;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+class BenchUtil {
+    /**
+     * Finds a supplier by its name, as printed by
+     * {@link com.github.kaeluka.cflat.util.NamedSupplier#toString()}.
+     */
+    static <S extends Supplier<?>> S byName(final List<S> suppliers, final String name) {
+        for (final S sup : suppliers) {
+            if (sup.toString().equals(name)) {
+                return sup;
+            }
+        }
+        throw new IllegalArgumentException("no storage named "+name+" in "+suppliers);
+    }
+}
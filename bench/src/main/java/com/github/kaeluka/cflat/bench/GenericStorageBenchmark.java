@@ -0,0 +1,43 @@
+package com.github.kaeluka.cflat.bench;
+
+import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.util.Storages;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+@State(Scope.Thread)
+public class GenericStorageBenchmark extends AbstractStorageBenchmark {
+    @Param({
+            "ArrayStorage",
+            "SortedArrayStorage",
+            "ChunkedStorage",
+            "ConcurrentChunkedStorage",
+            "HashMapStorage",
+            "ImmutableStorage",
+            "IndexedStorage",
+            "ReverseStorage",
+            "TrieStorage",
+            "PMAStorage",
+            "ConcurrentStorageWrapper(TrieStorage)",
+            "AdaptiveStorage",
+            "TimerStorage(TrieStorage, sampled)",
+            "OffHeapStorage(INT)"})
+    public String storage;
+
+    @Override
+    protected String storageName() {
+        return storage;
+    }
+
+    @Override
+    protected List<Supplier<Storage>> suppliers() {
+        final List<Supplier<Storage>> ret = new ArrayList<>(Storages.genericStorages());
+        ret.addAll(Storages.offHeapStorages());
+        return ret;
+    }
+}
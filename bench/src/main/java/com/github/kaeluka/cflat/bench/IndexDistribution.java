@@ -0,0 +1,60 @@
+package com.github.kaeluka.cflat.bench;
+
+import java.util.Random;
+
+/**
+ * The shapes of index sets the benchmarks drive storages with.
+ */
+public enum IndexDistribution {
+    /**
+     * The indices {@code 0..n-1}, in order.
+     */
+    DENSE {
+        @Override
+        int[] indices(final int n, final Random random) {
+            final int[] ret = new int[n];
+            for (int i = 0; i < n; i++) {
+                ret[i] = i;
+            }
+            return ret;
+        }
+    },
+
+    /**
+     * {@code n} indices drawn uniformly from {@code 0..n*SPARSITY-1}.
+     */
+    SPARSE {
+        @Override
+        int[] indices(final int n, final Random random) {
+            final int[] ret = new int[n];
+            for (int i = 0; i < n; i++) {
+                ret[i] = random.nextInt(n * SPARSITY);
+            }
+            return ret;
+        }
+    },
+
+    /**
+     * Runs of {@code CLUSTER_SIZE} consecutive indices, with the runs' starts
+     * drawn uniformly from {@code 0..n*SPARSITY-1}.
+     */
+    CLUSTERED {
+        @Override
+        int[] indices(final int n, final Random random) {
+            final int[] ret = new int[n];
+            int clusterStart = 0;
+            for (int i = 0; i < n; i++) {
+                if (i % CLUSTER_SIZE == 0) {
+                    clusterStart = random.nextInt(n * SPARSITY);
+                }
+                ret[i] = clusterStart + i % CLUSTER_SIZE;
+            }
+            return ret;
+        }
+    };
+
+    static final int SPARSITY = 64;
+    static final int CLUSTER_SIZE = 64;
+
+    abstract int[] indices(int n, Random random);
+}
@@ -0,0 +1,118 @@
+package com.github.kaeluka.cflat.bench;
+
+import com.github.kaeluka.cflat.storage.IntStorage;
+import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.util.Storages;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bulk range operations of {@link IntStorage}, each next to the loop
+ * over single indices that it replaces. Scores are per pass over the whole
+ * range.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntKernelBenchmark {
+    @Param({
+            "IntArrayStorage",
+            "IntTrieStorage"})
+    public String storage;
+
+    @Param({"DENSE", "SPARSE", "CLUSTERED"})
+    public IndexDistribution distribution;
+
+    @Param({"100000"})
+    public int size;
+
+    private IntStorage st;
+    private int end;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        st = (IntStorage) BenchUtil.byName(Storages.intStorages(), storage).get();
+        final Random random = new Random(12345L);
+        for (final int idx : distribution.indices(size, random)) {
+            st.setInt(idx, random.nextInt(1000));
+        }
+        end = st.maxIdxOverapproximation();
+    }
+
+    @Benchmark
+    public long sumKernel() {
+        return st.sumInt(0, end);
+    }
+
+    @Benchmark
+    public long sumUnboxed() {
+        long ret = 0;
+        for (int i = 0; i < end; i++) {
+            if (st.has(i)) {
+                ret += st.getInt(i);
+            }
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public long sumBoxed() {
+        final Storage<Integer> boxed = st;
+        long ret = 0;
+        for (int i = 0; i < end; i++) {
+            final Integer x = boxed.get(i);
+            if (x != null) {
+                ret += x;
+            }
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public int maxKernel() {
+        return st.maxInt(0, end);
+    }
+
+    @Benchmark
+    public int maxUnboxed() {
+        int ret = Integer.MIN_VALUE;
+        for (int i = 0; i < end; i++) {
+            if (st.has(i)) {
+                ret = Math.max(ret, st.getInt(i));
+            }
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public int countKernel() {
+        return st.count(0, end);
+    }
+
+    @Benchmark
+    public int findFirstKernel() {
+        // no value is that large, so the whole range is scanned
+        return st.findFirstInt(x -> x >= 1000, 0, end);
+    }
+
+    @Benchmark
+    public int findFirstUnboxed() {
+        for (int i = 0; i < end; i++) {
+            if (st.has(i) && st.getInt(i) >= 1000) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public int replaceKernel() {
+        // replaces back and forth, so every pass does the same work
+        return st.replaceInt(7, 8, 0, end) + st.replaceInt(8, 7, 0, end);
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.kaeluka.cflat.bench;
+
+import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.util.Storages;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+@State(Scope.Thread)
+public class IntStorageBenchmark extends AbstractStorageBenchmark {
+    @Param({
+            "IntArrayStorage",
+            "IntChunkedStorage",
+            "IntTrieStorage"})
+    public String storage;
+
+    @Override
+    protected String storageName() {
+        return storage;
+    }
+
+    @Override
+    protected List<Supplier<Storage>> suppliers() {
+        return Storages.intStorages();
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.kaeluka.cflat.bench;
+
+import com.github.kaeluka.cflat.storage.NestedStorage;
+import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.util.Storages;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Cell-wise access to the {@link Storages#nestedStorages()}. An index
+ * {@code i} of the {@link IndexDistribution} addresses the cell
+ * {@code [i / COLS, i % COLS]}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NestedStorageBenchmark {
+    private static final int COLS = 128;
+
+    @Param({
+            "Storage2D(ArrayStorage)",
+            "Storage2D(SortedArrayStorage)",
+            "Storage2D(ChunkedStorage)",
+            "Storage2D(HashMapStorage)",
+            "Storage2D(ImmutableStorage)",
+            "Storage2D(IndexedStorage)",
+            "Storage2D(ReverseStorage)",
+            "Storage2D(TrieStorage)",
+            "Storage2D(PMAStorage)",
+            "SparseStorage(SIZE)",
+            "SparseStorage(PERFORMANCE)",
+            "SparseStorage(COLUMN_SCAN)",
+            "SparseStorage(DENSE_BLOCKS)"})
+    public String storage;
+
+    @Param({"DENSE", "SPARSE", "CLUSTERED"})
+    public IndexDistribution distribution;
+
+    @Param({"10000"})
+    public int size;
+
+    private Supplier<NestedStorage<Integer>> supplier;
+    private int[] rows;
+    private int[] cols;
+    private NestedStorage<Integer> filled;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        this.supplier = BenchUtil.byName(Storages.<Integer>nestedStorages(), storage);
+        final int[] idxs = distribution.indices(size, new Random(12345L));
+        this.rows = new int[idxs.length];
+        this.cols = new int[idxs.length];
+        for (int i = 0; i < idxs.length; i++) {
+            rows[i] = idxs[i] / COLS;
+            cols[i] = idxs[i] % COLS;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        this.filled = populate();
+    }
+
+    @Benchmark
+    public NestedStorage<Integer> populate() {
+        final NestedStorage<Integer> st = supplier.get();
+        for (int i = 0; i < rows.length; i++) {
+            st.get(rows[i]).set(cols[i], i);
+        }
+        // storages that buffer writes must have merged them when done:
+        st.compact();
+        return st;
+    }
+
+    @Benchmark
+    public void get(final Blackhole bh) {
+        final NestedStorage<Integer> st = this.filled;
+        for (int i = 0; i < rows.length; i++) {
+            bh.consume(st.get(rows[i]).get(cols[i]));
+        }
+    }
+
+    @Benchmark
+    public NestedStorage<Integer> set() {
+        final NestedStorage<Integer> st = this.filled;
+        for (int i = 0; i < rows.length; i++) {
+            st.get(rows[i]).set(cols[i], i);
+        }
+        return st;
+    }
+
+    @Benchmark
+    public void getCell(final Blackhole bh) {
+        final NestedStorage<Integer> st = this.filled;
+        for (int i = 0; i < rows.length; i++) {
+            bh.consume(st.get(rows[i], cols[i]));
+        }
+    }
+
+    @Benchmark
+    public NestedStorage<Integer> setCell() {
+        final NestedStorage<Integer> st = this.filled;
+        for (int i = 0; i < rows.length; i++) {
+            st.set(rows[i], cols[i], i);
+        }
+        return st;
+    }
+
+    @Benchmark
+    public void foreachColNonNull(final Blackhole bh) {
+        final NestedStorage<Integer> st = this.filled;
+        st.foreachColNonNull(col -> {
+            final Storage<Integer> c = st.getCol(col);
+            c.foreachNonNull(row -> bh.consume(c.get(row)));
+        });
+    }
+
+    @Benchmark
+    public void foreachNonNull(final Blackhole bh) {
+        final NestedStorage<Integer> st = this.filled;
+        st.foreachNonNull(row -> {
+            final Storage<Integer> r = st.get(row);
+            r.foreachNonNull(col -> bh.consume(r.get(col)));
+        });
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.kaeluka.cflat.bench;
+
+import com.github.kaeluka.cflat.storage.NestedStorage;
+import com.github.kaeluka.cflat.storage.SparseKernels;
+import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.util.Storages;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link SparseKernels} on a random square matrix, next to the
+ * cell-wise loop they replace. The CSR layout ({@code SparseStorage(SIZE)})
+ * runs its rows in parallel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SparseKernelBenchmark {
+    @Param({
+            "Storage2D(ChunkedStorage)",
+            "Storage2D(HashMapStorage)",
+            "SparseStorage(SIZE)",
+            "SparseStorage(COLUMN_SCAN)",
+            "SparseStorage(DENSE_BLOCKS)"})
+    public String storage;
+
+    @Param({"20000"})
+    public int size;
+
+    @Param({"8"})
+    public int cellsPerRow;
+
+    private NestedStorage<Double> matrix;
+    private double[] vector;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        matrix = BenchUtil.byName(Storages.<Double>nestedStorages(), storage).get();
+        final Random random = new Random(12345L);
+        for (int k = 0; k < size * cellsPerRow; k++) {
+            matrix.get(random.nextInt(size)).set(random.nextInt(size), random.nextDouble());
+        }
+        matrix.compact();
+        vector = new double[size];
+        for (int i = 0; i < size; i++) {
+            vector[i] = random.nextDouble();
+        }
+    }
+
+    @Benchmark
+    public double[] multiplyVector() {
+        return SparseKernels.multiply(matrix, vector);
+    }
+
+    @Benchmark
+    public double[] multiplyVectorCellwise() {
+        final double[] y = new double[matrix.maxIdx()];
+        matrix.foreachNonNull(row -> {
+            final Storage<Double> r = matrix.get(row);
+            r.foreachNonNull(col -> y[row] += r.get(col) * vector[col]);
+        });
+        return y;
+    }
+
+    @Benchmark
+    public NestedStorage<Double> multiplyMatrix() {
+        return SparseKernels.multiply(matrix, matrix);
+    }
+
+    @Benchmark
+    public NestedStorage<Double> transpose() {
+        return SparseKernels.transpose(matrix);
+    }
+
+    @Benchmark
+    public double[] rowSums() {
+        return SparseKernels.rowSums(matrix);
+    }
+}
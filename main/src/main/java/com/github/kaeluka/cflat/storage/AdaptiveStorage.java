@@ -0,0 +1,329 @@
+package com.github.kaeluka.cflat.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * A storage that picks its own layout.
+ *
+ * The data lives in one candidate backend at a time. Every
+ * {@code sampleInterval}-th operation is also replayed on a
+ * {@link TimersStorage} holding one shadow per candidate. The shadows only
+ * see the sampled operations, so they hold a thinned-out copy of the data;
+ * like {@link TimersStorage}, they are compared relative to each other.
+ * After every {@code window} operations, the shadows are scored with the
+ * weighting set by {@link #setPriority(double, double)}. If another
+ * candidate wins, the live data migrates into it.
+ *
+ * A migration copies at most {@code migrationStep} entries per operation,
+ * so no single operation pauses for long. Until the copy is done, reads are
+ * served by the old backend and writes go to both. The storage then swaps
+ * to the new backend in place: mutators always return this storage.
+ *
+ * All mutations are routed through {@link #set} and {@link #clearAll}:
+ * the range and batch operations are the defaults of {@link Storage},
+ * which call {@link #set}, and {@link #addAll} is overridden to do the
+ * same. Like the backends, this storage is not thread-safe.
+ */
+public class AdaptiveStorage<T> extends StorageWrapper<T> implements StatisticsStorage<T> {
+    public final static int DEFAULT_SAMPLE_INTERVAL = 64;
+    public final static int DEFAULT_WINDOW = 1 << 16;
+    public final static int DEFAULT_MIGRATION_STEP = 1 << 10;
+
+    private final List<Supplier<Storage<T>>> candidates;
+    private final int sampleMask;
+    private final int window;
+    private final int migrationStep;
+    // allocated on the first sampled operation: the timers' histograms are
+    // big, and most small storages never get that far
+    private TimersStorage<T> shadows = null;
+    private double timeWeight = 3;
+    private double bytesWeight = 1;
+    private int current = 0;
+    private long ops = 0;
+
+    // the backend being migrated to, or null
+    private Storage<T> target = null;
+    private int targetCandidate = -1;
+    // indices below this are already copied to target
+    private int migratedUpTo = 0;
+
+    @SuppressWarnings("unchecked")
+    public AdaptiveStorage() {
+        this(DEFAULT_SAMPLE_INTERVAL, DEFAULT_WINDOW, DEFAULT_MIGRATION_STEP,
+                ChunkedStorage::new,
+                ArrayStorage::new,
+                TrieStorage::new,
+                HashMapStorage::new);
+    }
+
+    /**
+     * @param sampleInterval one in this many operations is replayed on the
+     *                       shadows. Rounded up to a power of two.
+     * @param window         the number of operations between two scorings.
+     * @param migrationStep  the number of entries a migration copies per
+     *                       operation.
+     * @param candidates     the backends to choose from. The first one holds
+     *                       the data initially.
+     */
+    @SafeVarargs
+    public AdaptiveStorage(final int sampleInterval, final int window, final int migrationStep,
+                           final Supplier<Storage<T>>... candidates) {
+        super(candidates[0].get());
+        if (sampleInterval <= 0 || window <= 0 || migrationStep <= 0) {
+            throw new IllegalArgumentException("sample interval, window and migration step must be positive");
+        }
+        this.candidates = new ArrayList<>(candidates.length);
+        for (final Supplier<Storage<T>> c : candidates) {
+            this.candidates.add(c);
+        }
+        this.sampleMask = (1 << (32 - Integer.numberOfLeadingZeros(sampleInterval - 1))) - 1;
+        this.window = window;
+        this.migrationStep = migrationStep;
+    }
+
+    @SuppressWarnings("unchecked")
+    private TimersStorage<T> shadows() {
+        if (shadows == null) {
+            final Storage<T>[] inner = (Storage<T>[]) new Storage<?>[candidates.size()];
+            for (int c = 0; c < inner.length; c++) {
+                inner[c] = candidates.get(c).get();
+            }
+            // only the total time is used for scoring, coarse histograms do:
+            shadows = new TimersStorage<>("adaptive", 1, inner);
+            shadows.setPriority(timeWeight, bytesWeight);
+        }
+        return shadows;
+    }
+
+    @SuppressWarnings("unchecked")
+    private AdaptiveStorage<T> wrap(final Storage<T> inner) {
+        final Supplier<Storage<T>>[] cs = candidates.toArray((Supplier<Storage<T>>[]) new Supplier<?>[0]);
+        final AdaptiveStorage<T> ret = new AdaptiveStorage<>(sampleMask + 1, window, migrationStep, cs);
+        ret.innerStorage = inner;
+        ret.current = current;
+        ret.setPriority(timeWeight, bytesWeight);
+        return ret;
+    }
+
+    @Override
+    protected StorageWrapper<T> withNewIdentity(final Storage<T> possiblyNewInnerStorage) {
+        this.innerStorage = possiblyNewInnerStorage;
+        return this;
+    }
+
+    public void setPriority(final double timeWeight, final double bytesWeight) {
+        this.timeWeight = timeWeight;
+        this.bytesWeight = bytesWeight;
+        if (shadows != null) {
+            shadows.setPriority(timeWeight, bytesWeight);
+        }
+    }
+
+    public boolean isMigrating() {
+        return target != null;
+    }
+
+    /**
+     * Counts an operation, makes progress on a running migration, and
+     * scores the shadows at the end of a window.
+     *
+     * @return whether the operation should be replayed on the shadows.
+     */
+    private boolean tick() {
+        ops++;
+        if (target != null) {
+            migrateStep();
+        }
+        if (ops % window == 0) {
+            score();
+        }
+        return (ops & sampleMask) == 0;
+    }
+
+    private void score() {
+        if (shadows == null) {
+            return;
+        }
+        final int best = shadows.recommendedIndex();
+        if (best >= 0 && best != current && target == null) {
+            target = candidates.get(best).get();
+            targetCandidate = best;
+            migratedUpTo = 0;
+        }
+        shadows.resetStatistics();
+    }
+
+    /**
+     * Copies the next {@code migrationStep} entries, walking the live data
+     * rather than its index space: a sparse backend migrates in as many
+     * steps as it holds entries.
+     */
+    private void migrateStep() {
+        final StorageCursor<T> cursor = innerStorage.cursor();
+        boolean more = cursor.seek(migratedUpTo);
+        for (int copied = 0; more && copied < migrationStep; copied++) {
+            final int i = cursor.index();
+            target = target.set(i, cursor.value());
+            if (i == Integer.MAX_VALUE) {
+                more = false;
+            } else {
+                migratedUpTo = i + 1;
+                more = cursor.advance();
+            }
+        }
+        if (!more) {
+            innerStorage = target;
+            current = targetCandidate;
+            target = null;
+            targetCandidate = -1;
+        }
+    }
+
+    @Override
+    public T get(final int i) {
+        if (tick()) {
+            shadows().get(i);
+        }
+        return innerStorage.get(i);
+    }
+
+    @Override
+    public boolean has(final int i) {
+        if (tick()) {
+            shadows().has(i);
+        }
+        return innerStorage.has(i);
+    }
+
+    @Override
+    public boolean hasInRange(final int start, final int end) {
+        if (tick()) {
+            shadows().hasInRange(start, end);
+        }
+        return innerStorage.hasInRange(start, end);
+    }
+
+    @Override
+    public Storage<T> set(final int i, final T x) {
+        if (tick()) {
+            shadows().set(i, x);
+        }
+        innerStorage = innerStorage.set(i, x);
+        if (target != null && i < migratedUpTo) {
+            target = target.set(i, x);
+        }
+        return this;
+    }
+
+    /**
+     * Goes through {@link #set}, so that a running migration sees the
+     * writes.
+     */
+    @Override
+    public Storage<T> addAll(final Storage<T> source) {
+        final StorageCursor<T> cursor = source.cursor();
+        while (cursor.advance()) {
+            set(cursor.index(), cursor.value());
+        }
+        return this;
+    }
+
+    @Override
+    public Storage<T> clearAll() {
+        tick();
+        if (shadows != null) {
+            shadows.clearAll();
+        }
+        innerStorage = innerStorage.clearAll();
+        target = null;
+        targetCandidate = -1;
+        return this;
+    }
+
+    @Override
+    public int maxIdx() {
+        return innerStorage.maxIdx();
+    }
+
+    @Override
+    public void foreachNonNull(final IntConsumer f) {
+        if (tick()) {
+            shadows().foreachNonNull(i -> { });
+        }
+        innerStorage.foreachNonNull(f);
+    }
+
+    @Override
+    public int findFirst(final T x, final int max) {
+        if (tick()) {
+            shadows().findFirst(x, max);
+        }
+        return innerStorage.findFirst(x, max);
+    }
+
+    /**
+     * Not sampled: the shadows must not be touched from several threads.
+     */
+    @Override
+    public void parallelForeachNonNull(final IntConsumer f) {
+        innerStorage.parallelForeachNonNull(f);
+    }
+
+    /**
+     * Not sampled: the shadows must not be touched from several threads.
+     */
+    @Override
+    public int parallelFindAny(final T x) {
+        return innerStorage.parallelFindAny(x);
+    }
+
+    @Override
+    public StorageCursor<T> cursor() {
+        return innerStorage.cursor();
+    }
+
+    @Override
+    public Spliterator.OfInt indexSpliterator() {
+        return innerStorage.indexSpliterator();
+    }
+
+    @Override
+    public Storage<T> copy() {
+        return wrap(innerStorage.copy());
+    }
+
+    @Override
+    public Storage<T> emptyCopy() {
+        return wrap(innerStorage.emptyCopy());
+    }
+
+    /**
+     * Only counts the live data, not the shadows.
+     */
+    @Override
+    public long bytesUsed() {
+        return innerStorage.bytesUsed() + (target == null ? 0 : target.bytesUsed());
+    }
+
+    @Override
+    public String getStatistics(final String name) {
+        final String live = "live: " + getInnerClass().getSimpleName();
+        return shadows == null ? live : live + "\n" + shadows.getStatistics(name);
+    }
+
+    @Override
+    public long getTotalTime() {
+        return shadows == null ? 0 : shadows.getTotalTime();
+    }
+
+    @Override
+    public void resetStatistics() {
+        if (shadows != null) {
+            shadows.resetStatistics();
+        }
+    }
+}
@@ -141,9 +141,58 @@ public final class ArrayStorage<T> implements Storage<T> {
 //        }
 //    }
 
+    @Override
+    public StorageCursor<T> cursor() {
+        return new StorageCursor<T>() {
+            private int idx = -1;
+            private boolean valid = false;
+
+            @Override
+            public boolean advance() {
+                final Object[] data = ArrayStorage.this.data;
+                final int limit = Math.min(maxIdxOverapproximation(), data.length);
+                while (++idx < limit) {
+                    if (data[idx] != null) {
+                        return valid = true;
+                    }
+                }
+                idx = limit;
+                return valid = false;
+            }
+
+            @Override
+            public boolean seek(final int i) {
+                if (valid && idx >= i) {
+                    return true;
+                }
+                idx = Math.max(idx, i - 1);
+                return advance();
+            }
+
+            @Override
+            public int index() {
+                return idx;
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public T value() {
+                return (T) data[idx];
+            }
+
+            @Override
+            public void reset() {
+                idx = -1;
+                valid = false;
+            }
+        };
+    }
+
     @Override
     public Storage<T> copy() {
-        return new ArrayStorage<>(Arrays.copyOf(data, data.length));
+        final ArrayStorage<T> ret = new ArrayStorage<>(Arrays.copyOf(data, data.length));
+        ret.maxIdx = this.maxIdx;
+        return ret;
     }
 
     @Override
@@ -153,6 +202,7 @@ public final class ArrayStorage<T> implements Storage<T> {
 
     @Override
     public long bytesUsed() {
-        return ObjectSizes.INT + ObjectSizes.ARRAY_SIZE(this.data);
+        return ObjectSizes.OBJECT_SIZE(ObjectSizes.INT + ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAY_SIZE(this.data);
     }
 }
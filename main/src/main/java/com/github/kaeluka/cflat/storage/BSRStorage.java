@@ -0,0 +1,430 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+/**
+ * A block sparse row matrix. The matrix is cut into square blocks of
+ * {@code BLOCK * BLOCK} cells, and every block that holds a cell is stored
+ * densely. The blocks are kept in the order of a CSR matrix of blocks, so
+ * a dense cluster costs one column index per block instead of one per
+ * cell, and rows and columns are both scanned block by block.
+ */
+final class BSRStorage<T> implements NestedStorage<T> {
+    private static final int SHIFT = 3;
+    static final int BLOCK = 1 << SHIFT;
+    private static final int MASK = BLOCK - 1;
+    private static final int CELLS = BLOCK * BLOCK;
+
+    // the blocks of block row br are blockRowStart[br] .. blockRowStart[br+1]
+    private int[] blockRowStart;
+    private int blockRows;
+    private int[] blockCol;
+    // block k holds the cell (r, c) of the block at cells[k*CELLS + r*BLOCK + c]
+    private Object[] cells;
+    private int nBlocks;
+    private int maxIdx;
+    private int maxCol;
+    private BlockRowStorage lastRow;
+
+    BSRStorage() {
+        init();
+    }
+
+    private BSRStorage(final BSRStorage<T> other) {
+        this.blockRowStart = other.blockRowStart.clone();
+        this.blockRows = other.blockRows;
+        this.blockCol = other.blockCol.clone();
+        this.cells = other.cells.clone();
+        this.nBlocks = other.nBlocks;
+        this.maxIdx = other.maxIdx;
+        this.maxCol = other.maxCol;
+    }
+
+    private void init() {
+        blockRowStart = new int[] {0};
+        blockRows = 0;
+        blockCol = new int[4];
+        cells = new Object[4 * CELLS];
+        nBlocks = 0;
+        maxIdx = -1;
+        maxCol = -1;
+    }
+
+    /**
+     * @return the block holding block column {@code bc} of block row
+     * {@code br}, or a negative number if there is none.
+     */
+    private int findBlock(final int br, final int bc) {
+        if (br >= blockRows) {
+            return -1;
+        }
+        return Arrays.binarySearch(blockCol, blockRowStart[br], blockRowStart[br + 1], bc);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T get(final int row, final int col) {
+        final int k = findBlock(row >>> SHIFT, col >>> SHIFT);
+        if (k < 0) {
+            return null;
+        }
+        return (T) cells[k * CELLS + (row & MASK) * BLOCK + (col & MASK)];
+    }
+
+    @Override
+    public NestedStorage<T> set(final int row, final int col, final T x) {
+        IndexCheck.checkIndexIsNonnegative(row);
+        IndexCheck.checkIndexIsNonnegative(col);
+        maxIdx = row > maxIdx ? row : maxIdx;
+        final int br = row >>> SHIFT;
+        final int bc = col >>> SHIFT;
+        int k = findBlock(br, bc);
+        if (k < 0) {
+            if (x == null) {
+                return this;
+            }
+            k = insertBlock(br, bc);
+        }
+        if (col > maxCol) {
+            maxCol = col;
+        }
+        cells[k * CELLS + (row & MASK) * BLOCK + (col & MASK)] = x;
+        return this;
+    }
+
+    private int insertBlock(final int br, final int bc) {
+        if (br >= blockRows) {
+            if (br + 2 > blockRowStart.length) {
+                blockRowStart = Arrays.copyOf(blockRowStart, Math.max(br + 2, 2 * blockRowStart.length));
+            }
+            Arrays.fill(blockRowStart, blockRows + 1, br + 2, nBlocks);
+            blockRows = br + 1;
+        }
+        final int k = -(Arrays.binarySearch(blockCol, blockRowStart[br], blockRowStart[br + 1], bc) + 1);
+        if (nBlocks == blockCol.length) {
+            blockCol = Arrays.copyOf(blockCol, 2 * nBlocks);
+            cells = Arrays.copyOf(cells, 2 * nBlocks * CELLS);
+        }
+        System.arraycopy(blockCol, k, blockCol, k + 1, nBlocks - k);
+        System.arraycopy(cells, k * CELLS, cells, (k + 1) * CELLS, (nBlocks - k) * CELLS);
+        Arrays.fill(cells, k * CELLS, (k + 1) * CELLS, null);
+        blockCol[k] = bc;
+        nBlocks++;
+        for (int r = br + 1; r <= blockRows; r++) {
+            blockRowStart[r]++;
+        }
+        return k;
+    }
+
+    @Override
+    public Storage<T> get(final int row) {
+        IndexCheck.checkIndexIsNonnegative(row);
+        maxIdx = row > maxIdx ? row : maxIdx;
+        final BlockRowStorage last = this.lastRow;
+        if (last != null && last.row == row) {
+            return last;
+        }
+        return this.lastRow = new BlockRowStorage(row);
+    }
+
+    /**
+     * Walks the cells row by row: each row visits the blocks of its block
+     * row in column order.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public void foreachCell(final CellConsumer<? super T> f) {
+        for (int br = 0; br < blockRows; br++) {
+            for (int r = 0; r < BLOCK; r++) {
+                for (int k = blockRowStart[br]; k < blockRowStart[br + 1]; k++) {
+                    for (int c = 0; c < BLOCK; c++) {
+                        final Object x = cells[k * CELLS + r * BLOCK + c];
+                        if (x != null) {
+                            f.accept(br * BLOCK + r, blockCol[k] * BLOCK + c, (T) x);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean has(final int row) {
+        final int br = row >>> SHIFT;
+        if (br >= blockRows) {
+            return false;
+        }
+        final int line = (row & MASK) * BLOCK;
+        for (int k = blockRowStart[br]; k < blockRowStart[br + 1]; k++) {
+            for (int c = 0; c < BLOCK; c++) {
+                if (cells[k * CELLS + line + c] != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean hasCol(final int col) {
+        final int bc = col >>> SHIFT;
+        for (int br = 0; br < blockRows; br++) {
+            final int k = findBlock(br, bc);
+            if (k >= 0) {
+                for (int r = 0; r < BLOCK; r++) {
+                    if (cells[k * CELLS + r * BLOCK + (col & MASK)] != null) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Storage<T> getCol(final int col) {
+        IndexCheck.checkIndexIsNonnegative(col);
+        return new BlockColStorage(col);
+    }
+
+    /**
+     * Visits every block once to collect the columns that hold a cell.
+     */
+    @Override
+    public void foreachColNonNull(final IntConsumer f) {
+        final BitSet cols = new BitSet();
+        for (int k = 0; k < nBlocks; k++) {
+            for (int i = 0; i < CELLS; i++) {
+                if (cells[k * CELLS + i] != null) {
+                    cols.set(blockCol[k] * BLOCK + (i & MASK));
+                }
+            }
+        }
+        for (int col = cols.nextSetBit(0); col >= 0; col = cols.nextSetBit(col + 1)) {
+            f.accept(col);
+        }
+    }
+
+    @Override
+    public int maxColIdxOverapproximation() {
+        return maxCol + 1;
+    }
+
+    @Override
+    public Storage<Storage<T>> set(final int i, final Storage<T> x) {
+        throw new UnsupportedOperationException("set not supported");
+    }
+
+    @Override
+    public Storage<Storage<T>> clearAll() {
+        init();
+        return this;
+    }
+
+    @Override
+    public int maxIdxOverapproximation() {
+        return maxIdx();
+    }
+
+    @Override
+    public int maxIdx() {
+        return maxIdx + 1;
+    }
+
+    @Override
+    public Storage<Storage<T>> copy() {
+        return new BSRStorage<>(this);
+    }
+
+    @Override
+    public Storage<Storage<T>> emptyCopy() {
+        return new BSRStorage<>();
+    }
+
+    @Override
+    public long bytesUsed() {
+        return ObjectSizes.OBJECT_SIZE(5 * ObjectSizes.INT + 3 * ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAY_SIZE(blockRowStart)
+                + ObjectSizes.ARRAY_SIZE(blockCol)
+                + ObjectSizes.ARRAY_SIZE(cells);
+    }
+
+    @Override
+    public String toString() {
+        return "BSRStorage:\n" +
+                "\tblocks        " + nBlocks + " of " + BLOCK + "x" + BLOCK + "\n" +
+                "\tblockrowstart " + Arrays.toString(Arrays.copyOf(blockRowStart, blockRows + 1)) + "\n" +
+                "\tblockcolumn   " + Arrays.toString(Arrays.copyOf(blockCol, nBlocks));
+    }
+
+    private class BlockRowStorage implements Storage<T> {
+        private final int row;
+
+        BlockRowStorage(final int row) {
+            this.row = row;
+        }
+
+        @Override
+        public T get(final int col) {
+            return BSRStorage.this.get(row, col);
+        }
+
+        @Override
+        public Storage<T> set(final int col, final T x) {
+            BSRStorage.this.set(row, col, x);
+            return this;
+        }
+
+        @Override
+        public void foreachNonNull(final IntConsumer f) {
+            final int br = row >>> SHIFT;
+            if (br >= blockRows) {
+                return;
+            }
+            final int line = (row & MASK) * BLOCK;
+            for (int k = blockRowStart[br]; k < blockRowStart[br + 1]; k++) {
+                for (int c = 0; c < BLOCK; c++) {
+                    if (cells[k * CELLS + line + c] != null) {
+                        f.accept(blockCol[k] * BLOCK + c);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Storage<T> clearAll() {
+            final int br = row >>> SHIFT;
+            if (br < blockRows) {
+                final int line = (row & MASK) * BLOCK;
+                for (int k = blockRowStart[br]; k < blockRowStart[br + 1]; k++) {
+                    Arrays.fill(cells, k * CELLS + line, k * CELLS + line + BLOCK, null);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public int maxIdxOverapproximation() {
+            return maxCol + 1;
+        }
+
+        @Override
+        public int maxIdx() {
+            final int br = row >>> SHIFT;
+            if (br >= blockRows) {
+                return 0;
+            }
+            final int line = (row & MASK) * BLOCK;
+            for (int k = blockRowStart[br + 1] - 1; k >= blockRowStart[br]; k--) {
+                for (int c = BLOCK - 1; c >= 0; c--) {
+                    if (cells[k * CELLS + line + c] != null) {
+                        return blockCol[k] * BLOCK + c + 1;
+                    }
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public Storage<T> copy() {
+            return this;
+        }
+
+        @Override
+        public Storage<T> emptyCopy() {
+            return BSRStorage.this.emptyCopy().get(this.row);
+        }
+
+        @Override
+        public long bytesUsed() {
+            throw new UnsupportedOperationException(
+                    this.getClass().getSimpleName()+
+                            " does not manage its own memory; ask the "+BSRStorage.class.getSimpleName()+" instead!");
+        }
+    }
+
+    private class BlockColStorage implements Storage<T> {
+        private final int col;
+
+        BlockColStorage(final int col) {
+            this.col = col;
+        }
+
+        @Override
+        public T get(final int row) {
+            return BSRStorage.this.get(row, col);
+        }
+
+        @Override
+        public Storage<T> set(final int row, final T x) {
+            BSRStorage.this.set(row, col, x);
+            return this;
+        }
+
+        @Override
+        public void foreachNonNull(final IntConsumer f) {
+            final int bc = col >>> SHIFT;
+            for (int br = 0; br < blockRows; br++) {
+                final int k = findBlock(br, bc);
+                if (k >= 0) {
+                    for (int r = 0; r < BLOCK; r++) {
+                        if (cells[k * CELLS + r * BLOCK + (col & MASK)] != null) {
+                            f.accept(br * BLOCK + r);
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Storage<T> clearAll() {
+            final int bc = col >>> SHIFT;
+            for (int br = 0; br < blockRows; br++) {
+                final int k = findBlock(br, bc);
+                if (k >= 0) {
+                    for (int r = 0; r < BLOCK; r++) {
+                        cells[k * CELLS + r * BLOCK + (col & MASK)] = null;
+                    }
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public int maxIdxOverapproximation() {
+            return blockRows * BLOCK;
+        }
+
+        @Override
+        public int maxIdx() {
+            final int bc = col >>> SHIFT;
+            for (int br = blockRows - 1; br >= 0; br--) {
+                final int k = findBlock(br, bc);
+                if (k >= 0) {
+                    for (int r = BLOCK - 1; r >= 0; r--) {
+                        if (cells[k * CELLS + r * BLOCK + (col & MASK)] != null) {
+                            return br * BLOCK + r + 1;
+                        }
+                    }
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public Storage<T> emptyCopy() {
+            return new BSRStorage<T>().getCol(col);
+        }
+
+        @Override
+        public long bytesUsed() {
+            // a view: the nested storage owns the memory
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.Arrays;
+
+/**
+ * Helpers for {@link Storage#setAll} and {@link Storage#getAll}: a batch is
+ * sorted by index once, so the storages can visit it in index order and
+ * reuse what they found for one index for the next.
+ *
+ * A sorted batch is a {@code long[]} of entries, each packing an index into
+ * the high and its position in the batch into the low 32 bits. Sorting the
+ * entries sorts by index, and within an index by position.
+ */
+final class Batches {
+    private Batches() { }
+
+    static void checkSameLength(final int[] idx, final Object[] values) {
+        if (idx.length != values.length) {
+            throw new IllegalArgumentException("index and value arrays differ in length: "
+                    + idx.length + " and " + values.length);
+        }
+    }
+
+    /**
+     * @return the entries of the batch in index order. For an index that
+     * occurs more than once, only its last position is kept, so the last
+     * write wins as in a loop over the batch.
+     */
+    static long[] sortedLastWrites(final int[] idx) {
+        final long[] ret = sorted(idx);
+        int n = 0;
+        for (int i = 0; i < ret.length; i++) {
+            if (i + 1 == ret.length || index(ret[i + 1]) != index(ret[i])) {
+                ret[n++] = ret[i];
+            }
+        }
+        return n == ret.length ? ret : Arrays.copyOf(ret, n);
+    }
+
+    /**
+     * @return the entries of the batch in index order, duplicates included.
+     * A batch that already is in order is not sorted again.
+     */
+    static long[] sorted(final int[] idx) {
+        final long[] ret = new long[idx.length];
+        boolean ascending = true;
+        for (int i = 0; i < idx.length; i++) {
+            IndexCheck.checkIndexIsNonnegative(idx[i]);
+            ret[i] = (long) idx[i] << 32 | i;
+            ascending &= i == 0 || idx[i - 1] <= idx[i];
+        }
+        if (!ascending) {
+            Arrays.sort(ret);
+        }
+        return ret;
+    }
+
+    static int index(final long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    static int position(final long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * @return the indices of the sorted batch, in order.
+     */
+    static int[] indices(final long[] batch) {
+        final int[] ret = new int[batch.length];
+        for (int k = 0; k < batch.length; k++) {
+            ret[k] = index(batch[k]);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the values of the sorted batch, in the order of its indices.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T[] values(final long[] batch, final T[] values) {
+        final T[] ret = (T[]) new Object[batch.length];
+        for (int k = 0; k < batch.length; k++) {
+            ret[k] = values[position(batch[k])];
+        }
+        return ret;
+    }
+}
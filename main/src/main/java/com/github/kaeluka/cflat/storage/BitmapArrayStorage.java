@@ -0,0 +1,98 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
+
+/**
+ * The presence bitmap of {@link IntArrayStorage}, {@link LongArrayStorage}
+ * and {@link DoubleArrayStorage}, which keep their values in one array
+ * that grows as needed. Everything that only looks at which indices are
+ * present lives here; the subclasses read and write the values.
+ */
+abstract class BitmapArrayStorage {
+    final static int DEFAULT_SIZE = 10;
+    long[] present;
+    int maxIdx;
+
+    BitmapArrayStorage(final long[] present, final int maxIdx) {
+        this.present = present;
+        this.maxIdx = maxIdx;
+    }
+
+    /**
+     * @return the values, as an array of the element type.
+     */
+    abstract Object values();
+
+    /**
+     * @return the length of the values array.
+     */
+    abstract int capacity();
+
+    /**
+     * Copies the values into an array of {@code newSize}.
+     */
+    abstract void resize(int newSize);
+
+    public boolean has(final int i) {
+        checkIndexIsNonnegative(i);
+        return Bitmaps.get(present, i);
+    }
+
+    public boolean hasInRange(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return Bitmaps.anyInRange(present, start, end);
+    }
+
+    final void ensureSize(final int i) {
+        if (i >= capacity()) {
+            final int newSize = i + (i >> 1);
+            resize(newSize);
+            this.present = Arrays.copyOf(this.present, Bitmaps.wordsFor(newSize));
+        }
+    }
+
+    /**
+     * Moves the values and presence bits like {@link Storage#copyRange}.
+     */
+    final void copyValues(final int source, final int dest, final int length) {
+        IndexCheck.checkIndexIsNonnegative(source);
+        IndexCheck.checkIndexIsNonnegative(dest);
+        IndexCheck.checkLengthIsNonnegative(length);
+        if (length > 0) {
+            ensureSize(Math.max(source, dest) + length - 1);
+            final Object values = values();
+            System.arraycopy(values, source, values, dest, length);
+            Bitmaps.copyRange(present, source, present, dest, length);
+            maxIdx = dest + length - 1 > maxIdx ? dest + length - 1 : maxIdx;
+        }
+    }
+
+    public int maxIdxOverapproximation() {
+        return maxIdx+1;
+    }
+
+    public int maxIdx() {
+        return Bitmaps.prevSetBit(present, maxIdx) + 1;
+    }
+
+    public void foreachNonNull(final IntConsumer f) {
+        for (int i = Bitmaps.nextSetBit(present, 0); i >= 0; i = Bitmaps.nextSetBit(present, i + 1)) {
+            f.accept(i);
+        }
+    }
+
+    final int clip(final int end) {
+        return Math.min(end, capacity());
+    }
+
+    public int count(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? Bitmaps.count(present, start, _end) : 0;
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.kaeluka.cflat.storage;
+
+/**
+ * The parts of the bulk operations that don't depend on the element type.
+ * The chunked and trie primitive storages keep their values in blocks of
+ * {@code 1 << shift} indices, each with a presence bitmap, and a bulk
+ * operation visits the blocks that intersect its range with a {@link Walk}.
+ * The typed loops over one block are in {@link IntKernels},
+ * {@link LongKernels} and {@link DoubleKernels}.
+ */
+final class BitmapBlocks {
+    private BitmapBlocks() { }
+
+    /**
+     * A fixed-size run of values and its presence bitmap. The subclasses
+     * hold the values.
+     */
+    abstract static class Block {
+        final long[] present;
+
+        Block(final long[] present) {
+            this.present = present;
+        }
+
+        /**
+         * Clears the value at {@code i} and its presence bit.
+         */
+        abstract void remove(int i);
+
+        abstract Block copy();
+    }
+
+    /**
+     * A storage made of blocks of {@code 1 << blockShift()} indices each,
+     * numbered from 0.
+     */
+    interface Blocks<B extends Block> {
+        int blockShift();
+
+        /**
+         * @return the first allocated block at or after block {@code b}, or
+         * -1 if there is none.
+         */
+        int nextBlock(int b);
+
+        B block(int b);
+    }
+
+    /**
+     * Visits the allocated blocks that intersect {@code [start, end)}, in
+     * order. Once {@link #next()} returned true, {@link #block} starts at
+     * index {@link #base}, and {@code [from, to)} is the range clipped to
+     * the block, relative to {@link #base}.
+     */
+    static final class Walk<B extends Block> {
+        private final Blocks<B> s;
+        private final int start;
+        private final int end;
+        private final int shift;
+        // the last block to visit, or -1 once there are no more
+        private int last;
+        private int b = -1;
+
+        B block;
+        int base;
+        int from;
+        int to;
+
+        Walk(final Blocks<B> s, final int start, final int end) {
+            this.s = s;
+            this.start = start;
+            this.end = end;
+            this.shift = s.blockShift();
+            this.last = start < end ? (end - 1) >>> shift : -1;
+        }
+
+        boolean next() {
+            if (last < 0) {
+                return false;
+            }
+            b = s.nextBlock(b < 0 ? start >>> shift : b + 1);
+            if (b < 0 || b > last) {
+                last = -1;
+                return false;
+            }
+            block = s.block(b);
+            base = b << shift;
+            from = Math.max(start - base, 0);
+            to = (int) Math.min((long) end - base, 1 << shift);
+            return true;
+        }
+    }
+
+    static <B extends Block> int count(final Blocks<B> s, final int start, final int end) {
+        int ret = 0;
+        for (final Walk<B> w = new Walk<>(s, start, end); w.next(); ) {
+            ret += Bitmaps.count(w.block.present, w.from, w.to);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,210 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.BitmapBlocks.Block;
+import com.github.kaeluka.cflat.storage.BitmapBlocks.Blocks;
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
+
+/**
+ * The chunk directory of {@link IntChunkedStorage},
+ * {@link LongChunkedStorage} and {@link DoubleChunkedStorage}: indices are
+ * grouped into chunks of {@link #CHUNK_SIZE}, and a chunk is only allocated
+ * once one of its indices is set. Everything that only looks at which
+ * indices are present lives here; the subclasses read and write the values.
+ */
+abstract class BitmapChunkedStorage<B extends Block> {
+    final static int CHUNK_SIZE = 128;
+    final static int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_SIZE);
+    private final static int DEFAULT_CHUNKS_SIZE = 8;
+    private Block[] chunks;
+    int maxIdx;
+    // the number of allocated chunks, for bytesUsed
+    private int chunkCount;
+
+    BitmapChunkedStorage() {
+        this(new Block[DEFAULT_CHUNKS_SIZE], -1, 0);
+    }
+
+    BitmapChunkedStorage(final Block[] chunks, final int maxIdx, final int chunkCount) {
+        this.chunks = chunks;
+        this.maxIdx = maxIdx;
+        this.chunkCount = chunkCount;
+    }
+
+    /**
+     * @return an empty chunk of {@link #CHUNK_SIZE} values.
+     */
+    abstract B newChunk();
+
+    /**
+     * @return the size of one chunk, with its values and bitmap.
+     */
+    abstract long chunkBytes();
+
+    static int idxOfChunk(final int i) {
+        return i >> CHUNK_SHIFT;
+    }
+
+    static int idxWithinChunk(final int i) {
+        // since CHUNK_SIZE is a power of two, we can speed the
+        // modulo operation up!
+        return i & (CHUNK_SIZE - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    final B getChunk(final int i) {
+        final int chunk_no = idxOfChunk(i);
+        if (chunk_no >= chunks.length) {
+            return null;
+        } else {
+            return (B) chunks[chunk_no];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    final B getEnsureChunk(final int i) {
+        final int chunk_no = idxOfChunk(i);
+        if (chunk_no >= chunks.length) {
+            //next power of two
+            final int newLength = 1 << (32 - Integer.numberOfLeadingZeros(chunk_no));
+            chunks = Arrays.copyOf(chunks, newLength);
+        }
+        Block chunk = chunks[chunk_no];
+        if (chunk == null) {
+            chunk = chunks[chunk_no] = newChunk();
+            chunkCount++;
+        }
+        return (B) chunk;
+    }
+
+    public boolean has(final int i) {
+        checkIndexIsNonnegative(i);
+        final Block chunk = getChunk(i);
+        return chunk != null && Bitmaps.get(chunk.present, idxWithinChunk(i));
+    }
+
+    final void removeAt(final int i) {
+        checkIndexIsNonnegative(i);
+        final Block chunk = getChunk(i);
+        if (chunk != null) {
+            chunk.remove(idxWithinChunk(i));
+        }
+    }
+
+    final void clearChunks() {
+        this.chunks = new Block[chunks.length];
+        this.maxIdx = -1;
+        this.chunkCount = 0;
+    }
+
+    public int maxIdxOverapproximation() {
+        return maxIdx+1;
+    }
+
+    public int maxIdx() {
+        if (maxIdx < 0) {
+            return 0;
+        }
+        for (int c = Math.min(idxOfChunk(maxIdx), chunks.length - 1); c >= 0; c--) {
+            final Block chunk = chunks[c];
+            if (chunk != null) {
+                final int last = Bitmaps.prevSetBit(chunk.present, CHUNK_SIZE - 1);
+                if (last >= 0) {
+                    return (c << CHUNK_SHIFT) + last + 1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    public void foreachNonNull(final IntConsumer f) {
+        for (int c = 0; c < chunks.length; c++) {
+            final Block chunk = chunks[c];
+            if (chunk != null) {
+                final long[] present = chunk.present;
+                for (int i = Bitmaps.nextSetBit(present, 0); i >= 0; i = Bitmaps.nextSetBit(present, i + 1)) {
+                    f.accept((c << CHUNK_SHIFT) + i);
+                }
+            }
+        }
+    }
+
+    public Spliterator.OfInt indexSpliterator() {
+        final BlockIndexSpliterator.Builder<long[]> blocks = new BlockIndexSpliterator.Builder<>();
+        for (int c = 0; c < chunks.length; c++) {
+            final Block chunk = chunks[c];
+            if (chunk != null) {
+                blocks.add(c, chunk.present, Bitmaps.cardinality(chunk.present));
+            }
+        }
+        return blocks.build(CHUNK_SHIFT, Bitmaps::nextSetBit);
+    }
+
+    /**
+     * The chunks, as the bulk operations see them.
+     */
+    final Blocks<B> blocks() {
+        return new ChunkBlocks();
+    }
+
+    private final class ChunkBlocks implements Blocks<B> {
+        @Override
+        public int blockShift() {
+            return CHUNK_SHIFT;
+        }
+
+        @Override
+        public int nextBlock(final int b) {
+            for (int c = b; c < chunks.length; c++) {
+                if (chunks[c] != null) {
+                    return c;
+                }
+            }
+            return -1;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public B block(final int b) {
+            return (B) chunks[b];
+        }
+    }
+
+    public int count(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return BitmapBlocks.count(blocks(), start, end);
+    }
+
+    /**
+     * @return a deep copy of the chunks, for the constructor of a copy.
+     */
+    final Block[] copyChunks() {
+        final Block[] newChunks = new Block[chunks.length];
+        for (int c = 0; c < chunks.length; c++) {
+            if (chunks[c] != null) {
+                newChunks[c] = chunks[c].copy();
+            }
+        }
+        return newChunks;
+    }
+
+    final int chunksLength() {
+        return chunks.length;
+    }
+
+    final int chunkCount() {
+        return chunkCount;
+    }
+
+    public long bytesUsed() {
+        return ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.INT + ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAY_SIZE(this.chunks)
+                + chunkCount * chunkBytes();
+    }
+}
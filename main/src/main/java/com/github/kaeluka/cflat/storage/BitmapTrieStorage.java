@@ -0,0 +1,262 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.BitmapBlocks.Block;
+import com.github.kaeluka.cflat.storage.BitmapBlocks.Blocks;
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
+
+/**
+ * The trie of {@link IntTrieStorage}, {@link LongTrieStorage} and
+ * {@link DoubleTrieStorage}: an index is split into four bytes, the first
+ * three lead through two levels of inner nodes to a leaf that holds the
+ * values of 0x100 consecutive indices. Everything that only looks at which
+ * indices are present lives here; the subclasses read and write the values.
+ */
+abstract class BitmapTrieStorage<B extends Block> {
+    private final static long NODE_BYTES = ObjectSizes.ARRAY_SIZE_OF_REFERENCES(0x100);
+    private Block[][][] data = new Block[0x80][][];
+    int maxIdx = -1;
+    // the number of allocated inner nodes and leaves, for bytesUsed
+    private int nodes = 0;
+    private int leaves = 0;
+
+    /**
+     * @return an empty leaf of 0x100 values.
+     */
+    abstract B newLeaf();
+
+    /**
+     * @return the size of one leaf, with its values and bitmap.
+     */
+    abstract long leafBytes();
+
+    static int getCoord1(final int idx) {
+        return idx >> 24 & 0x7F; // 0x7f because we nullify the sign bit
+    }
+
+    static int getCoord2(final int idx) {
+        return idx >> 16 & 0xFF;
+    }
+
+    static int getCoord3(final int idx) {
+        return idx >> 8 & 0xFF;
+    }
+
+    static int getCoord4(final int idx) {
+        return idx & 0xFF;
+    }
+
+    @SuppressWarnings("unchecked")
+    final B getLeaf(final int idx) {
+        final Block[][] d1;
+        if ((d1 = data[getCoord1(idx)]) == null) {
+            return null;
+        }
+        final Block[] d2;
+        if ((d2 = d1[getCoord2(idx)]) == null) {
+            return null;
+        }
+        return (B) d2[getCoord3(idx)];
+    }
+
+    @SuppressWarnings("unchecked")
+    final B getEnsureLeaf(final int idx) {
+        Block[][] d1;
+        if ((d1 = data[getCoord1(idx)]) == null) {
+            d1 = data[getCoord1(idx)] = new Block[0x100][];
+            nodes++;
+        }
+        Block[] d2;
+        if ((d2 = d1[getCoord2(idx)]) == null) {
+            d2 = d1[getCoord2(idx)] = new Block[0x100];
+            nodes++;
+        }
+        Block leaf;
+        if ((leaf = d2[getCoord3(idx)]) == null) {
+            leaf = d2[getCoord3(idx)] = newLeaf();
+            leaves++;
+        }
+        return (B) leaf;
+    }
+
+    public boolean has(final int idx) {
+        checkIndexIsNonnegative(idx);
+        final Block leaf = getLeaf(idx);
+        return leaf != null && Bitmaps.get(leaf.present, getCoord4(idx));
+    }
+
+    final void removeAt(final int idx) {
+        checkIndexIsNonnegative(idx);
+        final Block leaf = getLeaf(idx);
+        if (leaf != null) {
+            leaf.remove(getCoord4(idx));
+        }
+    }
+
+    public void foreachNonNull(final IntConsumer f) {
+        for (int c1 = 0; c1 < data.length; c1++) {
+            final Block[][] d1 = data[c1];
+            if (d1 != null) {
+                for (int c2 = 0; c2 < d1.length; c2++) {
+                    final Block[] d2 = d1[c2];
+                    if (d2 != null) {
+                        for (int c3 = 0; c3 < d2.length; c3++) {
+                            final Block leaf = d2[c3];
+                            if (leaf != null) {
+                                final int base = c1 << 24 | c2 << 16 | c3 << 8;
+                                final long[] present = leaf.present;
+                                for (int c4 = Bitmaps.nextSetBit(present, 0); c4 >= 0; c4 = Bitmaps.nextSetBit(present, c4 + 1)) {
+                                    f.accept(base | c4);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits at leaf boundaries, each leaf covering 0x100 consecutive
+     * indices.
+     */
+    public Spliterator.OfInt indexSpliterator() {
+        final BlockIndexSpliterator.Builder<long[]> leaves = new BlockIndexSpliterator.Builder<>();
+        for (int c1 = 0; c1 < data.length; c1++) {
+            final Block[][] d1 = data[c1];
+            if (d1 != null) {
+                for (int c2 = 0; c2 < d1.length; c2++) {
+                    final Block[] d2 = d1[c2];
+                    if (d2 != null) {
+                        for (int c3 = 0; c3 < d2.length; c3++) {
+                            final Block leaf = d2[c3];
+                            if (leaf != null) {
+                                leaves.add(c1 << 16 | c2 << 8 | c3, leaf.present, Bitmaps.cardinality(leaf.present));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return leaves.build(8, Bitmaps::nextSetBit);
+    }
+
+    public int maxIdx() {
+        for (int c1 = data.length - 1; c1 >= 0; c1--) {
+            final Block[][] d1 = data[c1];
+            if (d1 != null) {
+                for (int c2 = d1.length - 1; c2 >= 0; c2--) {
+                    final Block[] d2 = d1[c2];
+                    if (d2 != null) {
+                        for (int c3 = d2.length - 1; c3 >= 0; c3--) {
+                            final Block leaf = d2[c3];
+                            if (leaf != null) {
+                                final int c4 = Bitmaps.prevSetBit(leaf.present, 0xFF);
+                                if (c4 >= 0) {
+                                    return (c1 << 24 | c2 << 16 | c3 << 8 | c4) + 1;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    final void clearLeaves() {
+        Arrays.fill(data, null);
+        maxIdx = -1;
+        nodes = 0;
+        leaves = 0;
+    }
+
+    public int maxIdxOverapproximation() {
+        return maxIdx+1;
+    }
+
+    /**
+     * The leaves, as the bulk operations see them: block {@code b} is the
+     * leaf of index {@code b << 8}.
+     */
+    final Blocks<B> blocks() {
+        return new LeafBlocks();
+    }
+
+    private final class LeafBlocks implements Blocks<B> {
+        @Override
+        public int blockShift() {
+            return 8;
+        }
+
+        @Override
+        public int nextBlock(int b) {
+            while (b >= 0 && b >>> 16 < data.length) {
+                final Block[][] d1 = data[b >>> 16];
+                if (d1 == null) {
+                    b = ((b >>> 16) + 1) << 16;
+                    continue;
+                }
+                final Block[] d2 = d1[b >>> 8 & 0xFF];
+                if (d2 == null) {
+                    b = ((b >>> 8) + 1) << 8;
+                    continue;
+                }
+                if (d2[b & 0xFF] != null) {
+                    return b;
+                }
+                b++;
+            }
+            return -1;
+        }
+
+        @Override
+        public B block(final int b) {
+            return getLeaf(b << 8);
+        }
+    }
+
+    public int count(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return BitmapBlocks.count(blocks(), start, end);
+    }
+
+    /**
+     * Makes {@code ret}, which must be empty, a deep copy of this trie.
+     */
+    final void copyInto(final BitmapTrieStorage<B> ret) {
+        for (int c1 = 0; c1 < data.length; c1++) {
+            final Block[][] d1 = data[c1];
+            if (d1 != null) {
+                final Block[][] newD1 = ret.data[c1] = new Block[0x100][];
+                for (int c2 = 0; c2 < d1.length; c2++) {
+                    final Block[] d2 = d1[c2];
+                    if (d2 != null) {
+                        final Block[] newD2 = newD1[c2] = new Block[0x100];
+                        for (int c3 = 0; c3 < d2.length; c3++) {
+                            if (d2[c3] != null) {
+                                newD2[c3] = d2[c3].copy();
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        ret.maxIdx = this.maxIdx;
+        ret.nodes = this.nodes;
+        ret.leaves = this.leaves;
+    }
+
+    public long bytesUsed() {
+        return ObjectSizes.OBJECT_SIZE(3 * ObjectSizes.INT + ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAY_SIZE(data)
+                + nodes * NODE_BYTES
+                + leaves * leafBytes();
+    }
+}
@@ -0,0 +1,212 @@
+package com.github.kaeluka.cflat.storage;
+
+/**
+ * Static helpers for presence bitmaps stored as {@code long[]} words. Bit
+ * {@code i} lives in word {@code i >>> 6}. Reads beyond the end of the
+ * array see unset bits.
+ */
+final class Bitmaps {
+    private Bitmaps() { }
+
+    static long[] forSize(final int n) {
+        return new long[wordsFor(n)];
+    }
+
+    static int wordsFor(final int n) {
+        return (n + 63) >>> 6;
+    }
+
+    static boolean get(final long[] bits, final int i) {
+        final int w = i >>> 6;
+        return w < bits.length && (bits[w] & (1L << i)) != 0;
+    }
+
+    static void set(final long[] bits, final int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    static void clear(final long[] bits, final int i) {
+        final int w = i >>> 6;
+        if (w < bits.length) {
+            bits[w] &= ~(1L << i);
+        }
+    }
+
+    /**
+     * Sets or clears the bits in {@code [from, to)}.
+     */
+    static void setRange(final long[] bits, final int from, final int to, final boolean value) {
+        if (from >= to) {
+            return;
+        }
+        final int firstWord = from >>> 6;
+        final int lastWord = (to - 1) >>> 6;
+        final long firstMask = -1L << from;
+        final long lastMask = -1L >>> -to;
+        if (firstWord == lastWord) {
+            setMasked(bits, firstWord, firstMask & lastMask, value);
+        } else {
+            setMasked(bits, firstWord, firstMask, value);
+            for (int w = firstWord + 1; w < lastWord; w++) {
+                bits[w] = value ? -1L : 0L;
+            }
+            setMasked(bits, lastWord, lastMask, value);
+        }
+    }
+
+    private static void setMasked(final long[] bits, final int w, final long mask, final boolean value) {
+        if (value) {
+            bits[w] |= mask;
+        } else {
+            bits[w] &= ~mask;
+        }
+    }
+
+    /**
+     * @return the first set bit at or after {@code from}, or -1 if there is
+     * none.
+     */
+    static int nextSetBit(final long[] bits, final int from) {
+        int w = from >>> 6;
+        if (w >= bits.length) {
+            return -1;
+        }
+        long word = bits[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == bits.length) {
+                return -1;
+            }
+            word = bits[w];
+        }
+    }
+
+    /**
+     * @return the last set bit at or before {@code from}, or -1 if there is
+     * none.
+     */
+    static int prevSetBit(final long[] bits, final int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long word;
+        if (w >= bits.length) {
+            w = bits.length - 1;
+            word = w < 0 ? 0 : bits[w];
+        } else {
+            word = bits[w] & (-1L >>> -(from + 1));
+        }
+        while (w >= 0) {
+            if (word != 0) {
+                return (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+            }
+            if (--w < 0) {
+                break;
+            }
+            word = bits[w];
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether any bit in {@code [from, to)} is set.
+     */
+    static boolean anyInRange(final long[] bits, final int from, final int to) {
+        if (from >= to) {
+            return false;
+        }
+        final int next = nextSetBit(bits, from);
+        return next >= 0 && next < to;
+    }
+
+    static int cardinality(final long[] bits) {
+        int ret = 0;
+        for (final long word : bits) {
+            ret += Long.bitCount(word);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the bits of word {@code w} that lie in {@code [from, to)}.
+     */
+    static long mask(final int w, final int from, final int to) {
+        long ret = -1L;
+        if (w == from >>> 6) {
+            ret &= -1L << from;
+        }
+        if (w == (to - 1) >>> 6) {
+            ret &= -1L >>> -to;
+        }
+        return ret;
+    }
+
+    /**
+     * @return the number of set bits in {@code [from, to)}, where
+     * {@code from < to} and {@code to} is within the array.
+     */
+    static int count(final long[] bits, final int from, final int to) {
+        int ret = 0;
+        final int lastWord = (to - 1) >>> 6;
+        for (int w = from >>> 6; w <= lastWord; w++) {
+            ret += Long.bitCount(bits[w] & mask(w, from, to));
+        }
+        return ret;
+    }
+
+    /**
+     * Copies {@code length} bits like {@link System#arraycopy}: overlapping
+     * ranges in the same array are handled correctly. Works a destination
+     * word at a time; source bits beyond the end of the array read as unset.
+     */
+    static void copyRange(final long[] src, final int srcPos,
+                          final long[] dst, final int dstPos,
+                          final int length) {
+        if (src == dst && srcPos < dstPos) {
+            // back to front, so no source bit is overwritten before it is read
+            int left = length;
+            while (left > 0) {
+                final int end = dstPos + left;
+                final int d = Math.max(dstPos, (end - 1) & ~63);
+                final int n = end - d;
+                left -= n;
+                copyPiece(src, srcPos + left, dst, d, n);
+            }
+        } else {
+            int done = 0;
+            while (done < length) {
+                final int d = dstPos + done;
+                final int n = Math.min(64 - (d & 63), length - done);
+                copyPiece(src, srcPos + done, dst, d, n);
+                done += n;
+            }
+        }
+    }
+
+    /**
+     * Copies {@code n} bits to {@code [d, d + n)}, which lies within one
+     * word.
+     */
+    private static void copyPiece(final long[] src, final int s, final long[] dst, final int d, final int n) {
+        final int shift = d & 63;
+        final long mask = (n == 64 ? -1L : (1L << n) - 1) << shift;
+        final int w = d >>> 6;
+        dst[w] = (dst[w] & ~mask) | ((wordAt(src, s) << shift) & mask);
+    }
+
+    /**
+     * @return the 64 bits starting at bit {@code pos}.
+     */
+    private static long wordAt(final long[] bits, final int pos) {
+        final int w = pos >>> 6;
+        final int shift = pos & 63;
+        final long lo = w < bits.length ? bits[w] >>> shift : 0L;
+        if (shift == 0 || w + 1 >= bits.length) {
+            return lo;
+        }
+        return lo | bits[w + 1] << -shift;
+    }
+}
@@ -0,0 +1,162 @@
+package com.github.kaeluka.cflat.storage;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+/**
+ * An exactly sized spliterator over the non-null indices of a storage that
+ * groups its indices into blocks of {@code 1 << shift} (chunks, trie
+ * leaves). Only non-empty blocks are visited, and splits fall on block
+ * boundaries, chosen so both halves hold about the same number of indices.
+ *
+ * The storage must not be modified while the spliterator is in use.
+ *
+ * @param <B> the type of the blocks
+ */
+final class BlockIndexSpliterator<B> implements Spliterator.OfInt {
+    interface BlockScan<B> {
+        /**
+         * @return the first present offset at or after {@code from} in
+         * {@code block}, or -1. {@code from} may be the block size.
+         */
+        int nextPresent(B block, int from);
+    }
+
+    static final class Builder<B> {
+        private final TIntArrayList ids = new TIntArrayList();
+        private final ArrayList<B> blocks = new ArrayList<>();
+        private final TIntArrayList prefix = new TIntArrayList();
+        private int total = 0;
+
+        Builder() {
+            prefix.add(0);
+        }
+
+        /**
+         * Blocks must be added in ascending order of their ids.
+         */
+        void add(final int id, final B block, final int count) {
+            if (count > 0) {
+                ids.add(id);
+                blocks.add(block);
+                total += count;
+                prefix.add(total);
+            }
+        }
+
+        BlockIndexSpliterator<B> build(final int shift, final BlockScan<B> scan) {
+            return new BlockIndexSpliterator<>(
+                    shift, scan,
+                    ids.toArray(), blocks.toArray(), prefix.toArray(),
+                    0, ids.size(), 0, total);
+        }
+    }
+
+    private final int shift;
+    private final BlockScan<B> scan;
+    private final int[] ids;
+    private final Object[] blocks;
+    // prefix[k] is the number of indices in the blocks before position k
+    private final int[] prefix;
+    private int pos;
+    private final int end;
+    private int offset;
+    private long remaining;
+
+    private BlockIndexSpliterator(final int shift, final BlockScan<B> scan,
+                                  final int[] ids, final Object[] blocks, final int[] prefix,
+                                  final int pos, final int end, final int offset, final long remaining) {
+        this.shift = shift;
+        this.scan = scan;
+        this.ids = ids;
+        this.blocks = blocks;
+        this.prefix = prefix;
+        this.pos = pos;
+        this.end = end;
+        this.offset = offset;
+        this.remaining = remaining;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean tryAdvance(final IntConsumer action) {
+        while (pos < end) {
+            final int o = scan.nextPresent((B) blocks[pos], offset);
+            if (o >= 0) {
+                offset = o + 1;
+                remaining--;
+                action.accept((ids[pos] << shift) + o);
+                return true;
+            }
+            pos++;
+            offset = 0;
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void forEachRemaining(final IntConsumer action) {
+        for (; pos < end; pos++) {
+            final B block = (B) blocks[pos];
+            final int base = ids[pos] << shift;
+            for (int o = scan.nextPresent(block, offset); o >= 0; o = scan.nextPresent(block, o + 1)) {
+                action.accept(base + o);
+            }
+            offset = 0;
+        }
+        remaining = 0;
+    }
+
+    /**
+     * Hands off the blocks before a split position, including the partly
+     * consumed current block, so that the order of indices is kept.
+     */
+    @Override
+    public OfInt trySplit() {
+        if (end - pos < 2) {
+            return null;
+        }
+        // keep about half of the remaining indices:
+        final long target = prefix[end] - remaining / 2;
+        int lo = pos + 1;
+        int hi = end - 1;
+        while (lo < hi) {
+            final int m = (lo + hi) >>> 1;
+            if (prefix[m] < target) {
+                lo = m + 1;
+            } else {
+                hi = m;
+            }
+        }
+        final int mid = lo;
+        final long kept = prefix[end] - prefix[mid];
+        final BlockIndexSpliterator<B> ret = new BlockIndexSpliterator<>(
+                shift, scan, ids, blocks, prefix,
+                pos, mid, offset, remaining - kept);
+        this.pos = mid;
+        this.offset = 0;
+        this.remaining = kept;
+        return ret;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Math.max(remaining, 0);
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | SORTED | NONNULL | SIZED | SUBSIZED;
+    }
+
+    @Override
+    public Comparator<? super Integer> getComparator() {
+        // natural order
+        return null;
+    }
+}
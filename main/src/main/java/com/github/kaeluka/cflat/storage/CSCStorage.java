@@ -0,0 +1,275 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed sparse column matrix. It keeps the transpose of the matrix
+ * in a {@link CSRStorage}, so that columns are as cheap to scan as the rows
+ * of a CSR matrix. Rows are views that look each cell up in its column.
+ */
+final class CSCStorage<T> implements NestedStorage<T> {
+    private final CSRStorage<T> columns;
+    private int maxIdx = -1;
+    private SparseColumnsRowStorage lastRow;
+
+    CSCStorage() {
+        this.columns = new CSRStorage<>();
+    }
+
+    private CSCStorage(final CSRStorage<T> columns, final int maxIdx) {
+        this.columns = columns;
+        this.maxIdx = maxIdx;
+    }
+
+    @Override
+    public Storage<T> get(final int row) {
+        IndexCheck.checkIndexIsNonnegative(row);
+        maxIdx = row > maxIdx ? row : maxIdx;
+        final SparseColumnsRowStorage last = this.lastRow;
+        if (last != null && last.row == row) {
+            return last;
+        }
+        return this.lastRow = new SparseColumnsRowStorage(row);
+    }
+
+    @Override
+    public T get(final int row, final int col) {
+        IndexCheck.checkIndexIsNonnegative(row);
+        return columns.matrixGet(col, row);
+    }
+
+    @Override
+    public NestedStorage<T> set(final int row, final int col, final T x) {
+        IndexCheck.checkIndexIsNonnegative(row);
+        maxIdx = row > maxIdx ? row : maxIdx;
+        columns.matrixSet(col, row, x);
+        return this;
+    }
+
+    /**
+     * Walks the cells column by column.
+     */
+    @Override
+    public void foreachCell(final CellConsumer<? super T> f) {
+        columns.foreachCell((col, row, x) -> f.accept(row, col, x));
+    }
+
+    @Override
+    public boolean has(final int row) {
+        final int cols = columns.rowCount();
+        for (int col = 0; col < cols; col++) {
+            if (columns.matrixGet(col, row) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean hasCol(final int col) {
+        IndexCheck.checkIndexIsNonnegative(col);
+        if (col >= columns.rowCount()) {
+            return false;
+        }
+        // cleared cells stay in the column as nulls
+        final int[] starts = columns.rowStarts();
+        final Object[] vals = columns.values();
+        for (int i = starts[col]; i < starts[col + 1]; i++) {
+            if (vals[i] != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Storage<T> getCol(final int col) {
+        return new SparseColumnStorage(col);
+    }
+
+    @Override
+    public void foreachColNonNull(final IntConsumer f) {
+        columns.foreachNonEmptyRow(f);
+    }
+
+    @Override
+    public int maxColIdxOverapproximation() {
+        return columns.rowCount();
+    }
+
+    @Override
+    public Storage<Storage<T>> set(final int i, final Storage<T> x) {
+        throw new UnsupportedOperationException("set not supported");
+    }
+
+    @Override
+    public Storage<Storage<T>> clearAll() {
+        columns.clearAll();
+        maxIdx = -1;
+        return this;
+    }
+
+    @Override
+    public int maxIdxOverapproximation() {
+        return maxIdx();
+    }
+
+    @Override
+    public int maxIdx() {
+        return maxIdx + 1;
+    }
+
+    @Override
+    public void compact() {
+        columns.compact();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Storage<Storage<T>> copy() {
+        return new CSCStorage<>((CSRStorage<T>) columns.copy(), maxIdx);
+    }
+
+    @Override
+    public Storage<Storage<T>> emptyCopy() {
+        return new CSCStorage<>();
+    }
+
+    @Override
+    public long bytesUsed() {
+        return ObjectSizes.OBJECT_SIZE(ObjectSizes.INT + ObjectSizes.REFERENCE)
+                + columns.bytesUsed();
+    }
+
+    @Override
+    public String toString() {
+        return "CSCStorage of the transpose " + columns;
+    }
+
+    private class SparseColumnsRowStorage implements Storage<T> {
+        private final int row;
+
+        SparseColumnsRowStorage(final int row) {
+            this.row = row;
+        }
+
+        @Override
+        public T get(final int col) {
+            return columns.matrixGet(col, row);
+        }
+
+        @Override
+        public Storage<T> set(final int col, final T x) {
+            columns.matrixSet(col, row, x);
+            return this;
+        }
+
+        @Override
+        public Storage<T> clearAll() {
+            // find the cells first: reads merge pending writes
+            final TIntArrayList present = new TIntArrayList();
+            columns.foreachNonEmptyRow(col -> {
+                if (columns.matrixGet(col, row) != null) {
+                    present.add(col);
+                }
+            });
+            present.forEach(col -> {
+                columns.matrixSet(col, row, null);
+                return true;
+            });
+            return this;
+        }
+
+        @Override
+        public int maxIdxOverapproximation() {
+            return columns.rowCount();
+        }
+
+        @Override
+        public int maxIdx() {
+            for (int col = columns.rowCount() - 1; col >= 0; col--) {
+                if (columns.matrixGet(col, row) != null) {
+                    return col + 1;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public Storage<T> copy() {
+            return this;
+        }
+
+        @Override
+        public Storage<T> emptyCopy() {
+            return CSCStorage.this.emptyCopy().get(this.row);
+        }
+
+        @Override
+        public long bytesUsed() {
+            throw new UnsupportedOperationException(
+                    this.getClass().getSimpleName()+
+                            " does not manage its own memory; ask the "+CSCStorage.class.getSimpleName()+" instead!");
+        }
+    }
+
+    /**
+     * A column: the row of the transpose, except that writes count the rows
+     * they touch towards {@link #maxIdx()}.
+     */
+    private class SparseColumnStorage implements Storage<T> {
+        private final int col;
+
+        SparseColumnStorage(final int col) {
+            this.col = col;
+        }
+
+        @Override
+        public T get(final int row) {
+            return columns.matrixGet(col, row);
+        }
+
+        @Override
+        public Storage<T> set(final int row, final T x) {
+            CSCStorage.this.set(row, col, x);
+            return this;
+        }
+
+        @Override
+        public Storage<T> clearAll() {
+            columns.row(col).clearAll();
+            return this;
+        }
+
+        @Override
+        public int maxIdxOverapproximation() {
+            return maxIdx();
+        }
+
+        @Override
+        public int maxIdx() {
+            return columns.row(col).maxIdx();
+        }
+
+        @Override
+        public Storage<T> copy() {
+            return this;
+        }
+
+        @Override
+        public Storage<T> emptyCopy() {
+            return new CSCStorage<T>().getCol(this.col);
+        }
+
+        @Override
+        public long bytesUsed() {
+            throw new UnsupportedOperationException(
+                    this.getClass().getSimpleName()+
+                            " does not manage its own memory; ask the "+CSCStorage.class.getSimpleName()+" instead!");
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed sparse row matrix: the column indices and values of all rows
+ * in two flat arrays, with an array of offsets marking where each row starts.
+ * This is the layout {@link SparseStorage} picks when size matters most.
+ */
+final class CSRStorage<T> implements NestedStorage<T> {
+    private static final class IntList extends TIntArrayList {
+        int[] borrowArray() {
+            return this._data;
+        }
+
+        void setSize(final int size) {
+            this._pos = size;
+        }
+    }
+    private static final class ObjList {
+        private Object[] data;
+        int size;
+
+        private ObjList(Object[] data, int size) {
+            this.data = data;
+            this.size = size;
+        }
+
+        ObjList(int sizeHint) {
+            data = new Object[Math.max(sizeHint,10)];
+            size = 0;
+        }
+
+        Object get(int i) {
+            if (i >= size) {
+                throw new ArrayIndexOutOfBoundsException("idx="+i+", stepSize="+size);
+            }
+            return data[i];
+        }
+
+        void add(Object v) {
+            ensureCapacity(size+1);
+            data[size++] = v;
+        }
+
+        void set(int i, Object v) {
+            assert(i < data.length);
+
+            data[i] = v;
+        }
+
+        void add(int i, Object v) {
+            ensureCapacity(size+1);
+            System.arraycopy(data, i, data, i+1, size() - i);
+            data[i] = v;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int capacity() {
+            return data.length;
+        }
+
+        void ensureCapacity(int cap) {
+            if (data.length < cap) {
+                int newCapacity = Math.max(cap, data.length + (data.length >> 1));
+                data = Arrays.copyOf(data, newCapacity);
+            }
+        }
+
+        void clear() {
+            Arrays.fill(data, 0, size, null);
+            size = 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder ret = new StringBuilder("[");
+            for (int i=0; i<size-1; ++i) {
+                ret.append(get(i)).append(", ");
+            }
+
+            if (size > 0) {
+                ret.append(data[size - 1]);
+            }
+            ret.append("] ");
+
+            return ret.toString();
+        }
+
+        ObjList copy() {
+            return new ObjList(Arrays.copyOf(this.data, this.data.length), size);
+        }
+    }
+
+    /**
+     * Pending writes are merged once there are at least this many, or as
+     * many as stored entries, whichever is more.
+     */
+    private static final int MIN_PENDING = 1024;
+
+    private ObjList data;
+    private IntList rowstart;
+    private IntList columnIndex;
+    // writes not yet merged into the rows above, as (row, col, value)
+    // triples in the order they were made:
+    private IntList pendingRows;
+    private IntList pendingCols;
+    private ObjList pendingData;
+    int maxIdx;
+    int maxCol = 0;
+    // rows are views that hold nothing but their index, so one can be reused
+    private SparseRowStorage lastRow;
+
+    private void init() {
+        data = new ObjList(10);
+        rowstart = new IntList();
+        rowstart.add(0);
+        columnIndex = new IntList();
+        initPending();
+        this.maxIdx = -1;
+    }
+
+    private void initPending() {
+        pendingRows = new IntList();
+        pendingCols = new IntList();
+        pendingData = new ObjList(10);
+    }
+
+    private CSRStorage(final IntList rowstart, final IntList columnIndex, final ObjList data,
+                       final int maxIdx, final int maxCol) {
+        this.rowstart = rowstart;
+        this.columnIndex = columnIndex;
+        this.data = data;
+        initPending();
+        this.maxIdx = maxIdx;
+        this.maxCol = maxCol;
+    }
+
+    public CSRStorage() {
+        init();
+    }
+
+    @SuppressWarnings("unchecked")
+    T matrixGet(int row, int col) {
+        compact();
+        if (row+1 >= rowstart.size()) {
+            return null;
+        }
+        int r = getRowOrderIndex(row, col);
+        if (r >= 0 && r < this.data.size) {
+            return (T) data.get(r);
+        } else {
+            return null;
+        }
+//        int rowStart = rowstart.get(row);
+//        int rowEnd = rowstart.get(row+1);
+//        for (int i=rowStart; i<rowEnd; ++i) {
+//            if (columnIndex.get(i) == col) {
+//                return (T) data.get(i);
+//            }
+//        }
+    }
+
+    private int matrixSize() {
+        return data.size();
+    }
+
+    private void ensureSize(int row, int col) {
+        if (rowstart.size() < row+2) {
+            rowstart.ensureCapacity((row+2));
+            final Integer sz = rowstart.get(rowstart.size() - 1);
+            while (rowstart.size() < row+1) {
+                rowstart.add(sz);
+            }
+            rowstart.add(this.matrixSize());
+        }
+    }
+
+    @Override
+    public int maxIdxOverapproximation() {
+        return maxIdx();
+    }
+
+    @Override
+    public int maxIdx() {
+        return this.maxIdx+1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Storage<Storage<T>> copy() {
+        compact();
+        final IntList newrowstart = new IntList();
+        newrowstart.addAll(rowstart);
+
+        final IntList newcolumnIndex = new IntList();
+        newcolumnIndex.addAll(columnIndex);
+
+        return new CSRStorage<>(
+                newrowstart,
+                newcolumnIndex,
+                data.copy(),
+                maxIdx,
+                maxCol);
+    }
+
+    @Override
+    public Storage<Storage<T>> emptyCopy() {
+        return new CSRStorage<>();
+    }
+
+    private int getRowOrderIndex(final int row, final int col) {
+        int start = rowstart.get(row);
+        int end =   rowstart.get(row + 1);
+
+//        if (row == 4056 && col == 3201) {
+//            for (int i = start; i < end; ++i) {
+//                System.out.print(String.format("%10d  ", columnIndex.get(i)));
+//            }
+//            System.out.println("");
+//            for (int i = start; i < end; ++i) {
+//                System.out.print(String.format("%10s  ", data.get(i)));
+//            }
+//            System.out.println("");
+//        }
+
+        int idx = Arrays.binarySearch(columnIndex.borrowArray(), start, end, col);
+        return idx;
+    }
+
+    void matrixSet(final int row, final int col, final T val) {
+        if (col > maxCol) { maxCol = col; }
+        pendingRows.add(row);
+        pendingCols.add(col);
+        pendingData.add(val);
+        if (pendingData.size() >= Math.max(MIN_PENDING, matrixSize())) {
+            compact();
+        }
+    }
+
+    /**
+     * Merges the pending writes into the rows in one pass. The writes are
+     * bucketed by row with a stable counting sort and sorted by column
+     * within each row, keeping only the last write to each cell. Knowing
+     * how much every row grows, the rows are then merged back to front in
+     * place, so that no stored entry moves more than once.
+     */
+    @Override
+    public void compact() {
+        final int nPending = pendingData.size();
+        if (nPending == 0) {
+            return;
+        }
+        final int[] pRows = pendingRows.borrowArray();
+        final int[] pCols = pendingCols.borrowArray();
+        int maxRow = 0;
+        for (int k = 0; k < nPending; k++) {
+            maxRow = Math.max(maxRow, pRows[k]);
+        }
+        ensureSize(maxRow, 0);
+        final int rows = rowstart.size() - 1;
+
+        // bucket[r] .. bucket[r+1] are the writes to row r, each packed as
+        // col << 32 | k, with k the write's position in the pending list:
+        final int[] bucket = new int[rows + 1];
+        for (int k = 0; k < nPending; k++) {
+            bucket[pRows[k] + 1]++;
+        }
+        for (int r = 0; r < rows; r++) {
+            bucket[r + 1] += bucket[r];
+        }
+        final int[] fill = Arrays.copyOf(bucket, rows);
+        final long[] writes = new long[nPending];
+        for (int k = 0; k < nPending; k++) {
+            writes[fill[pRows[k]]++] = (long) pCols[k] << 32 | k;
+        }
+
+        final int[] starts = rowstart.borrowArray();
+        final int[] newStarts = new int[rows + 1];
+        int growth = 0;
+        for (int r = 0; r < rows; r++) {
+            newStarts[r] = starts[r] + growth;
+            final int from = bucket[r];
+            final int to = bucket[r + 1];
+            if (to - from > 1) {
+                Arrays.sort(writes, from, to);
+            }
+            for (int w = from; w < to; w++) {
+                final int col = (int) (writes[w] >>> 32);
+                if (w + 1 < to && (int) (writes[w + 1] >>> 32) == col) {
+                    // overwritten later
+                    writes[w] = -1;
+                } else if (Arrays.binarySearch(columnIndex.borrowArray(), starts[r], starts[r + 1], col) < 0) {
+                    growth++;
+                }
+            }
+        }
+        newStarts[rows] = starts[rows] + growth;
+
+        columnIndex.ensureCapacity(newStarts[rows]);
+        data.ensureCapacity(newStarts[rows]);
+        final int[] cols = columnIndex.borrowArray();
+        final Object[] vals = data.data;
+        final Object[] pVals = pendingData.data;
+        for (int r = rows - 1; r >= 0; r--) {
+            int old = starts[r + 1] - 1;
+            int dst = newStarts[r + 1] - 1;
+            for (int w = bucket[r + 1] - 1; w >= bucket[r]; w--) {
+                if (writes[w] < 0) {
+                    continue;
+                }
+                final int col = (int) (writes[w] >>> 32);
+                while (old >= starts[r] && cols[old] > col) {
+                    cols[dst] = cols[old];
+                    vals[dst--] = vals[old--];
+                }
+                if (old >= starts[r] && cols[old] == col) {
+                    old--;
+                }
+                cols[dst] = col;
+                vals[dst--] = pVals[(int) writes[w]];
+            }
+            final int remaining = old - starts[r] + 1;
+            if (dst != old) {
+                System.arraycopy(cols, starts[r], cols, newStarts[r], remaining);
+                System.arraycopy(vals, starts[r], vals, newStarts[r], remaining);
+            }
+        }
+        System.arraycopy(newStarts, 0, starts, 0, rows + 1);
+        columnIndex.setSize(newStarts[rows]);
+        data.size = newStarts[rows];
+
+        pendingRows.resetQuick();
+        pendingCols.resetQuick();
+        pendingData.clear();
+    }
+
+    @Override
+    public Storage<T> get(final int row) {
+        maxIdx = row > maxIdx ? row : maxIdx;
+        return row(row);
+    }
+
+    @Override
+    public T get(final int row, final int col) {
+        IndexCheck.checkIndexIsNonnegative(row);
+        return matrixGet(row, col);
+    }
+
+    @Override
+    public NestedStorage<T> set(final int row, final int col, final T x) {
+        IndexCheck.checkIndexIsNonnegative(row);
+        IndexCheck.checkIndexIsNonnegative(col);
+        maxIdx = row > maxIdx ? row : maxIdx;
+        matrixSet(row, col, x);
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void foreachCell(final CellConsumer<? super T> f) {
+        compact();
+        final int[] starts = rowstart.borrowArray();
+        final int[] cols = columnIndex.borrowArray();
+        final Object[] vals = data.data;
+        final int rows = rowstart.size() - 1;
+        for (int r = 0; r < rows; r++) {
+            for (int i = starts[r]; i < starts[r + 1]; i++) {
+                if (vals[i] != null) {
+                    f.accept(r, cols[i], (T) vals[i]);
+                }
+            }
+        }
+    }
+
+    // the compressed arrays, for SparseKernels. They are valid until the
+    // next write.
+
+    int[] rowStarts() {
+        compact();
+        return rowstart.borrowArray();
+    }
+
+    int[] columnIndices() {
+        compact();
+        return columnIndex.borrowArray();
+    }
+
+    Object[] values() {
+        compact();
+        return data.data;
+    }
+
+    /**
+     * Like {@link #get}, but does not count the row as accessed.
+     */
+    Storage<T> row(final int row) {
+        final SparseRowStorage last = this.lastRow;
+        if (last != null && last.row == row) {
+            return last;
+        }
+        return this.lastRow = new SparseRowStorage(row);
+    }
+
+    int rowCount() {
+        compact();
+        return rowstart.size() - 1;
+    }
+
+    void foreachNonEmptyRow(final IntConsumer f) {
+        compact();
+        final int[] starts = rowstart.borrowArray();
+        final int rows = rowstart.size() - 1;
+        for (int r = 0; r < rows; r++) {
+            if (starts[r] < starts[r + 1]) {
+                f.accept(r);
+            }
+        }
+    }
+
+    @SuppressWarnings("SimplifiableIfStatement")
+    @Override
+    public boolean has(final int row) {
+        compact();
+        if (row+1 >= rowstart.size()) {
+            return false;
+        } else {
+            return rowstart.get(row) < rowstart.get(row + 1);
+        }
+    }
+
+    @Override
+    public int maxColIdxOverapproximation() {
+        return this.maxCol+1;
+    }
+
+    @Override
+    public Storage<Storage<T>> set(final int i, final Storage<T> x) {
+        throw new UnsupportedOperationException("set not supported");
+    }
+
+    @Override
+    public Storage<Storage<T>> clearAll() {
+        init();
+
+        return null;
+    }
+
+    @Override
+    public long bytesUsed() {
+        compact();
+        final long INT_LIST = ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.INT + ObjectSizes.REFERENCE);
+        final long OBJ_LIST = ObjectSizes.OBJECT_SIZE(ObjectSizes.INT + ObjectSizes.REFERENCE);
+        return ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.INT + 6 * ObjectSizes.REFERENCE)
+                + OBJ_LIST + ObjectSizes.ARRAY_SIZE(this.data.data)
+                + INT_LIST + ObjectSizes.ARRAY_SIZE(this.rowstart.borrowArray())
+                + INT_LIST + ObjectSizes.ARRAY_SIZE(this.columnIndex.borrowArray())
+                + INT_LIST + ObjectSizes.ARRAY_SIZE(this.pendingRows.borrowArray())
+                + INT_LIST + ObjectSizes.ARRAY_SIZE(this.pendingCols.borrowArray())
+                + OBJ_LIST + ObjectSizes.ARRAY_SIZE(this.pendingData.data);
+    }
+
+    @Override
+    public String toString() {
+        compact();
+        return "CSRStorage:\n"+
+                "\tdata        "+(this.data)+"\n"+
+                "\trowstart    "+(rowstart)+"\n"+
+                "\tcolumnindex "+(columnIndex);
+    }
+
+    private class SparseRowStorage implements Storage<T> {
+        private final int row;
+
+        SparseRowStorage(final int row) {
+            this.row = row;
+        }
+
+        @Override
+        public T get(final int col) {
+            return CSRStorage.this.matrixGet(row, col);
+        }
+
+        @Override
+        public Storage<T> set(final int col, final T x) {
+            CSRStorage.this.matrixSet(row, col, x);
+            return this;
+        }
+
+        @Override
+        public Storage<T> clearAll() {
+            CSRStorage.this.compact();
+            if (this.row+1 >= rowstart.size()) {
+                return this;
+            }
+            final int start = CSRStorage.this.rowstart.get(row);
+            final int end = CSRStorage.this.rowstart.get(row+1);
+            Arrays.fill(CSRStorage.this.data.data, start, end, null);
+            return this;
+        }
+
+        @Override
+        public int maxIdxOverapproximation() {
+            return maxIdx();
+        }
+
+        @Override
+        public int maxIdx() {
+            CSRStorage.this.compact();
+            if (this.row+1 >= rowstart.size()) {
+                return 0;
+            } else {
+                final int end = rowstart.get(this.row + 1);
+                final int start = rowstart.get(this.row);
+                if (end > start) {
+                    return columnIndex.get(end-1)+1;
+                } else {
+                    return 0;
+                }
+            }
+        }
+
+        @Override
+        public Storage<T> copy() {
+            return this;
+        }
+
+        @Override
+        public Storage<T> emptyCopy() {
+            // this is inefficient, but these shouldn't be called often in
+            // practise, I suppose..
+            return CSRStorage.this.emptyCopy().get(this.row);
+        }
+
+        @Override
+        public long bytesUsed() {
+            throw new UnsupportedOperationException(
+                    this.getClass().getSimpleName()+
+                            " does not manage its own memory; ask the "+CSRStorage.class.getSimpleName()+" instead!");
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package com.github.kaeluka.cflat.storage;
+
+@FunctionalInterface
+public interface CellConsumer<T> {
+    public void accept(int row, int col, T x);
+}
@@ -5,14 +5,21 @@ import com.github.kaeluka.cflat.storage.size.ObjectSizes;
 import com.github.kaeluka.cflat.util.Mutable;
 
 import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
 
 public class ChunkedStorage<T> implements Storage<T> {
     private final static int CHUNK_SIZE = 128;
+    private final static int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_SIZE);
     private final static int DEFAULT_CHUNKS_SIZE = 8;
-    private Object[][] chunks = new Object[DEFAULT_CHUNKS_SIZE][];
+    private final static int CHUNKS_PER_TASK = Storage.PARALLEL_GRAIN / CHUNK_SIZE;
+    private Object[][] chunks;
     private int maxIdx = 0;
+    // the number of allocated chunks, for bytesUsed
+    private int chunkCount = 0;
 
     private int idxOfChunk(final int i) {
         final int lz = Integer.numberOfLeadingZeros(CHUNK_SIZE);
@@ -37,7 +44,7 @@ public class ChunkedStorage<T> implements Storage<T> {
         final int chunk_no = idxOfChunk(i);
 
         if (chunks.length <= chunk_no) {
-            final int lz = Integer.numberOfLeadingZeros(i);
+            final int lz = Integer.numberOfLeadingZeros(chunk_no);
             //next power of two
             int newLength = 1 << (32 - lz);
             chunks = Arrays.copyOf(chunks, newLength);
@@ -46,6 +53,7 @@ public class ChunkedStorage<T> implements Storage<T> {
         if (chunks[chunk_no] == null) {
             final Object[] new_chunk = new Object[CHUNK_SIZE];
             chunks[chunk_no] = new_chunk;
+            chunkCount++;
             return new_chunk;
         } else {
             return chunks[chunk_no];
@@ -78,7 +86,7 @@ public class ChunkedStorage<T> implements Storage<T> {
         final Object[] chunk = this.getChunk(i);
         if (chunk != null) {
             final int idxWithin = idxWithinChunk(i);
-            if (idxWithin < CHUNK_SIZE) {
+            if (idxWithin+1 < CHUNK_SIZE) {
                 v2.x = (T) chunk[idxWithin+1];
             } else {
                 v2.x = get(i+1);
@@ -118,6 +126,7 @@ public class ChunkedStorage<T> implements Storage<T> {
     @Override
     public Storage<T> clearAll() {
         this.chunks = new Object[chunks.length][];
+        this.chunkCount = 0;
         return this;
     }
 
@@ -126,9 +135,22 @@ public class ChunkedStorage<T> implements Storage<T> {
         return maxIdx+1;
     }
 
+    /**
+     * Clones the chunks. A copy used to share them, so that writes to the
+     * copy showed through in this storage and the other way round.
+     */
     @Override
     public Storage<T> copy() {
-        return new ChunkedStorage<>(Arrays.copyOf(chunks, chunks.length));
+        final Object[][] data = new Object[chunks.length][];
+        for (int c = 0; c < chunks.length; c++) {
+            if (chunks[c] != null) {
+                data[c] = chunks[c].clone();
+            }
+        }
+        final ChunkedStorage<T> ret = new ChunkedStorage<>(data);
+        ret.maxIdx = maxIdx;
+        ret.chunkCount = chunkCount;
+        return ret;
     }
 
     @Override
@@ -147,6 +169,171 @@ public class ChunkedStorage<T> implements Storage<T> {
         return -1;
     }
 
+    @Override
+    public void parallelForeachNonNull(final IntConsumer f) {
+        final Object[][] chunks = this.chunks;
+        ParallelRanges.forEach(0, chunks.length, CHUNKS_PER_TASK, (from, to) -> {
+            for (int c = from; c < to; c++) {
+                final Object[] chunk = chunks[c];
+                if (chunk != null) {
+                    for (int j = 0; j < chunk.length; j++) {
+                        if (chunk[j] != null) {
+                            f.accept(c * CHUNK_SIZE + j);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public int parallelFindAny(final T x) {
+        final Object[][] chunks = this.chunks;
+        return ParallelRanges.findAny(0, chunks.length, CHUNKS_PER_TASK, (from, to) -> {
+            for (int c = from; c < to; c++) {
+                final Object[] chunk = chunks[c];
+                if (chunk != null) {
+                    for (int j = 0; j < chunk.length; j++) {
+                        if (chunk[j] != null && chunk[j].equals(x)) {
+                            return c * CHUNK_SIZE + j;
+                        }
+                    }
+                }
+            }
+            return -1;
+        });
+    }
+
+    @Override
+    public StorageCursor<T> cursor() {
+        return new StorageCursor<T>() {
+            private int idx = -1;
+            private Object[] chunk = null;
+
+            @Override
+            public boolean advance() {
+                return scanFrom(idx + 1);
+            }
+
+            @Override
+            public boolean seek(final int i) {
+                if (chunk != null && idx >= i) {
+                    return true;
+                }
+                return scanFrom(Math.max(idx + 1, i));
+            }
+
+            private boolean scanFrom(int i) {
+                final Object[][] chunks = ChunkedStorage.this.chunks;
+                while (i >= 0) {
+                    final int chunk_no = idxOfChunk(i);
+                    if (chunk_no >= chunks.length) {
+                        break;
+                    }
+                    final Object[] c = chunks[chunk_no];
+                    if (c != null) {
+                        for (int j = idxWithinChunk(i); j < CHUNK_SIZE; j++) {
+                            if (c[j] != null) {
+                                chunk = c;
+                                idx = (chunk_no << CHUNK_SHIFT) + j;
+                                return true;
+                            }
+                        }
+                    }
+                    i = (chunk_no + 1) << CHUNK_SHIFT;
+                }
+                chunk = null;
+                idx = (int) Math.max(idx, Math.min((long) chunks.length << CHUNK_SHIFT, Integer.MAX_VALUE));
+                return false;
+            }
+
+            @Override
+            public int index() {
+                return idx;
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public T value() {
+                return (T) chunk[idxWithinChunk(idx)];
+            }
+
+            @Override
+            public void reset() {
+                idx = -1;
+                chunk = null;
+            }
+        };
+    }
+
+    @Override
+    public Spliterator.OfInt indexSpliterator() {
+        final BlockIndexSpliterator.Builder<Object[]> blocks = new BlockIndexSpliterator.Builder<>();
+        for (int c = 0; c < chunks.length; c++) {
+            final Object[] chunk = chunks[c];
+            if (chunk != null) {
+                int count = 0;
+                for (final Object x : chunk) {
+                    if (x != null) {
+                        count++;
+                    }
+                }
+                blocks.add(c, chunk, count);
+            }
+        }
+        return blocks.build(CHUNK_SHIFT, (chunk, from) -> {
+            for (int j = from; j < chunk.length; j++) {
+                if (chunk[j] != null) {
+                    return j;
+                }
+            }
+            return -1;
+        });
+    }
+
+    /**
+     * Grows the directory up front. Every task then allocates and fills
+     * only its own chunks, so the tasks share no mutable state.
+     */
+    @Override
+    public Storage<T> parallelSetRange(final int pos, final T x, final int length) {
+        checkIndexIsNonnegative(pos);
+        if (length <= 0) {
+            return this;
+        }
+        final int last = pos + length - 1;
+        checkIndexIsNonnegative(last);
+        if (x != null) {
+            maxIdx = last > maxIdx ? last : maxIdx;
+            if (chunks.length <= idxOfChunk(last)) {
+                //next power of two
+                chunks = Arrays.copyOf(chunks, 1 << (32 - Integer.numberOfLeadingZeros(idxOfChunk(last))));
+            }
+        }
+        final Object[][] chunks = this.chunks;
+        final int lastChunk = Math.min(idxOfChunk(last), chunks.length - 1);
+        final AtomicInteger created = new AtomicInteger();
+        ParallelRanges.forEach(idxOfChunk(pos), lastChunk + 1, CHUNKS_PER_TASK, (from, to) -> {
+            for (int c = from; c < to; c++) {
+                Object[] chunk = chunks[c];
+                if (chunk == null) {
+                    if (x == null) {
+                        continue;
+                    }
+                    chunk = chunks[c] = new Object[CHUNK_SIZE];
+                    created.incrementAndGet();
+                }
+                final int chunkStart = c * CHUNK_SIZE;
+                Arrays.fill(chunk,
+                        Math.max(pos, chunkStart) - chunkStart,
+                        Math.min(last, chunkStart + CHUNK_SIZE - 1) - chunkStart + 1,
+                        x);
+            }
+        });
+        chunkCount += created.get();
+        return this;
+    }
+
     @Override
     public Storage<T> copyRange(final int source, final int dest, final int length) {
 
@@ -196,13 +383,8 @@ public class ChunkedStorage<T> implements Storage<T> {
 
     @Override
     public long bytesUsed() {
-        long size = ObjectSizes.ARRAY_SIZE(this.chunks);
-
-        for (final Object[] chunk : this.chunks) {
-            if (chunk != null) {
-                size += ObjectSizes.ARRAY_SIZE(chunk);
-            }
-        }
-        return size;
+        return ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.INT + ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAY_SIZE(this.chunks)
+                + chunkCount * ObjectSizes.ARRAY_SIZE_OF_REFERENCES(CHUNK_SIZE);
     }
 }
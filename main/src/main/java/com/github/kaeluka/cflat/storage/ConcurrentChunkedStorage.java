@@ -0,0 +1,273 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.Mutable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
+
+/**
+ * A thread-safe variant of {@link ChunkedStorage}. {@link #get} and
+ * {@link #set} have volatile semantics: a value written by {@code set}
+ * happens-before any {@code get} that reads it.
+ *
+ * Chunks are published with a CAS into an {@link AtomicReferenceArray}
+ * directory and are never replaced afterwards. To grow the directory, a
+ * writer freezes the empty slots of the old directory with {@link #MOVED},
+ * copies it and swaps in the larger copy. Readers treat frozen slots like
+ * empty ones and never block; writers that hit a frozen slot retry on the
+ * new directory.
+ *
+ * {@link #foreachNonNull}, {@link #copy()} and {@link #maxIdx()} are weakly
+ * consistent when run concurrently with writers. {@link #clearAll()} must
+ * not race with writers.
+ */
+public class ConcurrentChunkedStorage<T> implements Storage<T> {
+    private final static int CHUNK_SIZE = 128;
+    private final static int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_SIZE);
+    private final static int DEFAULT_CHUNKS_SIZE = 8;
+    private final static AtomicReferenceArray<Object> MOVED = new AtomicReferenceArray<>(0);
+    private final AtomicReference<AtomicReferenceArray<AtomicReferenceArray<Object>>> directory;
+    private final AtomicInteger maxIdx;
+    // the number of installed chunks, for bytesUsed
+    private final AtomicInteger chunkCount;
+
+    public ConcurrentChunkedStorage() {
+        this(new AtomicReferenceArray<>(DEFAULT_CHUNKS_SIZE), -1, 0);
+    }
+
+    private ConcurrentChunkedStorage(final AtomicReferenceArray<AtomicReferenceArray<Object>> directory,
+                                     final int maxIdx, final int chunkCount) {
+        this.directory = new AtomicReference<>(directory);
+        this.maxIdx = new AtomicInteger(maxIdx);
+        this.chunkCount = new AtomicInteger(chunkCount);
+    }
+
+    private static int idxOfChunk(final int i) {
+        return i >> CHUNK_SHIFT;
+    }
+
+    private static int idxWithinChunk(final int i) {
+        return i & (CHUNK_SIZE - 1);
+    }
+
+    private AtomicReferenceArray<Object> getChunk(final int i) {
+        final AtomicReferenceArray<AtomicReferenceArray<Object>> dir = directory.get();
+        final int chunk_no = idxOfChunk(i);
+        if (chunk_no >= dir.length()) {
+            return null;
+        }
+        final AtomicReferenceArray<Object> chunk = dir.get(chunk_no);
+        return chunk == MOVED ? null : chunk;
+    }
+
+    private AtomicReferenceArray<Object> getEnsureChunk(final int i) {
+        final int chunk_no = idxOfChunk(i);
+        while (true) {
+            final AtomicReferenceArray<AtomicReferenceArray<Object>> dir = directory.get();
+            if (chunk_no >= dir.length()) {
+                grow(dir, chunk_no);
+                continue;
+            }
+            final AtomicReferenceArray<Object> chunk = dir.get(chunk_no);
+            if (chunk == MOVED) {
+                // another thread is growing the directory
+                Thread.yield();
+                continue;
+            }
+            if (chunk != null) {
+                return chunk;
+            }
+            final AtomicReferenceArray<Object> newChunk = new AtomicReferenceArray<>(CHUNK_SIZE);
+            if (dir.compareAndSet(chunk_no, null, newChunk)) {
+                chunkCount.incrementAndGet();
+                return newChunk;
+            }
+        }
+    }
+
+    /**
+     * Replaces {@code dir} with a copy large enough for {@code chunk_no}.
+     * Several threads may grow the same directory at once: they all freeze
+     * the same slots, produce equal copies, and only the first swap wins.
+     */
+    private void grow(final AtomicReferenceArray<AtomicReferenceArray<Object>> dir, final int chunk_no) {
+        //next power of two
+        final int newLength = 1 << (32 - Integer.numberOfLeadingZeros(chunk_no));
+        final AtomicReferenceArray<AtomicReferenceArray<Object>> newDir = new AtomicReferenceArray<>(newLength);
+        for (int c = 0; c < dir.length(); c++) {
+            AtomicReferenceArray<Object> chunk = dir.get(c);
+            while (chunk == null) {
+                if (dir.compareAndSet(c, null, MOVED)) {
+                    chunk = MOVED;
+                } else {
+                    chunk = dir.get(c);
+                }
+            }
+            if (chunk != MOVED) {
+                newDir.set(c, chunk);
+            }
+        }
+        directory.compareAndSet(dir, newDir);
+    }
+
+    private void updateMaxIdx(final int i) {
+        int cur = maxIdx.get();
+        while (i > cur && !maxIdx.compareAndSet(cur, i)) {
+            cur = maxIdx.get();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T get(final int i) {
+        checkIndexIsNonnegative(i);
+        final AtomicReferenceArray<Object> chunk = getChunk(i);
+        return chunk == null ? null : (T) chunk.get(idxWithinChunk(i));
+    }
+
+    @Override
+    public Storage<T> set(final int i, final T x) {
+        checkIndexIsNonnegative(i);
+        if (x == null) {
+            final AtomicReferenceArray<Object> chunk = getChunk(i);
+            if (chunk != null) {
+                chunk.set(idxWithinChunk(i), null);
+            }
+            return this;
+        }
+        getEnsureChunk(i).set(idxWithinChunk(i), x);
+        updateMaxIdx(i);
+        return this;
+    }
+
+    /**
+     * Atomic: when several threads race, exactly one computed value is
+     * stored and all of them see it in {@code result}. {@code f} may be
+     * called by more than one of the racing threads.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public Storage<T> computeIfAbsent(final int i, final IntFunction<T> f, final Mutable<T> result) {
+        checkIndexIsNonnegative(i);
+        final T existing = get(i);
+        if (existing != null) {
+            result.x = existing;
+            return this;
+        }
+        final T computed = f.apply(i);
+        if (computed == null) {
+            result.x = null;
+            return this;
+        }
+        final AtomicReferenceArray<Object> chunk = getEnsureChunk(i);
+        final int idxWithin = idxWithinChunk(i);
+        while (true) {
+            if (chunk.compareAndSet(idxWithin, null, computed)) {
+                updateMaxIdx(i);
+                result.x = computed;
+                return this;
+            }
+            final T winner = (T) chunk.get(idxWithin);
+            if (winner != null) {
+                result.x = winner;
+                return this;
+            }
+        }
+    }
+
+    @Override
+    public Storage<T> clearAll() {
+        directory.set(new AtomicReferenceArray<>(directory.get().length()));
+        maxIdx.set(-1);
+        chunkCount.set(0);
+        return this;
+    }
+
+    @Override
+    public int maxIdxOverapproximation() {
+        return maxIdx.get()+1;
+    }
+
+    @Override
+    public int maxIdx() {
+        final int max = maxIdx.get();
+        if (max < 0) {
+            return 0;
+        }
+        final AtomicReferenceArray<AtomicReferenceArray<Object>> dir = directory.get();
+        for (int c = Math.min(idxOfChunk(max), dir.length() - 1); c >= 0; c--) {
+            final AtomicReferenceArray<Object> chunk = dir.get(c);
+            if (chunk != null && chunk != MOVED) {
+                for (int j = CHUNK_SIZE - 1; j >= 0; j--) {
+                    if (chunk.get(j) != null) {
+                        return (c << CHUNK_SHIFT) + j + 1;
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void foreachNonNull(final IntConsumer f) {
+        final AtomicReferenceArray<AtomicReferenceArray<Object>> dir = directory.get();
+        for (int c = 0; c < dir.length(); c++) {
+            final AtomicReferenceArray<Object> chunk = dir.get(c);
+            if (chunk != null && chunk != MOVED) {
+                for (int j = 0; j < CHUNK_SIZE; j++) {
+                    if (chunk.get(j) != null) {
+                        f.accept((c << CHUNK_SHIFT) + j);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public Storage<T> copy() {
+        final AtomicReferenceArray<AtomicReferenceArray<Object>> dir = directory.get();
+        final AtomicReferenceArray<AtomicReferenceArray<Object>> newDir = new AtomicReferenceArray<>(dir.length());
+        int copied = 0;
+        for (int c = 0; c < dir.length(); c++) {
+            final AtomicReferenceArray<Object> chunk = dir.get(c);
+            if (chunk != null && chunk != MOVED) {
+                final AtomicReferenceArray<Object> newChunk = new AtomicReferenceArray<>(CHUNK_SIZE);
+                for (int j = 0; j < CHUNK_SIZE; j++) {
+                    newChunk.lazySet(j, chunk.get(j));
+                }
+                newDir.lazySet(c, newChunk);
+                copied++;
+            }
+        }
+        return new ConcurrentChunkedStorage<>(newDir, maxIdx.get(), copied);
+    }
+
+    @Override
+    public Storage<T> emptyCopy() {
+        return new ConcurrentChunkedStorage<>(new AtomicReferenceArray<>(directory.get().length()), -1, 0);
+    }
+
+    @Override
+    public long bytesUsed() {
+        return ObjectSizes.OBJECT_SIZE(3 * ObjectSizes.REFERENCE)
+                + ObjectSizes.OBJECT_SIZE(ObjectSizes.REFERENCE)     // the directory's AtomicReference
+                + 2 * ObjectSizes.OBJECT_SIZE(ObjectSizes.INT)       // the AtomicIntegers
+                + atomicArraySize(directory.get().length())
+                + chunkCount.get() * atomicArraySize(CHUNK_SIZE);
+    }
+
+    /**
+     * An {@link AtomicReferenceArray} is an object wrapping an
+     * {@code Object[]}.
+     */
+    private static long atomicArraySize(final int length) {
+        return ObjectSizes.OBJECT_SIZE(ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAY_SIZE_OF_REFERENCES(length);
+    }
+}
@@ -0,0 +1,332 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.util.Mutable;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Makes any {@link Storage} safe to share between threads.
+ *
+ * All access goes through one {@link StampedLock}. The wrapped storages are
+ * not thread-safe themselves (a write to one index may grow arrays shared by
+ * all indices), so writers take the write lock and run one at a time; each
+ * write pays a single lock acquisition. {@link #get} and {@link #has} first
+ * read optimistically, without locking, and only take the read lock if a
+ * writer got in the way. Point reads therefore scale with the number of
+ * readers while writes are rare, but a steady stream of writes serializes
+ * everything: locking index ranges separately would not help writers, who
+ * must exclude each other from the whole storage anyway. Everything else
+ * takes the read lock.
+ *
+ * Because threads share this wrapper, a mutation of the inner storage that
+ * returns a new identity replaces the inner storage in place: mutators
+ * return this wrapper, never a new one. {@link #foreachNonNull} calls its
+ * consumer without holding any lock, on a snapshot of the indices.
+ */
+public class ConcurrentStorageWrapper<T> extends StorageWrapper<T> {
+    private final StampedLock lock = new StampedLock();
+
+    public ConcurrentStorageWrapper(final Storage<T> inner) {
+        super(inner);
+    }
+
+    /**
+     * Only called while the write lock is held.
+     */
+    @Override
+    protected StorageWrapper<T> withNewIdentity(final Storage<T> possiblyNewInnerStorage) {
+        this.innerStorage = possiblyNewInnerStorage;
+        return this;
+    }
+
+    private ConcurrentStorageWrapper<T> wrap(final Storage<T> inner) {
+        return new ConcurrentStorageWrapper<>(inner);
+    }
+
+    @Override
+    public T get(final int i) {
+        final long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                final T ret = innerStorage.get(i);
+                if (lock.validate(stamp)) {
+                    return ret;
+                }
+            } catch (RuntimeException e) {
+                // a writer changed the storage while we read it, retry
+                // below. A genuine error is thrown again there.
+            }
+        }
+        final long locked = lock.readLock();
+        try {
+            return innerStorage.get(i);
+        } finally {
+            lock.unlockRead(locked);
+        }
+    }
+
+    @Override
+    public T get2(final int i, final Mutable<T> v2) {
+        final long locked = lock.readLock();
+        try {
+            return innerStorage.get2(i, v2);
+        } finally {
+            lock.unlockRead(locked);
+        }
+    }
+
+    @Override
+    public T getOrElse(final int i, final Supplier<T> s) {
+        final T ret = get(i);
+        return ret != null ? ret : s.get();
+    }
+
+    @Override
+    public boolean has(final int i) {
+        final long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                final boolean ret = innerStorage.has(i);
+                if (lock.validate(stamp)) {
+                    return ret;
+                }
+            } catch (RuntimeException e) {
+                // see get
+            }
+        }
+        final long locked = lock.readLock();
+        try {
+            return innerStorage.has(i);
+        } finally {
+            lock.unlockRead(locked);
+        }
+    }
+
+    @Override
+    public boolean hasInRange(final int start, final int end) {
+        final long locked = lock.readLock();
+        try {
+            return innerStorage.hasInRange(start, end);
+        } finally {
+            lock.unlockRead(locked);
+        }
+    }
+
+    @Override
+    public Storage<T> set(final int i, final T x) {
+        final long locked = lock.writeLock();
+        try {
+            return withNewIdentity(innerStorage.set(i, x));
+        } finally {
+            lock.unlockWrite(locked);
+        }
+    }
+
+    @Override
+    public Storage<T> set2(final int i, final T x, final T y) {
+        final long locked = lock.writeLock();
+        try {
+            return withNewIdentity(innerStorage.set2(i, x, y));
+        } finally {
+            lock.unlockWrite(locked);
+        }
+    }
+
+    /**
+     * Atomic: {@code f} is called at most once per absent index.
+     */
+    @Override
+    public Storage<T> computeIfAbsent(final int i, final IntFunction<T> f, final Mutable<T> result) {
+        result.x = get(i);
+        if (result.x != null) {
+            return this;
+        }
+        final long locked = lock.writeLock();
+        try {
+            return withNewIdentity(innerStorage.computeIfAbsent(i, f, result));
+        } finally {
+            lock.unlockWrite(locked);
+        }
+    }
+
+    @Override
+    public Storage<T> clearAll() {
+        final long locked = lock.writeLock();
+        try {
+            return withNewIdentity(innerStorage.clearAll());
+        } finally {
+            lock.unlockWrite(locked);
+        }
+    }
+
+    @Override
+    public int maxIdxOverapproximation() {
+        final long locked = lock.readLock();
+        try {
+            return innerStorage.maxIdxOverapproximation();
+        } finally {
+            lock.unlockRead(locked);
+        }
+    }
+
+    @Override
+    public int maxIdx() {
+        final long locked = lock.readLock();
+        try {
+            return innerStorage.maxIdx();
+        } finally {
+            lock.unlockRead(locked);
+        }
+    }
+
+    @Override
+    public Storage<T> moveSubtree(final int source, final Object[] shape, final int dest) {
+        final long locked = lock.writeLock();
+        try {
+            return withNewIdentity(innerStorage.moveSubtree(source, shape, dest));
+        } finally {
+            lock.unlockWrite(locked);
+        }
+    }
+
+    @Override
+    public Storage<T> setSubtree(final int source, final Object[] shape, final int dest) {
+        final long locked = lock.writeLock();
+        try {
+            return withNewIdentity(innerStorage.setSubtree(source, shape, dest));
+        } finally {
+            lock.unlockWrite(locked);
+        }
+    }
+
+    @Override
+    public Storage<T> setRange(final int pos, final T x, final int length) {
+        final long locked = lock.writeLock();
+        try {
+            return withNewIdentity(innerStorage.setRange(pos, x, length));
+        } finally {
+            lock.unlockWrite(locked);
+        }
+    }
+
+    @Override
+    public Storage<T> setAll(final int[] idx, final T[] values) {
+        final long locked = lock.writeLock();
+        try {
+            return withNewIdentity(innerStorage.setAll(idx, values));
+        } finally {
+            lock.unlockWrite(locked);
+        }
+    }
+
+    @Override
+    public void getAll(final int[] idx, final T[] out) {
+        final long locked = lock.readLock();
+        try {
+            innerStorage.getAll(idx, out);
+        } finally {
+            lock.unlockRead(locked);
+        }
+    }
+
+    @Override
+    public Storage<T> moveRange(final int source, final int dest, final int length) {
+        final long locked = lock.writeLock();
+        try {
+            return withNewIdentity(innerStorage.moveRange(source, dest, length));
+        } finally {
+            lock.unlockWrite(locked);
+        }
+    }
+
+    @Override
+    public Storage<T> copyRange(final int source, final int dest, final int length) {
+        final long locked = lock.writeLock();
+        try {
+            return withNewIdentity(innerStorage.copyRange(source, dest, length));
+        } finally {
+            lock.unlockWrite(locked);
+        }
+    }
+
+    @Override
+    public void foreachNonNull(final IntConsumer f) {
+        final TIntArrayList idxs = new TIntArrayList();
+        final long locked = lock.readLock();
+        try {
+            innerStorage.foreachNonNull(idxs::add);
+        } finally {
+            lock.unlockRead(locked);
+        }
+        idxs.forEach(i -> {
+            f.accept(i);
+            return true;
+        });
+    }
+
+    @Override
+    public Storage<T> addAll(final Storage<T> source) {
+        // snapshot first: source may be this wrapper, or shared with writers
+        final Storage<T> snapshot = source == this ? copy() : source;
+        final long locked = lock.writeLock();
+        try {
+            return withNewIdentity(innerStorage.addAll(snapshot));
+        } finally {
+            lock.unlockWrite(locked);
+        }
+    }
+
+    @Override
+    public int findFirst(final T x, final int max) {
+        final long locked = lock.readLock();
+        try {
+            return innerStorage.findFirst(x, max);
+        } finally {
+            lock.unlockRead(locked);
+        }
+    }
+
+    @Override
+    public int findLast(final T x) {
+        final long locked = lock.readLock();
+        try {
+            return innerStorage.findLast(x);
+        } finally {
+            lock.unlockRead(locked);
+        }
+    }
+
+    @Override
+    public Storage<T> copy() {
+        final long locked = lock.readLock();
+        try {
+            return wrap(innerStorage.copy());
+        } finally {
+            lock.unlockRead(locked);
+        }
+    }
+
+    @Override
+    public Storage<T> emptyCopy() {
+        final long locked = lock.readLock();
+        try {
+            return wrap(innerStorage.emptyCopy());
+        } finally {
+            lock.unlockRead(locked);
+        }
+    }
+
+    @Override
+    public long bytesUsed() {
+        final long locked = lock.readLock();
+        try {
+            return innerStorage.bytesUsed();
+        } finally {
+            lock.unlockRead(locked);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.kaeluka.cflat.storage;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Releases the memory behind direct and mapped {@link ByteBuffer}s
+ * eagerly instead of waiting for the garbage collector.
+ *
+ * Java 8 has no public API for this: on Java 9+ we call
+ * {@code sun.misc.Unsafe.invokeCleaner}, on Java 8 the buffer's own
+ * {@code cleaner()}. If neither is reachable, freeing is left to the GC. A
+ * buffer must never be touched again after it was passed to {@link #free}.
+ */
+final class DirectBuffers {
+    private DirectBuffers() { }
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            unsafe = theUnsafe.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    static void free(final ByteBuffer buf) {
+        if (buf == null || !buf.isDirect()) {
+            return;
+        }
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buf);
+            } else {
+                final Method cleanerMethod = buf.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buf);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // the GC will release the memory eventually
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.Arrays;
+import java.util.function.DoublePredicate;
+
+import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
+
+public final class DoubleArrayStorage extends BitmapArrayStorage implements DoubleStorage {
+    private double[] data;
+
+    public DoubleArrayStorage() {
+        this(new double[DEFAULT_SIZE], Bitmaps.forSize(DEFAULT_SIZE), -1);
+    }
+
+    private DoubleArrayStorage(final double[] data, final long[] present, final int maxIdx) {
+        super(present, maxIdx);
+        this.data = data;
+    }
+
+    @Override
+    Object values() {
+        return data;
+    }
+
+    @Override
+    int capacity() {
+        return data.length;
+    }
+
+    @Override
+    void resize(final int newSize) {
+        this.data = Arrays.copyOf(this.data, newSize);
+    }
+
+    @Override
+    public double getDouble(final int i) {
+        checkIndexIsNonnegative(i);
+        if (i >= data.length) {
+            return 0;
+        } else {
+            return data[i];
+        }
+    }
+
+    @Override
+    public DoubleStorage setDouble(final int i, final double x) {
+        checkIndexIsNonnegative(i);
+        maxIdx = i > maxIdx ? i : maxIdx;
+        ensureSize(i);
+        data[i] = x;
+        Bitmaps.set(present, i);
+        return this;
+    }
+
+    @Override
+    public DoubleStorage remove(final int i) {
+        checkIndexIsNonnegative(i);
+        if (i < data.length) {
+            data[i] = 0;
+            Bitmaps.clear(present, i);
+        }
+        return this;
+    }
+
+    @Override
+    public DoubleStorage clearAll() {
+        Arrays.fill(data, 0);
+        Arrays.fill(present, 0L);
+        maxIdx = -1;
+        return this;
+    }
+
+    @Override
+    public Storage<Double> setRange(final int pos, final Double x, final int length) {
+        IndexCheck.checkIndexIsNonnegative(pos);
+        IndexCheck.checkLengthIsNonnegative(length);
+        if (length > 0) {
+            final int end = pos + length;
+            if (x == null) {
+                final int _end = Math.min(end, data.length);
+                if (pos < _end) {
+                    Arrays.fill(data, pos, _end, 0);
+                    Bitmaps.setRange(present, pos, _end, false);
+                }
+            } else {
+                ensureSize(end - 1);
+                Arrays.fill(data, pos, end, x);
+                Bitmaps.setRange(present, pos, end, true);
+                maxIdx = end - 1 > maxIdx ? end - 1 : maxIdx;
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public Storage<Double> copyRange(final int source, final int dest, final int length) {
+        copyValues(source, dest, length);
+        return this;
+    }
+
+    @Override
+    public double sumDouble(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? DoubleKernels.sum(data, present, start, _end) : 0;
+    }
+
+    @Override
+    public double minDouble(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? DoubleKernels.min(data, present, start, _end, Double.POSITIVE_INFINITY) : Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public double maxDouble(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? DoubleKernels.max(data, present, start, _end, Double.NEGATIVE_INFINITY) : Double.NEGATIVE_INFINITY;
+    }
+
+    @Override
+    public int findFirstDouble(final DoublePredicate p, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? DoubleKernels.findFirst(data, present, start, _end, p) : -1;
+    }
+
+    @Override
+    public int replaceDouble(final double expected, final double x, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? DoubleKernels.replace(data, present, start, _end, expected, x) : 0;
+    }
+
+    @Override
+    public DoubleStorage copy() {
+        return new DoubleArrayStorage(
+                Arrays.copyOf(data, data.length),
+                Arrays.copyOf(present, present.length),
+                maxIdx);
+    }
+
+    @Override
+    public DoubleStorage emptyCopy() {
+        return new DoubleArrayStorage();
+    }
+
+    @Override
+    public long bytesUsed() {
+        return ObjectSizes.OBJECT_SIZE(ObjectSizes.INT + 2 * ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAY_SIZE(this.data)
+                + ObjectSizes.ARRAY_SIZE(this.present);
+    }
+}
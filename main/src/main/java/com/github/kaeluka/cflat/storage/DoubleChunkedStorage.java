@@ -0,0 +1,107 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.DoubleKernels.Block;
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.function.DoublePredicate;
+
+import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
+
+public class DoubleChunkedStorage extends BitmapChunkedStorage<Block> implements DoubleStorage {
+    private final static long CHUNK_BYTES = ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.REFERENCE)
+            + ObjectSizes.ARRAY_SIZE(new double[CHUNK_SIZE])
+            + ObjectSizes.ARRAY_SIZE_OF_LONGS(Bitmaps.wordsFor(CHUNK_SIZE));
+
+    public DoubleChunkedStorage() {
+        super();
+    }
+
+    private DoubleChunkedStorage(final BitmapBlocks.Block[] chunks, final int maxIdx, final int chunkCount) {
+        super(chunks, maxIdx, chunkCount);
+    }
+
+    @Override
+    Block newChunk() {
+        return new Block(CHUNK_SIZE);
+    }
+
+    @Override
+    long chunkBytes() {
+        return CHUNK_BYTES;
+    }
+
+    @Override
+    public double getDouble(final int i) {
+        checkIndexIsNonnegative(i);
+        final Block chunk = getChunk(i);
+        if (chunk == null) {
+            return 0;
+        } else {
+            return chunk.values[idxWithinChunk(i)];
+        }
+    }
+
+    @Override
+    public DoubleStorage setDouble(final int i, final double x) {
+        checkIndexIsNonnegative(i);
+        maxIdx = i > maxIdx ? i : maxIdx;
+        final Block chunk = getEnsureChunk(i);
+        final int idxWithin = idxWithinChunk(i);
+        chunk.values[idxWithin] = x;
+        Bitmaps.set(chunk.present, idxWithin);
+        return this;
+    }
+
+    @Override
+    public DoubleStorage remove(final int i) {
+        removeAt(i);
+        return this;
+    }
+
+    @Override
+    public DoubleStorage clearAll() {
+        clearChunks();
+        return this;
+    }
+
+    @Override
+    public double sumDouble(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return DoubleKernels.sum(blocks(), start, end);
+    }
+
+    @Override
+    public double minDouble(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return DoubleKernels.min(blocks(), start, end);
+    }
+
+    @Override
+    public double maxDouble(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return DoubleKernels.max(blocks(), start, end);
+    }
+
+    @Override
+    public int findFirstDouble(final DoublePredicate p, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return DoubleKernels.findFirst(blocks(), start, end, p);
+    }
+
+    @Override
+    public int replaceDouble(final double expected, final double x, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return DoubleKernels.replace(blocks(), start, end, expected, x);
+    }
+
+    @Override
+    public DoubleStorage copy() {
+        return new DoubleChunkedStorage(copyChunks(), maxIdx, chunkCount());
+    }
+
+    @Override
+    public DoubleStorage emptyCopy() {
+        return new DoubleChunkedStorage(new BitmapBlocks.Block[chunksLength()], -1, 0);
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.function.DoublePredicate;
+import java.util.stream.DoubleStream;
+
+/**
+ * A storage of unboxed {@code double} values. Presence is tracked separately
+ * from the values, so every {@code double} (including {@code 0.0} and {@code NaN}) can be
+ * stored.
+ *
+ * The boxed {@link Storage} methods are still available, but hot code should
+ * use {@link #has(int)}, {@link #getDouble(int)} and {@link #setDouble(int, double)}
+ * to avoid boxing. The bulk operations, like {@link #sumDouble(int, int)}, work
+ * on a range of indices and only look at the present values; the storages
+ * in this package implement them without looking at indices one by one.
+ */
+public interface DoubleStorage extends Storage<Double> {
+
+    /**
+     * @return the value at {@code i}, or {@code 0} if there is none. Use
+     * {@link #has(int)} to tell the two apart.
+     */
+    public double getDouble(int i);
+
+    public DoubleStorage setDouble(int i, double x);
+
+    /**
+     * Removes the value at {@code i}, if any.
+     */
+    public DoubleStorage remove(int i);
+
+    @Override
+    public boolean has(int i);
+
+    @Override
+    public default Double get(final int i) {
+        if (has(i)) {
+            return getDouble(i);
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public default Storage<Double> set(final int i, final Double x) {
+        if (x == null) {
+            return remove(i);
+        } else {
+            return setDouble(i, x);
+        }
+    }
+
+    @Override
+    public DoubleStorage clearAll();
+
+    @Override
+    public DoubleStorage copy();
+
+    @Override
+    public DoubleStorage emptyCopy();
+
+    /**
+     * @return the sum of the values in {@code [start, end)}.
+     */
+    public default double sumDouble(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        double ret = 0;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i)) {
+                ret += getDouble(i);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the smallest value in {@code [start, end)}, as by
+     * {@link Math#min}, or {@code Double.POSITIVE_INFINITY} if there is none.
+     */
+    public default double minDouble(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        double ret = Double.POSITIVE_INFINITY;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i)) {
+                ret = Math.min(ret, getDouble(i));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the largest value in {@code [start, end)}, as by
+     * {@link Math#max}, or {@code Double.NEGATIVE_INFINITY} if there is none.
+     */
+    public default double maxDouble(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        double ret = Double.NEGATIVE_INFINITY;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i)) {
+                ret = Math.max(ret, getDouble(i));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the number of values in {@code [start, end)}.
+     */
+    public default int count(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        int ret = 0;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i)) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the first index in {@code [start, end)} whose value satisfies
+     * {@code p}, or -1 if there is none.
+     */
+    public default int findFirstDouble(final DoublePredicate p, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i) && p.test(getDouble(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sets every value in {@code [start, end)} that is {@code ==} to
+     * {@code expected} to {@code x}. Absent indices stay absent.
+     *
+     * @return the number of values replaced.
+     */
+    public default int replaceDouble(final double expected, final double x, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        int ret = 0;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i) && getDouble(i) == expected) {
+                setDouble(i, x);
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Like {@link #valueStream()}, but without boxing.
+     */
+    public default DoubleStream valueStreamDouble() {
+        return indexStream().mapToDouble(this::getDouble);
+    }
+}
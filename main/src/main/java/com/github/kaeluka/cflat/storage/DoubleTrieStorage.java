@@ -0,0 +1,102 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.DoubleKernels.Block;
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.function.DoublePredicate;
+
+import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
+
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class DoubleTrieStorage extends BitmapTrieStorage<Block> implements DoubleStorage {
+    private final static long LEAF_BYTES = ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.REFERENCE)
+            + ObjectSizes.ARRAY_SIZE(new double[0x100])
+            + ObjectSizes.ARRAY_SIZE_OF_LONGS(Bitmaps.wordsFor(0x100));
+
+    @Override
+    Block newLeaf() {
+        return new Block(0x100);
+    }
+
+    @Override
+    long leafBytes() {
+        return LEAF_BYTES;
+    }
+
+    @Override
+    public double getDouble(final int idx) {
+        checkIndexIsNonnegative(idx);
+        final Block leaf = getLeaf(idx);
+        if (leaf == null) {
+            return 0;
+        } else {
+            return leaf.values[getCoord4(idx)];
+        }
+    }
+
+    @Override
+    public DoubleStorage setDouble(final int idx, final double x) {
+        checkIndexIsNonnegative(idx);
+        maxIdx = idx > maxIdx ? idx : maxIdx;
+        final Block leaf = getEnsureLeaf(idx);
+        final int coord4 = getCoord4(idx);
+        leaf.values[coord4] = x;
+        Bitmaps.set(leaf.present, coord4);
+        return this;
+    }
+
+    @Override
+    public DoubleStorage remove(final int idx) {
+        removeAt(idx);
+        return this;
+    }
+
+    @Override
+    public DoubleStorage clearAll() {
+        clearLeaves();
+        return this;
+    }
+
+    @Override
+    public double sumDouble(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return DoubleKernels.sum(blocks(), start, end);
+    }
+
+    @Override
+    public double minDouble(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return DoubleKernels.min(blocks(), start, end);
+    }
+
+    @Override
+    public double maxDouble(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return DoubleKernels.max(blocks(), start, end);
+    }
+
+    @Override
+    public int findFirstDouble(final DoublePredicate p, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return DoubleKernels.findFirst(blocks(), start, end, p);
+    }
+
+    @Override
+    public int replaceDouble(final double expected, final double x, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return DoubleKernels.replace(blocks(), start, end, expected, x);
+    }
+
+    @Override
+    public DoubleStorage copy() {
+        final DoubleTrieStorage ret = new DoubleTrieStorage();
+        copyInto(ret);
+        return ret;
+    }
+
+    @Override
+    public DoubleStorage emptyCopy() {
+        return new DoubleTrieStorage();
+    }
+}
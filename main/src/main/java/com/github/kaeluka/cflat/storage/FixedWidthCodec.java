@@ -0,0 +1,45 @@
+package com.github.kaeluka.cflat.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes values of type {@code T} into exactly {@link #width()} bytes of a
+ * {@link ByteBuffer}. Used by storages that keep their values outside of the
+ * Java heap.
+ *
+ * Implementations must use absolute {@code get}/{@code put} calls only and
+ * must not change the buffer's position or limit.
+ *
+ * @param <T> the encoded type
+ */
+public interface FixedWidthCodec<T> {
+    /**
+     * @return the number of bytes every encoded value occupies.
+     */
+    int width();
+
+    void write(ByteBuffer buf, int offset, T x);
+
+    T read(ByteBuffer buf, int offset);
+
+    FixedWidthCodec<Integer> INT = new FixedWidthCodec<Integer>() {
+        @Override public int width() { return Integer.BYTES; }
+        @Override public void write(final ByteBuffer buf, final int offset, final Integer x) { buf.putInt(offset, x); }
+        @Override public Integer read(final ByteBuffer buf, final int offset) { return buf.getInt(offset); }
+        @Override public String toString() { return "INT"; }
+    };
+
+    FixedWidthCodec<Long> LONG = new FixedWidthCodec<Long>() {
+        @Override public int width() { return Long.BYTES; }
+        @Override public void write(final ByteBuffer buf, final int offset, final Long x) { buf.putLong(offset, x); }
+        @Override public Long read(final ByteBuffer buf, final int offset) { return buf.getLong(offset); }
+        @Override public String toString() { return "LONG"; }
+    };
+
+    FixedWidthCodec<Double> DOUBLE = new FixedWidthCodec<Double>() {
+        @Override public int width() { return Double.BYTES; }
+        @Override public void write(final ByteBuffer buf, final int offset, final Double x) { buf.putDouble(offset, x); }
+        @Override public Double read(final ByteBuffer buf, final int offset) { return buf.getDouble(offset); }
+        @Override public String toString() { return "DOUBLE"; }
+    };
+}
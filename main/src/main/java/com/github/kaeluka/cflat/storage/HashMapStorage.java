@@ -5,13 +5,12 @@ import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import sourcecode.Impls;
 
-import java.util.Arrays;
 import java.util.function.IntConsumer;
 
 @SuppressWarnings({"WeakerAccess", "unchecked", "unused"})
 public class HashMapStorage<T> extends TIntObjectHashMap<T> implements Storage<T> {
-    private int maxIdx = -1;
-    private int[] sortedKeys = null;
+    // the keys in order, for iteration and maxIdx
+    private final PresenceIndex present = new PresenceIndex();
 
     public T get(final int i) {
         checkIndexIsNonnegative(i);
@@ -21,16 +20,12 @@ public class HashMapStorage<T> extends TIntObjectHashMap<T> implements Storage<T
     public Storage<T> set(final int i, final T x) {
         checkIndexIsNonnegative(i);
         if (x == null) {
-            if (i <= maxIdx) {
+            if (present.remove(i)) {
                 remove(i);
-                sortedKeys = null;
             }
         } else {
-            if (i > maxIdx) {
-                maxIdx = i;
-            }
             put(i, x);
-            sortedKeys = null;
+            present.add(i);
         }
         return this;
     }
@@ -42,48 +37,46 @@ public class HashMapStorage<T> extends TIntObjectHashMap<T> implements Storage<T
             for (int i = pos; i < pos + length; i++) {
                 put(i, x);
             }
-            if (maxIdx < pos+length-1) {
-                maxIdx = pos+length-1;
-            }
+            present.addRange(pos, pos + length);
         } else {
             for (int i = pos; i < pos + length; i++) {
                 set(i, null);
             }
         }
-        sortedKeys = null;
         return this;
     }
 
     @Override
     public void foreachNonNull(final IntConsumer f) {
-        // The default implementation would be O(sizeOverapproximation), this is
-        // O(V log(V)) where V is the number of non-null elements. Since this
-        // storage is more likely to be used with sparse loads (V << sizeOvr..),
-        // this is likely to be a good tradeoff.
-        if (sortedKeys == null) {
-            sortedKeys = this.keys();
-            Arrays.sort(sortedKeys);
+        present.foreach(f);
+    }
 
-            // we can cheaply update the maxIdxOverapproximation here:
-            if (sortedKeys.length > 0) {
-                maxIdx = sortedKeys[sortedKeys.length - 1];
-            } else {
-                maxIdx = -1;
-            }
-        }
-        for (final int key : sortedKeys) {
-            f.accept(key);
-        }
+    @Override
+    public boolean hasInRange(final int start, final int end) {
+        return present.hasInRange(start, end);
+    }
+
+    @Override
+    public int maxIdx() {
+        return present.last() + 1;
+    }
+
+    /**
+     * Walks the presence index, and looks the values up in the hash table.
+     */
+    @Override
+    public StorageCursor<T> cursor() {
+        return new IndexCursor<>(present, this);
     }
 
     public Storage<T> clearAll() {
         clear();
-        sortedKeys = null;
+        present.clear();
         return this;
     }
 
     public int maxIdxOverapproximation() {
-        return maxIdx+1;
+        return present.last() + 1;
     }
 
     public Storage<T> emptyCopy() {
@@ -91,13 +84,12 @@ public class HashMapStorage<T> extends TIntObjectHashMap<T> implements Storage<T
     }
 
     public long bytesUsed() {
-        return ObjectSizes.REFERENCE        // PUT_ALL_PROC
-                + ObjectSizes.REFERENCE     // sortedKeys
-                + ObjectSizes.REFERENCE + ObjectSizes.ARRAY_SIZE(this._values)
-                + ObjectSizes.REFERENCE + ObjectSizes.ARRAY_SIZE(this._set)
-                + ObjectSizes.REFERENCE + ObjectSizes.ARRAY_SIZE(this._states)
-                + ObjectSizes.INT           // no_entry_key
-        ;
+        // trove's fields, and the presence index
+        return ObjectSizes.OBJECT_SIZE(8 * ObjectSizes.INT + ObjectSizes.BOOLEAN + 4 * ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAY_SIZE(this._values)
+                + ObjectSizes.ARRAY_SIZE(this._set)
+                + ObjectSizes.ARRAY_SIZE(this._states)
+                + present.bytesUsed();
 
     }
 }
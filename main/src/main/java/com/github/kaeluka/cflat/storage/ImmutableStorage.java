@@ -3,20 +3,23 @@ package com.github.kaeluka.cflat.storage;
 import com.github.kaeluka.cflat.storage.size.ObjectSizes;
 import io.usethesource.capsule.Map;
 
+import java.util.function.IntConsumer;
+
 import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
 
 public final class ImmutableStorage<T> implements Storage<T> {
 
     private final Map.Immutable<Integer, Object> map;
-    private final int maxIdx;
+    // the keys in order, shared between versions like the map
+    private final PresenceIndex present;
 
     public ImmutableStorage() {
-        this(io.usethesource.capsule.Map.Immutable.of(), -1);
+        this(io.usethesource.capsule.Map.Immutable.of(), new PresenceIndex());
     }
 
-    private ImmutableStorage(Map.Immutable<Integer, Object> map, final int maxIdx) {
+    private ImmutableStorage(Map.Immutable<Integer, Object> map, final PresenceIndex present) {
         this.map = map;
-        this.maxIdx = maxIdx;
+        this.present = present;
     }
 
     @SuppressWarnings("unchecked")
@@ -30,16 +33,35 @@ public final class ImmutableStorage<T> implements Storage<T> {
     public Storage<T> set(final int i, final T x) {
         checkIndexIsNonnegative(i);
         if (x != null) {
-            int newMaxIdx = i > maxIdx ? i : maxIdx;
-            return new ImmutableStorage<>(this.map.__put(i, x), newMaxIdx);
+            return new ImmutableStorage<>(this.map.__put(i, x), present.with(i));
         } else {
-            return new ImmutableStorage<>(this.map.__remove(i), maxIdx);
+            return new ImmutableStorage<>(this.map.__remove(i), present.without(i));
         }
     }
 
     @Override
     public int maxIdxOverapproximation() {
-        return maxIdx+1;
+        return present.last() + 1;
+    }
+
+    @Override
+    public int maxIdx() {
+        return present.last() + 1;
+    }
+
+    @Override
+    public boolean hasInRange(final int start, final int end) {
+        return present.hasInRange(start, end);
+    }
+
+    @Override
+    public void foreachNonNull(final IntConsumer f) {
+        present.foreach(f);
+    }
+
+    @Override
+    public StorageCursor<T> cursor() {
+        return new IndexCursor<>(present, this);
     }
 
     @Override
@@ -59,8 +81,9 @@ public final class ImmutableStorage<T> implements Storage<T> {
 
     @Override
     public long bytesUsed() {
-//        ObjectSizes.ARRAY_SIZE()
-        //FIXME implement
-        return -1;
+        // versions share most of the index, like they share the map
+        return ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.REFERENCE)
+                + ObjectSizes.IMMUTABLE_MAP_SIZE(map)
+                + present.bytesUsed();
     }
 }
@@ -0,0 +1,54 @@
+package com.github.kaeluka.cflat.storage;
+
+/**
+ * Walks the indices of a {@link PresenceIndex}, and looks the values up in
+ * the storage.
+ */
+final class IndexCursor<T> implements StorageCursor<T> {
+    private final PresenceIndex index;
+    private final Storage<T> storage;
+    private int idx = -1;
+    private boolean valid = false;
+
+    IndexCursor(final PresenceIndex index, final Storage<T> storage) {
+        this.index = index;
+        this.storage = storage;
+    }
+
+    @Override
+    public boolean advance() {
+        if (idx == Integer.MAX_VALUE) {
+            valid = false;
+            return false;
+        }
+        final int next = index.next(idx + 1);
+        valid = next >= 0;
+        idx = valid ? next : Integer.MAX_VALUE;
+        return valid;
+    }
+
+    @Override
+    public boolean seek(final int i) {
+        if (valid && idx >= i) {
+            return true;
+        }
+        idx = Math.max(idx, i - 1);
+        return advance();
+    }
+
+    @Override
+    public int index() {
+        return idx;
+    }
+
+    @Override
+    public T value() {
+        return storage.get(idx);
+    }
+
+    @Override
+    public void reset() {
+        idx = -1;
+        valid = false;
+    }
+}
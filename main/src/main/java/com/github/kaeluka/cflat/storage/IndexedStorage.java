@@ -3,8 +3,8 @@ package com.github.kaeluka.cflat.storage;
 import com.github.kaeluka.cflat.storage.size.ObjectSizes;
 import gnu.trove.map.hash.TIntObjectHashMap;
 
-import java.lang.reflect.Field;
 import java.util.*;
+import java.util.function.IntConsumer;
 import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
 
 public class IndexedStorage<T> implements Storage<T> {
@@ -12,7 +12,12 @@ public class IndexedStorage<T> implements Storage<T> {
     private Hashtable<T, ArrayList<Integer>> dataReverse = new Hashtable<>();
 //    private TObjectIntMap dataReverse = new TObjectIntHashMap();
     private final TIntObjectHashMap data = new TIntObjectHashMap();
-    private int maxIdx = -1;
+    // the indices in order, for iteration and maxIdx
+    private final PresenceIndex present = new PresenceIndex();
+    // for bytesUsed: Hashtable never shrinks, and the position lists and
+    // their boxed indices are counted as they change
+    private int maxReverseSize = 0;
+    private long positionsBytes = 0;
 
     @SuppressWarnings("unchecked")
     @Override
@@ -27,15 +32,21 @@ public class IndexedStorage<T> implements Storage<T> {
         checkIndexIsNonnegative(i);
         if (x == null) {
             final T oldX = (T) data.remove(i);
+            present.remove(i);
             removeReverseBinding(i, oldX);
         } else {
-            if (i > maxIdx) {
-                maxIdx = i;
-            }
+            present.add(i);
             final T oldX = (T) data.put(i, x);
-            dataReverse
-                    .computeIfAbsent(x, k -> new ArrayList<>(1))
-                    .add(i);
+            ArrayList<Integer> positions = dataReverse.get(x);
+            if (positions == null) {
+                positions = new ArrayList<>(1);
+                dataReverse.put(x, positions);
+                maxReverseSize = Math.max(maxReverseSize, dataReverse.size());
+            } else {
+                positionsBytes -= ObjectSizes.ARRAYLIST_SIZE(positions);
+            }
+            positions.add(i);
+            positionsBytes += ObjectSizes.ARRAYLIST_SIZE(positions) + ObjectSizes.INTEGER;
             removeReverseBinding(i, oldX);
         }
         return this;
@@ -44,8 +55,10 @@ public class IndexedStorage<T> implements Storage<T> {
     private void removeReverseBinding(final int i, final T oldX) {
         if (oldX != null) {
             final ArrayList<Integer> oldPositions = dataReverse.get(oldX);
+            positionsBytes -= ObjectSizes.ARRAYLIST_SIZE(oldPositions) + ObjectSizes.INTEGER;
             if (oldPositions.size() > 1) {
                 oldPositions.remove((Integer)i);
+                positionsBytes += ObjectSizes.ARRAYLIST_SIZE(oldPositions);
             } else {
                 dataReverse.remove(oldX);
             }
@@ -65,23 +78,35 @@ public class IndexedStorage<T> implements Storage<T> {
     @Override
     public Storage<T> clearAll() {
         this.data.clear();
+        this.dataReverse.clear();
+        this.present.clear();
+        this.positionsBytes = 0;
         return this;
     }
 
     @Override
     public int maxIdxOverapproximation() {
-        return maxIdx+1;
+        return present.last() + 1;
     }
 
     @Override
     public int maxIdx() {
-        int max = -1;
-        for (int idx : data.keys()) {
-            if (idx > max) {
-                max = idx;
-            }
-        }
-        return max+1;
+        return present.last() + 1;
+    }
+
+    @Override
+    public boolean hasInRange(final int start, final int end) {
+        return present.hasInRange(start, end);
+    }
+
+    @Override
+    public void foreachNonNull(final IntConsumer f) {
+        present.foreach(f);
+    }
+
+    @Override
+    public StorageCursor<T> cursor() {
+        return new IndexCursor<>(present, this);
     }
 
     @Override
@@ -91,15 +116,10 @@ public class IndexedStorage<T> implements Storage<T> {
 
     @Override
     public long bytesUsed() {
-        long size = ObjectSizes.HASHTABLE_SIZE(this.dataReverse);
-        try {
-            final Field values;
-            values = data.getClass().getDeclaredField("_values");
-            values.setAccessible(true);
-            size += ObjectSizes.ARRAY_SIZE((Object[])values.get(data));
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            e.printStackTrace();
-        }
-        return size;
+        return ObjectSizes.OBJECT_SIZE(ObjectSizes.INT + ObjectSizes.LONG + 3 * ObjectSizes.REFERENCE)
+                + ObjectSizes.HASHTABLE_SIZE(this.dataReverse, maxReverseSize)
+                + ObjectSizes.TINTOBJECTHASHMAP_SIZE(this.data)
+                + present.bytesUsed()
+                + positionsBytes;
     }
 }
@@ -1,136 +1,158 @@
 package com.github.kaeluka.cflat.storage;
 
-
-import com.github.kaeluka.cflat.traversal.GenericShape;
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
 
 import java.util.Arrays;
+import java.util.function.IntPredicate;
 
 import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
 
-public final class IntArrayStorage implements Storage<Integer> {
-    private final static int DEFAULT_SIZE = 10;
+public final class IntArrayStorage extends BitmapArrayStorage implements IntStorage {
     private int[] data;
-    private int maxIdx;
 
     public IntArrayStorage() {
-        this.data = new int[DEFAULT_SIZE];
-        Arrays.fill(this.data, 0, this.data.length, Integer.MIN_VALUE);
-        this.maxIdx = 0;
+        this(new int[DEFAULT_SIZE], Bitmaps.forSize(DEFAULT_SIZE), -1);
     }
 
-    private IntArrayStorage(final int[] data) {
+    private IntArrayStorage(final int[] data, final long[] present, final int maxIdx) {
+        super(present, maxIdx);
         this.data = data;
-        this.maxIdx = 0;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
-    public Integer get(final int i) {
-        checkIndexIsNonnegative(i);
-        if (i>=this.data.length || Integer.MIN_VALUE == this.data[i]) {
-            return null;
-        } else {
-            return this.data[i];
-        }
+    Object values() {
+        return data;
     }
 
-    private void ensureSize(final int i) {
-        if (this.data.length <= i) {
-//            final int[] old_data = this.data;
-//            int newLength = old_data.length;
-//            while (newLength <= i) {
-//                newLength *= 2;
-//            }
-            int oldLength = this.data.length;
-            int newLength = i + (i >> 1);
-            this.data = Arrays.copyOf(this.data, newLength);
-            Arrays.fill(this.data, oldLength, newLength, Integer.MIN_VALUE);
+    @Override
+    int capacity() {
+        return data.length;
+    }
+
+    @Override
+    void resize(final int newSize) {
+        this.data = Arrays.copyOf(this.data, newSize);
+    }
+
+    @Override
+    public int getInt(final int i) {
+        checkIndexIsNonnegative(i);
+        if (i >= data.length) {
+            return 0;
+        } else {
+            return data[i];
         }
     }
 
     @Override
-    public Storage<Integer> set(final int i, final Integer x) {
+    public IntStorage setInt(final int i, final int x) {
         checkIndexIsNonnegative(i);
-        int xi = (x == null) ? Integer.MIN_VALUE : x;
         maxIdx = i > maxIdx ? i : maxIdx;
-        this.ensureSize(i);
-        this.data[i] = xi;
+        ensureSize(i);
+        data[i] = x;
+        Bitmaps.set(present, i);
         return this;
     }
 
     @Override
-    public Storage<Integer> clearAll() {
-        for(int i=0; i<this.data.length; ++i) {
-            this.data[i] = 0;
+    public IntStorage remove(final int i) {
+        checkIndexIsNonnegative(i);
+        if (i < data.length) {
+            data[i] = 0;
+            Bitmaps.clear(present, i);
         }
         return this;
     }
 
     @Override
-    public Storage<Integer> copyRange(final int source, final int dest, final int length) {
-        this.ensureSize(dest+length);
-        this.ensureSize(source+length);
-        System.arraycopy(this.data, source, this.data, dest, length);
+    public IntStorage clearAll() {
+        Arrays.fill(data, 0);
+        Arrays.fill(present, 0L);
+        maxIdx = -1;
         return this;
     }
 
     @Override
     public Storage<Integer> setRange(final int pos, final Integer x, final int length) {
-        ensureSize(pos+length);
-        Arrays.fill(this.data, pos, pos+length, x == null ? Integer.MIN_VALUE : x);
+        IndexCheck.checkIndexIsNonnegative(pos);
+        IndexCheck.checkLengthIsNonnegative(length);
+        if (length > 0) {
+            final int end = pos + length;
+            if (x == null) {
+                final int _end = Math.min(end, data.length);
+                if (pos < _end) {
+                    Arrays.fill(data, pos, _end, 0);
+                    Bitmaps.setRange(present, pos, _end, false);
+                }
+            } else {
+                ensureSize(end - 1);
+                Arrays.fill(data, pos, end, x);
+                Bitmaps.setRange(present, pos, end, true);
+                maxIdx = end - 1 > maxIdx ? end - 1 : maxIdx;
+            }
+        }
         return this;
     }
 
     @Override
-    public int maxIdxOverapproximation() {
-        return maxIdx+1;
+    public Storage<Integer> copyRange(final int source, final int dest, final int length) {
+        copyValues(source, dest, length);
+        return this;
     }
 
     @Override
-    public Storage setSubtree(final int source,
-                              final Object[] shape,
-                              final int dest) {
-        if ((GenericShape.isRep(shape) || GenericShape.isStar(shape)) && (GenericShape.shapeSize((Object[]) shape[1]) == 1) && (GenericShape.shapeSize((Object[]) shape[2]) == 1)) {
-            final int sE = maxIdxOverapproximation();
-            int valsToCopy = sE - source;
-            this.ensureSize(dest+valsToCopy);
-            System.arraycopy(this.data, source, this.data, dest, valsToCopy);
-            if (dest > source) {
-                maxIdx += dest-source;
-            }
-            return this;
-        } else {
-            return Storage.super.setSubtree(source, shape, dest);
-        }
+    public long sumInt(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? IntKernels.sum(data, present, start, _end) : 0;
     }
 
     @Override
-    public Storage<Integer> copy() {
-        return new IntArrayStorage(Arrays.copyOf(data, data.length));
+    public int minInt(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? IntKernels.min(data, present, start, _end, Integer.MAX_VALUE) : Integer.MAX_VALUE;
     }
 
     @Override
-    public boolean has(final int i) {
-        if (i>=this.data.length || Integer.MIN_VALUE == this.data[i]) {
-            return false;
-        } else {
-            return true;
-        }
-//        try {
-//            return this.get(i) != Integer.MIN_VALUE;
-//        } catch (NullPointerException e) {
-//            System.out.println("hello");
-//            return this.data[i] != Integer.MIN_VALUE;
-//        }
+    public int maxInt(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? IntKernels.max(data, present, start, _end, Integer.MIN_VALUE) : Integer.MIN_VALUE;
+    }
+
+    @Override
+    public int findFirstInt(final IntPredicate p, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? IntKernels.findFirst(data, present, start, _end, p) : -1;
+    }
+
+    @Override
+    public int replaceInt(final int expected, final int x, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? IntKernels.replace(data, present, start, _end, expected, x) : 0;
+    }
+
+    @Override
+    public IntStorage copy() {
+        return new IntArrayStorage(
+                Arrays.copyOf(data, data.length),
+                Arrays.copyOf(present, present.length),
+                maxIdx);
     }
 
     @Override
-    public Storage<Integer> emptyCopy() {
+    public IntStorage emptyCopy() {
         return new IntArrayStorage();
     }
 
     @Override
     public long bytesUsed() {
-        return this.data.length*32;
+        return ObjectSizes.OBJECT_SIZE(ObjectSizes.INT + 2 * ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAY_SIZE(this.data)
+                + ObjectSizes.ARRAY_SIZE(this.present);
     }
 }
@@ -0,0 +1,107 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.IntKernels.Block;
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.function.IntPredicate;
+
+import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
+
+public class IntChunkedStorage extends BitmapChunkedStorage<Block> implements IntStorage {
+    private final static long CHUNK_BYTES = ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.REFERENCE)
+            + ObjectSizes.ARRAY_SIZE(new int[CHUNK_SIZE])
+            + ObjectSizes.ARRAY_SIZE_OF_LONGS(Bitmaps.wordsFor(CHUNK_SIZE));
+
+    public IntChunkedStorage() {
+        super();
+    }
+
+    private IntChunkedStorage(final BitmapBlocks.Block[] chunks, final int maxIdx, final int chunkCount) {
+        super(chunks, maxIdx, chunkCount);
+    }
+
+    @Override
+    Block newChunk() {
+        return new Block(CHUNK_SIZE);
+    }
+
+    @Override
+    long chunkBytes() {
+        return CHUNK_BYTES;
+    }
+
+    @Override
+    public int getInt(final int i) {
+        checkIndexIsNonnegative(i);
+        final Block chunk = getChunk(i);
+        if (chunk == null) {
+            return 0;
+        } else {
+            return chunk.values[idxWithinChunk(i)];
+        }
+    }
+
+    @Override
+    public IntStorage setInt(final int i, final int x) {
+        checkIndexIsNonnegative(i);
+        maxIdx = i > maxIdx ? i : maxIdx;
+        final Block chunk = getEnsureChunk(i);
+        final int idxWithin = idxWithinChunk(i);
+        chunk.values[idxWithin] = x;
+        Bitmaps.set(chunk.present, idxWithin);
+        return this;
+    }
+
+    @Override
+    public IntStorage remove(final int i) {
+        removeAt(i);
+        return this;
+    }
+
+    @Override
+    public IntStorage clearAll() {
+        clearChunks();
+        return this;
+    }
+
+    @Override
+    public long sumInt(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return IntKernels.sum(blocks(), start, end);
+    }
+
+    @Override
+    public int minInt(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return IntKernels.min(blocks(), start, end);
+    }
+
+    @Override
+    public int maxInt(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return IntKernels.max(blocks(), start, end);
+    }
+
+    @Override
+    public int findFirstInt(final IntPredicate p, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return IntKernels.findFirst(blocks(), start, end, p);
+    }
+
+    @Override
+    public int replaceInt(final int expected, final int x, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return IntKernels.replace(blocks(), start, end, expected, x);
+    }
+
+    @Override
+    public IntStorage copy() {
+        return new IntChunkedStorage(copyChunks(), maxIdx, chunkCount());
+    }
+
+    @Override
+    public IntStorage emptyCopy() {
+        return new IntChunkedStorage(new BitmapBlocks.Block[chunksLength()], -1, 0);
+    }
+}
@@ -0,0 +1,202 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.BitmapBlocks.Blocks;
+import com.github.kaeluka.cflat.storage.BitmapBlocks.Walk;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * The bulk operations of {@link IntStorage}, on blocks of values with a
+ * presence bitmap. The loops walk the bitmap a word at a time: empty words
+ * are skipped, and full words become plain counted loops over 64 values,
+ * which the JIT unrolls and vectorizes. Java 8 has no explicit vector API,
+ * so this is as close as the storages get to SIMD. Counting, and finding
+ * the blocks a range covers, don't depend on the element type and are in
+ * {@link BitmapBlocks}.
+ *
+ * Positions are relative to the start of the block, and {@code from < to}.
+ */
+final class IntKernels {
+    private IntKernels() { }
+
+    /**
+     * A fixed-size run of values and its presence bitmap.
+     */
+    static final class Block extends BitmapBlocks.Block {
+        final int[] values;
+
+        Block(final int size) {
+            this(new int[size], Bitmaps.forSize(size));
+        }
+
+        private Block(final int[] values, final long[] present) {
+            super(present);
+            this.values = values;
+        }
+
+        @Override
+        void remove(final int i) {
+            values[i] = 0;
+            Bitmaps.clear(present, i);
+        }
+
+        @Override
+        Block copy() {
+            return new Block(
+                    Arrays.copyOf(values, values.length),
+                    Arrays.copyOf(present, present.length));
+        }
+    }
+
+    static long sum(final int[] values, final long[] present, final int from, final int to) {
+        long ret = 0;
+        final int lastWord = (to - 1) >>> 6;
+        for (int w = from >>> 6; w <= lastWord; w++) {
+            final long word = present[w] & Bitmaps.mask(w, from, to);
+            final int base = w << 6;
+            if (word == -1L) {
+                for (int k = base; k < base + 64; k++) {
+                    ret += values[k];
+                }
+            } else {
+                for (long bits = word; bits != 0; bits &= bits - 1) {
+                    ret += values[base + Long.numberOfTrailingZeros(bits)];
+                }
+            }
+        }
+        return ret;
+    }
+
+    static int min(final int[] values, final long[] present, final int from, final int to, final int acc) {
+        int ret = acc;
+        final int lastWord = (to - 1) >>> 6;
+        for (int w = from >>> 6; w <= lastWord; w++) {
+            final long word = present[w] & Bitmaps.mask(w, from, to);
+            final int base = w << 6;
+            if (word == -1L) {
+                for (int k = base; k < base + 64; k++) {
+                    ret = Math.min(ret, values[k]);
+                }
+            } else {
+                for (long bits = word; bits != 0; bits &= bits - 1) {
+                    ret = Math.min(ret, values[base + Long.numberOfTrailingZeros(bits)]);
+                }
+            }
+        }
+        return ret;
+    }
+
+    static int max(final int[] values, final long[] present, final int from, final int to, final int acc) {
+        int ret = acc;
+        final int lastWord = (to - 1) >>> 6;
+        for (int w = from >>> 6; w <= lastWord; w++) {
+            final long word = present[w] & Bitmaps.mask(w, from, to);
+            final int base = w << 6;
+            if (word == -1L) {
+                for (int k = base; k < base + 64; k++) {
+                    ret = Math.max(ret, values[k]);
+                }
+            } else {
+                for (long bits = word; bits != 0; bits &= bits - 1) {
+                    ret = Math.max(ret, values[base + Long.numberOfTrailingZeros(bits)]);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the first position whose value satisfies {@code p}, or -1.
+     */
+    static int findFirst(final int[] values, final long[] present, final int from, final int to,
+                         final IntPredicate p) {
+        final int lastWord = (to - 1) >>> 6;
+        for (int w = from >>> 6; w <= lastWord; w++) {
+            final int base = w << 6;
+            for (long bits = present[w] & Bitmaps.mask(w, from, to); bits != 0; bits &= bits - 1) {
+                final int k = base + Long.numberOfTrailingZeros(bits);
+                if (p.test(values[k])) {
+                    return k;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Replaces the present values equal to {@code expected} with {@code x}.
+     *
+     * @return the number of values replaced.
+     */
+    static int replace(final int[] values, final long[] present, final int from, final int to,
+                       final int expected, final int x) {
+        int ret = 0;
+        final int lastWord = (to - 1) >>> 6;
+        for (int w = from >>> 6; w <= lastWord; w++) {
+            final long word = present[w] & Bitmaps.mask(w, from, to);
+            final int base = w << 6;
+            if (word == -1L) {
+                for (int k = base; k < base + 64; k++) {
+                    if (values[k] == expected) {
+                        values[k] = x;
+                        ret++;
+                    }
+                }
+            } else {
+                for (long bits = word; bits != 0; bits &= bits - 1) {
+                    final int k = base + Long.numberOfTrailingZeros(bits);
+                    if (values[k] == expected) {
+                        values[k] = x;
+                        ret++;
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    // The same operations over the blocks that intersect [start, end).
+
+    static long sum(final Blocks<Block> s, final int start, final int end) {
+        long ret = 0;
+        for (final Walk<Block> w = new Walk<>(s, start, end); w.next(); ) {
+            ret += sum(w.block.values, w.block.present, w.from, w.to);
+        }
+        return ret;
+    }
+
+    static int min(final Blocks<Block> s, final int start, final int end) {
+        int ret = Integer.MAX_VALUE;
+        for (final Walk<Block> w = new Walk<>(s, start, end); w.next(); ) {
+            ret = min(w.block.values, w.block.present, w.from, w.to, ret);
+        }
+        return ret;
+    }
+
+    static int max(final Blocks<Block> s, final int start, final int end) {
+        int ret = Integer.MIN_VALUE;
+        for (final Walk<Block> w = new Walk<>(s, start, end); w.next(); ) {
+            ret = max(w.block.values, w.block.present, w.from, w.to, ret);
+        }
+        return ret;
+    }
+
+    static int findFirst(final Blocks<Block> s, final int start, final int end, final IntPredicate p) {
+        for (final Walk<Block> w = new Walk<>(s, start, end); w.next(); ) {
+            final int found = findFirst(w.block.values, w.block.present, w.from, w.to, p);
+            if (found >= 0) {
+                return w.base + found;
+            }
+        }
+        return -1;
+    }
+
+    static int replace(final Blocks<Block> s, final int start, final int end, final int expected, final int x) {
+        int ret = 0;
+        for (final Walk<Block> w = new Walk<>(s, start, end); w.next(); ) {
+            ret += replace(w.block.values, w.block.present, w.from, w.to, expected, x);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * A storage of unboxed {@code int} values. Presence is tracked separately
+ * from the values, so every {@code int} (including {@code 0} and {@code Integer.MIN_VALUE}) can be
+ * stored.
+ *
+ * The boxed {@link Storage} methods are still available, but hot code should
+ * use {@link #has(int)}, {@link #getInt(int)} and {@link #setInt(int, int)}
+ * to avoid boxing. The bulk operations, like {@link #sumInt(int, int)}, work
+ * on a range of indices and only look at the present values; the storages
+ * in this package implement them without looking at indices one by one.
+ */
+public interface IntStorage extends Storage<Integer> {
+
+    /**
+     * @return the value at {@code i}, or {@code 0} if there is none. Use
+     * {@link #has(int)} to tell the two apart.
+     */
+    public int getInt(int i);
+
+    public IntStorage setInt(int i, int x);
+
+    /**
+     * Removes the value at {@code i}, if any.
+     */
+    public IntStorage remove(int i);
+
+    @Override
+    public boolean has(int i);
+
+    @Override
+    public default Integer get(final int i) {
+        if (has(i)) {
+            return getInt(i);
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public default Storage<Integer> set(final int i, final Integer x) {
+        if (x == null) {
+            return remove(i);
+        } else {
+            return setInt(i, x);
+        }
+    }
+
+    @Override
+    public IntStorage clearAll();
+
+    @Override
+    public IntStorage copy();
+
+    @Override
+    public IntStorage emptyCopy();
+
+    /**
+     * @return the sum of the values in {@code [start, end)}.
+     */
+    public default long sumInt(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        long ret = 0;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i)) {
+                ret += getInt(i);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the smallest value in {@code [start, end)}, as by
+     * {@link Math#min}, or {@code Integer.MAX_VALUE} if there is none.
+     */
+    public default int minInt(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        int ret = Integer.MAX_VALUE;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i)) {
+                ret = Math.min(ret, getInt(i));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the largest value in {@code [start, end)}, as by
+     * {@link Math#max}, or {@code Integer.MIN_VALUE} if there is none.
+     */
+    public default int maxInt(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        int ret = Integer.MIN_VALUE;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i)) {
+                ret = Math.max(ret, getInt(i));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the number of values in {@code [start, end)}.
+     */
+    public default int count(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        int ret = 0;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i)) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the first index in {@code [start, end)} whose value satisfies
+     * {@code p}, or -1 if there is none.
+     */
+    public default int findFirstInt(final IntPredicate p, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i) && p.test(getInt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sets every value in {@code [start, end)} that is {@code ==} to
+     * {@code expected} to {@code x}. Absent indices stay absent.
+     *
+     * @return the number of values replaced.
+     */
+    public default int replaceInt(final int expected, final int x, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        int ret = 0;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i) && getInt(i) == expected) {
+                setInt(i, x);
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Like {@link #valueStream()}, but without boxing.
+     */
+    public default IntStream valueStreamInt() {
+        return indexStream().map(this::getInt);
+    }
+}
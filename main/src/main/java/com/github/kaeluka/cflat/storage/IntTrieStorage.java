@@ -1,172 +1,102 @@
 package com.github.kaeluka.cflat.storage;
 
-import com.github.kaeluka.cflat.util.Mutable;
+import com.github.kaeluka.cflat.storage.IntKernels.Block;
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
 
-import java.util.Arrays;
+import java.util.function.IntPredicate;
 
 import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
 
-@SuppressWarnings({"WeakerAccess", "unchecked", "unused"})
-public class IntTrieStorage implements Storage<Integer> {
-    public final int[][][][] data = new int[0x80][][][];
-    private final static int EMPTY = Integer.MIN_VALUE;
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class IntTrieStorage extends BitmapTrieStorage<Block> implements IntStorage {
+    private final static long LEAF_BYTES = ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.REFERENCE)
+            + ObjectSizes.ARRAY_SIZE(new int[0x100])
+            + ObjectSizes.ARRAY_SIZE_OF_LONGS(Bitmaps.wordsFor(0x100));
 
-    private int maxIdx = -1;
-
-    public Integer get(final int idx) {
-        checkIndexIsNonnegative(idx);
-        assert idx >= 0;
-
-        int[][][] d1;
-        final int coord1 = idx >> 24 & 0x7F;
-        if ((d1 = data[coord1]) == null) {
-            return null;
-        }
-        int[][] d2;
-        final int coord2 = idx >> 16 & 0xFF;
-        if ((d2 = d1[coord2]) == null) {
-            return null;
-        }
-        int[] d3;
-        final int coord3 = idx >> 8 & 0xFF;
-        if ((d3 = d2[coord3]) == null) {
-            return null;
-        }
-
-        return readFromChunk(d3, idx & 0xFF);
+    @Override
+    Block newLeaf() {
+        return new Block(0x100);
     }
 
-    private static int[] newChunk() {
-        final int[] chunk = new int[0x100];
-        Arrays.fill(chunk, EMPTY);
-        return chunk;
-    }
-    private static Integer readFromChunk(int[] chunk, int idx) {
-        final int ret = chunk[idx];
-        if (ret == EMPTY) {
-            return null;
-        } else {
-            return ret;
-        }
+    @Override
+    long leafBytes() {
+        return LEAF_BYTES;
     }
 
     @Override
-    public Integer get2(final int idx, final Mutable<Integer> v2) {
+    public int getInt(final int idx) {
         checkIndexIsNonnegative(idx);
-        checkIndexIsNonnegative(idx+1);
-
-        int coord1 = idx >> 24 & 0x7F;
-        int coord2 = idx >> 16 & 0xFF;
-        int coord3 = idx >> 8 & 0xFF;
-        int coord4 = idx & 0xFF;
-
-        int[][][] d1;
-        int[][] d2;
-        int[] d3;
-        if ((d1 = data[coord1]) == null ||
-                (d2 = d1[coord2]) == null ||
-                (d3 = d2[coord3]) == null) {
-            return null;
-        }
-        if (coord4 != 0xFF) {
-            v2.x = readFromChunk(d3, coord4+1);
-        } else {
-            handleOverflow(v2, d1, coord1, d2, coord2, coord3);
-        }
-        return readFromChunk(d3, coord4);
-    }
-
-    private void handleOverflow(final Mutable<Integer> v2, final int[][][] d1, final int coord1, final int[][] d2, final int coord2, final int coord3) {
-        if (coord3 != 0xFF) {
-            v2.x = d2[coord3+1][0];
+        final Block leaf = getLeaf(idx);
+        if (leaf == null) {
+            return 0;
         } else {
-            if (coord2 != 0xFF) {
-                v2.x = readFromChunk(d1[coord2+1][0],0);
-            } else {
-                if (coord1 != 0xFF) {
-                    v2.x = readFromChunk(data[coord1+1][0][0], 0);
-                } else {
-                    throw new ArrayIndexOutOfBoundsException();
-                }
-            }
+            return leaf.values[getCoord4(idx)];
         }
     }
 
-    public Storage<Integer> set(final int idx, final Integer x) {
+    @Override
+    public IntStorage setInt(final int idx, final int x) {
         checkIndexIsNonnegative(idx);
-        if (idx > maxIdx) {
-            maxIdx = idx;
-        }
+        maxIdx = idx > maxIdx ? idx : maxIdx;
+        final Block leaf = getEnsureLeaf(idx);
+        final int coord4 = getCoord4(idx);
+        leaf.values[coord4] = x;
+        Bitmaps.set(leaf.present, coord4);
+        return this;
+    }
 
-        int[][][] d1;
-        int[][] d2;
-        int[] d3;
-        int coord1 = idx >> 24 & 0xFF;
-        if ((d1 = data[coord1]) == null) {
-            d1 = data[coord1] = new int[0x100][][];
-        }
-        int coord2 = idx >> 16 & 0xFF;
-        if ((d2 = d1[coord2]) == null) {
-            d2 = d1[coord2] = new int[0x100][];
-        }
-        int coord3 = idx >> 8 & 0xFF;
-        if ((d3 = d2[coord3]) == null) {
-            d3 = d2[coord3] = newChunk();
-        }
+    @Override
+    public IntStorage remove(final int idx) {
+        removeAt(idx);
+        return this;
+    }
 
-        d3[idx & 0xFF] = x == null ? EMPTY : x;
+    @Override
+    public IntStorage clearAll() {
+        clearLeaves();
         return this;
     }
 
-    public Storage<Integer> set2(final int idx, final Integer x, final Integer y) {
-        checkIndexIsNonnegative(idx);
-        checkIndexIsNonnegative(idx+1);
-        if (idx > maxIdx) {
-            maxIdx = idx;
-        }
+    @Override
+    public long sumInt(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return IntKernels.sum(blocks(), start, end);
+    }
 
-        int[][][] d1;
-        int[][] d2;
-        int[] d3;
-        final int coord1 = idx >> 24 & 0xFF;
-        if ((d1 = data[coord1]) == null) {
-            d1 = data[coord1] = new int[0x100][][];
-        }
-        final int coord2 = idx >> 16 & 0xFF;
-        if ((d2 = d1[coord2]) == null) {
-            d2 = d1[coord2] = new int[0x100][];
-        }
-        final int coord3 = idx >> 8 & 0xFF;
-        if ((d3 = d2[coord3]) == null) {
-            d3 = d2[coord3] = newChunk();
-        }
+    @Override
+    public int minInt(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return IntKernels.min(blocks(), start, end);
+    }
 
-        final int coord4 = idx & 0xFF;
-        d3[coord4] = x;
-        if (coord4 != 0xFF) {
-            d3[coord4+1] = y == null ? EMPTY : y;
-        } else {
-            set(idx+1, y);
-        }
-        return this;
+    @Override
+    public int maxInt(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return IntKernels.max(blocks(), start, end);
     }
 
-    public Storage<Integer> clearAll() {
-        Arrays.fill(data, null);
-        return this;
+    @Override
+    public int findFirstInt(final IntPredicate p, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return IntKernels.findFirst(blocks(), start, end, p);
     }
 
-    public int maxIdxOverapproximation() {
-        return maxIdx+1;
+    @Override
+    public int replaceInt(final int expected, final int x, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return IntKernels.replace(blocks(), start, end, expected, x);
     }
 
-    public Storage<Integer> emptyCopy() {
-        return new HashMapStorage<>();
-//        return new HashMapStorage<>(new IntHashMap<>());
+    @Override
+    public IntStorage copy() {
+        final IntTrieStorage ret = new IntTrieStorage();
+        copyInto(ret);
+        return ret;
     }
 
-    public long bytesUsed() {
-        System.err.println("returning bogus value for TrieStorage::bytesUsed");
-        return -1;
+    @Override
+    public IntStorage emptyCopy() {
+        return new IntTrieStorage();
     }
 }
@@ -1,90 +1,159 @@
 package com.github.kaeluka.cflat.storage;
 
+import com.github.kaeluka.cflat.traversal.GenericShape;
+
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.function.IntConsumer;
 import java.util.stream.IntStream;
 
 public interface Iteration extends Spliterators.AbstractSpliterator.OfInt {
-    public static <T> Spliterator.OfInt any(final int  start, final Object[] shape, Storage<T> s) {
+    /**
+     * A spliterator over the indices of the subtree rooted at {@code start},
+     * up to {@code s.maxIdxOverapproximation()}. The indices are visited
+     * layer by layer. For a shape whose subtrees are not known here, this
+     * falls back to {@link Storage#indexSpliterator()}.
+     */
+    public static <T> Spliterator.OfInt any(final int start, final Object[] shape, Storage<T> s) {
+        final int limit = s.maxIdxOverapproximation();
         if (start == 0) {
-            return IntStream.range(0, s.maxIdxOverapproximation()).spliterator();
+            // the whole storage:
+            return IntStream.range(0, Math.max(0, limit)).spliterator();
+        }
+        final int branchingFactor = branchingFactor(shape);
+        if (branchingFactor < 1) {
+            return s.indexSpliterator();
+        } else if (branchingFactor == 1) {
+            // a list's suffix:
+            return IntStream.range(start, Math.max(start, limit)).spliterator();
         } else {
-            return new TreeIndexSpliterator(start, 2 /*FIXME*/);
+            return new TreeIndexSpliterator(start, branchingFactor, limit);
+        }
+    }
+
+    /**
+     * @return the number of children of every node of {@code shape}, or -1
+     * if the shape is not a rep or star of a fixed number of children.
+     */
+    static int branchingFactor(final Object[] shape) {
+        if ((GenericShape.isRep(shape) || GenericShape.isStar(shape)) && shape[1] instanceof Integer) {
+            return (int) shape[1];
         }
+        return -1;
     }
 }
 
+/**
+ * Visits a subtree of a complete tree layer by layer. The current layer is
+ * the range {@code [lo, hi)}, clipped to the limit, and all later layers are
+ * the descendants of that range. Nodes at or beyond the limit only have
+ * descendants beyond the limit, so the iteration ends at the first empty
+ * layer.
+ */
 class TreeIndexSpliterator implements Iteration {
 
-    private int layerStart;
-    private int  layerSize;
-    private int  cursor;
-    private final int branchingFactor;
+    private final long branchingFactor;
+    private final long limit;
+    // a node to visit before the current layer, or -1
+    private long head = -1;
+    private long lo;
+    private long hi;
+    private long cursor;
 
-    TreeIndexSpliterator(final int layerStart, final int branchingFactor) {
-        this(layerStart, 1, branchingFactor);
+    TreeIndexSpliterator(final int start, final int branchingFactor, final int limit) {
+        this(start, start + 1L, branchingFactor, limit);
     }
 
-    TreeIndexSpliterator(final int layerStart, final int  layerSize, final int branchingFactor) {
-        assert(layerStart >= 0);
-        assert(layerSize > 0);
-        this.layerStart = layerStart;
-        this.layerSize = layerSize;
-        this.cursor = this.layerStart;
+    private TreeIndexSpliterator(final long lo, final long hi, final long branchingFactor, final long limit) {
+        assert lo >= 0;
+        assert branchingFactor > 1;
         this.branchingFactor = branchingFactor;
+        this.limit = limit;
+        this.lo = lo;
+        this.hi = Math.max(lo, Math.min(hi, limit));
+        this.cursor = lo;
+    }
+
+    private void moveDown() {
+        lo = lo * branchingFactor + 1;
+        hi = Math.max(lo, Math.min(hi * branchingFactor + 1, limit));
+        cursor = lo;
     }
 
     @Override
     public OfInt trySplit() {
-        if (cursor == 0) {
-            layerStart = layerStart*branchingFactor + 1;
-            return new TreeIndexSpliterator(
-                    2,
-                    branchingFactor - 1,
-                    branchingFactor);
+        if (cursor >= hi) {
+            if (lo >= limit) {
+                return null;
+            }
+            moveDown();
+            if (cursor >= hi) {
+                return null;
+            }
+        }
+        if (cursor > lo) {
+            // the descendants of [lo, cursor) stay with this spliterator
+            final TreeIndexSpliterator ret = new TreeIndexSpliterator(cursor, hi, branchingFactor, limit);
+            hi = cursor;
+            return ret;
         }
-        final int  leftSize = layerSize / 2;
-        layerSize = layerSize - leftSize;
-        final TreeIndexSpliterator ret = new TreeIndexSpliterator(
-                layerStart,
-                leftSize,
-                branchingFactor);
-        layerStart = layerStart + leftSize;
-        return ret;
+        if (hi - lo >= 2) {
+            final long mid = lo + (hi - lo) / 2;
+            final TreeIndexSpliterator ret = new TreeIndexSpliterator(mid, hi, branchingFactor, limit);
+            hi = mid;
+            return ret;
+        }
+        if (head < 0) {
+            // a single node: keep it and split its children
+            head = lo;
+            moveDown();
+            return cursor < hi ? trySplit() : null;
+        }
+        return null;
     }
 
     @Override
     public long estimateSize() {
-        return Integer.MAX_VALUE;
+        long size = (head >= 0 ? 1 : 0) + (hi - cursor);
+        long l = lo;
+        long h = hi;
+        while (l < limit) {
+            l = l * branchingFactor + 1;
+            h = Math.max(l, Math.min(h * branchingFactor + 1, limit));
+            size += h - l;
+        }
+        return size;
     }
 
     @Override
     public int characteristics() {
-        return DISTINCT | IMMUTABLE;
+        return DISTINCT | IMMUTABLE | NONNULL | SIZED | SUBSIZED;
         //Unfortunately, it is NOT ordered (splitting would need to return
         //a prefix of `this`, and that can't be easily done)
     }
 
-    private void moveDown() {
-        layerSize *= branchingFactor;
-        layerStart = layerStart*branchingFactor + 1;
-        cursor = layerStart;
-    }
-
     @Override
     public boolean tryAdvance(final IntConsumer action) {
-        action.accept(cursor);
-        cursor++;
-        if (cursor >= layerStart+layerSize) {
-            this.moveDown();
+        if (head >= 0) {
+            action.accept((int) head);
+            head = -1;
+            return true;
         }
+        if (cursor >= hi) {
+            if (lo >= limit) {
+                return false;
+            }
+            moveDown();
+            if (cursor >= hi) {
+                return false;
+            }
+        }
+        action.accept((int) cursor++);
         return true;
     }
 
     @Override
     public String toString() {
-        return this.getClass().getSimpleName()+"(start="+layerStart+", stepSize="+layerSize+", branching="+branchingFactor+")";
+        return this.getClass().getSimpleName()+"(layer=["+lo+", "+hi+"), cursor="+cursor+", branching="+branchingFactor+", limit="+limit+")";
     }
 }
-
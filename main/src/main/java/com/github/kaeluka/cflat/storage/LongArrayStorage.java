@@ -0,0 +1,158 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
+
+public final class LongArrayStorage extends BitmapArrayStorage implements LongStorage {
+    private long[] data;
+
+    public LongArrayStorage() {
+        this(new long[DEFAULT_SIZE], Bitmaps.forSize(DEFAULT_SIZE), -1);
+    }
+
+    private LongArrayStorage(final long[] data, final long[] present, final int maxIdx) {
+        super(present, maxIdx);
+        this.data = data;
+    }
+
+    @Override
+    Object values() {
+        return data;
+    }
+
+    @Override
+    int capacity() {
+        return data.length;
+    }
+
+    @Override
+    void resize(final int newSize) {
+        this.data = Arrays.copyOf(this.data, newSize);
+    }
+
+    @Override
+    public long getLong(final int i) {
+        checkIndexIsNonnegative(i);
+        if (i >= data.length) {
+            return 0;
+        } else {
+            return data[i];
+        }
+    }
+
+    @Override
+    public LongStorage setLong(final int i, final long x) {
+        checkIndexIsNonnegative(i);
+        maxIdx = i > maxIdx ? i : maxIdx;
+        ensureSize(i);
+        data[i] = x;
+        Bitmaps.set(present, i);
+        return this;
+    }
+
+    @Override
+    public LongStorage remove(final int i) {
+        checkIndexIsNonnegative(i);
+        if (i < data.length) {
+            data[i] = 0;
+            Bitmaps.clear(present, i);
+        }
+        return this;
+    }
+
+    @Override
+    public LongStorage clearAll() {
+        Arrays.fill(data, 0);
+        Arrays.fill(present, 0L);
+        maxIdx = -1;
+        return this;
+    }
+
+    @Override
+    public Storage<Long> setRange(final int pos, final Long x, final int length) {
+        IndexCheck.checkIndexIsNonnegative(pos);
+        IndexCheck.checkLengthIsNonnegative(length);
+        if (length > 0) {
+            final int end = pos + length;
+            if (x == null) {
+                final int _end = Math.min(end, data.length);
+                if (pos < _end) {
+                    Arrays.fill(data, pos, _end, 0);
+                    Bitmaps.setRange(present, pos, _end, false);
+                }
+            } else {
+                ensureSize(end - 1);
+                Arrays.fill(data, pos, end, x);
+                Bitmaps.setRange(present, pos, end, true);
+                maxIdx = end - 1 > maxIdx ? end - 1 : maxIdx;
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public Storage<Long> copyRange(final int source, final int dest, final int length) {
+        copyValues(source, dest, length);
+        return this;
+    }
+
+    @Override
+    public long sumLong(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? LongKernels.sum(data, present, start, _end) : 0;
+    }
+
+    @Override
+    public long minLong(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? LongKernels.min(data, present, start, _end, Long.MAX_VALUE) : Long.MAX_VALUE;
+    }
+
+    @Override
+    public long maxLong(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? LongKernels.max(data, present, start, _end, Long.MIN_VALUE) : Long.MIN_VALUE;
+    }
+
+    @Override
+    public int findFirstLong(final LongPredicate p, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? LongKernels.findFirst(data, present, start, _end, p) : -1;
+    }
+
+    @Override
+    public int replaceLong(final long expected, final long x, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = clip(end);
+        return start < _end ? LongKernels.replace(data, present, start, _end, expected, x) : 0;
+    }
+
+    @Override
+    public LongStorage copy() {
+        return new LongArrayStorage(
+                Arrays.copyOf(data, data.length),
+                Arrays.copyOf(present, present.length),
+                maxIdx);
+    }
+
+    @Override
+    public LongStorage emptyCopy() {
+        return new LongArrayStorage();
+    }
+
+    @Override
+    public long bytesUsed() {
+        return ObjectSizes.OBJECT_SIZE(ObjectSizes.INT + 2 * ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAY_SIZE(this.data)
+                + ObjectSizes.ARRAY_SIZE(this.present);
+    }
+}
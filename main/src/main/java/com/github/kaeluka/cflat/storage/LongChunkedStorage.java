@@ -0,0 +1,107 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.LongKernels.Block;
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.function.LongPredicate;
+
+import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
+
+public class LongChunkedStorage extends BitmapChunkedStorage<Block> implements LongStorage {
+    private final static long CHUNK_BYTES = ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.REFERENCE)
+            + ObjectSizes.ARRAY_SIZE(new long[CHUNK_SIZE])
+            + ObjectSizes.ARRAY_SIZE_OF_LONGS(Bitmaps.wordsFor(CHUNK_SIZE));
+
+    public LongChunkedStorage() {
+        super();
+    }
+
+    private LongChunkedStorage(final BitmapBlocks.Block[] chunks, final int maxIdx, final int chunkCount) {
+        super(chunks, maxIdx, chunkCount);
+    }
+
+    @Override
+    Block newChunk() {
+        return new Block(CHUNK_SIZE);
+    }
+
+    @Override
+    long chunkBytes() {
+        return CHUNK_BYTES;
+    }
+
+    @Override
+    public long getLong(final int i) {
+        checkIndexIsNonnegative(i);
+        final Block chunk = getChunk(i);
+        if (chunk == null) {
+            return 0;
+        } else {
+            return chunk.values[idxWithinChunk(i)];
+        }
+    }
+
+    @Override
+    public LongStorage setLong(final int i, final long x) {
+        checkIndexIsNonnegative(i);
+        maxIdx = i > maxIdx ? i : maxIdx;
+        final Block chunk = getEnsureChunk(i);
+        final int idxWithin = idxWithinChunk(i);
+        chunk.values[idxWithin] = x;
+        Bitmaps.set(chunk.present, idxWithin);
+        return this;
+    }
+
+    @Override
+    public LongStorage remove(final int i) {
+        removeAt(i);
+        return this;
+    }
+
+    @Override
+    public LongStorage clearAll() {
+        clearChunks();
+        return this;
+    }
+
+    @Override
+    public long sumLong(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return LongKernels.sum(blocks(), start, end);
+    }
+
+    @Override
+    public long minLong(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return LongKernels.min(blocks(), start, end);
+    }
+
+    @Override
+    public long maxLong(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return LongKernels.max(blocks(), start, end);
+    }
+
+    @Override
+    public int findFirstLong(final LongPredicate p, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return LongKernels.findFirst(blocks(), start, end, p);
+    }
+
+    @Override
+    public int replaceLong(final long expected, final long x, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return LongKernels.replace(blocks(), start, end, expected, x);
+    }
+
+    @Override
+    public LongStorage copy() {
+        return new LongChunkedStorage(copyChunks(), maxIdx, chunkCount());
+    }
+
+    @Override
+    public LongStorage emptyCopy() {
+        return new LongChunkedStorage(new BitmapBlocks.Block[chunksLength()], -1, 0);
+    }
+}
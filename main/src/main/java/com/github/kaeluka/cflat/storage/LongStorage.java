@@ -0,0 +1,166 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.function.LongPredicate;
+import java.util.stream.LongStream;
+
+/**
+ * A storage of unboxed {@code long} values. Presence is tracked separately
+ * from the values, so every {@code long} (including {@code 0} and {@code Long.MIN_VALUE}) can be
+ * stored.
+ *
+ * The boxed {@link Storage} methods are still available, but hot code should
+ * use {@link #has(int)}, {@link #getLong(int)} and {@link #setLong(int, long)}
+ * to avoid boxing. The bulk operations, like {@link #sumLong(int, int)}, work
+ * on a range of indices and only look at the present values; the storages
+ * in this package implement them without looking at indices one by one.
+ */
+public interface LongStorage extends Storage<Long> {
+
+    /**
+     * @return the value at {@code i}, or {@code 0} if there is none. Use
+     * {@link #has(int)} to tell the two apart.
+     */
+    public long getLong(int i);
+
+    public LongStorage setLong(int i, long x);
+
+    /**
+     * Removes the value at {@code i}, if any.
+     */
+    public LongStorage remove(int i);
+
+    @Override
+    public boolean has(int i);
+
+    @Override
+    public default Long get(final int i) {
+        if (has(i)) {
+            return getLong(i);
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public default Storage<Long> set(final int i, final Long x) {
+        if (x == null) {
+            return remove(i);
+        } else {
+            return setLong(i, x);
+        }
+    }
+
+    @Override
+    public LongStorage clearAll();
+
+    @Override
+    public LongStorage copy();
+
+    @Override
+    public LongStorage emptyCopy();
+
+    /**
+     * @return the sum of the values in {@code [start, end)}.
+     */
+    public default long sumLong(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        long ret = 0;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i)) {
+                ret += getLong(i);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the smallest value in {@code [start, end)}, as by
+     * {@link Math#min}, or {@code Long.MAX_VALUE} if there is none.
+     */
+    public default long minLong(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        long ret = Long.MAX_VALUE;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i)) {
+                ret = Math.min(ret, getLong(i));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the largest value in {@code [start, end)}, as by
+     * {@link Math#max}, or {@code Long.MIN_VALUE} if there is none.
+     */
+    public default long maxLong(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        long ret = Long.MIN_VALUE;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i)) {
+                ret = Math.max(ret, getLong(i));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the number of values in {@code [start, end)}.
+     */
+    public default int count(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        int ret = 0;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i)) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the first index in {@code [start, end)} whose value satisfies
+     * {@code p}, or -1 if there is none.
+     */
+    public default int findFirstLong(final LongPredicate p, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i) && p.test(getLong(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sets every value in {@code [start, end)} that is {@code ==} to
+     * {@code expected} to {@code x}. Absent indices stay absent.
+     *
+     * @return the number of values replaced.
+     */
+    public default int replaceLong(final long expected, final long x, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        int ret = 0;
+        final int _end = Math.min(end, maxIdxOverapproximation());
+        for (int i = start; i < _end; i++) {
+            if (has(i) && getLong(i) == expected) {
+                setLong(i, x);
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Like {@link #valueStream()}, but without boxing.
+     */
+    public default LongStream valueStreamLong() {
+        return indexStream().mapToLong(this::getLong);
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.LongKernels.Block;
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.function.LongPredicate;
+
+import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
+
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class LongTrieStorage extends BitmapTrieStorage<Block> implements LongStorage {
+    private final static long LEAF_BYTES = ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.REFERENCE)
+            + ObjectSizes.ARRAY_SIZE(new long[0x100])
+            + ObjectSizes.ARRAY_SIZE_OF_LONGS(Bitmaps.wordsFor(0x100));
+
+    @Override
+    Block newLeaf() {
+        return new Block(0x100);
+    }
+
+    @Override
+    long leafBytes() {
+        return LEAF_BYTES;
+    }
+
+    @Override
+    public long getLong(final int idx) {
+        checkIndexIsNonnegative(idx);
+        final Block leaf = getLeaf(idx);
+        if (leaf == null) {
+            return 0;
+        } else {
+            return leaf.values[getCoord4(idx)];
+        }
+    }
+
+    @Override
+    public LongStorage setLong(final int idx, final long x) {
+        checkIndexIsNonnegative(idx);
+        maxIdx = idx > maxIdx ? idx : maxIdx;
+        final Block leaf = getEnsureLeaf(idx);
+        final int coord4 = getCoord4(idx);
+        leaf.values[coord4] = x;
+        Bitmaps.set(leaf.present, coord4);
+        return this;
+    }
+
+    @Override
+    public LongStorage remove(final int idx) {
+        removeAt(idx);
+        return this;
+    }
+
+    @Override
+    public LongStorage clearAll() {
+        clearLeaves();
+        return this;
+    }
+
+    @Override
+    public long sumLong(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return LongKernels.sum(blocks(), start, end);
+    }
+
+    @Override
+    public long minLong(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return LongKernels.min(blocks(), start, end);
+    }
+
+    @Override
+    public long maxLong(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return LongKernels.max(blocks(), start, end);
+    }
+
+    @Override
+    public int findFirstLong(final LongPredicate p, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return LongKernels.findFirst(blocks(), start, end, p);
+    }
+
+    @Override
+    public int replaceLong(final long expected, final long x, final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return LongKernels.replace(blocks(), start, end, expected, x);
+    }
+
+    @Override
+    public LongStorage copy() {
+        final LongTrieStorage ret = new LongTrieStorage();
+        copyInto(ret);
+        return ret;
+    }
+
+    @Override
+    public LongStorage emptyCopy() {
+        return new LongTrieStorage();
+    }
+}
@@ -0,0 +1,540 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A chunked storage whose chunks live in a memory-mapped file, so that it
+ * survives restarts. Reopening a file only reads its header; chunks are
+ * mapped when they are first accessed and their pages are loaded lazily by
+ * the OS.
+ *
+ * Chunk {@code c} lives at a fixed offset in the file, so absent chunks are
+ * holes in a sparse file. Each chunk holds a presence bitmap followed by the
+ * encoded values. Fixed-width values are stored in place using a
+ * {@link FixedWidthCodec}. Variable-size values (see {@link #openWithLog})
+ * are appended to a side log next to the data file, and their slots hold the
+ * log offset. Overwriting a logged value does not reclaim its old entry.
+ *
+ * Changes are durable after {@link #flush()} or {@link #close()}.
+ * {@link #copy()} and {@link #emptyCopy()} create new files in the
+ * {@linkplain #withCopyDirectory copy directory}, which defaults to the
+ * directory of the data file.
+ *
+ * @param <T> the type of the stored values
+ */
+public class MappedStorage<T> implements Storage<T>, AutoCloseable {
+    private final static int CHUNK_SIZE = 1 << 16;
+    private final static int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_SIZE);
+    private final static int BITMAP_BYTES = CHUNK_SIZE / Byte.SIZE;
+    private final static int DEFAULT_CHUNKS_SIZE = 8;
+    private final static ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    private final static String LOG_SUFFIX = ".log";
+
+    // header layout; chunks start at HEADER_BYTES so they are page aligned
+    private final static int HEADER_BYTES = 4096;
+    private final static long MAGIC = 0x63666c61744d6170L; // "cflatMap"
+    private final static int VERSION = 1;
+    private final static int MAGIC_OFFSET = 0;
+    private final static int VERSION_OFFSET = 8;
+    private final static int WIDTH_OFFSET = 12;
+    private final static int CHUNK_SIZE_OFFSET = 16;
+    private final static int LOGGED_OFFSET = 20;
+    private final static int MAX_IDX_OFFSET = 24;
+    private final static int LOG_END_OFFSET = 32;
+
+    private final Path file;
+    private final FixedWidthCodec<T> fixedCodec;
+    private final VariableWidthCodec<T> variableCodec;
+    private final FixedWidthCodec<T> slotCodec;
+    private final int width;
+    private FileChannel channel;
+    private FileChannel logChannel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] chunks = new MappedByteBuffer[DEFAULT_CHUNKS_SIZE];
+    // the number of mapped chunks, for bytesUsed
+    private int mappedChunks;
+    private long fileSize;
+    private int maxIdx;
+    private long logEnd;
+    private Path copyDirectory;
+
+    private MappedStorage(final Path file,
+                          final FixedWidthCodec<T> fixedCodec,
+                          final VariableWidthCodec<T> variableCodec) throws IOException {
+        this.file = file;
+        this.fixedCodec = fixedCodec;
+        this.variableCodec = variableCodec;
+        this.slotCodec = variableCodec == null ? fixedCodec : new LogCodec();
+        this.width = slotCodec.width();
+        if (width <= 0) {
+            throw new IllegalArgumentException("codec width must be positive, was "+width);
+        }
+        this.copyDirectory = file.toAbsolutePath().getParent();
+
+        this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+        try {
+            this.fileSize = channel.size();
+            final boolean fresh = fileSize == 0;
+            if (!fresh && fileSize < HEADER_BYTES) {
+                throw new IOException(file+" is not a mapped storage file");
+            }
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ORDER);
+            if (fresh) {
+                header.putLong(MAGIC_OFFSET, MAGIC);
+                header.putInt(VERSION_OFFSET, VERSION);
+                header.putInt(WIDTH_OFFSET, width);
+                header.putInt(CHUNK_SIZE_OFFSET, CHUNK_SIZE);
+                header.putInt(LOGGED_OFFSET, isLogged() ? 1 : 0);
+                header.putInt(MAX_IDX_OFFSET, -1);
+                header.putLong(LOG_END_OFFSET, 0);
+                fileSize = HEADER_BYTES;
+            } else {
+                checkHeader();
+            }
+            this.maxIdx = header.getInt(MAX_IDX_OFFSET);
+            this.logEnd = header.getLong(LOG_END_OFFSET);
+            if (isLogged()) {
+                this.logChannel = FileChannel.open(logFileFor(file), CREATE, READ, WRITE);
+            }
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the storage in {@code file}, creating the file if it does not
+     * exist yet. An existing file must have been written with a codec of the
+     * same width.
+     */
+    public static <T> MappedStorage<T> open(final Path file, final FixedWidthCodec<T> codec) throws IOException {
+        return new MappedStorage<>(file, codec, null);
+    }
+
+    /**
+     * Opens the storage in {@code file}, keeping the encoded values in a
+     * side log next to it (the same path, with {@code .log} appended).
+     */
+    public static <T> MappedStorage<T> openWithLog(final Path file, final VariableWidthCodec<T> codec) throws IOException {
+        return new MappedStorage<>(file, null, codec);
+    }
+
+    public static Path logFileFor(final Path file) {
+        return file.resolveSibling(file.getFileName() + LOG_SUFFIX);
+    }
+
+    /**
+     * Sets the directory in which {@link #copy()} and {@link #emptyCopy()}
+     * create their files.
+     */
+    public MappedStorage<T> withCopyDirectory(final Path directory) {
+        this.copyDirectory = directory;
+        return this;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    private boolean isLogged() {
+        return variableCodec != null;
+    }
+
+    private void checkHeader() throws IOException {
+        if (header.getLong(MAGIC_OFFSET) != MAGIC) {
+            throw new IOException(file+" is not a mapped storage file");
+        }
+        if (header.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException(file+" has unsupported version "+header.getInt(VERSION_OFFSET));
+        }
+        if (header.getInt(CHUNK_SIZE_OFFSET) != CHUNK_SIZE) {
+            throw new IOException(file+" has chunk size "+header.getInt(CHUNK_SIZE_OFFSET)+", expected "+CHUNK_SIZE);
+        }
+        if (header.getInt(WIDTH_OFFSET) != width
+                || header.getInt(LOGGED_OFFSET) != (isLogged() ? 1 : 0)) {
+            throw new IOException(file+" was written with a different codec");
+        }
+    }
+
+    private static int idxOfChunk(final int i) {
+        return i >> CHUNK_SHIFT;
+    }
+
+    private static int idxWithinChunk(final int i) {
+        return i & (CHUNK_SIZE - 1);
+    }
+
+    private long chunkBytes() {
+        return BITMAP_BYTES + (long) CHUNK_SIZE * width;
+    }
+
+    private long chunkOffset(final int chunk_no) {
+        return HEADER_BYTES + chunk_no * chunkBytes();
+    }
+
+    private int chunksInFile() {
+        return (int) ((fileSize - HEADER_BYTES) / chunkBytes());
+    }
+
+    private int valueOffset(final int idxWithin) {
+        return BITMAP_BYTES + idxWithin * width;
+    }
+
+    private static int wordOffset(final int idxWithin) {
+        return (idxWithin >>> 6) << 3;
+    }
+
+    private static boolean isPresent(final ByteBuffer chunk, final int idxWithin) {
+        return (chunk.getLong(wordOffset(idxWithin)) & (1L << idxWithin)) != 0;
+    }
+
+    private static void setPresent(final ByteBuffer chunk, final int idxWithin, final boolean present) {
+        final int off = wordOffset(idxWithin);
+        final long word = chunk.getLong(off);
+        chunk.putLong(off, present ? word | (1L << idxWithin) : word & ~(1L << idxWithin));
+    }
+
+    private void checkOpen() {
+        if (channel == null) {
+            throw new IllegalStateException("storage is closed");
+        }
+    }
+
+    private MappedByteBuffer mapChunk(final int chunk_no) {
+        if (chunk_no >= chunks.length) {
+            //next power of two
+            final int newLength = 1 << (32 - Integer.numberOfLeadingZeros(chunk_no));
+            chunks = Arrays.copyOf(chunks, newLength);
+        }
+        try {
+            final long offset = chunkOffset(chunk_no);
+            // mapping beyond the end of the file grows the file:
+            final MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, offset, chunkBytes());
+            chunk.order(ORDER);
+            fileSize = Math.max(fileSize, offset + chunkBytes());
+            mappedChunks++;
+            return chunks[chunk_no] = chunk;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MappedByteBuffer getChunk(final int i) {
+        checkOpen();
+        final int chunk_no = idxOfChunk(i);
+        if (chunk_no < chunks.length && chunks[chunk_no] != null) {
+            return chunks[chunk_no];
+        }
+        if (chunk_no >= chunksInFile()) {
+            return null;
+        }
+        return mapChunk(chunk_no);
+    }
+
+    private MappedByteBuffer getEnsureChunk(final int i) {
+        final MappedByteBuffer chunk = getChunk(i);
+        return chunk != null ? chunk : mapChunk(idxOfChunk(i));
+    }
+
+    @Override
+    public T get(final int i) {
+        checkIndexIsNonnegative(i);
+        final ByteBuffer chunk = getChunk(i);
+        if (chunk == null) {
+            return null;
+        }
+        final int idxWithin = idxWithinChunk(i);
+        if (!isPresent(chunk, idxWithin)) {
+            return null;
+        }
+        return slotCodec.read(chunk, valueOffset(idxWithin));
+    }
+
+    @Override
+    public boolean has(final int i) {
+        checkIndexIsNonnegative(i);
+        final ByteBuffer chunk = getChunk(i);
+        return chunk != null && isPresent(chunk, idxWithinChunk(i));
+    }
+
+    @Override
+    public Storage<T> set(final int i, final T x) {
+        checkIndexIsNonnegative(i);
+        if (x == null) {
+            final ByteBuffer chunk = getChunk(i);
+            if (chunk != null) {
+                setPresent(chunk, idxWithinChunk(i), false);
+            }
+            return this;
+        }
+        if (i > maxIdx) {
+            maxIdx = i;
+            header.putInt(MAX_IDX_OFFSET, i);
+        }
+        final ByteBuffer chunk = getEnsureChunk(i);
+        final int idxWithin = idxWithinChunk(i);
+        slotCodec.write(chunk, valueOffset(idxWithin), x);
+        setPresent(chunk, idxWithin, true);
+        return this;
+    }
+
+    @Override
+    public Storage<T> clearAll() {
+        checkOpen();
+        unmapChunks();
+        try {
+            channel.truncate(HEADER_BYTES);
+            if (isLogged()) {
+                logChannel.truncate(0);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        fileSize = HEADER_BYTES;
+        maxIdx = -1;
+        logEnd = 0;
+        header.putInt(MAX_IDX_OFFSET, maxIdx);
+        header.putLong(LOG_END_OFFSET, logEnd);
+        return this;
+    }
+
+    @Override
+    public int maxIdxOverapproximation() {
+        return maxIdx+1;
+    }
+
+    @Override
+    public int maxIdx() {
+        checkOpen();
+        if (maxIdx < 0) {
+            return 0;
+        }
+        final int words = BITMAP_BYTES / Long.BYTES;
+        for (int c = Math.min(idxOfChunk(maxIdx), chunksInFile() - 1); c >= 0; c--) {
+            final ByteBuffer chunk = getChunk(c << CHUNK_SHIFT);
+            for (int w = words - 1; w >= 0; w--) {
+                final long word = chunk.getLong(w << 3);
+                if (word != 0) {
+                    return (c << CHUNK_SHIFT) + (w << 6) + 64 - Long.numberOfLeadingZeros(word);
+                }
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void foreachNonNull(final IntConsumer f) {
+        checkOpen();
+        final int words = BITMAP_BYTES / Long.BYTES;
+        final int nChunks = chunksInFile();
+        for (int c = 0; c < nChunks; c++) {
+            final ByteBuffer chunk = getChunk(c << CHUNK_SHIFT);
+            for (int w = 0; w < words; w++) {
+                long word = chunk.getLong(w << 3);
+                while (word != 0) {
+                    f.accept((c << CHUNK_SHIFT) + (w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    private MappedStorage<T> openSibling(final Path target) throws IOException {
+        final MappedStorage<T> ret = new MappedStorage<>(target, fixedCodec, variableCodec);
+        ret.copyDirectory = copyDirectory;
+        return ret;
+    }
+
+    private Path newFileInCopyDirectory() throws IOException {
+        return Files.createTempFile(copyDirectory, "cflat-", ".mapped");
+    }
+
+    /**
+     * Copies the data file (and side log) into a new file in the copy
+     * directory and opens it.
+     */
+    @Override
+    public MappedStorage<T> copy() {
+        flush();
+        try {
+            final Path target = newFileInCopyDirectory();
+            Files.copy(file, target, REPLACE_EXISTING);
+            if (isLogged()) {
+                Files.copy(logFileFor(file), logFileFor(target), REPLACE_EXISTING);
+            }
+            return openSibling(target);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Opens an empty storage in a new file in the copy directory.
+     */
+    @Override
+    public MappedStorage<T> emptyCopy() {
+        checkOpen();
+        try {
+            final Path target = newFileInCopyDirectory();
+            // createTempFile leaves an empty file, which open treats as new
+            return openSibling(target);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Counts the header and all chunks that are currently mapped, whether or
+     * not the OS has loaded their pages. The side log is read on demand and
+     * is not counted.
+     */
+    @Override
+    public long bytesUsed() {
+        checkOpen();
+        return ObjectSizes.OBJECT_SIZE(9 * ObjectSizes.REFERENCE
+                        + 3 * ObjectSizes.INT
+                        + 2 * ObjectSizes.LONG)
+                + ObjectSizes.ARRAY_SIZE(chunks)
+                + HEADER_BYTES
+                + (long) mappedChunks * chunkBytes();
+    }
+
+    /**
+     * Writes all changes through to the file system.
+     */
+    public void flush() {
+        checkOpen();
+        header.force();
+        for (final MappedByteBuffer chunk : chunks) {
+            if (chunk != null) {
+                chunk.force();
+            }
+        }
+        if (isLogged()) {
+            try {
+                logChannel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public boolean isClosed() {
+        return channel == null;
+    }
+
+    /**
+     * Flushes and unmaps the storage. Closing a closed storage has no effect.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            release();
+        }
+    }
+
+    private void release() throws IOException {
+        unmapChunks();
+        DirectBuffers.free(header);
+        header = null;
+        try {
+            channel.close();
+        } finally {
+            channel = null;
+            if (logChannel != null) {
+                logChannel.close();
+                logChannel = null;
+            }
+        }
+    }
+
+    private void unmapChunks() {
+        for (int c = 0; c < chunks.length; c++) {
+            DirectBuffers.free(chunks[c]);
+            chunks[c] = null;
+        }
+        mappedChunks = 0;
+    }
+
+    private long append(final byte[] bytes) {
+        final ByteBuffer entry = ByteBuffer.allocate(Integer.BYTES + bytes.length).order(ORDER);
+        entry.putInt(bytes.length).put(bytes).flip();
+        final long pos = logEnd;
+        try {
+            long at = pos;
+            while (entry.hasRemaining()) {
+                at += logChannel.write(entry, at);
+            }
+            logEnd = at;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        header.putLong(LOG_END_OFFSET, logEnd);
+        return pos;
+    }
+
+    private byte[] readEntry(final long pos) {
+        try {
+            final ByteBuffer len = ByteBuffer.allocate(Integer.BYTES).order(ORDER);
+            readFully(len, pos);
+            final ByteBuffer bytes = ByteBuffer.allocate(len.getInt(0));
+            readFully(bytes, pos + Integer.BYTES);
+            return bytes.array();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void readFully(final ByteBuffer buf, final long pos) throws IOException {
+        long at = pos;
+        while (buf.hasRemaining()) {
+            final int n = logChannel.read(buf, at);
+            if (n < 0) {
+                throw new EOFException("side log of "+file+" ends at "+at);
+            }
+            at += n;
+        }
+    }
+
+    /**
+     * Stores the log offset of a value in its slot.
+     */
+    private final class LogCodec implements FixedWidthCodec<T> {
+        @Override
+        public int width() {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void write(final ByteBuffer buf, final int offset, final T x) {
+            buf.putLong(offset, append(variableCodec.encode(x)));
+        }
+
+        @Override
+        public T read(final ByteBuffer buf, final int offset) {
+            return variableCodec.decode(readEntry(buf.getLong(offset)));
+        }
+    }
+}
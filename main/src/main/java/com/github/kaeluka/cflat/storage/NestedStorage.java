@@ -98,13 +98,53 @@ public interface NestedStorage<T> extends Storage<Storage<T>> {
 
             @Override
             public long bytesUsed() {
-                return -1;
+                // a view: the nested storage owns the memory
+                return 0;
             }
         }
 
         return new DefaultColStorage();
     }
 
+    /**
+     * Reads a cell. Unlike {@code get(row).get(col)}, this does not create
+     * the row if it is absent, and layouts implement it without a row
+     * object.
+     */
+    default T get(final int row, final int col) {
+        return has(row) ? get(row).get(col) : null;
+    }
+
+    /**
+     * Does what {@code get(row).set(col, x)} does. Layouts implement it
+     * without a row object.
+     */
+    default NestedStorage<T> set(final int row, final int col, final T x) {
+        get(row).set(col, x);
+        return this;
+    }
+
+    /**
+     * Calls {@code f} with every non-null cell. Layouts override this to
+     * walk their cells in the order they store them, without a row object
+     * per row; the default goes through the rows {@code get} returns.
+     */
+    default void foreachCell(final CellConsumer<? super T> f) {
+        this.foreachNonNull(row -> {
+            final Storage<T> r = get(row);
+            r.foreachNonNull(col -> f.accept(row, col, r.get(col)));
+        });
+    }
+
+    /**
+     * Storages that buffer writes merge them into their main layout here.
+     * Reads do this on their own, so calling {@code compact} is only ever
+     * needed to choose when that work happens, e.g. at the end of a bulk
+     * insertion.
+     */
+    default void compact() {
+    }
+
     default NestedStorage<T> copyNested() {
         final NestedStorage<T> cp = (NestedStorage<T>) emptyCopy();
 //        this.foreachNonNull(row -> cp.get(row).addAll(this.get(row)) );
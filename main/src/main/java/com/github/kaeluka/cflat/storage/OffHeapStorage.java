@@ -0,0 +1,301 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
+
+/**
+ * A chunked storage that keeps its values outside of the Java heap, in
+ * direct {@link ByteBuffer}s. Values are encoded with a
+ * {@link FixedWidthCodec}, so only fixed-width types can be stored.
+ *
+ * Each chunk holds a presence bitmap followed by {@code CHUNK_SIZE} encoded
+ * values. The off-heap memory is released by {@link #close()}; using the
+ * storage afterwards throws an {@link IllegalStateException}. Storages that
+ * are never closed are freed once they become unreachable.
+ *
+ * @param <T> the type of the stored values
+ */
+public class OffHeapStorage<T> implements Storage<T>, AutoCloseable {
+    private final static int CHUNK_SIZE = 1024;
+    private final static int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_SIZE);
+    private final static int BITMAP_BYTES = CHUNK_SIZE / Byte.SIZE;
+    private final static int DEFAULT_CHUNKS_SIZE = 8;
+    // the on-heap part of a direct buffer: mark, position, limit, capacity,
+    // address, byte order flags, and references to att, cleaner, fd
+    private final static long DIRECT_BUFFER_HEADER = ObjectSizes.OBJ_HEADER
+            + 4 * ObjectSizes.INT
+            + ObjectSizes.LONG
+            + 2 * ObjectSizes.BOOLEAN
+            + 3 * ObjectSizes.REFERENCE;
+    private final FixedWidthCodec<T> codec;
+    private final int width;
+    private ByteBuffer[] chunks;
+    private int maxIdx = -1;
+    private long offHeapBytes = 0;
+    // the number of allocated chunks, for bytesUsed
+    private int chunkCount = 0;
+
+    public OffHeapStorage(final FixedWidthCodec<T> codec) {
+        this(codec, new ByteBuffer[DEFAULT_CHUNKS_SIZE]);
+    }
+
+    private OffHeapStorage(final FixedWidthCodec<T> codec, final ByteBuffer[] chunks) {
+        if (codec.width() <= 0) {
+            throw new IllegalArgumentException("codec width must be positive, was "+codec.width());
+        }
+        this.codec = codec;
+        this.width = codec.width();
+        this.chunks = chunks;
+    }
+
+    public static OffHeapStorage<Integer> ofInts() {
+        return new OffHeapStorage<>(FixedWidthCodec.INT);
+    }
+
+    public static OffHeapStorage<Long> ofLongs() {
+        return new OffHeapStorage<>(FixedWidthCodec.LONG);
+    }
+
+    public static OffHeapStorage<Double> ofDoubles() {
+        return new OffHeapStorage<>(FixedWidthCodec.DOUBLE);
+    }
+
+    public FixedWidthCodec<T> codec() {
+        return codec;
+    }
+
+    private static int idxOfChunk(final int i) {
+        return i >> CHUNK_SHIFT;
+    }
+
+    private static int idxWithinChunk(final int i) {
+        return i & (CHUNK_SIZE - 1);
+    }
+
+    private int chunkBytes() {
+        return BITMAP_BYTES + CHUNK_SIZE * width;
+    }
+
+    private int valueOffset(final int idxWithin) {
+        return BITMAP_BYTES + idxWithin * width;
+    }
+
+    private static int wordOffset(final int idxWithin) {
+        return (idxWithin >>> 6) << 3;
+    }
+
+    private static boolean isPresent(final ByteBuffer chunk, final int idxWithin) {
+        return (chunk.getLong(wordOffset(idxWithin)) & (1L << idxWithin)) != 0;
+    }
+
+    private static void setPresent(final ByteBuffer chunk, final int idxWithin, final boolean present) {
+        final int off = wordOffset(idxWithin);
+        final long word = chunk.getLong(off);
+        chunk.putLong(off, present ? word | (1L << idxWithin) : word & ~(1L << idxWithin));
+    }
+
+    private ByteBuffer[] chunks() {
+        if (chunks == null) {
+            throw new IllegalStateException("storage is closed");
+        }
+        return chunks;
+    }
+
+    private ByteBuffer allocateChunk() {
+        // allocateDirect zeroes the memory, so all presence bits start out unset
+        final ByteBuffer chunk = ByteBuffer.allocateDirect(chunkBytes()).order(ByteOrder.nativeOrder());
+        offHeapBytes += chunk.capacity();
+        chunkCount++;
+        return chunk;
+    }
+
+    private ByteBuffer getChunk(final int i) {
+        final ByteBuffer[] chunks = chunks();
+        final int chunk_no = idxOfChunk(i);
+        if (chunk_no >= chunks.length) {
+            return null;
+        } else {
+            return chunks[chunk_no];
+        }
+    }
+
+    private ByteBuffer getEnsureChunk(final int i) {
+        final int chunk_no = idxOfChunk(i);
+        if (chunk_no >= chunks().length) {
+            //next power of two
+            final int newLength = 1 << (32 - Integer.numberOfLeadingZeros(chunk_no));
+            chunks = Arrays.copyOf(chunks, newLength);
+        }
+        ByteBuffer chunk = chunks[chunk_no];
+        if (chunk == null) {
+            chunk = chunks[chunk_no] = allocateChunk();
+        }
+        return chunk;
+    }
+
+    @Override
+    public T get(final int i) {
+        checkIndexIsNonnegative(i);
+        final ByteBuffer chunk = getChunk(i);
+        if (chunk == null) {
+            return null;
+        }
+        final int idxWithin = idxWithinChunk(i);
+        if (!isPresent(chunk, idxWithin)) {
+            return null;
+        }
+        return codec.read(chunk, valueOffset(idxWithin));
+    }
+
+    @Override
+    public boolean has(final int i) {
+        checkIndexIsNonnegative(i);
+        final ByteBuffer chunk = getChunk(i);
+        return chunk != null && isPresent(chunk, idxWithinChunk(i));
+    }
+
+    @Override
+    public Storage<T> set(final int i, final T x) {
+        checkIndexIsNonnegative(i);
+        if (x == null) {
+            final ByteBuffer chunk = getChunk(i);
+            if (chunk != null) {
+                setPresent(chunk, idxWithinChunk(i), false);
+            }
+            return this;
+        }
+        maxIdx = i > maxIdx ? i : maxIdx;
+        final ByteBuffer chunk = getEnsureChunk(i);
+        final int idxWithin = idxWithinChunk(i);
+        codec.write(chunk, valueOffset(idxWithin), x);
+        setPresent(chunk, idxWithin, true);
+        return this;
+    }
+
+    @Override
+    public Storage<T> clearAll() {
+        final int length = chunks().length;
+        freeChunks();
+        this.chunks = new ByteBuffer[length];
+        return this;
+    }
+
+    @Override
+    public int maxIdxOverapproximation() {
+        return maxIdx+1;
+    }
+
+    @Override
+    public int maxIdx() {
+        final ByteBuffer[] chunks = chunks();
+        if (maxIdx < 0) {
+            return 0;
+        }
+        final int words = BITMAP_BYTES / Long.BYTES;
+        for (int c = Math.min(idxOfChunk(maxIdx), chunks.length - 1); c >= 0; c--) {
+            final ByteBuffer chunk = chunks[c];
+            if (chunk != null) {
+                for (int w = words - 1; w >= 0; w--) {
+                    final long word = chunk.getLong(w << 3);
+                    if (word != 0) {
+                        return (c << CHUNK_SHIFT) + (w << 6) + 64 - Long.numberOfLeadingZeros(word);
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void foreachNonNull(final IntConsumer f) {
+        final ByteBuffer[] chunks = chunks();
+        final int words = BITMAP_BYTES / Long.BYTES;
+        for (int c = 0; c < chunks.length; c++) {
+            final ByteBuffer chunk = chunks[c];
+            if (chunk != null) {
+                for (int w = 0; w < words; w++) {
+                    long word = chunk.getLong(w << 3);
+                    while (word != 0) {
+                        f.accept((c << CHUNK_SHIFT) + (w << 6) + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public OffHeapStorage<T> copy() {
+        final ByteBuffer[] chunks = chunks();
+        final OffHeapStorage<T> ret = new OffHeapStorage<>(codec, new ByteBuffer[chunks.length]);
+        for (int c = 0; c < chunks.length; c++) {
+            if (chunks[c] != null) {
+                final ByteBuffer src = chunks[c].duplicate();
+                src.clear();
+                final ByteBuffer dst = ret.allocateChunk();
+                dst.put(src);
+                dst.clear();
+                ret.chunks[c] = dst;
+            }
+        }
+        ret.maxIdx = maxIdx;
+        return ret;
+    }
+
+    @Override
+    public OffHeapStorage<T> emptyCopy() {
+        return new OffHeapStorage<>(codec, new ByteBuffer[chunks().length]);
+    }
+
+    /**
+     * @return the number of bytes allocated outside of the Java heap.
+     */
+    public long offHeapBytesUsed() {
+        return offHeapBytes;
+    }
+
+    /**
+     * The off-heap chunks are counted with their exact capacity, in addition
+     * to the on-heap chunk directory and buffer objects.
+     */
+    @Override
+    public long bytesUsed() {
+        return ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.REFERENCE
+                        + 3 * ObjectSizes.INT
+                        + ObjectSizes.LONG)
+                + ObjectSizes.ARRAY_SIZE(chunks())
+                + chunkCount * DIRECT_BUFFER_HEADER
+                + offHeapBytes;
+    }
+
+    public boolean isClosed() {
+        return chunks == null;
+    }
+
+    /**
+     * Releases all off-heap memory. Closing a closed storage has no effect.
+     */
+    @Override
+    public void close() {
+        if (chunks != null) {
+            freeChunks();
+            chunks = null;
+        }
+    }
+
+    private void freeChunks() {
+        for (int c = 0; c < chunks.length; c++) {
+            DirectBuffers.free(chunks[c]);
+            chunks[c] = null;
+        }
+        offHeapBytes = 0;
+        chunkCount = 0;
+        maxIdx = -1;
+    }
+}
@@ -3,7 +3,11 @@ package com.github.kaeluka.cflat.storage;
 import com.github.kaeluka.cflat.storage.size.ObjectSizes;
 import com.github.kaeluka.cflat.util.IndexCheck;
 import com.github.kaeluka.pma.PMA;
+import gnu.trove.list.array.TIntArrayList;
 
+import java.util.ArrayList;
+
+@SuppressWarnings("unchecked")
 public class PMAStorage<T> extends PMA<T> implements Storage<T> {
     private int maxIdx = -1;
 
@@ -13,6 +17,42 @@ public class PMAStorage<T> extends PMA<T> implements Storage<T> {
         }
     }
 
+    /**
+     * Builds the storage holding {@code values[k]} at {@code idx[k]} in one
+     * linear pass over the sorted batch. The batch need not be sorted;
+     * for an index that occurs more than once, the last value wins.
+     *
+     * @throws IllegalArgumentException if the arrays differ in length.
+     */
+    public static <T> PMAStorage<T> bulkLoad(final int[] idx, final T[] values) {
+        Batches.checkSameLength(idx, values);
+        final long[] batch = Batches.sortedLastWrites(idx);
+        return loaded(Batches.indices(batch), Batches.values(batch, values), batch.length);
+    }
+
+    /**
+     * Builds the storage holding the indices and values {@code source}
+     * walks, for example to copy another storage or restore a snapshot.
+     */
+    public static <T> PMAStorage<T> bulkLoad(final StorageCursor<? extends T> source) {
+        final TIntArrayList sortedKeys = new TIntArrayList();
+        final ArrayList<T> sortedValues = new ArrayList<>();
+        while (source.advance()) {
+            sortedKeys.add(source.index());
+            sortedValues.add(source.value());
+        }
+        return loaded(sortedKeys.toArray(), (T[]) sortedValues.toArray(), sortedKeys.size());
+    }
+
+    private static <T> PMAStorage<T> loaded(final int[] sortedKeys, final T[] sortedValues, final int n) {
+        final PMAStorage<T> ret = new PMAStorage<>();
+        ret.loadSorted(sortedKeys, sortedValues, n);
+        if (n > 0) {
+            ret.updateMaxIdx(sortedKeys[n - 1]);
+        }
+        return ret;
+    }
+
     @Override
     public T get(final int i) {
         IndexCheck.checkIndexIsNonnegative(i);
@@ -23,29 +63,50 @@ public class PMAStorage<T> extends PMA<T> implements Storage<T> {
         }
     }
 
+    /**
+     * If no key lies between the source and the destination range other
+     * than those in the source range, moving the range just renames its
+     * keys in place: their order among all keys stays the same.
+     */
     @Override
     public Storage<T> moveRange(final int source, final int dest, final int length) {
-        final int sourceStart = find(source);
-        final int destStart = find(dest);
-
-        if (destStart == sourceStart) {
-            int curIdx = sourceStart;
-            System.out.println("fast path");
-            IndexCheck.checkIndexIsNonnegative(source);
-            IndexCheck.checkIndexIsNonnegative(dest);
-            IndexCheck.checkLengthIsNonnegative(length);
-            final int diff = dest - source;
-            int curKey;
-            while (sourceStart < keys.size() &&
-                    (curKey = keys.get(sourceStart)) < source+length) {
-                keys.set(sourceStart, curKey+diff);
-                curIdx++;
-            }
+        IndexCheck.checkIndexIsNonnegative(source);
+        IndexCheck.checkIndexIsNonnegative(dest);
+        IndexCheck.checkLengthIsNonnegative(length);
+        if (length == 0 || lastSegment < 0) {
             return this;
-        } else {
-            System.out.println("slow path "+sourceStart+"/"+destStart);
-            return Storage.super.moveRange(source, dest, length);
         }
+        final int lo = Math.min(source, dest);
+        final long hi = (long) Math.max(source, dest) + length;
+        final long sourceEnd = (long) source + length;
+
+        final int firstSegment = fastDiv(find(lo), segmentSize);
+        int endSegment = firstSegment;
+        scan:
+        for (int seg = firstSegment; seg <= lastSegment; seg++) {
+            // the segment the scan stops in may still hold source keys
+            endSegment = seg;
+            for (int s = seg * segmentSize; s < seg * segmentSize + counts[seg]; s++) {
+                final int key = keys[s];
+                if (key >= hi) {
+                    break scan;
+                }
+                if (key >= lo && (key < source || key >= sourceEnd)) {
+                    return Storage.super.moveRange(source, dest, length);
+                }
+            }
+        }
+
+        final int diff = dest - source;
+        for (int s = firstSegment * segmentSize; s < (endSegment + 1) * segmentSize; s++) {
+            final int key = keys[s];
+            if (key != EMPTY && key >= source && key < sourceEnd) {
+                keys[s] = key + diff;
+                updateMaxIdx(key + diff);
+            }
+        }
+        updateRoutes(firstSegment, endSegment + 1);
+        return this;
     }
 
     @Override
@@ -56,6 +117,50 @@ public class PMAStorage<T> extends PMA<T> implements Storage<T> {
         return this;
     }
 
+    /**
+     * Sorts the batch and puts it in index order, see
+     * {@link PMA#putAllSorted}.
+     */
+    @Override
+    public Storage<T> setAll(final int[] idx, final T[] values) {
+        Batches.checkSameLength(idx, values);
+        final long[] batch = Batches.sortedLastWrites(idx);
+        final int[] sortedKeys = Batches.indices(batch);
+        final T[] sortedValues = Batches.values(batch, values);
+        if (batch.length > 0) {
+            updateMaxIdx(sortedKeys[batch.length - 1]);
+        }
+        putAllSorted(sortedKeys, sortedValues, batch.length);
+        return this;
+    }
+
+    /**
+     * Looks the batch up in index order: an index that lies within the
+     * segment of the previous one is found without another search.
+     */
+    @Override
+    public void getAll(final int[] idx, final T[] out) {
+        Batches.checkSameLength(idx, out);
+        int segStart = -1;
+        for (final long entry : Batches.sorted(idx)) {
+            final int i = Batches.index(entry);
+            T x = null;
+            if (i <= maxIdx) {
+                final int slot;
+                if (segStart >= 0 && isPresent(segStart) && keys[segStart] <= i && i <= lastKeyInSegment(segStart)) {
+                    slot = findInSegment(segStart, i);
+                } else {
+                    slot = find(i);
+                    segStart = slot < 0 ? -1 : segmentStart(slot);
+                }
+                if (slot >= 0 && keys[slot] == i) {
+                    x = (T) values[slot];
+                }
+            }
+            out[Batches.position(entry)] = x;
+        }
+    }
+
     @Override
     public Storage<T> clearAll() {
         this.clear();
@@ -67,6 +172,55 @@ public class PMAStorage<T> extends PMA<T> implements Storage<T> {
         return maxIdx+1;
     }
 
+    /**
+     * Walks the slots of the packed memory array, skipping gaps.
+     */
+    @Override
+    public StorageCursor<T> cursor() {
+        return new StorageCursor<T>() {
+            private int slot = -1;
+
+            @Override
+            public boolean advance() {
+                return skipGaps(slot + 1, Integer.MIN_VALUE);
+            }
+
+            @Override
+            public boolean seek(final int i) {
+                if (slot >= 0 && slot < keys.length && keys[slot] >= i) {
+                    return true;
+                }
+                final int found = find(i);
+                final int from = found < 0 ? 0 : Math.min(segmentStart(found), keys.length);
+                return skipGaps(Math.max(slot + 1, from), i);
+            }
+
+            private boolean skipGaps(int s, final int minKey) {
+                final int size = keys.length;
+                while (s < size && (keys[s] == EMPTY || keys[s] < minKey || values[s] == null)) {
+                    s++;
+                }
+                slot = s;
+                return s < size;
+            }
+
+            @Override
+            public int index() {
+                return keys[slot];
+            }
+
+            @Override
+            public T value() {
+                return (T) values[slot];
+            }
+
+            @Override
+            public void reset() {
+                slot = -1;
+            }
+        };
+    }
+
     @Override
     public Storage<T> emptyCopy() {
         return new PMAStorage<>();
@@ -74,7 +228,12 @@ public class PMAStorage<T> extends PMA<T> implements Storage<T> {
 
     @Override
     public long bytesUsed() {
-        return ObjectSizes.ARRAYLIST_SIZE(this.keys) +
-                ObjectSizes.ARRAYLIST_SIZE(this.values);
+        // the search tree's two private index arrays are the size of routes
+        return ObjectSizes.OBJECT_SIZE(4 * ObjectSizes.INT + 6 * ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAY_SIZE(this.keys)
+                + ObjectSizes.ARRAY_SIZE(this.values)
+                + ObjectSizes.ARRAY_SIZE(this.counts)
+                + 2 * ObjectSizes.ARRAY_SIZE(this.routes)
+                + ObjectSizes.ARRAY_SIZE_OF_INTS(this.counts.length);
     }
 }
@@ -0,0 +1,104 @@
+package com.github.kaeluka.cflat.storage;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fork/join helpers that split an index range {@code [from, to)} into
+ * pieces that start and end at multiples of a grain size, so that the pieces
+ * line up with chunk or trie node boundaries. All work runs in the common
+ * {@link ForkJoinPool}.
+ */
+final class ParallelRanges {
+    private ParallelRanges() { }
+
+    interface RangeAction {
+        void apply(int from, int to);
+    }
+
+    interface RangeSearch {
+        /**
+         * @return a hit in {@code [from, to)}, or -1.
+         */
+        int find(int from, int to);
+    }
+
+    static void forEach(final int from, final int to, final int grain, final RangeAction action) {
+        if (from >= to) {
+            return;
+        }
+        if (to - from <= grain) {
+            action.apply(from, to);
+        } else {
+            ForkJoinPool.commonPool().invoke(new ForEachTask(from, to, grain, action, null));
+        }
+    }
+
+    /**
+     * Searches all pieces in parallel. Once a piece found a hit, pieces that
+     * have not started yet are skipped.
+     *
+     * @return any hit, or -1.
+     */
+    static int findAny(final int from, final int to, final int grain, final RangeSearch search) {
+        if (from >= to) {
+            return -1;
+        }
+        if (to - from <= grain) {
+            return search.find(from, to);
+        }
+        final AtomicInteger found = new AtomicInteger(-1);
+        ForkJoinPool.commonPool().invoke(new ForEachTask(from, to, grain, (f, t) -> {
+            final int hit = search.find(f, t);
+            if (hit >= 0) {
+                found.compareAndSet(-1, hit);
+            }
+        }, found));
+        return found.get();
+    }
+
+    /**
+     * @return the multiple of {@code grain} closest to the middle of
+     * {@code [from, to)}, strictly inside the range.
+     */
+    private static int split(final int from, final int to, final int grain) {
+        final int mid = from + (to - from) / 2;
+        final int aligned = mid - mid % grain;
+        return aligned > from ? aligned : from + grain;
+    }
+
+    private static final class ForEachTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final RangeAction action;
+        private final AtomicInteger found;
+
+        ForEachTask(final int from, final int to, final int grain,
+                    final RangeAction action, final AtomicInteger found) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.action = action;
+            this.found = found;
+        }
+
+        @Override
+        protected void compute() {
+            if (found != null && found.get() >= 0) {
+                return;
+            }
+            if (to - from <= grain) {
+                action.apply(from, to);
+            } else {
+                final int mid = split(from, to, grain);
+                invokeAll(
+                        new ForEachTask(from, mid, grain, action, found),
+                        new ForEachTask(mid, to, grain, action, found));
+            }
+        }
+    }
+}
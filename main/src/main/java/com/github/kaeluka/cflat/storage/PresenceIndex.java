@@ -0,0 +1,775 @@
+package com.github.kaeluka.cflat.storage;
+
+import com.github.kaeluka.cflat.storage.size.ObjectSizes;
+import com.github.kaeluka.cflat.util.IndexCheck;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed, ordered set of non-negative indices, for storages that keep
+ * their data in hash order. Laid out like a Roaring bitmap: the indices are
+ * split into blocks of 64K by their upper 16 bits, and every non-empty block
+ * has a container that holds the lower 16 bits in whichever form is smallest:
+ * a sorted array (up to 4096 entries), a bitmap, or a list of runs.
+ *
+ * Blocks are found by binary search, so ordered walks, {@link #last()} and
+ * range queries cost a search plus a scan within one block, independent of
+ * the number of indices.
+ *
+ * The mutators change the index in place. {@link #with(int)} and
+ * {@link #without(int)} instead return a new index that shares all untouched
+ * containers with this one; an index used that way must not also be
+ * mutated in place.
+ */
+final class PresenceIndex {
+    private final static int ARRAY_MAX = 4096;
+    private final static int BITMAP_WORDS = 0x10000 / 64;
+    private final static char[] NO_KEYS = new char[0];
+    private final static Container[] NO_CONTAINERS = new Container[0];
+
+    // the upper 16 bits of each block, sorted; only [0, size) is used
+    private char[] keys;
+    private Container[] containers;
+    private int size;
+    private int cardinality;
+    // the sum of the containers' bytesUsed
+    private long containerBytes;
+
+    PresenceIndex() {
+        this(NO_KEYS, NO_CONTAINERS, 0, 0, 0);
+    }
+
+    private PresenceIndex(final char[] keys, final Container[] containers,
+                          final int size, final int cardinality, final long containerBytes) {
+        this.keys = keys;
+        this.containers = containers;
+        this.size = size;
+        this.cardinality = cardinality;
+        this.containerBytes = containerBytes;
+    }
+
+    private static int high(final int i) {
+        return i >>> 16;
+    }
+
+    private static int low(final int i) {
+        return i & 0xFFFF;
+    }
+
+    private int findContainer(final int high) {
+        return Arrays.binarySearch(keys, 0, size, (char) high);
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    boolean contains(final int i) {
+        final int pos = findContainer(high(i));
+        return pos >= 0 && containers[pos].contains(low(i));
+    }
+
+    /**
+     * @return whether {@code i} was absent before.
+     */
+    boolean add(final int i) {
+        return add(i, false);
+    }
+
+    /**
+     * @return whether {@code i} was present before.
+     */
+    boolean remove(final int i) {
+        return remove(i, false);
+    }
+
+    /**
+     * Adds all indices in {@code [from, to)}.
+     */
+    void addRange(final int from, final int to) {
+        int start = from;
+        while (start < to) {
+            final int high = high(start);
+            final int blockEnd = Math.min(to - (high << 16), 0x10000);
+            int pos = findContainer(high);
+            if (pos < 0) {
+                pos = -(pos + 1);
+                insertContainer(pos, high, new ArrayContainer());
+            }
+            final Container c = containers[pos];
+            final long oldBytes = c.bytesUsed();
+            final int oldCardinality = c.cardinality();
+            final Container updated = Container.optimize(c.addRange(low(start), blockEnd));
+            containers[pos] = updated;
+            cardinality += updated.cardinality() - oldCardinality;
+            containerBytes += updated.bytesUsed() - oldBytes;
+            if (blockEnd == 0x10000) {
+                if (high == 0x7FFF) {
+                    return;
+                }
+                start = (high + 1) << 16;
+            } else {
+                start = to;
+            }
+        }
+    }
+
+    /**
+     * A copy with {@code i} added, sharing the unchanged containers.
+     */
+    PresenceIndex with(final int i) {
+        if (contains(i)) {
+            return this;
+        }
+        final PresenceIndex ret = new PresenceIndex(
+                Arrays.copyOf(keys, size), Arrays.copyOf(containers, size),
+                size, cardinality, containerBytes);
+        ret.add(i, true);
+        return ret;
+    }
+
+    /**
+     * A copy with {@code i} removed, sharing the unchanged containers.
+     */
+    PresenceIndex without(final int i) {
+        if (!contains(i)) {
+            return this;
+        }
+        final PresenceIndex ret = new PresenceIndex(
+                Arrays.copyOf(keys, size), Arrays.copyOf(containers, size),
+                size, cardinality, containerBytes);
+        ret.remove(i, true);
+        return ret;
+    }
+
+    private boolean add(final int i, final boolean copyOnWrite) {
+        final int high = high(i);
+        int pos = findContainer(high);
+        final boolean shared;
+        if (pos < 0) {
+            pos = -(pos + 1);
+            insertContainer(pos, high, new ArrayContainer());
+            shared = false;
+        } else if (containers[pos].contains(low(i))) {
+            return false;
+        } else {
+            shared = copyOnWrite;
+        }
+        final Container c = shared ? containers[pos].copy() : containers[pos];
+        final long oldBytes = containers[pos].bytesUsed();
+        final Container updated = c.add(low(i));
+        containers[pos] = updated;
+        containerBytes += updated.bytesUsed() - oldBytes;
+        cardinality++;
+        return true;
+    }
+
+    private boolean remove(final int i, final boolean copyOnWrite) {
+        final int pos = findContainer(high(i));
+        if (pos < 0 || !containers[pos].contains(low(i))) {
+            return false;
+        }
+        final Container c = copyOnWrite ? containers[pos].copy() : containers[pos];
+        final long oldBytes = containers[pos].bytesUsed();
+        final Container updated = c.remove(low(i));
+        cardinality--;
+        if (updated.cardinality() == 0) {
+            containerBytes -= oldBytes;
+            removeContainer(pos);
+        } else {
+            containers[pos] = updated;
+            containerBytes += updated.bytesUsed() - oldBytes;
+        }
+        return true;
+    }
+
+    private void insertContainer(final int pos, final int high, final Container c) {
+        if (size == keys.length) {
+            final int newLength = Math.max(4, 2 * size);
+            keys = Arrays.copyOf(keys, newLength);
+            containers = Arrays.copyOf(containers, newLength);
+        }
+        System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+        System.arraycopy(containers, pos, containers, pos + 1, size - pos);
+        keys[pos] = (char) high;
+        containers[pos] = c;
+        containerBytes += c.bytesUsed();
+        size++;
+    }
+
+    private void removeContainer(final int pos) {
+        System.arraycopy(keys, pos + 1, keys, pos, size - pos - 1);
+        System.arraycopy(containers, pos + 1, containers, pos, size - pos - 1);
+        size--;
+        containers[size] = null;
+    }
+
+    /**
+     * @return the smallest index at or after {@code from}, or -1 if there is
+     * none.
+     */
+    int next(final int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int pos = findContainer(high(from));
+        if (pos >= 0) {
+            final int found = containers[pos].next(low(from));
+            if (found >= 0) {
+                return (keys[pos] << 16) | found;
+            }
+            pos++;
+        } else {
+            pos = -(pos + 1);
+        }
+        if (pos < size) {
+            return (keys[pos] << 16) | containers[pos].next(0);
+        }
+        return -1;
+    }
+
+    /**
+     * @return the largest index at or before {@code from}, or -1 if there is
+     * none.
+     */
+    int prev(final int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int pos = findContainer(high(from));
+        if (pos >= 0) {
+            final int found = containers[pos].prev(low(from));
+            if (found >= 0) {
+                return (keys[pos] << 16) | found;
+            }
+            pos--;
+        } else {
+            pos = -(pos + 1) - 1;
+        }
+        if (pos >= 0) {
+            return (keys[pos] << 16) | containers[pos].last();
+        }
+        return -1;
+    }
+
+    /**
+     * @return the largest index, or -1 if the index is empty.
+     */
+    int last() {
+        return size == 0 ? -1 : (keys[size - 1] << 16) | containers[size - 1].last();
+    }
+
+    /**
+     * @return whether any index in {@code [from, to)} is present.
+     */
+    boolean anyInRange(final int from, final int to) {
+        if (from >= to) {
+            return false;
+        }
+        final int next = next(from);
+        return next >= 0 && next < to;
+    }
+
+    /**
+     * Like {@link #anyInRange(int, int)}, but validates the range the way
+     * {@link Storage#hasInRange(int, int)} requires.
+     */
+    boolean hasInRange(final int start, final int end) {
+        IndexCheck.checkRange(start, end);
+        return anyInRange(start, end);
+    }
+
+    void foreach(final IntConsumer f) {
+        for (int pos = 0; pos < size; pos++) {
+            containers[pos].foreach(keys[pos] << 16, f);
+        }
+    }
+
+    void clear() {
+        keys = NO_KEYS;
+        containers = NO_CONTAINERS;
+        size = 0;
+        cardinality = 0;
+        containerBytes = 0;
+    }
+
+    PresenceIndex copy() {
+        final Container[] newContainers = new Container[size];
+        for (int pos = 0; pos < size; pos++) {
+            newContainers[pos] = containers[pos].copy();
+        }
+        return new PresenceIndex(Arrays.copyOf(keys, size), newContainers,
+                size, cardinality, containerBytes);
+    }
+
+    long bytesUsed() {
+        return ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.INT + ObjectSizes.LONG + 2 * ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAY_SIZE(keys)
+                + ObjectSizes.ARRAY_SIZE(containers)
+                + containerBytes;
+    }
+
+    /**
+     * The lower 16 bits of the indices in one block. Mutators may return a
+     * different container when another form becomes smaller; a container
+     * never becomes empty through {@link #addRange}, but may through
+     * {@link #remove}.
+     */
+    private static abstract class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(int low);
+
+        abstract Container add(int low);
+
+        abstract Container remove(int low);
+
+        /**
+         * Adds {@code [from, to)}, {@code to} may be 0x10000.
+         */
+        abstract Container addRange(int from, int to);
+
+        abstract int next(int from);
+
+        abstract int prev(int from);
+
+        abstract int last();
+
+        abstract int runs();
+
+        abstract void foreach(int base, IntConsumer f);
+
+        abstract Container copy();
+
+        abstract long bytesUsed();
+
+        /**
+         * Converts {@code c} to the smallest of the three forms.
+         */
+        static Container optimize(final Container c) {
+            final int card = c.cardinality();
+            final long runBytes = 4L * c.runs();
+            final long arrayBytes = card <= ARRAY_MAX ? 2L * card : Long.MAX_VALUE;
+            final long bitmapBytes = 8L * BITMAP_WORDS;
+            if (runBytes < arrayBytes && runBytes < bitmapBytes) {
+                return c instanceof RunContainer ? c : RunContainer.of(c);
+            } else if (arrayBytes <= bitmapBytes) {
+                return c instanceof ArrayContainer ? c : ArrayContainer.of(c);
+            } else {
+                return c instanceof BitmapContainer ? c : BitmapContainer.of(c);
+            }
+        }
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] content;
+        private int card;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        private ArrayContainer(final char[] content, final int card) {
+            this.content = content;
+            this.card = card;
+        }
+
+        static ArrayContainer of(final Container c) {
+            final ArrayContainer ret = new ArrayContainer(new char[c.cardinality()], c.cardinality());
+            final int[] pos = {0};
+            c.foreach(0, low -> ret.content[pos[0]++] = (char) low);
+            return ret;
+        }
+
+        private int find(final int low) {
+            return Arrays.binarySearch(content, 0, card, (char) low);
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(final int low) {
+            return find(low) >= 0;
+        }
+
+        @Override
+        Container add(final int low) {
+            final int pos = find(low);
+            if (pos >= 0) {
+                return this;
+            }
+            if (card == ARRAY_MAX) {
+                return BitmapContainer.of(this).add(low);
+            }
+            final int ins = -(pos + 1);
+            if (card == content.length) {
+                content = Arrays.copyOf(content, Math.min(ARRAY_MAX, 2 * card));
+            }
+            System.arraycopy(content, ins, content, ins + 1, card - ins);
+            content[ins] = (char) low;
+            card++;
+            return this;
+        }
+
+        @Override
+        Container remove(final int low) {
+            final int pos = find(low);
+            if (pos >= 0) {
+                System.arraycopy(content, pos + 1, content, pos, card - pos - 1);
+                card--;
+            }
+            return this;
+        }
+
+        @Override
+        Container addRange(final int from, final int to) {
+            return BitmapContainer.of(this).addRange(from, to);
+        }
+
+        @Override
+        int next(final int from) {
+            final int pos = find(from);
+            final int idx = pos >= 0 ? pos : -(pos + 1);
+            return idx < card ? content[idx] : -1;
+        }
+
+        @Override
+        int prev(final int from) {
+            final int pos = find(from);
+            final int idx = pos >= 0 ? pos : -(pos + 1) - 1;
+            return idx >= 0 ? content[idx] : -1;
+        }
+
+        @Override
+        int last() {
+            return content[card - 1];
+        }
+
+        @Override
+        int runs() {
+            int ret = card == 0 ? 0 : 1;
+            for (int k = 1; k < card; k++) {
+                if (content[k] != content[k - 1] + 1) {
+                    ret++;
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        void foreach(final int base, final IntConsumer f) {
+            for (int k = 0; k < card; k++) {
+                f.accept(base | content[k]);
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(content, content.length), card);
+        }
+
+        @Override
+        long bytesUsed() {
+            return ObjectSizes.OBJECT_SIZE(ObjectSizes.INT + ObjectSizes.REFERENCE)
+                    + ObjectSizes.ARRAY_SIZE(content);
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final static long BYTES = ObjectSizes.OBJECT_SIZE(ObjectSizes.INT + ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAY_SIZE_OF_LONGS(BITMAP_WORDS);
+        private final long[] bits;
+        private int card;
+
+        private BitmapContainer(final long[] bits, final int card) {
+            this.bits = bits;
+            this.card = card;
+        }
+
+        static BitmapContainer of(final Container c) {
+            final long[] bits = new long[BITMAP_WORDS];
+            c.foreach(0, low -> Bitmaps.set(bits, low));
+            return new BitmapContainer(bits, c.cardinality());
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(final int low) {
+            return Bitmaps.get(bits, low);
+        }
+
+        @Override
+        Container add(final int low) {
+            if (!Bitmaps.get(bits, low)) {
+                Bitmaps.set(bits, low);
+                card++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(final int low) {
+            if (Bitmaps.get(bits, low)) {
+                Bitmaps.clear(bits, low);
+                card--;
+                if (card <= ARRAY_MAX) {
+                    return ArrayContainer.of(this);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        Container addRange(final int from, final int to) {
+            Bitmaps.setRange(bits, from, to, true);
+            card = Bitmaps.cardinality(bits);
+            return this;
+        }
+
+        @Override
+        int next(final int from) {
+            return Bitmaps.nextSetBit(bits, from);
+        }
+
+        @Override
+        int prev(final int from) {
+            return Bitmaps.prevSetBit(bits, from);
+        }
+
+        @Override
+        int last() {
+            return Bitmaps.prevSetBit(bits, 0xFFFF);
+        }
+
+        @Override
+        int runs() {
+            // a run starts at every set bit whose lower neighbour is clear
+            int ret = 0;
+            long carry = 0;
+            for (final long word : bits) {
+                ret += Long.bitCount(word & ~((word << 1) | carry));
+                carry = word >>> 63;
+            }
+            return ret;
+        }
+
+        @Override
+        void foreach(final int base, final IntConsumer f) {
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    f.accept(base | (w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(Arrays.copyOf(bits, BITMAP_WORDS), card);
+        }
+
+        @Override
+        long bytesUsed() {
+            return BYTES;
+        }
+    }
+
+    /**
+     * Runs are stored as pairs of their first element and their length
+     * minus one, sorted by their first element.
+     */
+    private static final class RunContainer extends Container {
+        private char[] runs;
+        private int nRuns;
+        private int card;
+
+        private RunContainer(final char[] runs, final int nRuns, final int card) {
+            this.runs = runs;
+            this.nRuns = nRuns;
+            this.card = card;
+        }
+
+        static RunContainer of(final Container c) {
+            final RunContainer ret = new RunContainer(new char[2 * c.runs()], 0, c.cardinality());
+            c.foreach(0, low -> {
+                final int r = ret.nRuns - 1;
+                if (r >= 0 && ret.end(r) + 1 == low) {
+                    ret.runs[2 * r + 1]++;
+                } else {
+                    ret.runs[2 * ret.nRuns] = (char) low;
+                    ret.runs[2 * ret.nRuns + 1] = 0;
+                    ret.nRuns++;
+                }
+            });
+            return ret;
+        }
+
+        private int start(final int r) {
+            return runs[2 * r];
+        }
+
+        private int end(final int r) {
+            return runs[2 * r] + runs[2 * r + 1];
+        }
+
+        /**
+         * @return the last run starting at or before {@code low}, or -1.
+         */
+        private int findRun(final int low) {
+            int lo = 0;
+            int hi = nRuns - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (start(mid) <= low) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return hi;
+        }
+
+        private void insertRun(final int r, final int start, final int end) {
+            if (2 * nRuns == runs.length) {
+                runs = Arrays.copyOf(runs, Math.max(4, 2 * runs.length));
+            }
+            System.arraycopy(runs, 2 * r, runs, 2 * r + 2, 2 * (nRuns - r));
+            runs[2 * r] = (char) start;
+            runs[2 * r + 1] = (char) (end - start);
+            nRuns++;
+        }
+
+        private void removeRun(final int r) {
+            System.arraycopy(runs, 2 * r + 2, runs, 2 * r, 2 * (nRuns - r - 1));
+            nRuns--;
+        }
+
+        /**
+         * Falls back to another form once runs no longer pay off.
+         */
+        private Container compact() {
+            return 2 * nRuns > card + 1 || nRuns > 2048 ? optimize(this) : this;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(final int low) {
+            final int r = findRun(low);
+            return r >= 0 && low <= end(r);
+        }
+
+        @Override
+        Container add(final int low) {
+            final int r = findRun(low);
+            if (r >= 0 && low <= end(r)) {
+                return this;
+            }
+            final boolean extendsPrev = r >= 0 && end(r) + 1 == low;
+            final boolean extendsNext = r + 1 < nRuns && start(r + 1) == low + 1;
+            if (extendsPrev && extendsNext) {
+                runs[2 * r + 1] = (char) (end(r + 1) - start(r));
+                removeRun(r + 1);
+            } else if (extendsPrev) {
+                runs[2 * r + 1]++;
+            } else if (extendsNext) {
+                runs[2 * (r + 1)] = (char) low;
+                runs[2 * (r + 1) + 1]++;
+            } else {
+                insertRun(r + 1, low, low);
+            }
+            card++;
+            return compact();
+        }
+
+        @Override
+        Container remove(final int low) {
+            final int r = findRun(low);
+            if (r < 0 || low > end(r)) {
+                return this;
+            }
+            final int start = start(r);
+            final int end = end(r);
+            if (start == end) {
+                removeRun(r);
+            } else if (low == start) {
+                runs[2 * r] = (char) (start + 1);
+                runs[2 * r + 1]--;
+            } else if (low == end) {
+                runs[2 * r + 1]--;
+            } else {
+                runs[2 * r + 1] = (char) (low - 1 - start);
+                insertRun(r + 1, low + 1, end);
+            }
+            card--;
+            return compact();
+        }
+
+        @Override
+        Container addRange(final int from, final int to) {
+            return BitmapContainer.of(this).addRange(from, to);
+        }
+
+        @Override
+        int next(final int from) {
+            final int r = findRun(from);
+            if (r >= 0 && from <= end(r)) {
+                return from;
+            }
+            return r + 1 < nRuns ? start(r + 1) : -1;
+        }
+
+        @Override
+        int prev(final int from) {
+            final int r = findRun(from);
+            return r < 0 ? -1 : Math.min(from, end(r));
+        }
+
+        @Override
+        int last() {
+            return end(nRuns - 1);
+        }
+
+        @Override
+        int runs() {
+            return nRuns;
+        }
+
+        @Override
+        void foreach(final int base, final IntConsumer f) {
+            for (int r = 0; r < nRuns; r++) {
+                final int end = end(r);
+                for (int low = start(r); low <= end; low++) {
+                    f.accept(base | low);
+                }
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new RunContainer(Arrays.copyOf(runs, runs.length), nRuns, card);
+        }
+
+        @Override
+        long bytesUsed() {
+            return ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.INT + ObjectSizes.REFERENCE)
+                    + ObjectSizes.ARRAY_SIZE(runs);
+        }
+    }
+}
@@ -29,10 +29,17 @@ public class ReverseStorage<T> extends StorageWrapper<T> {
         if (possiblyNewInnerStorage == innerStorage) {
             return this;
         } else {
-            return new ReverseStorage<>(possiblyNewInnerStorage);
+            final ReverseStorage<T> ret = new ReverseStorage<>(possiblyNewInnerStorage);
+            ret.locationOfZero = this.locationOfZero;
+            return ret;
         }
     }
 
+    @Override
+    public Storage<T> emptyCopy() {
+        return new ReverseStorage<>(innerStorage.emptyCopy());
+    }
+
     private int switchIdx(int idx) {
         return locationOfZero - idx;
     }
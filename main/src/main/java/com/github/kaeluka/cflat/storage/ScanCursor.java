@@ -0,0 +1,55 @@
+package com.github.kaeluka.cflat.storage;
+
+/**
+ * Probes every index up to {@link Storage#maxIdxOverapproximation()}. Used
+ * by storages that don't know their layout any better.
+ */
+final class ScanCursor<T> implements StorageCursor<T> {
+    private final Storage<T> storage;
+    private int idx = -1;
+    private T value = null;
+
+    ScanCursor(final Storage<T> storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public boolean advance() {
+        final int limit = storage.maxIdxOverapproximation();
+        while (++idx < limit) {
+            final T v = storage.get(idx);
+            if (v != null) {
+                value = v;
+                return true;
+            }
+        }
+        idx = limit;
+        value = null;
+        return false;
+    }
+
+    @Override
+    public boolean seek(final int i) {
+        if (value != null && idx >= i) {
+            return true;
+        }
+        idx = Math.max(idx, i - 1);
+        return advance();
+    }
+
+    @Override
+    public int index() {
+        return idx;
+    }
+
+    @Override
+    public T value() {
+        return value;
+    }
+
+    @Override
+    public void reset() {
+        idx = -1;
+        value = null;
+    }
+}
@@ -9,9 +9,11 @@ import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
 
 @SuppressWarnings({"WeakerAccess", "unchecked", "unused"})
 public class ShallowTrieStorage<T> implements Storage<T> {
-    public final Object[][] data = new Object[0x7FFF][];
+    public final Object[][] data = new Object[0x8000][];
 
     private int maxIdx = -1;
+    // the number of allocated leaves, for bytesUsed
+    private int leaves = 0;
 
     @Override
     public int findFirst(final T x, final int max) {
@@ -73,6 +75,7 @@ public class ShallowTrieStorage<T> implements Storage<T> {
         Object[] d1;
         if ((d1 = data[coord1]) == null) {
             d1 = data[coord1] = new Object[0x10000];
+            leaves++;
         }
         d1[idx & 0xFFFF] = x;
         return this;
@@ -80,6 +83,7 @@ public class ShallowTrieStorage<T> implements Storage<T> {
 
     public Storage<T> clearAll() {
         Arrays.fill(data, null);
+        leaves = 0;
         return this;
     }
 
@@ -94,12 +98,8 @@ public class ShallowTrieStorage<T> implements Storage<T> {
 
     @Override
     public long bytesUsed() {
-        long sz = ObjectSizes.ARRAY_SIZE(data) + ObjectSizes.INT;
-        for (final Object[] lvl1 : data) {
-            if (lvl1 != null) {
-                sz += ObjectSizes.ARRAY_SIZE(lvl1);
-            }
-        }
-        return sz;
+        return ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.INT + ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAY_SIZE(data)
+                + leaves * ObjectSizes.ARRAY_SIZE_OF_REFERENCES(0x10000);
     }
 }
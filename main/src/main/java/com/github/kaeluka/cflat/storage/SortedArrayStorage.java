@@ -11,6 +11,44 @@ import java.util.Iterator;
 public class SortedArrayStorage<T> extends SizedStorage<T> {
     final TIntArrayList positions = new TIntArrayList(10);
     final ArrayList<T> values = new ArrayList<>(10);
+    // ArrayList hides its capacity: grow it ourselves, so bytesUsed knows it
+    private int valuesCapacity = 10;
+
+    /**
+     * Builds the storage holding {@code values[k]} at {@code idx[k]} in one
+     * linear pass over the sorted batch, instead of one insertion per index.
+     * The batch need not be sorted; for an index that occurs more than once,
+     * the last value wins.
+     *
+     * @throws IllegalArgumentException if the arrays differ in length.
+     */
+    public static <T> SortedArrayStorage<T> bulkLoad(final int[] idx, final T[] values) {
+        final SortedArrayStorage<T> ret = new SortedArrayStorage<>();
+        ret.setAll(idx, values);
+        return ret;
+    }
+
+    /**
+     * Builds the storage holding the indices and values {@code source}
+     * walks, for example to copy another storage or restore a snapshot.
+     */
+    public static <T> SortedArrayStorage<T> bulkLoad(final StorageCursor<? extends T> source) {
+        final SortedArrayStorage<T> ret = new SortedArrayStorage<>();
+        while (source.advance()) {
+            ret.append(source.index(), source.value());
+        }
+        return ret;
+    }
+
+    private void append(final int i, final T x) {
+        if (values.size() == valuesCapacity) {
+            valuesCapacity *= 2;
+            values.ensureCapacity(valuesCapacity);
+        }
+        positions.add(i);
+        values.add(x);
+        updateMaxIdx(i);
+    }
 
     @Override
     public T get(final int i) {
@@ -32,6 +70,10 @@ public class SortedArrayStorage<T> extends SizedStorage<T> {
         this.updateMaxIdx(i);
         final int idx = positions.binarySearch(i);
         if (idx < 0) {
+            if (values.size() == valuesCapacity) {
+                valuesCapacity *= 2;
+                values.ensureCapacity(valuesCapacity);
+            }
             positions.insert(-(idx+1), i);
             values.add(-(idx+1), x);
         } else {
@@ -40,9 +82,57 @@ public class SortedArrayStorage<T> extends SizedStorage<T> {
         return this;
     }
 
+    /**
+     * Merges the sorted batch with the present indices in one pass.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Storage<T> setAll(final int[] idx, final T[] values) {
+        Batches.checkSameLength(idx, values);
+        final long[] batch = Batches.sortedLastWrites(idx);
+        if (batch.length == 0) {
+            return this;
+        }
+        final int size = positions.size();
+        final int[] mergedPositions = new int[size + batch.length];
+        final Object[] mergedValues = new Object[size + batch.length];
+        int m = 0;
+        int k = 0;
+        for (int p = 0; p < size; p++) {
+            final int i = positions.getQuick(p);
+            for (; k < batch.length && Batches.index(batch[k]) < i; k++) {
+                mergedPositions[m] = Batches.index(batch[k]);
+                mergedValues[m++] = values[Batches.position(batch[k])];
+            }
+            mergedPositions[m] = i;
+            if (k < batch.length && Batches.index(batch[k]) == i) {
+                mergedValues[m++] = values[Batches.position(batch[k++])];
+            } else {
+                mergedValues[m++] = this.values.get(p);
+            }
+        }
+        for (; k < batch.length; k++) {
+            mergedPositions[m] = Batches.index(batch[k]);
+            mergedValues[m++] = values[Batches.position(batch[k])];
+        }
+
+        positions.resetQuick();
+        positions.add(mergedPositions, 0, m);
+        this.values.clear();
+        while (valuesCapacity < m) {
+            valuesCapacity *= 2;
+        }
+        this.values.ensureCapacity(valuesCapacity);
+        for (int j = 0; j < m; j++) {
+            this.values.add((T) mergedValues[j]);
+        }
+        updateMaxIdx(Batches.index(batch[batch.length - 1]));
+        return this;
+    }
+
     @Override
     public Storage<T> clearAll() {
-        this.positions.clear();
+        this.positions.resetQuick();
         this.values.clear();
         return this;
     }
@@ -65,6 +155,56 @@ public class SortedArrayStorage<T> extends SizedStorage<T> {
         };
     }
 
+    @Override
+    public StorageCursor<T> cursor() {
+        return new StorageCursor<T>() {
+            // position in positions/values
+            private int pos = -1;
+
+            @Override
+            public boolean advance() {
+                return skipNulls(pos + 1);
+            }
+
+            @Override
+            public boolean seek(final int i) {
+                if (pos >= 0 && pos < positions.size() && positions.get(pos) >= i) {
+                    return true;
+                }
+                final int from = Math.max(pos + 1, 0);
+                if (from >= positions.size()) {
+                    return skipNulls(from);
+                }
+                final int found = positions.binarySearch(i, from, positions.size());
+                return skipNulls(found >= 0 ? found : -(found + 1));
+            }
+
+            private boolean skipNulls(int p) {
+                final int size = positions.size();
+                while (p < size && values.get(p) == null) {
+                    p++;
+                }
+                pos = p;
+                return p < size;
+            }
+
+            @Override
+            public int index() {
+                return positions.get(pos);
+            }
+
+            @Override
+            public T value() {
+                return values.get(pos);
+            }
+
+            @Override
+            public void reset() {
+                pos = -1;
+            }
+        };
+    }
+
     @Override
     public int findFirst(final T x, final int max) {
         final int i = values.indexOf(x);
@@ -92,9 +232,8 @@ public class SortedArrayStorage<T> extends SizedStorage<T> {
 
     @Override
     public long bytesUsed() {
-        return ObjectSizes.ARRAYLIST_SIZE(this.positions)
-                + ObjectSizes.ARRAYLIST_SIZE(this.values)+
-                + ObjectSizes.INT // maxIdx
-                + ObjectSizes.OBJ_HEADER;
+        return ObjectSizes.OBJECT_SIZE(2 * ObjectSizes.INT + 2 * ObjectSizes.REFERENCE)
+                + ObjectSizes.ARRAYLIST_SIZE(this.positions)
+                + ObjectSizes.ARRAYLIST_SIZE(this.values, valuesCapacity);
     }
 }
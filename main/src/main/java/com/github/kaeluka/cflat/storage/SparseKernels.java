@@ -0,0 +1,250 @@
+package com.github.kaeluka.cflat.storage;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Linear algebra on sparse matrices of doubles: matrix-vector and
+ * matrix-matrix products, transposition and reductions over rows or
+ * columns. The kernels walk the cells with
+ * {@link NestedStorage#foreachCell}, and never go through {@code get(row)}.
+ *
+ * A matrix has {@code maxIdx()} rows. Vectors are plain {@code double[]};
+ * a vector shorter than the matrix is wide counts as padded with zeros.
+ *
+ * The compressed arrays of a CSR matrix ({@link SparseStorage.USAGE#SIZE})
+ * are read directly, and its rows are split into pieces of
+ * {@link #PARALLEL_ROWS} rows that run in parallel.
+ */
+public final class SparseKernels {
+    private SparseKernels() { }
+
+    /**
+     * The number of rows one parallel task works on.
+     */
+    public static final int PARALLEL_ROWS = 1 << 10;
+
+    /**
+     * @return {@code a * x}, with one entry per row of {@code a}.
+     */
+    public static double[] multiply(final NestedStorage<Double> a, final double[] x) {
+        final double[] y = new double[a.maxIdx()];
+        if (a instanceof CSRStorage) {
+            final CSRStorage<Double> csr = (CSRStorage<Double>) a;
+            final int[] starts = csr.rowStarts();
+            final int[] cols = csr.columnIndices();
+            final Object[] vals = csr.values();
+            // rows past maxIdx() can only be empty, so they don't need an entry
+            final int rows = Math.min(csr.rowCount(), y.length);
+            ParallelRanges.forEach(0, rows, PARALLEL_ROWS, (from, to) -> {
+                for (int r = from; r < to; r++) {
+                    double sum = 0;
+                    for (int i = starts[r]; i < starts[r + 1]; i++) {
+                        final int col = cols[i];
+                        if (vals[i] != null && col < x.length) {
+                            sum += (Double) vals[i] * x[col];
+                        }
+                    }
+                    y[r] = sum;
+                }
+            });
+        } else {
+            a.foreachCell((row, col, v) -> {
+                if (col < x.length) {
+                    y[row] += v * x[col];
+                }
+            });
+        }
+        return y;
+    }
+
+    /**
+     * Multiplies row by row (Gustavson's algorithm): every cell
+     * {@code a[r, k]} scales row {@code k} of {@code b} into a dense
+     * accumulator for row {@code r}, which only visits the columns it
+     * touched.
+     *
+     * @return {@code a * b}, as a CSR matrix.
+     */
+    public static NestedStorage<Double> multiply(final NestedStorage<Double> a, final NestedStorage<Double> b) {
+        final Rows left = Rows.of(a);
+        final Rows right = Rows.of(b);
+        final Cells[] pieces = new Cells[(left.rows + PARALLEL_ROWS - 1) / PARALLEL_ROWS];
+        ParallelRanges.forEach(0, left.rows, PARALLEL_ROWS, (from, to) -> {
+            final double[] acc = new double[right.cols];
+            final int[] lastRow = new int[right.cols];
+            Arrays.fill(lastRow, -1);
+            final TIntArrayList touched = new TIntArrayList();
+            final Cells piece = new Cells();
+            for (int r = from; r < to; r++) {
+                for (int i = left.start[r]; i < left.start[r + 1]; i++) {
+                    final int k = left.col[i];
+                    if (k >= right.rows) {
+                        continue;
+                    }
+                    final double av = left.val[i];
+                    for (int j = right.start[k]; j < right.start[k + 1]; j++) {
+                        final int c = right.col[j];
+                        if (lastRow[c] != r) {
+                            lastRow[c] = r;
+                            acc[c] = 0;
+                            touched.add(c);
+                        }
+                        acc[c] += av * right.val[j];
+                    }
+                }
+                for (int t = 0; t < touched.size(); t++) {
+                    final int c = touched.getQuick(t);
+                    piece.add(r, c, acc[c]);
+                }
+                touched.resetQuick();
+            }
+            pieces[from / PARALLEL_ROWS] = piece;
+        });
+
+        final CSRStorage<Double> ret = new CSRStorage<>();
+        for (final Cells piece : pieces) {
+            if (piece != null) {
+                piece.foreachCell(ret::set);
+            }
+        }
+        ret.compact();
+        return ret;
+    }
+
+    /**
+     * @return the transpose of {@code a}, in the layout of {@code a}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> NestedStorage<T> transpose(final NestedStorage<T> a) {
+        final NestedStorage<T> ret = (NestedStorage<T>) a.emptyCopy();
+        a.foreachCell((row, col, x) -> ret.set(col, row, x));
+        ret.compact();
+        return ret;
+    }
+
+    /**
+     * Folds every row with {@code op}, starting from {@code identity}.
+     * Absent cells are skipped, so an empty row reduces to
+     * {@code identity}.
+     *
+     * @return one entry per row of {@code a}.
+     */
+    public static double[] reduceRows(final NestedStorage<Double> a, final double identity,
+                                      final DoubleBinaryOperator op) {
+        final double[] ret = new double[a.maxIdx()];
+        Arrays.fill(ret, identity);
+        if (a instanceof CSRStorage) {
+            final CSRStorage<Double> csr = (CSRStorage<Double>) a;
+            final int[] starts = csr.rowStarts();
+            final Object[] vals = csr.values();
+            final int rows = Math.min(csr.rowCount(), ret.length);
+            ParallelRanges.forEach(0, rows, PARALLEL_ROWS, (from, to) -> {
+                for (int r = from; r < to; r++) {
+                    double acc = identity;
+                    for (int i = starts[r]; i < starts[r + 1]; i++) {
+                        if (vals[i] != null) {
+                            acc = op.applyAsDouble(acc, (Double) vals[i]);
+                        }
+                    }
+                    ret[r] = acc;
+                }
+            });
+        } else {
+            a.foreachCell((row, col, v) -> ret[row] = op.applyAsDouble(ret[row], v));
+        }
+        return ret;
+    }
+
+    /**
+     * Folds every column with {@code op}, starting from {@code identity}.
+     *
+     * @return one entry per column up to
+     * {@link NestedStorage#maxColIdxOverapproximation()}.
+     */
+    public static double[] reduceCols(final NestedStorage<Double> a, final double identity,
+                                      final DoubleBinaryOperator op) {
+        final double[] ret = new double[a.maxColIdxOverapproximation()];
+        Arrays.fill(ret, identity);
+        a.foreachCell((row, col, v) -> ret[col] = op.applyAsDouble(ret[col], v));
+        return ret;
+    }
+
+    public static double[] rowSums(final NestedStorage<Double> a) {
+        return reduceRows(a, 0, Double::sum);
+    }
+
+    public static double[] colSums(final NestedStorage<Double> a) {
+        return reduceCols(a, 0, Double::sum);
+    }
+
+    /**
+     * Unboxed compressed rows: the cells of row {@code r} are
+     * {@code start[r] .. start[r+1]} in {@code col} and {@code val}.
+     */
+    private static final class Rows {
+        int rows;
+        int cols;
+        int[] start;
+        int[] col;
+        double[] val;
+
+        /**
+         * Sorts the cells of {@code a} into rows with a counting sort, so
+         * any layout and cell order will do.
+         */
+        static Rows of(final NestedStorage<Double> a) {
+            final Rows ret = new Rows();
+            ret.rows = a.maxIdx();
+            ret.start = new int[ret.rows + 1];
+            final int[] count = new int[1];
+            a.foreachCell((row, col, v) -> {
+                if (row >= ret.rows) {
+                    ret.rows = row + 1;
+                    ret.start = Arrays.copyOf(ret.start, Math.max(row + 2, 2 * ret.start.length));
+                }
+                ret.start[row + 1]++;
+                if (col >= ret.cols) {
+                    ret.cols = col + 1;
+                }
+                count[0]++;
+            });
+            for (int r = 0; r < ret.rows; r++) {
+                ret.start[r + 1] += ret.start[r];
+            }
+            ret.col = new int[count[0]];
+            ret.val = new double[count[0]];
+            final int[] fill = Arrays.copyOf(ret.start, ret.rows);
+            a.foreachCell((row, col, v) -> {
+                final int i = fill[row]++;
+                ret.col[i] = col;
+                ret.val[i] = v;
+            });
+            return ret;
+        }
+    }
+
+    /**
+     * Unboxed cells, in the order they were added.
+     */
+    private static final class Cells {
+        private final TIntArrayList rows = new TIntArrayList();
+        private final TIntArrayList cols = new TIntArrayList();
+        private final TDoubleArrayList vals = new TDoubleArrayList();
+
+        void add(final int row, final int col, final double v) {
+            rows.add(row);
+            cols.add(col);
+            vals.add(v);
+        }
+
+        void foreachCell(final CellConsumer<Double> f) {
+            for (int i = 0; i < rows.size(); i++) {
+                f.accept(rows.getQuick(i), cols.getQuick(i), vals.getQuick(i));
+            }
+        }
+    }
+}
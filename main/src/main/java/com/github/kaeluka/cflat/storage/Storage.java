@@ -4,13 +4,17 @@ import com.github.kaeluka.cflat.traversal.GenericShape;
 import com.github.kaeluka.cflat.util.IndexCheck;
 import com.github.kaeluka.cflat.util.Mutable;
 
-import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.Spliterator;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.IntConsumer;
 import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public interface Storage<T> {
     public abstract T get(int i);
@@ -108,6 +112,36 @@ public interface Storage<T> {
         return ret;
     }
 
+    /**
+     * Sets {@code idx[k]} to {@code values[k]} for every {@code k}, in
+     * order, so for an index that occurs twice the later value wins. Storages
+     * that pay for finding an index override this to sort the batch once and
+     * reuse the search between neighbouring indices.
+     *
+     * @throws IllegalArgumentException if the arrays differ in length.
+     */
+    public default Storage<T> setAll(final int[] idx, final T[] values) {
+        Batches.checkSameLength(idx, values);
+        Storage<T> ret = this;
+        for (int k = 0; k < idx.length; ++k) {
+            ret = ret.set(idx[k], values[k]);
+        }
+        return ret;
+    }
+
+    /**
+     * Stores the value at {@code idx[k]} in {@code out[k]} for every
+     * {@code k}.
+     *
+     * @throws IllegalArgumentException if the arrays differ in length.
+     */
+    public default void getAll(final int[] idx, final T[] out) {
+        Batches.checkSameLength(idx, out);
+        for (int k = 0; k < idx.length; ++k) {
+            out[k] = get(idx[k]);
+        }
+    }
+
     public default Storage<T> moveRange(final int source, final int dest, final int length) {
         Storage<T> ret = this.copyRange(source, dest, length);
         if (source < dest) {
@@ -347,40 +381,145 @@ public interface Storage<T> {
         }
     }
 
+    /**
+     * The number of indices one parallel task of the default parallel
+     * operations scans.
+     */
+    public static final int PARALLEL_GRAIN = 1 << 12;
+
+    /**
+     * Like {@link #foreachNonNull}, but calls {@code f} from several threads
+     * at once and in no particular order. The storage must not be modified
+     * until the call returns.
+     */
+    public default void parallelForeachNonNull(IntConsumer f) {
+        ParallelRanges.forEach(0, this.maxIdxOverapproximation(), PARALLEL_GRAIN, (from, to) -> {
+            for (int i=from; i<to; ++i) {
+                if (has(i)) {
+                    f.accept(i);
+                }
+            }
+        });
+    }
+
+    /**
+     * Searches for {@code x} using several threads. The storage must not be
+     * modified until the call returns.
+     *
+     * @return any index holding a value equal to {@code x}, or -1.
+     */
+    public default int parallelFindAny(T x) {
+        return ParallelRanges.findAny(0, this.maxIdxOverapproximation(), PARALLEL_GRAIN, (from, to) -> {
+            for (int i=from; i<to; ++i) {
+                if (x.equals(get(i))) {
+                    return i;
+                }
+            }
+            return -1;
+        });
+    }
+
+    /**
+     * Like {@link #setRange}, but may fill the range using several threads.
+     * Arbitrary storages may restructure themselves on every write, so the
+     * default implementation is sequential.
+     */
+    public default Storage<T> parallelSetRange(final int pos, T x, final int length) {
+        return this.setRange(pos, x, length);
+    }
+
+    /**
+     * A sized spliterator over the non-null indices, in the order of
+     * {@link #foreachNonNull}. The default implementation collects the
+     * indices up front. The storage must not be modified while the
+     * spliterator is in use.
+     */
+    public default Spliterator.OfInt indexSpliterator() {
+        final IntStream.Builder indices = IntStream.builder();
+        foreachNonNull(indices);
+        return indices.build().spliterator();
+    }
+
+    public default IntStream indexStream() {
+        return StreamSupport.intStream(indexSpliterator(), false);
+    }
+
+    public default Stream<T> valueStream() {
+        return indexStream().mapToObj(this::get);
+    }
+
+    /**
+     * Calls {@code f} with the values of all indices that are non-null in
+     * both {@code this} and {@code other}.
+     */
     public default <U> void joinInner(Storage<U> other, BiConsumer<T,U> f) {
-        final Iterator<Integer> thisIdxs = this.nonNullIndices();
-        final Iterator<Integer> otherIdxs = other.nonNullIndices();
-        while (thisIdxs.hasNext() && otherIdxs.hasNext()) {
-            int i = thisIdxs.next();
-            int j = otherIdxs.next();
-            while (i != j) {
-                if (i < j) {
-                    if (!thisIdxs.hasNext()) { return; }
-                    while (i<j && thisIdxs.hasNext()) {
-                        i = thisIdxs.next();
-                    }
-                } else {
-                    if (!otherIdxs.hasNext()) { return; }
-                    while (j<i && otherIdxs.hasNext()) {
-                        j = otherIdxs.next();
-                    }
+        final StorageCursor<T> these = this.cursor();
+        final StorageCursor<U> others = other.cursor();
+        if (!these.advance() || !others.advance()) {
+            return;
+        }
+        while (true) {
+            final int i = these.index();
+            final int j = others.index();
+            if (i == j) {
+                f.accept(these.value(), others.value());
+                if (!these.advance() || !others.advance()) {
+                    return;
+                }
+            } else if (i < j) {
+                if (!these.seek(j)) {
+                    return;
+                }
+            } else {
+                if (!others.seek(i)) {
+                    return;
                 }
             }
-            f.accept(this.get(i), other.get(j));
         }
     }
 
+    /**
+     * A cursor over the non-null indices, in ascending order. The default
+     * implementation probes every index up to
+     * {@link #maxIdxOverapproximation()}.
+     */
+    public default StorageCursor<T> cursor() {
+        return new ScanCursor<>(this);
+    }
+
+    /**
+     * The storage must not be modified while the iterator is in use.
+     * Prefer {@link #cursor()}, which does not box the indices.
+     */
     public default Iterator<Integer> nonNullIndices() {
-        ArrayList<Integer> list = new ArrayList<>(this.maxIdxOverapproximation());
-        foreachNonNull(list::add);
-        list.trimToSize();
-        return list.iterator();
+        final StorageCursor<T> cursor = cursor();
+        return new Iterator<Integer>() {
+            private boolean hasNext = cursor.advance();
+
+            @Override
+            public boolean hasNext() {
+                return hasNext;
+            }
+
+            @Override
+            public Integer next() {
+                if (!hasNext) {
+                    throw new NoSuchElementException();
+                }
+                final int ret = cursor.index();
+                hasNext = cursor.advance();
+                return ret;
+            }
+        };
     }
 
     public default Storage<T> addAll(final Storage<T> source) {
-        final Mutable<Storage<T>> ret = new Mutable<>(source);
-        source.foreachNonNull(i -> ret.x = set(i, source.get(i)));
-        return ret.x;
+        Storage<T> ret = this;
+        final StorageCursor<T> cursor = source.cursor();
+        while (cursor.advance()) {
+            ret = ret.set(cursor.index(), cursor.value());
+        }
+        return ret;
     }
 
     public default int findFirst(T x, int max) {
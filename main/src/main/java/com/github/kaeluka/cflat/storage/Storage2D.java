@@ -18,6 +18,8 @@ public class Storage2D<T> implements NestedStorage<T> {
 
     public Storage<Storage<T>> data;
     private int maxIdx = -1;
+    // the row handed out last; reused while data still holds its storage
+    private IdentityChangeHandlingCol lastRow;
 
     @SuppressWarnings("unchecked")
     public Storage2D(final Storage<Storage<T>> rowsProto, final Storage<T> colsProto) {
@@ -32,7 +34,7 @@ public class Storage2D<T> implements NestedStorage<T> {
 
     private class IdentityChangeHandlingCol implements Storage<T> {
 
-        private int row;
+        private final int row;
         private Storage<T> storage;
 
         IdentityChangeHandlingCol(final int row, final Storage<T> storage) {
@@ -46,10 +48,11 @@ public class Storage2D<T> implements NestedStorage<T> {
         }
 
         private Storage<T> handleChangeRow(final Storage<T> possiblyNewRow) {
-            if (possiblyNewRow != this.storage.get(row)) {
+            if (possiblyNewRow != this.storage) {
                 Storage2D.this.doReplaceRow(row, possiblyNewRow);
+                this.storage = possiblyNewRow;
             }
-            return new IdentityChangeHandlingCol(row, possiblyNewRow);
+            return this;
         }
 
         @Override
@@ -161,6 +164,11 @@ public class Storage2D<T> implements NestedStorage<T> {
             return storage.nonNullIndices();
         }
 
+        @Override
+        public StorageCursor<T> cursor() {
+            return storage.cursor();
+        }
+
         @Override
         public Storage<T> addAll(final Storage<T> source) {
             return handleChangeRow(storage.addAll(source));
@@ -187,14 +195,69 @@ public class Storage2D<T> implements NestedStorage<T> {
         }
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Hands out the same wrapper for a row as long as the row keeps its
+     * identity, so that a loop over the cells of one row allocates nothing.
+     */
     @Override
     public Storage<T> get(final int i) {
         IndexCheck.checkIndexIsNonnegative(i);
-        final Mutable<Storage<T>> mgotten = new Mutable<>(null);
-        this.data = this.data.computeIfAbsent(i, idx -> colsProto.emptyCopy(), mgotten);
+        Storage<T> row = data.get(i);
+        if (row == null) {
+            row = colsProto.emptyCopy();
+            doReplaceRow(i, row);
+        }
         if (i > maxIdx) { maxIdx = i; }
-        return new IdentityChangeHandlingCol(i, mgotten.x);
+        final IdentityChangeHandlingCol last = this.lastRow;
+        if (last != null && last.row == i && last.storage == row) {
+            return last;
+        }
+        return this.lastRow = new IdentityChangeHandlingCol(i, row);
+    }
+
+    @Override
+    public T get(final int row, final int col) {
+        IndexCheck.checkIndexIsNonnegative(row);
+        final Storage<T> r = data.get(row);
+        return r == null ? null : r.get(col);
+    }
+
+    @Override
+    public NestedStorage<T> set(final int row, final int col, final T x) {
+        IndexCheck.checkIndexIsNonnegative(row);
+        Storage<T> r = data.get(row);
+        if (r == null) {
+            r = colsProto.emptyCopy();
+            doReplaceRow(row, r);
+        }
+        final Storage<T> newRow = r.set(col, x);
+        if (newRow != r) {
+            doReplaceRow(row, newRow);
+            // keep the row handed out last in sync
+            final IdentityChangeHandlingCol last = this.lastRow;
+            if (last != null && last.row == row && last.storage == r) {
+                last.storage = newRow;
+            }
+        }
+        if (row > maxIdx) { maxIdx = row; }
+        if (col > maxColIdx) { maxColIdx = col; }
+        return this;
+    }
+
+    /**
+     * Walks the rows and their cells with cursors, which skip the gaps
+     * between present indices and hand out the values as they go.
+     */
+    @Override
+    public void foreachCell(final CellConsumer<? super T> f) {
+        final StorageCursor<Storage<T>> rows = data.cursor();
+        while (rows.advance()) {
+            final int row = rows.index();
+            final StorageCursor<T> cols = rows.value().cursor();
+            while (cols.advance()) {
+                f.accept(row, cols.index(), cols.value());
+            }
+        }
     }
 
     @Override
@@ -209,7 +272,7 @@ public class Storage2D<T> implements NestedStorage<T> {
     @Override
     public Storage<Storage<T>> set(final int l, final Storage<T> x) {
         maxIdx = l > maxIdx ? l : maxIdx;
-        data.set(l, x);
+        doReplaceRow(l, x);
         return this;
     }
 
@@ -233,8 +296,10 @@ public class Storage2D<T> implements NestedStorage<T> {
 
     @Override
     public Storage<Storage<T>> copy() {
-        final Storage<Storage<T>> cp = this.emptyCopy();
-        this.foreachNonNull(i -> cp.set(i, this.get(i).copy()));
+        final Storage2D<T> cp = new Storage2D<>(data.emptyCopy(), colsProto.emptyCopy());
+        this.data.foreachNonNull(i -> cp.doReplaceRow(i, this.data.get(i).copy()));
+        cp.maxIdx = this.maxIdx;
+        cp.maxColIdx = this.maxColIdx;
         return cp;
     }
 
@@ -0,0 +1,34 @@
+package com.github.kaeluka.cflat.storage;
+
+/**
+ * Walks the non-null indices of a storage in ascending order, without
+ * allocating per step. A fresh cursor is positioned before the first index;
+ * {@link #reset()} puts it back there, so a cursor can be reused.
+ *
+ * {@link #index()} and {@link #value()} are only meaningful after the last
+ * call to {@link #advance()} or {@link #seek(int)} returned true. The storage
+ * must not be modified while the cursor is in use.
+ */
+public interface StorageCursor<T> {
+    /**
+     * Moves to the next non-null index.
+     *
+     * @return false if there is none.
+     */
+    public boolean advance();
+
+    /**
+     * Moves to the first non-null index at or after {@code i}. The cursor
+     * never moves backwards: if it already is at or after {@code i}, it
+     * stays where it is.
+     *
+     * @return false if there is no such index.
+     */
+    public boolean seek(int i);
+
+    public int index();
+
+    public T value();
+
+    public void reset();
+}
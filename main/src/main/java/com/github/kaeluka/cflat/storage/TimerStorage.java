@@ -1,13 +1,16 @@
 package com.github.kaeluka.cflat.storage;
 
 import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
 import java.util.Iterator;
-import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.BiConsumer;
 import java.util.function.IntConsumer;
 import java.util.function.Supplier;
@@ -15,7 +18,6 @@ import java.util.function.Supplier;
 public class TimerStorage<T> implements StatisticsStorage<T> {
     private static final long highestTrackableValue = 3600000000000L;
     private static final int numberOfSignificantValueDigits = 3;
-    private long totalTime = 0;
     public enum TIMER_CATEGORY {
         GET,
         GETORELSE,
@@ -42,29 +44,217 @@ public class TimerStorage<T> implements StatisticsStorage<T> {
         COPY,
         EMPTYCOPY
     }
-    private final TreeMap<TIMER_CATEGORY, Histogram> histograms = new TreeMap<>();
+    private static final TIMER_CATEGORY[] CATEGORIES = TIMER_CATEGORY.values();
+
+    /**
+     * Which calls get timed. Timing a call costs two {@link System#nanoTime()}
+     * calls and a histogram update, which can be more than the call itself.
+     * A sampled call is recorded as standing for {@code n} calls, so counts
+     * and {@link #getTotalTime()} remain estimates of all calls.
+     */
+    public enum Sampling {
+        /** Time every call. */
+        ALL,
+        /** Time every {@code n}-th call. Can alias with periodic access patterns. */
+        EVERY_NTH,
+        /** Time each call with probability {@code 1/n}. */
+        RANDOM
+    }
+
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    /**
+     * The statistics of one storage. They are shared by all identities the
+     * storage takes on, see {@link #withNewIdentity(Storage)}.
+     */
+    private static final class Statistics {
+        private final int significantDigits;
+        // written to on the hot path, and drained by the other fields' users
+        private final AtomicReferenceArray<Recorder> recorders = new AtomicReferenceArray<>(CATEGORIES.length);
+        private final Histogram[] totals = new Histogram[CATEGORIES.length];
+        // drained from the recorders, but not yet handed out by intervalSnapshot
+        private final Histogram[] undelivered = new Histogram[CATEGORIES.length];
+        // handed back to the recorders, so draining does not allocate
+        private final Histogram[] spare = new Histogram[CATEGORIES.length];
+        private long totalTime = 0;
+        private Sampling sampling = Sampling.ALL;
+        private int sampleInterval = 1;
+        private int untilNextSample = 1;
+
+        Statistics(final int significantDigits) {
+            this.significantDigits = significantDigits;
+        }
+
+        /**
+         * Recorders are allocated on their first use, most storages only see
+         * a few categories.
+         */
+        Recorder recorder(final TIMER_CATEGORY t) {
+            final Recorder r = recorders.get(t.ordinal());
+            if (r != null) {
+                return r;
+            }
+            recorders.compareAndSet(t.ordinal(), null, new Recorder(highestTrackableValue, significantDigits));
+            return recorders.get(t.ordinal());
+        }
+
+        synchronized void drain() {
+            for (int c = 0; c < CATEGORIES.length; c++) {
+                final Recorder r = recorders.get(c);
+                if (r == null) {
+                    continue;
+                }
+                final Histogram h = r.getIntervalHistogram(spare[c]);
+                spare[c] = h;
+                if (h.getTotalCount() == 0) {
+                    continue;
+                }
+                h.setTag(CATEGORIES[c].toString());
+                if (totals[c] == null) {
+                    totals[c] = h.copy();
+                } else {
+                    totals[c].add(h);
+                }
+                if (undelivered[c] == null) {
+                    undelivered[c] = h.copy();
+                } else {
+                    undelivered[c].add(h);
+                    undelivered[c].setEndTimeStamp(h.getEndTimeStamp());
+                }
+            }
+        }
+
+        synchronized EnumMap<TIMER_CATEGORY, Histogram> intervalSnapshot() {
+            drain();
+            final EnumMap<TIMER_CATEGORY, Histogram> ret = new EnumMap<>(TIMER_CATEGORY.class);
+            for (int c = 0; c < CATEGORIES.length; c++) {
+                if (undelivered[c] != null) {
+                    ret.put(CATEGORIES[c], undelivered[c]);
+                    undelivered[c] = null;
+                }
+            }
+            return ret;
+        }
+
+        synchronized Histogram total(final TIMER_CATEGORY t) {
+            drain();
+            return totals[t.ordinal()];
+        }
+
+        /**
+         * Copies the total into {@code into}, or into a new histogram if
+         * that is null.
+         */
+        synchronized Histogram copyOfTotal(final TIMER_CATEGORY t, final Histogram into) {
+            final Histogram total = total(t);
+            if (total == null) {
+                return null;
+            }
+            if (into == null) {
+                return total.copy();
+            }
+            total.copyInto(into);
+            return into;
+        }
+
+        synchronized void reset() {
+            for (int c = 0; c < CATEGORIES.length; c++) {
+                final Recorder r = recorders.get(c);
+                if (r != null) {
+                    r.reset();
+                }
+                totals[c] = null;
+                undelivered[c] = null;
+            }
+            totalTime = 0;
+        }
+
+        synchronized Statistics copy() {
+            drain();
+            final Statistics ret = new Statistics(significantDigits);
+            for (int c = 0; c < CATEGORIES.length; c++) {
+                if (totals[c] != null) {
+                    ret.totals[c] = totals[c].copy();
+                }
+            }
+            ret.totalTime = totalTime;
+            ret.sampling = sampling;
+            ret.sampleInterval = sampleInterval;
+            ret.untilNextSample = untilNextSample;
+            return ret;
+        }
+    }
+
+    private final Statistics stats;
 
     private final Storage innerStorage;
 
     public TimerStorage(final Storage<T> inner) {
+        this(inner, numberOfSignificantValueDigits);
+    }
+
+    /**
+     * @param significantDigits the precision of the histograms. The
+     *                          histograms' size grows exponentially with it;
+     *                          the total time does not depend on it.
+     */
+    public TimerStorage(final Storage<T> inner, final int significantDigits) {
+        this(inner, new Statistics(significantDigits));
+    }
+
+    private TimerStorage(final Storage<T> inner, final Statistics stats) {
         this.innerStorage = inner;
+        this.stats = stats;
         assert ! (innerStorage instanceof TimerStorage);
-        for (TIMER_CATEGORY t : TIMER_CATEGORY.values()) {
-            final Histogram h = new Histogram(highestTrackableValue, numberOfSignificantValueDigits);
-            h.setTag(t.toString());
-            histograms.put(t, h);
-        }
     }
 
     private TimerStorage<T> withNewIdentity(Storage<T> newInnerStorage) {
-        return new TimerStorage<>(newInnerStorage, this);
+        return new TimerStorage<>(newInnerStorage, stats);
+    }
+
+    /**
+     * Only time some calls, see {@link Sampling}. Sampling every 64th call
+     * keeps the overhead of timing low enough to leave it on permanently.
+     *
+     * @param n time one in {@code n} calls. Must be 1 for
+     *          {@link Sampling#ALL}.
+     */
+    public TimerStorage<T> setSampling(final Sampling sampling, final int n) {
+        if (n < 1 || (sampling == Sampling.ALL && n != 1)) {
+            throw new IllegalArgumentException("can't sample one in "+n+" calls with "+sampling);
+        }
+        stats.sampling = sampling;
+        stats.sampleInterval = n;
+        stats.untilNextSample = n;
+        return this;
+    }
+
+    /**
+     * @return the time stamp to pass to {@link #stopTimer}, or
+     * {@link #NOT_SAMPLED}.
+     */
+    private long startTimer() {
+        final Statistics s = stats;
+        if (s.sampling == Sampling.EVERY_NTH) {
+            if (--s.untilNextSample > 0) {
+                return NOT_SAMPLED;
+            }
+            s.untilNextSample = s.sampleInterval;
+        } else if (s.sampling == Sampling.RANDOM) {
+            if (ThreadLocalRandom.current().nextInt(s.sampleInterval) != 0) {
+                return NOT_SAMPLED;
+            }
+        }
+        return System.nanoTime();
     }
 
-    private TimerStorage(Storage<T> s, TimerStorage old) {
-        for (TIMER_CATEGORY t : TIMER_CATEGORY.values()) {
-            histograms.put(t, ((Histogram) old.histograms.get(t)).copy());
+    private void stopTimer(final TIMER_CATEGORY t, final long start) {
+        if (start != NOT_SAMPLED) {
+            final long elapsed = Math.min(System.nanoTime() - start, highestTrackableValue);
+            final Statistics s = stats;
+            s.recorder(t).recordValueWithCount(elapsed, s.sampleInterval);
+            s.totalTime += elapsed * s.sampleInterval;
         }
-        innerStorage = s;
     }
 
     public Storage<T> getInner() {
@@ -73,49 +263,39 @@ public class TimerStorage<T> implements StatisticsStorage<T> {
 
     @SuppressWarnings("unchecked")
     public T get(final int i) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final Object ret = innerStorage.get(i);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.GET).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.GET, start);
         return (T) ret;
     }
 
     @SuppressWarnings("unchecked")
     public T getOrElse(final int i, final Supplier<T> s) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final Object ret = innerStorage.getOrElse(i, s);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.GETORELSE).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.GETORELSE, start);
         return (T) ret;
     }
 
     public boolean has(final int i) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final boolean ret = innerStorage.has(i);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.HAS).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.HAS, start);
         return ret;
     }
 
     public boolean hasInRange(final int start, final int end) {
-        final long start_ = System.nanoTime();
+        final long start_ = startTimer();
         final boolean ret = innerStorage.hasInRange(start, end);
-        final long end_ = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.HASINRANGE).recordValue(end_ - start_);
-        totalTime += (end_ - start_);
+        stopTimer(TIMER_CATEGORY.HASINRANGE, start_);
         return ret;
     }
 
     @SuppressWarnings("unchecked")
     public Storage<T> set(final int i, final T x) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final Storage ret = innerStorage.set(i, x);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.SET).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.SET, start);
         if (ret == innerStorage) {
             return this;
         } else {
@@ -125,11 +305,9 @@ public class TimerStorage<T> implements StatisticsStorage<T> {
 
     @SuppressWarnings("unchecked")
     public Storage<T> clearAll() {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final Storage ret = innerStorage.clearAll();
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.CLEAR).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.CLEAR, start);
         if (ret == innerStorage) {
             return this;
         } else {
@@ -138,30 +316,24 @@ public class TimerStorage<T> implements StatisticsStorage<T> {
     }
 
     public int maxIdxOverapproximation() {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final int ret = innerStorage.maxIdxOverapproximation();
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.SIZEOVERAPPROXIMATION).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.SIZEOVERAPPROXIMATION, start);
         return ret;
     }
 
     public int maxIdx() {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final int ret = innerStorage.maxIdx();
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.SIZEPRECISE).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.SIZEPRECISE, start);
         return ret;
     }
 
     @SuppressWarnings("unchecked")
     public Storage<T> moveSubtree(final int source, final Object[] shape, final int dest) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final Storage ret = innerStorage.moveSubtree(source, shape, dest);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.MOVESUBTREE).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.MOVESUBTREE, start);
         if (ret == innerStorage) {
             return this;
         } else {
@@ -171,11 +343,9 @@ public class TimerStorage<T> implements StatisticsStorage<T> {
 
     @SuppressWarnings("unchecked")
     public Storage<T> setSubtree(final int source, final Object[] shape, final int dest) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final Storage ret = innerStorage.setSubtree(source, shape, dest);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.SETSUBTREE).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.SETSUBTREE, start);
         if (ret == innerStorage) {
             return this;
         } else {
@@ -185,11 +355,9 @@ public class TimerStorage<T> implements StatisticsStorage<T> {
 
     @SuppressWarnings("unchecked")
     public Storage<T> setRange(final int pos, final T x, final int length) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final Storage ret = innerStorage.setRange(pos, x, length);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.SETRANGE).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.SETRANGE, start);
         if (ret == innerStorage) {
             return this;
         } else {
@@ -199,11 +367,9 @@ public class TimerStorage<T> implements StatisticsStorage<T> {
 
     @SuppressWarnings("unchecked")
     public Storage<T> moveRange(final int source, final int dest, final int length) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final Storage ret = innerStorage.moveRange(source, dest, length);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.MOVERANGE).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.MOVERANGE, start);
         if (ret == innerStorage) {
             return this;
         } else {
@@ -213,11 +379,9 @@ public class TimerStorage<T> implements StatisticsStorage<T> {
 
     @SuppressWarnings("unchecked")
     public Storage<T> copyRange(final int source, final int dest, final int length) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final Storage ret = innerStorage.copyRange(source, dest, length);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.COPYRANGE).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.COPYRANGE, start);
         if (ret == innerStorage) {
             return this;
         } else {
@@ -227,11 +391,9 @@ public class TimerStorage<T> implements StatisticsStorage<T> {
 
     @SuppressWarnings("unchecked")
     public Storage<T> setSubtree(final int source, final Object[] shape, final int dest, final int depth, final boolean doMove) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final Storage ret = innerStorage.setSubtree(source, shape, dest, depth, doMove);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.SETSUBTREE).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.SETSUBTREE, start);
         if (ret == innerStorage) {
             return this;
         } else {
@@ -240,63 +402,83 @@ public class TimerStorage<T> implements StatisticsStorage<T> {
     }
 
     public void foreachSuccessor(final int start, final Object[] shape, final IntConsumer f) {
-        final long start_ = System.nanoTime();
+        final long start_ = startTimer();
         innerStorage.foreachSuccessor(start, shape, f);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.FOREACHSUCCESSOR).recordValue(end - start_);
-        totalTime += (end - start_);
+        stopTimer(TIMER_CATEGORY.FOREACHSUCCESSOR, start_);
     }
 
     public void foreachParent(final int start, final Object[] shape, final IntConsumer f) {
-        final long start_ = System.nanoTime();
+        final long start_ = startTimer();
         innerStorage.foreachParent(start, shape, f);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.FOREACHPARENT).recordValue(end - start_);
-        totalTime += (end - start_);
+        stopTimer(TIMER_CATEGORY.FOREACHPARENT, start_);
     }
 
     public void foreach(final IntConsumer f) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         innerStorage.foreach(f);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.FOREACH).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.FOREACH, start);
     }
 
     public void foreachNonNull(final IntConsumer f) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         innerStorage.foreachNonNull(f);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.FOREACHNONNULL).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.FOREACHNONNULL, start);
+    }
+
+    public void parallelForeachNonNull(final IntConsumer f) {
+        final long start = startTimer();
+        innerStorage.parallelForeachNonNull(f);
+        stopTimer(TIMER_CATEGORY.FOREACHNONNULL, start);
+    }
+
+    @SuppressWarnings("unchecked")
+    public int parallelFindAny(final T x) {
+        final long start = startTimer();
+        final int ret = innerStorage.parallelFindAny(x);
+        stopTimer(TIMER_CATEGORY.FIND, start);
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Storage<T> parallelSetRange(final int pos, final T x, final int length) {
+        final long start = startTimer();
+        final Storage ret = innerStorage.parallelSetRange(pos, x, length);
+        stopTimer(TIMER_CATEGORY.SETRANGE, start);
+        if (ret == innerStorage) {
+            return this;
+        } else {
+            return (Storage<T>) this.withNewIdentity(ret);
+        }
     }
 
     @SuppressWarnings("unchecked")
     public <U> void joinInner(final Storage<U> other, final BiConsumer<T, U> f) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         innerStorage.joinInner(other, f);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.JOININNER).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.JOININNER, start);
     }
 
     @SuppressWarnings("unchecked")
     public Iterator<Integer> nonNullIndices() {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final Iterator ret = innerStorage.nonNullIndices();
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.NONNULLINDICES).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.NONNULLINDICES, start);
         return ret;
     }
 
+    /**
+     * The cursor's steps are not timed.
+     */
+    @SuppressWarnings("unchecked")
+    public StorageCursor<T> cursor() {
+        return innerStorage.cursor();
+    }
+
     @SuppressWarnings("unchecked")
     public Storage<T> addAll(final Storage<T> source) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final Storage ret = innerStorage.addAll(source);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.ADDALL).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.ADDALL, start);
         if (ret == innerStorage) {
             return this;
         } else {
@@ -306,40 +488,34 @@ public class TimerStorage<T> implements StatisticsStorage<T> {
 
     @SuppressWarnings("unchecked")
     public int findFirst(final T x, final int max) {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final int ret = innerStorage.findFirst(x, max);
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.FIND).recordValue(end - start);
-        totalTime += (end - start);
+        stopTimer(TIMER_CATEGORY.FIND, start);
         return ret;
     }
 
+    /**
+     * The copy starts out with this storage's statistics, but records its
+     * own from then on.
+     */
     @SuppressWarnings("unchecked")
     public Storage<T> copy() {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final Storage ret = innerStorage.copy();
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.COPY).recordValue(end - start);
-        totalTime += (end - start);
-        if (ret == innerStorage) {
-            return this;
-        } else {
-            return (Storage<T>) this.withNewIdentity(ret);
-        }
+        stopTimer(TIMER_CATEGORY.COPY, start);
+        return new TimerStorage<>((Storage<T>) ret, stats.copy());
     }
 
+    /**
+     * Like {@link #copy()}, the empty copy starts out with this storage's
+     * statistics.
+     */
     @SuppressWarnings("unchecked")
     public Storage<T> emptyCopy() {
-        final long start = System.nanoTime();
+        final long start = startTimer();
         final Storage ret = innerStorage.emptyCopy();
-        final long end = System.nanoTime();
-        histograms.get(TIMER_CATEGORY.EMPTYCOPY).recordValue(end - start);
-        totalTime += (end - start);
-        if (ret == innerStorage) {
-            return this;
-        } else {
-            return (Storage<T>) this.withNewIdentity(ret);
-        }
+        stopTimer(TIMER_CATEGORY.EMPTYCOPY, start);
+        return new TimerStorage<>((Storage<T>) ret, stats.copy());
     }
 
     public long bytesUsed() {
@@ -349,9 +525,12 @@ public class TimerStorage<T> implements StatisticsStorage<T> {
     public String getStatistics(final String name) {
         StringBuilder ret = new StringBuilder();
         ret.append("## ").append(name).append("\n");
-        for (TIMER_CATEGORY t : TIMER_CATEGORY.values()) {
-            final Histogram histogram = histograms.get(t);
-            if (histogram.getTotalCount() > 0) {
+        if (stats.sampling != Sampling.ALL) {
+            ret.append("(timed one in ").append(stats.sampleInterval).append(" calls, counts are estimates)\n");
+        }
+        for (TIMER_CATEGORY t : CATEGORIES) {
+            final Histogram histogram = stats.total(t);
+            if (histogram != null && histogram.getTotalCount() > 0) {
                 ByteArrayOutputStream baos = new ByteArrayOutputStream();
                 try {
                     ret.append("### ").append(t.toString()).append("\n");
@@ -366,17 +545,48 @@ public class TimerStorage<T> implements StatisticsStorage<T> {
         return ret.toString();
     }
 
+    /**
+     * The latencies recorded since the last snapshot, or since the storage
+     * was created, by category. Categories without timed calls are left
+     * out. Each histogram's start and end time stamps bound its interval.
+     *
+     * Unlike the rest of this class, this method may be called from another
+     * thread while the storage is in use, e.g. by a monitoring thread that
+     * takes a snapshot every few seconds.
+     */
+    public EnumMap<TIMER_CATEGORY, Histogram> intervalSnapshot() {
+        return stats.intervalSnapshot();
+    }
+
+    /**
+     * All latencies recorded in category {@code t} since the last
+     * {@link #resetStatistics()}, or null if there were none.
+     */
+    public Histogram getHistogram(final TIMER_CATEGORY t) {
+        return getHistogram(t, null);
+    }
+
+    /**
+     * Like {@link #getHistogram(TIMER_CATEGORY)}, but copies into
+     * {@code into} if it isn't null, so that a caller polling regularly can
+     * keep reusing one histogram.
+     *
+     * @return {@code into} or a new histogram, or null if there were no
+     * timed calls.
+     */
+    public Histogram getHistogram(final TIMER_CATEGORY t, final Histogram into) {
+        return stats.copyOfTotal(t, into);
+    }
+
     public Class<? extends Storage> getInnerClass() {
         return innerStorage.getClass();
     }
 
     public void resetStatistics() {
-        for (TIMER_CATEGORY t : TIMER_CATEGORY.values()) {
-            this.histograms.get(t).reset();
-        }
+        stats.reset();
     }
 
     public long getTotalTime() {
-        return totalTime;
+        return stats.totalTime;
     }
 }
@@ -35,11 +35,43 @@ public class TimersStorage<T> implements StatisticsStorage<T> {
 
     @SuppressWarnings("unchecked")
     public TimersStorage(final String name, final Storage<T>... inner) {
+        this(name, numberOfSignificantValueDigits, inner);
+    }
+
+    /**
+     * @param significantDigits the precision of the inner storages'
+     *                          histograms, see
+     *                          {@link TimerStorage#TimerStorage(Storage, int)}.
+     */
+    @SuppressWarnings("unchecked")
+    public TimersStorage(final String name, final int significantDigits, final Storage<T>... inner) {
         this.name = name;
         this.innerStorages = new TimerStorage[inner.length];
         for (int i=0; i<inner.length; ++i) {
-            this.innerStorages[i] = new TimerStorage(inner[i]);
+            this.innerStorages[i] = new TimerStorage(inner[i], significantDigits);
+        }
+    }
+
+    public int getTimerCount() {
+        return innerStorages.length;
+    }
+
+    /**
+     * @param s the position of the inner storage, in the order they were
+     *          passed to the constructor.
+     */
+    public TimerStorage<T> getTimer(final int s) {
+        return innerStorages[s];
+    }
+
+    /**
+     * Only time some calls, see {@link TimerStorage#setSampling}.
+     */
+    public TimersStorage<T> setSampling(final TimerStorage.Sampling sampling, final int n) {
+        for (final TimerStorage<T> innerStorage : innerStorages) {
+            innerStorage.setSampling(sampling, n);
         }
+        return this;
     }
 
     @SuppressWarnings("unchecked")
@@ -180,6 +212,28 @@ public class TimersStorage<T> implements StatisticsStorage<T> {
         }
     }
 
+    public void parallelForeachNonNull(final IntConsumer f) {
+        for (final TimerStorage<T> innerStorage : innerStorages) {
+            innerStorage.parallelForeachNonNull(f);
+        }
+    }
+
+    public int parallelFindAny(final T x) {
+        int ret = -1;
+        for (final TimerStorage<T> innerStorage : innerStorages) {
+            ret = innerStorage.parallelFindAny(x);
+        }
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Storage<T> parallelSetRange(final int pos, final T x, final int length) {
+        for (int s=0; s<innerStorages.length; ++s) {
+            innerStorages[s] = (TimerStorage) innerStorages[s].parallelSetRange(pos, x, length);
+        }
+        return this;
+    }
+
     @SuppressWarnings("unchecked")
     public <U> void joinInner(final Storage<U> other, final BiConsumer<T, U> f) {
         for (final TimerStorage<T> innerStorage : innerStorages) {
@@ -196,6 +250,14 @@ public class TimersStorage<T> implements StatisticsStorage<T> {
         return ret;
     }
 
+    public StorageCursor<T> cursor() {
+        StorageCursor<T> ret = null;
+        for (final TimerStorage<T> innerStorage : innerStorages) {
+            ret = innerStorage.cursor();
+        }
+        return ret;
+    }
+
     @SuppressWarnings("unchecked")
     public Storage<T> addAll(final Storage<T> source) {
         for (int s=0; s<innerStorages.length; ++s) {
@@ -275,12 +337,24 @@ public class TimersStorage<T> implements StatisticsStorage<T> {
     }
 
     public Class<? extends Storage> recommendation() {
+        final int best = recommendedIndex();
+        return best < 0 ? null : innerStorages[best].getInnerClass();
+    }
+
+    /**
+     * Scores every inner storage by its time and bytes used, each relative
+     * to the best inner storage and weighted as set by
+     * {@link #setPriority(double, double)}.
+     *
+     * @return the position of the best inner storage, in the order they
+     * were passed to the constructor, or -1 if nothing was timed yet.
+     */
+    public int recommendedIndex() {
         if (getTotalTime() == 0) {
-            return null;
+            return -1;
         } else {
             long minTime = Long.MAX_VALUE;
             long minBytes = Long.MAX_VALUE;
-            Class<? extends Storage> minClass = null;
             for (final TimerStorage<T> innerStorage : innerStorages) {
                 if (innerStorage.getTotalTime() < minTime) {
                     minTime = innerStorage.getTotalTime();
@@ -289,11 +363,15 @@ public class TimersStorage<T> implements StatisticsStorage<T> {
                     minBytes = innerStorage.bytesUsed();
                 }
             }
+            // avoid dividing by zero for very short measurements:
+            minTime = Math.max(minTime, 1);
+            minBytes = Math.max(minBytes, 1);
 
             double bestScore = Double.MAX_VALUE;
-            Class<? extends Storage> bestClass = null;
+            int best = -1;
 
-            for (final TimerStorage<T> innerStorage : innerStorages) {
+            for (int s=0; s<innerStorages.length; ++s) {
+                final TimerStorage<T> innerStorage = innerStorages[s];
                 final long bytesUsed = innerStorage.bytesUsed();
                 final long totalTime = innerStorage.getTotalTime();
                 if(bytesUsed < 0) {
@@ -304,23 +382,15 @@ public class TimersStorage<T> implements StatisticsStorage<T> {
                 }
                 final double bytesScore = bytesUsed *1.0 / minBytes;
                 final double timeScore  = totalTime *1.0 / minTime;
-//                System.out.println(innerStorage.getInnerClass().getSimpleName() + ": bytes =" + bytesUsed);
-//                System.out.println(innerStorage.getInnerClass().getSimpleName() + ": bytes (HR) =" + ObjectSizes.humanReadable(bytesUsed));
-//                System.out.println(innerStorage.getInnerClass().getSimpleName() + ": time =" + (totalTime/1000)+"us");
-//                System.out.println(innerStorage.getInnerClass().getSimpleName() + ": bytesScore =" + bytesScore);
-//                System.out.println(innerStorage.getInnerClass().getSimpleName() + ": timeScore  =" + timeScore);
-//                System.out.println(innerStorage.getInnerClass().getSimpleName() + ": bytesScore corrected =" + bytesScore * bytesWeight);
-//                System.out.println(innerStorage.getInnerClass().getSimpleName() + ": timeScore corrected  =" + timeScore * timeWeight);
                 final double score = bytesWeight * bytesScore + timeWeight * timeScore;
 
                 if (score < bestScore) {
                     bestScore = score;
-                    bestClass = innerStorage.getInnerClass();
+                    best = s;
                 }
-
             }
 
-            return bestClass;
+            return best;
         }
     }
 }
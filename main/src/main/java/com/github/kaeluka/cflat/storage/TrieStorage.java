@@ -4,6 +4,8 @@ import com.github.kaeluka.cflat.storage.size.ObjectSizes;
 import com.github.kaeluka.cflat.util.Mutable;
 
 import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.IntConsumer;
 
 import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
@@ -12,6 +14,33 @@ import static com.github.kaeluka.cflat.util.IndexCheck.checkIndexIsNonnegative;
 public class TrieStorage<T> extends SizedStorage<T> {
     public final Object[][][][] data = new Object[0x80][][][];
 
+    /*
+     * Occupancy bitmaps, mirroring the levels of data. Bit i of a node's
+     * bitmap is set iff its i-th child exists (for inner nodes), or holds a
+     * value (for leaves). Scans use them to skip empty regions.
+     */
+    private final long[] used1 = Bitmaps.forSize(0x80);
+    private final long[][] used2 = new long[0x80][];
+    private final long[][][] used3 = new long[0x80][][];
+    private final long[][][][] used4 = new long[0x80][][][];
+
+    private static final int SUBTREES = 0x80 * 0x100;
+
+    // the number of allocated nodes per level, for bytesUsed
+    private int lvl1Nodes = 0;
+    private int lvl2Nodes = 0;
+    private int leaves = 0;
+
+    private static final long ROOT_SIZE = ObjectSizes.OBJECT_SIZE(4 * ObjectSizes.INT + 5 * ObjectSizes.REFERENCE)
+            + 4 * ObjectSizes.ARRAY_SIZE_OF_REFERENCES(0x80)
+            + ObjectSizes.ARRAY_SIZE_OF_LONGS(Bitmaps.wordsFor(0x80));
+    private static final long BITMAP_SIZE = ObjectSizes.ARRAY_SIZE_OF_LONGS(Bitmaps.wordsFor(0x100));
+    private static final long NODE_ARRAY_SIZE = ObjectSizes.ARRAY_SIZE_OF_REFERENCES(0x100);
+    // a node, its bitmap, and the arrays holding its descendants' bitmaps:
+    private static final long LVL1_SIZE = 3 * NODE_ARRAY_SIZE + BITMAP_SIZE;
+    private static final long LVL2_SIZE = 2 * NODE_ARRAY_SIZE + BITMAP_SIZE;
+    private static final long LEAF_SIZE = NODE_ARRAY_SIZE + BITMAP_SIZE;
+
     @Override
     public T get(final int idx) {
         checkIndexIsNonnegative(idx);
@@ -78,14 +107,18 @@ public class TrieStorage<T> extends SizedStorage<T> {
     }
 
     private void handleOverflow(final Mutable<T> v2, final Object[][][] d1, final int coord1, final Object[][] d2, final int coord2, final int coord3) {
+        // the next index lives in the next leaf, which may not exist:
         if (coord3 != 0xFF) {
-            v2.x = (T) d2[coord3+1][0];
+            final Object[] next = d2[coord3+1];
+            v2.x = next == null ? null : (T) next[0];
         } else {
             if (coord2 != 0xFF) {
-                v2.x = (T) d1[coord2+1][0][0];
+                final Object[][] next = d1[coord2+1];
+                v2.x = next == null || next[0] == null ? null : (T) next[0][0];
             } else {
                 if (coord1 != 0xFF) {
-                    v2.x = (T) data[coord1+1][0][0][0];
+                    final Object[][][] next = data[coord1+1];
+                    v2.x = next == null || next[0] == null || next[0][0] == null ? null : (T) next[0][0][0];
                 } else {
                     throw new ArrayIndexOutOfBoundsException();
                 }
@@ -96,26 +129,62 @@ public class TrieStorage<T> extends SizedStorage<T> {
     @Override
     public Storage<T> set(final int idx, final T x) {
         checkIndexIsNonnegative(idx);
-        if (x == null && !has(idx)) { return this; }
+        if (x == null) {
+            final Object[] d3 = getLeaf(idx);
+            if (d3 != null) {
+                d3[getCoord4(idx)] = null;
+                Bitmaps.clear(getLeafBits(idx), getCoord4(idx));
+            }
+            return this;
+        }
         updateMaxIdx(idx);
 
         final Object[] d3 = ensureLvl3(idx, ensureLvl2(idx, ensureLvl1(idx)));
         d3[getCoord4(idx)] = x;
+        Bitmaps.set(getLeafBits(idx), getCoord4(idx));
         return this;
     }
 
+    private Object[] getLeaf(final int idx) {
+        final Object[][][] d1;
+        final Object[][] d2;
+        if ((d1 = data[getCoord1(idx)]) == null || (d2 = d1[getCoord2(idx)]) == null) {
+            return null;
+        }
+        return d2[getCoord3(idx)];
+    }
+
+    /**
+     * Must only be called if the leaf holding {@code idx} exists.
+     */
+    private long[] getLeafBits(final int idx) {
+        return used4[getCoord1(idx)][getCoord2(idx)][getCoord3(idx)];
+    }
+
     private Object[][][] ensureLvl1(final int idx) {
+        final int c1 = getCoord1(idx);
         Object[][][] d1;
-        if ((d1 = data[getCoord1(idx)]) == null) {
-            d1 = data[getCoord1(idx)] = new Object[0x100][][];
+        if ((d1 = data[c1]) == null) {
+            d1 = data[c1] = new Object[0x100][][];
+            used2[c1] = Bitmaps.forSize(0x100);
+            used3[c1] = new long[0x100][];
+            used4[c1] = new long[0x100][][];
+            Bitmaps.set(used1, c1);
+            lvl1Nodes++;
         }
         return d1;
     }
 
     private Object[][] ensureLvl2(final int idx, final Object[][][] d1) {
+        final int c2 = getCoord2(idx);
         Object[][] d2;
-        if ((d2 = d1[getCoord2(idx)]) == null) {
-            d2 = d1[getCoord2(idx)] = new Object[0x100][];
+        if ((d2 = d1[c2]) == null) {
+            final int c1 = getCoord1(idx);
+            d2 = d1[c2] = new Object[0x100][];
+            used3[c1][c2] = Bitmaps.forSize(0x100);
+            used4[c1][c2] = new long[0x100][];
+            Bitmaps.set(used2[c1], c2);
+            lvl2Nodes++;
         }
         return d2;
     }
@@ -123,115 +192,431 @@ public class TrieStorage<T> extends SizedStorage<T> {
     private Object[] ensureLvl3(final int idx, final Object[][] d2) {
         Object[] d3;
         if ((d3 = d2[getCoord3(idx)]) == null) {
-            d3 = d2[getCoord3(idx)] = new Object[0x100];
+            d3 = newLeaf(idx, d2);
+            leaves++;
         }
         return d3;
     }
 
+    /**
+     * Does not count the leaf, so tasks working on disjoint subtrees can
+     * call this concurrently.
+     */
+    private Object[] newLeaf(final int idx, final Object[][] d2) {
+        final int c1 = getCoord1(idx);
+        final int c2 = getCoord2(idx);
+        final int c3 = getCoord3(idx);
+        final Object[] d3 = d2[c3] = new Object[0x100];
+        used4[c1][c2][c3] = Bitmaps.forSize(0x100);
+        Bitmaps.set(used3[c1][c2], c3);
+        return d3;
+    }
+
     @Override
     public Storage<T> set2(final int idx, final T x, final T y) {
         checkIndexIsNonnegative(idx);
+        checkIndexIsNonnegative(idx+1);
+
+        final int coord4 = getCoord4(idx);
+        if (coord4 == 0xFF || x == null || y == null) {
+            set(idx, x);
+            return set(idx+1, y);
+        }
         updateMaxIdx(idx+1);
 
-        Object[][][] d1;
-        Object[][] d2;
-        Object[] d3;
-        final int coord1 = idx >> 24 & 0xFF;
-        if ((d1 = data[coord1]) == null) {
-            d1 = data[coord1] = new Object[0x100][][];
+        final Object[] d3 = ensureLvl3(idx, ensureLvl2(idx, ensureLvl1(idx)));
+        d3[coord4] = x;
+        d3[coord4+1] = y;
+        Bitmaps.setRange(getLeafBits(idx), coord4, coord4+2, true);
+        return this;
+    }
+
+    /**
+     * Descends the trie only when the next index lives in another leaf than
+     * the previous one. A descent costs no more than sorting the batch would,
+     * so the batch is applied in the order given.
+     */
+    @Override
+    public Storage<T> setAll(final int[] idx, final T[] values) {
+        Batches.checkSameLength(idx, values);
+        int leafBase = -1;
+        Object[] leaf = null;
+        long[] bits = null;
+        int max = -1;
+        for (int k = 0; k < idx.length; ++k) {
+            final int i = idx[k];
+            final T x = values[k];
+            checkIndexIsNonnegative(i);
+            if ((i & ~0xFF) != leafBase || (leaf == null && x != null)) {
+                leafBase = i & ~0xFF;
+                leaf = x == null ? getLeaf(i) : ensureLvl3(i, ensureLvl2(i, ensureLvl1(i)));
+                bits = leaf == null ? null : getLeafBits(i);
+            }
+            if (x != null) {
+                leaf[getCoord4(i)] = x;
+                Bitmaps.set(bits, getCoord4(i));
+                max = Math.max(max, i);
+            } else if (leaf != null) {
+                leaf[getCoord4(i)] = null;
+                Bitmaps.clear(bits, getCoord4(i));
+            }
+        }
+        updateMaxIdx(max);
+        return this;
+    }
+
+    /**
+     * Like {@link #setAll}, descends the trie once per run of indices that
+     * share a leaf.
+     */
+    @Override
+    public void getAll(final int[] idx, final T[] out) {
+        Batches.checkSameLength(idx, out);
+        int leafBase = -1;
+        Object[] leaf = null;
+        for (int k = 0; k < idx.length; ++k) {
+            final int i = idx[k];
+            checkIndexIsNonnegative(i);
+            if ((i & ~0xFF) != leafBase) {
+                leafBase = i & ~0xFF;
+                leaf = getLeaf(i);
+            }
+            out[k] = leaf == null ? null : (T) leaf[getCoord4(i)];
         }
-        final int coord2 = getCoord2(idx);
-        if ((d2 = d1[coord2]) == null) {
-            d2 = d1[coord2] = new Object[0x100][];
+    }
+
+    /**
+     * @return the first index at or after {@code from} that holds a value,
+     * or -1.
+     */
+    private int nextNonNull(final int from) {
+        if (from < 0) {
+            return -1;
         }
-        final int coord3 = getCoord3(idx);
-        if ((d3 = d2[coord3]) == null) {
-            d3 = d2[coord3] = new Object[0x100];
+        final int from1 = getCoord1(from);
+        for (int c1 = Bitmaps.nextSetBit(used1, from1); c1 >= 0; c1 = Bitmaps.nextSetBit(used1, c1 + 1)) {
+            final boolean first1 = c1 == from1;
+            final long[] u2 = used2[c1];
+            for (int c2 = Bitmaps.nextSetBit(u2, first1 ? getCoord2(from) : 0); c2 >= 0; c2 = Bitmaps.nextSetBit(u2, c2 + 1)) {
+                final boolean first2 = first1 && c2 == getCoord2(from);
+                final long[] u3 = used3[c1][c2];
+                for (int c3 = Bitmaps.nextSetBit(u3, first2 ? getCoord3(from) : 0); c3 >= 0; c3 = Bitmaps.nextSetBit(u3, c3 + 1)) {
+                    final boolean first3 = first2 && c3 == getCoord3(from);
+                    final int c4 = Bitmaps.nextSetBit(used4[c1][c2][c3], first3 ? getCoord4(from) : 0);
+                    if (c4 >= 0) {
+                        return c1 << 24 | c2 << 16 | c3 << 8 | c4;
+                    }
+                }
+            }
         }
+        return -1;
+    }
 
-        final int coord4 = getCoord4(idx);
-        d3[coord4] = x;
-        if (coord4 != 0xFF) {
-            d3[coord4+1] = y;
-        } else {
-            set(idx+1, y);
+    private interface LeafAction {
+        /**
+         * @return false to stop the iteration.
+         */
+        boolean visit(int base, Object[] leaf, long[] bits);
+    }
+
+    /**
+     * Calls {@code action} for every existing leaf in the subtrees
+     * {@code [fromSubtree, toSubtree)}, in ascending order.
+     *
+     * @return false if {@code action} stopped the iteration.
+     */
+    private boolean foreachLeaf(final int fromSubtree, final int toSubtree, final LeafAction action) {
+        final int from1 = fromSubtree >> 8;
+        for (int c1 = Bitmaps.nextSetBit(used1, from1); c1 >= 0 && c1 << 8 < toSubtree; c1 = Bitmaps.nextSetBit(used1, c1 + 1)) {
+            final long[] u2 = used2[c1];
+            for (int c2 = Bitmaps.nextSetBit(u2, c1 == from1 ? fromSubtree & 0xFF : 0);
+                 c2 >= 0 && (c1 << 8 | c2) < toSubtree;
+                 c2 = Bitmaps.nextSetBit(u2, c2 + 1)) {
+                final Object[][] d2 = data[c1][c2];
+                final long[] u3 = used3[c1][c2];
+                final long[][] u4 = used4[c1][c2];
+                for (int c3 = Bitmaps.nextSetBit(u3, 0); c3 >= 0; c3 = Bitmaps.nextSetBit(u3, c3 + 1)) {
+                    if (!action.visit(c1 << 24 | c2 << 16 | c3 << 8, d2[c3], u4[c3])) {
+                        return false;
+                    }
+                }
+            }
         }
-        return this;
+        return true;
     }
 
     @Override
     public int findFirst(final T x, final int max) {
         assert max == -1;
-        for (int c1 = 0; c1 < data.length; c1++) {
-            final Object[][][] d1 = data[c1];
-            if (d1 != null) {
-                for (int c2 = 0; c2 < d1.length; c2++) {
-                    final Object[][] d2 = d1[c2];
-                    if (d2 != null) {
-                        for (int c3 = 0; c3 < d2.length; c3++) {
-                            final Object[] d3 = d2[c3];
-                            if (d3 != null) {
-                                for (int c4 = 0; c4 < d3.length; c4++) {
-                                    if (d3[c4] != null && d3[c4].equals(x)) {
-                                        return c4 + c3*0x100 + c2*0x100 + c1*0x100*0x80;
-                                    }
-                                }
-                            }
-                        }
+        final Mutable<Integer> found = new Mutable<>(-1);
+        foreachLeaf(0, SUBTREES, (base, leaf, bits) -> {
+            for (int c4 = Bitmaps.nextSetBit(bits, 0); c4 >= 0; c4 = Bitmaps.nextSetBit(bits, c4 + 1)) {
+                if (leaf[c4].equals(x)) {
+                    found.x = base | c4;
+                    return false;
+                }
+            }
+            return true;
+        });
+        return found.x;
+    }
+
+    @Override
+    public void foreachNonNull(final IntConsumer f) {
+        foreachLeaf(0, SUBTREES, (base, leaf, bits) -> {
+            for (int c4 = Bitmaps.nextSetBit(bits, 0); c4 >= 0; c4 = Bitmaps.nextSetBit(bits, c4 + 1)) {
+                f.accept(base | c4);
+            }
+            return true;
+        });
+    }
+
+    @Override
+    public boolean hasInRange(final int start, final int end) {
+        checkIndexIsNonnegative(start);
+        if (end < start) {
+            throw new IllegalArgumentException("illegal index range arguments ["+start+", "+end+")");
+        }
+        if (start == end) {
+            return false;
+        }
+        final int next = nextNonNull(start);
+        return next >= 0 && next < end;
+    }
+
+    @Override
+    public int maxIdx() {
+        for (int c1 = Bitmaps.prevSetBit(used1, 0x7F); c1 >= 0; c1 = Bitmaps.prevSetBit(used1, c1 - 1)) {
+            final long[] u2 = used2[c1];
+            for (int c2 = Bitmaps.prevSetBit(u2, 0xFF); c2 >= 0; c2 = Bitmaps.prevSetBit(u2, c2 - 1)) {
+                final long[] u3 = used3[c1][c2];
+                for (int c3 = Bitmaps.prevSetBit(u3, 0xFF); c3 >= 0; c3 = Bitmaps.prevSetBit(u3, c3 - 1)) {
+                    final int c4 = Bitmaps.prevSetBit(used4[c1][c2][c3], 0xFF);
+                    if (c4 >= 0) {
+                        return (c1 << 24 | c2 << 16 | c3 << 8 | c4) + 1;
                     }
                 }
             }
         }
-        return -1;
+        return 0;
     }
 
+    /**
+     * Skips missing subtrees and leaves without looking at their indices.
+     */
     @Override
-    public void foreachNonNull(final IntConsumer f) {
-        //I hate my life ;-)
-        for (int c1 = 0; c1 < data.length; c1++) {
-            final Object[][][] d1 = data[c1];
-            if (d1 != null) {
-                for (int c2 = 0; c2 < d1.length; c2++) {
-                    final Object[][] d2 = d1[c2];
-                    if (d2 != null) {
-                        for (int c3 = 0; c3 < d2.length; c3++) {
-                            final Object[] d3 = d2[c3];
-                            if (d3 != null) {
-                                for (int c4 = 0; c4 < d3.length; c4++) {
-                                    if (d3[c4] != null) {
-                                        f.accept(c4 + c3*0x100 + c2*0x100*0x100 + c1*0x100*0x100*0x80);
-                                    }
-                                }
-                            }
-                        }
+    public StorageCursor<T> cursor() {
+        return new StorageCursor<T>() {
+            private int idx = -1;
+            private Object[] leaf = null;
+            private long[] bits = null;
+
+            @Override
+            public boolean advance() {
+                // fast path: the next value is in the current leaf
+                if (bits != null) {
+                    final int c4 = Bitmaps.nextSetBit(bits, getCoord4(idx) + 1);
+                    if (c4 >= 0) {
+                        idx = (idx & ~0xFF) | c4;
+                        return true;
+                    }
+                }
+                return moveTo(nextNonNull(idx + 1));
+            }
+
+            @Override
+            public boolean seek(final int i) {
+                if (bits != null && idx >= i) {
+                    return true;
+                }
+                if (idx == Integer.MAX_VALUE) {
+                    return false;
+                }
+                return moveTo(nextNonNull(Math.max(idx + 1, i)));
+            }
+
+            private boolean moveTo(final int next) {
+                if (next < 0) {
+                    leaf = null;
+                    bits = null;
+                    idx = Integer.MAX_VALUE;
+                    return false;
+                }
+                idx = next;
+                leaf = getLeaf(next);
+                bits = getLeafBits(next);
+                return true;
+            }
+
+            @Override
+            public int index() {
+                return idx;
+            }
+
+            @Override
+            public T value() {
+                return (T) leaf[getCoord4(idx)];
+            }
+
+            @Override
+            public void reset() {
+                idx = -1;
+                leaf = null;
+                bits = null;
+            }
+        };
+    }
+
+    /**
+     * Splits at leaf boundaries, each leaf covering 0x100 consecutive
+     * indices.
+     */
+    @Override
+    public Spliterator.OfInt indexSpliterator() {
+        final BlockIndexSpliterator.Builder<long[]> leaves = new BlockIndexSpliterator.Builder<>();
+        foreachLeaf(0, SUBTREES, (base, leaf, bits) -> {
+            leaves.add(base >>> 8, bits, Bitmaps.cardinality(bits));
+            return true;
+        });
+        return leaves.build(8, Bitmaps::nextSetBit);
+    }
+
+    /**
+     * The parallel operations split the trie into the subtrees below the
+     * second level, each covering 0x10000 consecutive indices.
+     */
+    private static int subtreeOf(final int idx) {
+        return idx >>> 16;
+    }
+
+    private Object[][] getSubtree(final int subtree) {
+        final Object[][][] d1 = data[subtree >> 8];
+        return d1 == null ? null : d1[subtree & 0xFF];
+    }
+
+    private int subtreesInUse() {
+        return Math.min(subtreeOf(Math.max(maxIdxOverapproximation() - 1, 0)) + 1, SUBTREES);
+    }
+
+    @Override
+    public void parallelForeachNonNull(final IntConsumer f) {
+        ParallelRanges.forEach(0, subtreesInUse(), 1, (from, to) ->
+                foreachLeaf(from, to, (base, leaf, bits) -> {
+                    for (int c4 = Bitmaps.nextSetBit(bits, 0); c4 >= 0; c4 = Bitmaps.nextSetBit(bits, c4 + 1)) {
+                        f.accept(base | c4);
+                    }
+                    return true;
+                }));
+    }
+
+    @Override
+    public int parallelFindAny(final T x) {
+        return ParallelRanges.findAny(0, subtreesInUse(), 1, (from, to) -> {
+            final Mutable<Integer> found = new Mutable<>(-1);
+            foreachLeaf(from, to, (base, leaf, bits) -> {
+                for (int c4 = Bitmaps.nextSetBit(bits, 0); c4 >= 0; c4 = Bitmaps.nextSetBit(bits, c4 + 1)) {
+                    if (leaf[c4].equals(x)) {
+                        found.x = base | c4;
+                        return false;
                     }
                 }
+                return true;
+            });
+            return found.x;
+        });
+    }
+
+    /**
+     * Creates the first two trie levels up front. Every task then allocates
+     * and fills only the leaves of its own subtrees, so the tasks share no
+     * mutable state.
+     */
+    @Override
+    public Storage<T> parallelSetRange(final int start, final T x, final int length) {
+        checkIndexIsNonnegative(start);
+        if (length <= 0) {
+            return this;
+        }
+        final int last = start + length - 1;
+        checkIndexIsNonnegative(last);
+        if (x != null) {
+            updateMaxIdx(last);
+            for (int s = subtreeOf(start); s <= subtreeOf(last); s++) {
+                ensureLvl2(s << 16, ensureLvl1(s << 16));
             }
         }
+        final AtomicInteger created = new AtomicInteger();
+        ParallelRanges.forEach(subtreeOf(start), subtreeOf(last) + 1, 1, (from, to) -> {
+            for (int s = from; s < to; s++) {
+                final Object[][] d2 = getSubtree(s);
+                if (d2 == null) {
+                    continue;
+                }
+                final int first = Math.max(start, s << 16);
+                final int end = Math.min(last, (s << 16) + 0xFFFF);
+                for (int leaf = first >>> 8; leaf <= end >>> 8; leaf++) {
+                    Object[] d3 = d2[leaf & 0xFF];
+                    if (d3 == null) {
+                        if (x == null) {
+                            continue;
+                        }
+                        d3 = newLeaf(leaf << 8, d2);
+                        created.incrementAndGet();
+                    }
+                    fillLeaf(d3, leaf << 8,
+                            Math.max(first, leaf << 8) & 0xFF,
+                            (Math.min(end, (leaf << 8) + 0xFF) & 0xFF) + 1,
+                            x);
+                }
+            }
+        });
+        leaves += created.get();
+        return this;
+    }
+
+    private void fillLeaf(final Object[] d3, final int base, final int from, final int to, final T x) {
+        Arrays.fill(d3, from, to, x);
+        Bitmaps.setRange(getLeafBits(base), from, to, x != null);
     }
 
     @Override
     public Storage<T> setRange(final int start, final T x, final int length) {
-        final int end = start + length;
-        updateMaxIdx(end);
+        checkIndexIsNonnegative(start);
+        if (length <= 0) {
+            return this;
+        }
+        final int last = start + length - 1;
+        checkIndexIsNonnegative(last);
+        if (x != null) {
+            updateMaxIdx(last);
+        }
         int cur = start;
-
-        while (cur < end) {
-            Object[] lvl3 = ensureLvl3(cur, ensureLvl2(cur, ensureLvl1(cur)));
-            assert lvl3.length == 0x100;
-            for (int i = getCoord4(cur); i < lvl3.length; i++) {
-                lvl3[i] = x;
-                cur++;
-                if(cur >= end) { return this; }
+        while (true) {
+            final int leafLast = Math.min(last, cur | 0xFF);
+            final Object[] lvl3 = x == null
+                    ? getLeaf(cur)
+                    : ensureLvl3(cur, ensureLvl2(cur, ensureLvl1(cur)));
+            if (lvl3 != null) {
+                assert lvl3.length == 0x100;
+                fillLeaf(lvl3, cur, getCoord4(cur), getCoord4(leafLast) + 1, x);
             }
+            if (leafLast == last) {
+                return this;
+            }
+            cur = leafLast + 1;
         }
-
-        return this;
     }
 
     @Override
     public Storage<T> clearAll() {
         Arrays.fill(data, null);
+        Arrays.fill(used1, 0L);
+        Arrays.fill(used2, null);
+        Arrays.fill(used3, null);
+        Arrays.fill(used4, null);
+        lvl1Nodes = 0;
+        lvl2Nodes = 0;
+        leaves = 0;
         return this;
     }
 
@@ -243,22 +628,9 @@ public class TrieStorage<T> extends SizedStorage<T> {
 
     @Override
     public long bytesUsed() {
-        long sz = ObjectSizes.ARRAY_SIZE(data) + ObjectSizes.INT;
-        for (final Object[][][] lvl1 : data) {
-            if (lvl1 != null) {
-                sz += ObjectSizes.ARRAY_SIZE(lvl1);
-                for (final Object[][] lvl2 : lvl1) {
-                    if (lvl2 != null) {
-                        sz += ObjectSizes.ARRAY_SIZE(lvl2);
-                        for (final Object[] lvl3 : lvl2) {
-                            if (lvl3 != null) {
-                                sz += ObjectSizes.ARRAY_SIZE(lvl3);
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        return sz;
+        return ROOT_SIZE
+                + lvl1Nodes * LVL1_SIZE
+                + lvl2Nodes * LVL2_SIZE
+                + leaves * LEAF_SIZE;
     }
 }
@@ -0,0 +1,22 @@
+package com.github.kaeluka.cflat.storage;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes values of type {@code T} into byte arrays of arbitrary length.
+ * Used by storages that keep variable-size values in a side log, see
+ * {@link MappedStorage#openWithLog}.
+ *
+ * @param <T> the encoded type
+ */
+public interface VariableWidthCodec<T> {
+    byte[] encode(T x);
+
+    T decode(byte[] bytes);
+
+    VariableWidthCodec<String> UTF8_STRING = new VariableWidthCodec<String>() {
+        @Override public byte[] encode(final String x) { return x.getBytes(StandardCharsets.UTF_8); }
+        @Override public String decode(final byte[] bytes) { return new String(bytes, StandardCharsets.UTF_8); }
+        @Override public String toString() { return "UTF8_STRING"; }
+    };
+}
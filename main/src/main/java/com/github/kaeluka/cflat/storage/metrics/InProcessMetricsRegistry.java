@@ -0,0 +1,54 @@
+package com.github.kaeluka.cflat.storage.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Keeps the gauges in memory, for tests and for code that ships the values
+ * somewhere itself.
+ */
+public class InProcessMetricsRegistry implements MetricsRegistry {
+    private final ConcurrentMap<String, ConcurrentMap<String, DoubleSupplier>> scopes = new ConcurrentHashMap<>();
+
+    @Override
+    public void gauge(final String scope, final String name, final DoubleSupplier value) {
+        scopes.computeIfAbsent(scope, s -> new ConcurrentHashMap<>()).put(name, value);
+    }
+
+    @Override
+    public void removeScope(final String scope) {
+        scopes.remove(scope);
+    }
+
+    /**
+     * Polls one gauge.
+     *
+     * @throws IllegalArgumentException if there is no such gauge.
+     */
+    public double value(final String scope, final String name) {
+        final Map<String, DoubleSupplier> gauges = scopes.get(scope);
+        final DoubleSupplier gauge = gauges == null ? null : gauges.get(name);
+        if (gauge == null) {
+            throw new IllegalArgumentException("no gauge "+name+" in scope "+scope);
+        }
+        return gauge.getAsDouble();
+    }
+
+    /**
+     * Polls all gauges of a scope.
+     *
+     * @return the values by gauge name, empty if there is no such scope.
+     */
+    public SortedMap<String, Double> snapshot(final String scope) {
+        final SortedMap<String, Double> ret = new TreeMap<>();
+        final Map<String, DoubleSupplier> gauges = scopes.get(scope);
+        if (gauges != null) {
+            gauges.forEach((name, gauge) -> ret.put(name, gauge.getAsDouble()));
+        }
+        return ret;
+    }
+}
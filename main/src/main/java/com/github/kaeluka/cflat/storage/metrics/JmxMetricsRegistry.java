@@ -0,0 +1,132 @@
+package com.github.kaeluka.cflat.storage.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Publishes every scope as an MBean named
+ * {@code <domain>:type=Storage,name="<scope>"}, with one read-only
+ * attribute per gauge. JConsole, VisualVM and the usual JMX exporters can
+ * read them from there.
+ */
+public class JmxMetricsRegistry implements MetricsRegistry {
+    public final static String DEFAULT_DOMAIN = "com.github.kaeluka.cflat";
+
+    private final MBeanServer server;
+    private final String domain;
+    private final ConcurrentMap<String, ScopeMBean> scopes = new ConcurrentHashMap<>();
+
+    public JmxMetricsRegistry() {
+        this(ManagementFactory.getPlatformMBeanServer(), DEFAULT_DOMAIN);
+    }
+
+    public JmxMetricsRegistry(final MBeanServer server, final String domain) {
+        this.server = server;
+        this.domain = domain;
+    }
+
+    public ObjectName objectName(final String scope) {
+        try {
+            return new ObjectName(domain + ":type=Storage,name=" + ObjectName.quote(scope));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("can't name an MBean for scope "+scope, e);
+        }
+    }
+
+    @Override
+    public void gauge(final String scope, final String name, final DoubleSupplier value) {
+        scopes.computeIfAbsent(scope, s -> {
+            final ScopeMBean ret = new ScopeMBean(s);
+            try {
+                server.registerMBean(ret, objectName(s));
+            } catch (JMException e) {
+                throw new IllegalStateException("can't register an MBean for scope "+s, e);
+            }
+            return ret;
+        }).gauges.put(name, value);
+    }
+
+    @Override
+    public void removeScope(final String scope) {
+        if (scopes.remove(scope) != null) {
+            try {
+                server.unregisterMBean(objectName(scope));
+            } catch (JMException e) {
+                throw new IllegalStateException("can't unregister the MBean for scope "+scope, e);
+            }
+        }
+    }
+
+    private static final class ScopeMBean implements DynamicMBean {
+        private final String scope;
+        private final ConcurrentMap<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+
+        ScopeMBean(final String scope) {
+            this.scope = scope;
+        }
+
+        @Override
+        public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+            final DoubleSupplier gauge = gauges.get(attribute);
+            if (gauge == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return gauge.getAsDouble();
+        }
+
+        @Override
+        public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("gauge "+attribute.getName()+" is read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(final String[] attributes) {
+            final AttributeList ret = new AttributeList();
+            for (final String attribute : attributes) {
+                final DoubleSupplier gauge = gauges.get(attribute);
+                if (gauge != null) {
+                    ret.add(new Attribute(attribute, gauge.getAsDouble()));
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public AttributeList setAttributes(final AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(final String actionName, final Object[] params, final String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        /**
+         * Computed on every call: gauges may be added after registration.
+         */
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            final TreeSet<String> names = new TreeSet<>(gauges.keySet());
+            final MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[names.size()];
+            int i = 0;
+            for (final String name : names) {
+                attributes[i++] = new MBeanAttributeInfo(name, "double", name, true, false, false);
+            }
+            return new MBeanInfo(ScopeMBean.class.getName(), "storage metrics of " + scope,
+                    attributes, null, null, null);
+        }
+    }
+}
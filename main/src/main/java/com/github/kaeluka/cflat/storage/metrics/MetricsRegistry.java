@@ -0,0 +1,23 @@
+package com.github.kaeluka.cflat.storage.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Somewhere to publish gauges to. A gauge is polled whenever the registry
+ * reports it, possibly from another thread.
+ *
+ * Gauges are grouped by scope, usually one scope per storage.
+ *
+ * @see StorageMetrics
+ */
+public interface MetricsRegistry {
+    /**
+     * Publishes a gauge, replacing any gauge of the same scope and name.
+     */
+    void gauge(String scope, String name, DoubleSupplier value);
+
+    /**
+     * Removes all gauges of a scope.
+     */
+    void removeScope(String scope);
+}
@@ -0,0 +1,135 @@
+package com.github.kaeluka.cflat.storage.metrics;
+
+import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.storage.TimerStorage;
+import com.github.kaeluka.cflat.storage.TimerStorage.TIMER_CATEGORY;
+import com.github.kaeluka.cflat.storage.TimersStorage;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Publishes a storage's statistics to a {@link MetricsRegistry}:
+ *
+ * <ul>
+ *     <li>{@code bytesUsed} and {@code maxIdxOverapproximation} for every
+ *     storage,</li>
+ *     <li>{@code totalTimeNanos}, and per {@link TIMER_CATEGORY}
+ *     {@code <CATEGORY>.count}, {@code .mean}, {@code .p50}, {@code .p90},
+ *     {@code .p99}, {@code .p999} and {@code .max} for a
+ *     {@link TimerStorage}. Latencies are in nanoseconds.</li>
+ * </ul>
+ *
+ * The gauges of one storage are computed together and cached for a while,
+ * so a registry polling them one by one pays for one refresh. The storage
+ * is read from the polling thread without synchronisation; for storages
+ * that aren't thread-safe, the values are only approximate.
+ */
+public final class StorageMetrics {
+    public final static long DEFAULT_MAX_AGE_MILLIS = 1000;
+
+    private final static TIMER_CATEGORY[] CATEGORIES = TIMER_CATEGORY.values();
+    private final static String[] LATENCY_STATS = {"count", "mean", "p50", "p90", "p99", "p999", "max"};
+    private final static double[] PERCENTILES = {50, 90, 99, 99.9};
+    private final static int BYTES_USED = 0;
+    private final static int MAX_IDX = 1;
+    private final static int TOTAL_TIME = 2;
+    private final static int LATENCIES = 3;
+
+    private StorageMetrics() {}
+
+    public static void register(final MetricsRegistry registry, final String scope, final Storage<?> storage) {
+        register(registry, scope, () -> storage, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * Registers the gauges of a storage that may change its identity.
+     *
+     * @param current        returns the storage's current identity.
+     * @param maxAgeMillis   how long polled values may be reused.
+     */
+    public static void register(final MetricsRegistry registry, final String scope,
+                                final Supplier<? extends Storage<?>> current, final long maxAgeMillis) {
+        final boolean timed = current.get() instanceof TimerStorage;
+        final CachedValues values = new CachedValues(current, TimeUnit.MILLISECONDS.toNanos(maxAgeMillis));
+        registry.gauge(scope, "bytesUsed", () -> values.get(BYTES_USED));
+        registry.gauge(scope, "maxIdxOverapproximation", () -> values.get(MAX_IDX));
+        if (timed) {
+            registry.gauge(scope, "totalTimeNanos", () -> values.get(TOTAL_TIME));
+            for (final TIMER_CATEGORY t : CATEGORIES) {
+                for (int stat = 0; stat < LATENCY_STATS.length; stat++) {
+                    final int slot = LATENCIES + t.ordinal() * LATENCY_STATS.length + stat;
+                    registry.gauge(scope, t + "." + LATENCY_STATS[stat], () -> values.get(slot));
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers every storage of a {@link TimersStorage}, in scopes named
+     * {@code <scope>/<inner class>}.
+     */
+    public static void register(final MetricsRegistry registry, final String scope, final TimersStorage<?> storages) {
+        for (int s = 0; s < storages.getTimerCount(); s++) {
+            final int idx = s;
+            final String innerScope = scope + "/" + storages.getTimer(s).getInnerClass().getSimpleName();
+            register(registry, innerScope, () -> storages.getTimer(idx), DEFAULT_MAX_AGE_MILLIS);
+        }
+    }
+
+    private static final class CachedValues {
+        private final Supplier<? extends Storage<?>> current;
+        private final long maxAgeNanos;
+        private final double[] values = new double[LATENCIES + CATEGORIES.length * LATENCY_STATS.length];
+        // the timer copies its histograms into these, so a refresh does not allocate
+        private final Histogram[] spare = new Histogram[CATEGORIES.length];
+        private boolean valid = false;
+        private long refreshedAt;
+
+        CachedValues(final Supplier<? extends Storage<?>> current, final long maxAgeNanos) {
+            this.current = current;
+            this.maxAgeNanos = maxAgeNanos;
+        }
+
+        synchronized double get(final int slot) {
+            final long now = System.nanoTime();
+            if (!valid || now - refreshedAt > maxAgeNanos) {
+                refresh();
+                valid = true;
+                refreshedAt = now;
+            }
+            return values[slot];
+        }
+
+        private void refresh() {
+            final Storage<?> storage = current.get();
+            values[BYTES_USED] = storage.bytesUsed();
+            if (!(storage instanceof TimerStorage)) {
+                values[MAX_IDX] = storage.maxIdxOverapproximation();
+                return;
+            }
+            final TimerStorage<?> timer = (TimerStorage<?>) storage;
+            // asking the timer itself would time the call:
+            values[MAX_IDX] = timer.getInner().maxIdxOverapproximation();
+            values[TOTAL_TIME] = timer.getTotalTime();
+            for (final TIMER_CATEGORY t : CATEGORIES) {
+                final int base = LATENCIES + t.ordinal() * LATENCY_STATS.length;
+                final Histogram h = timer.getHistogram(t, spare[t.ordinal()]);
+                if (h == null) {
+                    for (int stat = 0; stat < LATENCY_STATS.length; stat++) {
+                        values[base + stat] = 0;
+                    }
+                    continue;
+                }
+                spare[t.ordinal()] = h;
+                values[base] = h.getTotalCount();
+                values[base + 1] = h.getMean();
+                for (int p = 0; p < PERCENTILES.length; p++) {
+                    values[base + 2 + p] = h.getValueAtPercentile(PERCENTILES[p]);
+                }
+                values[base + 2 + PERCENTILES.length] = h.getMaxValue();
+            }
+        }
+    }
+}
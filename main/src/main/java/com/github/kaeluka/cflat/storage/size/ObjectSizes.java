@@ -3,18 +3,29 @@ package com.github.kaeluka.cflat.storage.size;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import io.usethesource.capsule.Map;
-import io.usethesource.capsule.core.PersistentTrieMap;
 
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.TreeMap;
 
+/**
+ * Sizes of objects on the heap, in bytes.
+ *
+ * The header and reference sizes are read from the running JVM once, when
+ * this class is loaded: they depend on compressed oops and compressed class
+ * pointers. Sizes include the padding to the JVM's object alignment. If the
+ * JVM can't be asked, a 64 bit HotSpot with compressed oops is assumed.
+ *
+ * A size only counts the object itself: the objects it references must be
+ * added separately.
+ */
 @SuppressWarnings({"WeakerAccess", "unused"})
 public  class ObjectSizes {
-    public final static long OBJ_HEADER = 4;
     public final static long CHAR       = 1;
     public final static long BYTE       = 1;
     public final static long BOOLEAN    = 1;
@@ -22,7 +33,90 @@ public  class ObjectSizes {
     public final static long FLOAT      = 4;
     public final static long LONG       = 8;
     public final static long DOUBLE     = 8;
-    public final static long REFERENCE  = 8;
+    public final static long REFERENCE;
+    /**
+     * The header of an instance, before its first field.
+     */
+    public final static long OBJ_HEADER;
+    /**
+     * The header of an array, including its length and the padding before
+     * its first element, for arrays of references.
+     */
+    public final static long ARRAY_HEADER;
+    public final static long ALIGNMENT;
+
+    private final static long BYTE_ARRAY_HEADER;
+    private final static long INT_ARRAY_HEADER;
+    private final static long LONG_ARRAY_HEADER;
+
+    /**
+     * An {@link Integer} outside of the cache of small integers.
+     */
+    public final static long INTEGER;
+
+    static {
+        long reference = 4;
+        long objHeader = 12;
+        long byteArrayHeader = 16;
+        long intArrayHeader = 16;
+        long longArrayHeader = 16;
+        long refArrayHeader = 16;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            final Method arrayBaseOffset = unsafeClass.getMethod("arrayBaseOffset", Class.class);
+            final Method arrayIndexScale = unsafeClass.getMethod("arrayIndexScale", Class.class);
+            final Method objectFieldOffset = unsafeClass.getMethod("objectFieldOffset", Field.class);
+            reference = ((Number) arrayIndexScale.invoke(unsafe, Object[].class)).longValue();
+            refArrayHeader = ((Number) arrayBaseOffset.invoke(unsafe, Object[].class)).longValue();
+            byteArrayHeader = ((Number) arrayBaseOffset.invoke(unsafe, byte[].class)).longValue();
+            intArrayHeader = ((Number) arrayBaseOffset.invoke(unsafe, int[].class)).longValue();
+            longArrayHeader = ((Number) arrayBaseOffset.invoke(unsafe, long[].class)).longValue();
+            // a byte is never padded, so it starts right after the header:
+            objHeader = ((Number) objectFieldOffset.invoke(unsafe, OneByte.class.getDeclaredField("b"))).longValue();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // keep the defaults
+        }
+        REFERENCE = reference;
+        OBJ_HEADER = objHeader;
+        ARRAY_HEADER = refArrayHeader;
+        BYTE_ARRAY_HEADER = byteArrayHeader;
+        INT_ARRAY_HEADER = intArrayHeader;
+        LONG_ARRAY_HEADER = longArrayHeader;
+        ALIGNMENT = objectAlignment();
+        INTEGER = OBJECT_SIZE(INT);
+    }
+
+    private static final class OneByte {
+        byte b;
+    }
+
+    private static long objectAlignment() {
+        try {
+            final String value = ManagementFactory
+                    .getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class)
+                    .getVMOption("ObjectAlignmentInBytes")
+                    .getValue();
+            return Long.parseLong(value);
+        } catch (RuntimeException | LinkageError e) {
+            return 8;
+        }
+    }
+
+    public static long align(final long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * The size of an instance whose fields, including inherited ones, take
+     * up {@code fieldBytes}. Ignores the padding between fields, which the
+     * JVM mostly avoids by reordering them.
+     */
+    public static long OBJECT_SIZE(final long fieldBytes) {
+        return align(OBJ_HEADER + fieldBytes);
+    }
 
     public static String humanReadable(long size) {
         String[] units = {"B", "KB", "MB", "GB", "TB", "PB"};
@@ -38,103 +132,144 @@ public  class ObjectSizes {
         return df.format(sz)+units[unitIdx];
     }
 
-    private static long ARRAY_SIZE(long COMPONENT_SIZE, int N) {
-        return REFERENCE + INT + N*COMPONENT_SIZE;
+    private static long ARRAY_SIZE(long HEADER, long COMPONENT_SIZE, long N) {
+        return align(HEADER + N*COMPONENT_SIZE);
+    }
+
+    public static long ARRAY_SIZE_OF_REFERENCES(long n) {
+        return ARRAY_SIZE(ARRAY_HEADER, REFERENCE, n);
+    }
+
+    public static long ARRAY_SIZE_OF_INTS(long n) {
+        return ARRAY_SIZE(INT_ARRAY_HEADER, INT, n);
+    }
+
+    public static long ARRAY_SIZE_OF_LONGS(long n) {
+        return ARRAY_SIZE(LONG_ARRAY_HEADER, LONG, n);
     }
 
-    public static long IMMUTABLE_MAP_SIZE(Map.Immutable<?,?> map) {
-        assert (map instanceof PersistentTrieMap);
-//        return OBJ_HEADER
-//                +REFERENCE    // root node
-//                +INT          // cached hash code
-//                +INT          // cached stepSize
-//                +
-        return -1;
-        //                ^rootNode ^cached hash
+    /**
+     * The immutable map's trie layout is not public, so this is a model of a
+     * CHAMP trie with 32-way nodes: every entry takes a key and a value slot
+     * in some node, and every node holds about 16 entries or children. Keys
+     * are counted as boxed integers.
+     */
+    public static long IMMUTABLE_MAP_SIZE(Map.Immutable<Integer,?> map) {
+        final long n = map.size();
+        final long nodes = 1 + n / 16;
+        final long NODE = OBJECT_SIZE(2 * INT + 2 * REFERENCE); // bitmaps, mutator, content
+        return OBJECT_SIZE(2 * INT + REFERENCE)                 // root ref, cached hash, cached size
+                + nodes * (NODE + ARRAY_HEADER)
+                + (2 * n + nodes) * REFERENCE                   // key/value slots, child slots
+                + n * INTEGER;
     }
 
     public static long ARRAY_SIZE(char[] a) {
-        return ARRAY_SIZE(CHAR, a.length);
+        return ARRAY_SIZE(BYTE_ARRAY_HEADER, CHAR, a.length);
     }
     public static long ARRAY_SIZE(byte[] a) {
-        return ARRAY_SIZE(BYTE, a.length);
+        return ARRAY_SIZE(BYTE_ARRAY_HEADER, BYTE, a.length);
     }
     public static long ARRAY_SIZE(boolean[] a) {
-        return ARRAY_SIZE(BOOLEAN, a.length);
+        return ARRAY_SIZE(BYTE_ARRAY_HEADER, BOOLEAN, a.length);
     }
     public static long ARRAY_SIZE(int[] a) {
-        return ARRAY_SIZE(INT, a.length);
+        return ARRAY_SIZE_OF_INTS(a.length);
     }
     public static long ARRAY_SIZE(float[] a) {
-        return ARRAY_SIZE(FLOAT, a.length);
+        return ARRAY_SIZE(INT_ARRAY_HEADER, FLOAT, a.length);
     }
     public static long ARRAY_SIZE(long[] a) {
-        return ARRAY_SIZE(LONG, a.length);
+        return ARRAY_SIZE_OF_LONGS(a.length);
     }
     public static long ARRAY_SIZE(double[] a) {
-        return ARRAY_SIZE(DOUBLE, a.length);
+        return ARRAY_SIZE(LONG_ARRAY_HEADER, DOUBLE, a.length);
     }
     public static long ARRAY_SIZE(Object[] a) {
-        return ARRAY_SIZE(REFERENCE, a.length);
+        return ARRAY_SIZE_OF_REFERENCES(a.length);
     }
 
-    public static long TINTOBJECTHASHMAP_SIZE(TIntObjectHashMap t) {
+    // Trove's fields are protected, not module-private: these lookups work
+    // on every JVM, and are only done once.
+    private static final Field TINTOBJECTHASHMAP_VALUES = troveField(TIntObjectHashMap.class, "_values");
+    private static final Field TINTOBJECTHASHMAP_SET = troveField(gnu.trove.impl.hash.TIntHash.class, "_set");
+    private static final Field THASH_STATES = troveField(gnu.trove.impl.hash.TPrimitiveHash.class, "_states");
+    private static final Field TINTARRAYLIST_DATA = troveField(TIntArrayList.class, "_data");
+
+    private static Field troveField(final Class<?> klass, final String name) {
         try {
-            final Field values;
-            values = t.getClass().getDeclaredField("_values");
-            values.setAccessible(true);
-            return ObjectSizes.ARRAY_SIZE((Object[])values.get(t));
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            e.printStackTrace();
-            return -1;
+            final Field ret = klass.getDeclaredField(name);
+            ret.setAccessible(true);
+            return ret;
+        } catch (NoSuchFieldException e) {
+            throw new AssertionError("unexpected trove version", e);
         }
     }
 
+    private static Object read(final Field f, final Object o) {
+        try {
+            return f.get(o);
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * The map's fields and tables, not the values.
+     */
+    public static long TINTOBJECTHASHMAP_SIZE(TIntObjectHashMap t) {
+        return OBJECT_SIZE(8 * INT + BOOLEAN + 3 * REFERENCE)
+                + ARRAY_SIZE((Object[]) read(TINTOBJECTHASHMAP_VALUES, t))
+                + ARRAY_SIZE((int[]) read(TINTOBJECTHASHMAP_SET, t))
+                + ARRAY_SIZE((byte[]) read(THASH_STATES, t));
+    }
+
     public static long TREEMAP_SIZE(TreeMap t) {
         // the tree contains N nodes, each having key, value, left, right, parent
-        // pointer fields, and a boolean for colour (most likely one byte)
-        return t.size()* (OBJ_HEADER + REFERENCE * 4 + BOOLEAN);
+        // pointer fields, and a boolean for colour
+        return OBJECT_SIZE(3 * INT + 5 * REFERENCE)
+                + t.size() * OBJECT_SIZE(REFERENCE * 5 + BOOLEAN);
     }
 
-    public static long HASHTABLE_SIZE(Hashtable t) {
-        long size = 0;
-        try {
-            final Field tableF = Hashtable.class.getDeclaredField("table");
-            tableF.setAccessible(true);
-            size += ARRAY_SIZE((Object[])tableF.get(t));
-            final long HASHMAP_ENTRY_SIZE = OBJ_HEADER + INT + 3*REFERENCE;
-            size += HASHMAP_ENTRY_SIZE * t.size();
-            return size;
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            e.printStackTrace();
-            return -1;
+    /**
+     * The table's fields and entries, not the keys and values. Hashtable
+     * never shrinks and its capacity is private, so pass the largest size
+     * it ever had.
+     */
+    public static long HASHTABLE_SIZE(Hashtable t, int maxSizeEver) {
+        long capacity = 11;
+        while (maxSizeEver >= (long) (capacity * 0.75f)) {
+            capacity = capacity * 2 + 1;
         }
+        final long HASHTABLE_ENTRY_SIZE = OBJECT_SIZE(INT + 3*REFERENCE);
+        return OBJECT_SIZE(4 * INT + 5 * REFERENCE)
+                + ARRAY_SIZE_OF_REFERENCES(capacity)
+                + HASHTABLE_ENTRY_SIZE * t.size();
     }
 
     public static long LINKEDLIST_SIZE(LinkedList<?> t) {
-        return OBJ_HEADER+REFERENCE   +REFERENCE + t.size()*(OBJ_HEADER+REFERENCE*3);
-        //     ^list      ^list.first  ^list.last  ^ nodes  (^prev, next, element)
+        return OBJECT_SIZE(2*INT + 2*REFERENCE)          // size, modCount, first, last
+                + t.size()*OBJECT_SIZE(REFERENCE*3); // nodes: prev, next, element
     }
 
     public static long ARRAYLIST_SIZE(TIntArrayList t) {
-        try {
-            final Field elementDataF = TIntArrayList.class.getDeclaredField("_data");
-            elementDataF.setAccessible(true);
-            return ARRAY_SIZE((int[])elementDataF.get(t));
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            e.printStackTrace();
-            return -1;
-        }
+        return OBJECT_SIZE(2 * INT + REFERENCE)
+                + ARRAY_SIZE((int[]) read(TINTARRAYLIST_DATA, t));
     }
 
+    /**
+     * ArrayList's capacity is private, so pass it in.
+     */
+    public static long ARRAYLIST_SIZE(final ArrayList<?> alist, final int capacity) {
+        return OBJECT_SIZE(2 * INT + REFERENCE)
+                + ARRAY_SIZE_OF_REFERENCES(Math.max(alist.size(), capacity));
+    }
+
+    /**
+     * A lower bound that assumes the list is full, see
+     * {@link #ARRAYLIST_SIZE(ArrayList, int)}.
+     */
     public static long ARRAYLIST_SIZE(final ArrayList<?> alist) {
-        try {
-            final Field elementDataF = ArrayList.class.getDeclaredField("elementData");
-            elementDataF.setAccessible(true);
-            return ARRAY_SIZE((Object[])elementDataF.get(alist));
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            e.printStackTrace();
-            return -1;
-        }
+        return ARRAYLIST_SIZE(alist, alist.size());
     }
 }
@@ -11,4 +11,10 @@ public class IndexCheck {
             throw new IndexOutOfBoundsException("index must be non-negative. Was: "+i);
         }
     }
+    public static void checkRange(int start, int end) {
+        checkIndexIsNonnegative(start);
+        if (end < start) {
+            throw new IllegalArgumentException("illegal index range arguments ["+start+", "+end+")");
+        }
+    }
 }
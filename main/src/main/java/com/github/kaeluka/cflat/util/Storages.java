@@ -10,16 +10,40 @@ public class Storages {
     public static List<Supplier<Storage>> intStorages() {
         final ArrayList<Supplier<Storage>> ret = new ArrayList<>();
         ret.add(new NamedSupplier<>(IntArrayStorage.class));
+        ret.add(new NamedSupplier<>(IntChunkedStorage.class));
         ret.add(new NamedSupplier<>(IntTrieStorage.class));
         return ret;
     }
 
+    public static List<Supplier<Storage>> longStorages() {
+        final ArrayList<Supplier<Storage>> ret = new ArrayList<>();
+        ret.add(new NamedSupplier<>(LongArrayStorage.class));
+        ret.add(new NamedSupplier<>(LongChunkedStorage.class));
+        ret.add(new NamedSupplier<>(LongTrieStorage.class));
+        return ret;
+    }
+
+    public static List<Supplier<Storage>> doubleStorages() {
+        final ArrayList<Supplier<Storage>> ret = new ArrayList<>();
+        ret.add(new NamedSupplier<>(DoubleArrayStorage.class));
+        ret.add(new NamedSupplier<>(DoubleChunkedStorage.class));
+        ret.add(new NamedSupplier<>(DoubleTrieStorage.class));
+        return ret;
+    }
+
+    public static List<Supplier<Storage>> offHeapStorages() {
+        final ArrayList<Supplier<Storage>> ret = new ArrayList<>();
+        ret.add(new NamedSupplier<>(OffHeapStorage::ofInts, "OffHeapStorage(INT)"));
+        return ret;
+    }
+
     public static List<Supplier<Storage>> genericStorages() {
         final ArrayList<Supplier<Storage>> ret = new ArrayList<>();
         ret.add(new NamedSupplier<>(ArrayStorage.class));
         ret.add(new NamedSupplier<>(SortedArrayStorage.class));
 //        ret.add(new NamedSupplier<>(LinkedStorage.class));
         ret.add(new NamedSupplier<>(ChunkedStorage.class));
+        ret.add(new NamedSupplier<>(ConcurrentChunkedStorage.class));
         ret.add(new NamedSupplier<>(HashMapStorage.class));
 //        ret.add(new NamedSupplier<>(KolobokeMapStorage.class));
         ret.add(new NamedSupplier<>(ImmutableStorage.class));
@@ -28,6 +52,9 @@ public class Storages {
 //        ret.add(new NamedSupplier<>(ShallowTrieStorage.class));
         ret.add(new NamedSupplier<>(TrieStorage.class));
         ret.add(new NamedSupplier<>(PMAStorage.class));
+        ret.add(new NamedSupplier<>(() -> new ConcurrentStorageWrapper<>(new TrieStorage<>()), "ConcurrentStorageWrapper(TrieStorage)"));
+        ret.add(new NamedSupplier<>(AdaptiveStorage.class));
+        ret.add(new NamedSupplier<>(() -> new TimerStorage<>(new TrieStorage<>()).setSampling(TimerStorage.Sampling.EVERY_NTH, 64), "TimerStorage(TrieStorage, sampled)"));
         return ret;
     }
 
@@ -39,6 +66,8 @@ public class Storages {
         }
         ret.add(new NamedSupplier<>(() -> SparseStorage.getFor(SparseStorage.USAGE.SIZE), "SparseStorage(SIZE)"));
         ret.add(new NamedSupplier<>(() -> SparseStorage.getFor(SparseStorage.USAGE.INSERT_PERFORMANCE), "SparseStorage(PERFORMANCE)"));
+        ret.add(new NamedSupplier<>(() -> SparseStorage.getFor(SparseStorage.USAGE.COLUMN_SCAN), "SparseStorage(COLUMN_SCAN)"));
+        ret.add(new NamedSupplier<>(() -> SparseStorage.getFor(SparseStorage.USAGE.DENSE_BLOCKS), "SparseStorage(DENSE_BLOCKS)"));
         return ret;
     }
 
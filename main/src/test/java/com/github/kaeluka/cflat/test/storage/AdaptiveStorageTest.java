@@ -0,0 +1,135 @@
+package com.github.kaeluka.cflat.test.storage;
+
+import com.github.kaeluka.cflat.storage.AdaptiveStorage;
+import com.github.kaeluka.cflat.storage.ArrayStorage;
+import com.github.kaeluka.cflat.storage.HashMapStorage;
+import com.github.kaeluka.cflat.storage.Storage;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class AdaptiveStorageTest {
+    private static final int SIZE = 1000;
+
+    /**
+     * Samples every operation, scores after {@code 2*SIZE} operations and
+     * migrates 100 entries per operation.
+     */
+    @SuppressWarnings("unchecked")
+    private static AdaptiveStorage<Integer> mkStorage() {
+        final AdaptiveStorage<Integer> ret = new AdaptiveStorage<>(1, 2 * SIZE, 100,
+                HashMapStorage::new,
+                ArrayStorage::new);
+        // dense data is smaller in an array:
+        ret.setPriority(0, 1);
+        return ret;
+    }
+
+    @Test
+    public void migratesToBestBackend() {
+        final AdaptiveStorage<Integer> s = mkStorage();
+        assertThat(s.getInnerClass(), equalTo(HashMapStorage.class));
+        for (int i = 0; i < SIZE; i++) {
+            assertThat(s.set(i, i), sameInstance(s));
+        }
+        for (int i = 0; i < SIZE; i++) {
+            assertThat(s.get(i), is(i));
+        }
+        assertThat(s.isMigrating(), is(true));
+
+        // writes during the migration must survive it:
+        s.set(0, -1);
+        s.set(SIZE - 1, -1);
+        s.set(SIZE, SIZE);
+        int ops = 0;
+        while (s.isMigrating()) {
+            s.get(0);
+            assertThat(++ops, lessThan(SIZE));
+        }
+        assertThat(s.getInnerClass(), equalTo(ArrayStorage.class));
+
+        assertThat(s.get(0), is(-1));
+        assertThat(s.get(SIZE - 1), is(-1));
+        assertThat(s.get(SIZE), is(SIZE));
+        for (int i = 1; i < SIZE - 1; i++) {
+            assertThat(s.get(i), is(i));
+        }
+        assertThat(s.maxIdx(), is(SIZE + 1));
+    }
+
+    @Test
+    public void addAllDuringMigrationSurvivesIt() {
+        final AdaptiveStorage<Integer> s = mkStorage();
+        for (int i = 0; i < SIZE; i++) {
+            s.set(i, i);
+        }
+        for (int i = 0; i < SIZE; i++) {
+            s.get(i);
+        }
+        // copies the first indices to the new backend:
+        s.get(0);
+        assertThat(s.isMigrating(), is(true));
+
+        final Storage<Integer> source = new HashMapStorage<>();
+        for (int i = 0; i < 20; i++) {
+            source.set(i, -i);
+        }
+        assertThat(s.addAll(source), sameInstance(s));
+        while (s.isMigrating()) {
+            s.get(0);
+        }
+        assertThat(s.getInnerClass(), equalTo(ArrayStorage.class));
+        for (int i = 0; i < SIZE; i++) {
+            assertThat(s.get(i), is(i < 20 ? -i : i));
+        }
+    }
+
+    @Test
+    public void migrationStepsOverEntriesNotIndices() {
+        final AdaptiveStorage<Integer> s = mkStorage();
+        for (int i = 0; i < SIZE; i++) {
+            s.set(i, i);
+        }
+        for (int i = 0; i < SIZE; i++) {
+            s.get(i);
+        }
+        assertThat(s.isMigrating(), is(true));
+        final int far = 1000 * SIZE;
+        s.set(far, far);
+        int ops = 0;
+        while (s.isMigrating()) {
+            s.get(0);
+            assertThat(++ops, lessThan(SIZE / 100 + 2));
+        }
+        assertThat(s.get(far), is(far));
+        assertThat(s.get(SIZE - 1), is(SIZE - 1));
+    }
+
+    @Test
+    public void clearAllCancelsMigration() {
+        final AdaptiveStorage<Integer> s = mkStorage();
+        for (int i = 0; i < SIZE; i++) {
+            s.set(i, i);
+        }
+        for (int i = 0; i < SIZE; i++) {
+            s.get(i);
+        }
+        assertThat(s.isMigrating(), is(true));
+        s.clearAll();
+        assertThat(s.isMigrating(), is(false));
+        assertThat(s.getInnerClass(), equalTo(HashMapStorage.class));
+        assertThat(s.maxIdx(), is(0));
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        final AdaptiveStorage<Integer> s = mkStorage();
+        s.set(3, 3);
+        final Storage<Integer> copy = s.copy();
+        assertThat(copy, instanceOf(AdaptiveStorage.class));
+        copy.set(3, 4);
+        assertThat(s.get(3), is(3));
+        assertThat(copy.get(3), is(4));
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.kaeluka.cflat.test.storage;
+
+import com.github.kaeluka.cflat.storage.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * The bulk-load factories of the sorted storages must build the same
+ * contents as setting the indices one by one.
+ */
+public class BulkLoadTest {
+    private static final int N = 20000;
+
+    private static <S extends Storage<Integer>> void assertSameAsLoop(
+            final BiFunction<int[], Integer[], S> fromArrays,
+            final Function<StorageCursor<Integer>, S> fromCursor) {
+        final Random random = new Random(12345L);
+        final int[] idx = new int[N];
+        final Integer[] values = new Integer[N];
+        final Storage<Integer> expected = new HashMapStorage<>();
+        for (int k = 0; k < N; k++) {
+            // unsorted, with repeated indices
+            idx[k] = random.nextInt(4 * N);
+            values[k] = random.nextInt(1000);
+            expected.set(idx[k], values[k]);
+        }
+
+        final S loaded = fromArrays.apply(idx, values);
+        final String name = loaded.getClass().getSimpleName();
+        assertSameContents(name, loaded, expected);
+        assertThat(name, loaded.maxIdx(), is(expected.maxIdx()));
+
+        final S copied = fromCursor.apply(expected.cursor());
+        assertSameContents(name, copied, expected);
+
+        // the loaded storage stays usable:
+        loaded.set(0, -1).set(5 * N, -2);
+        assertThat(name, loaded.get(0), is(-1));
+        assertThat(name, loaded.get(5 * N), is(-2));
+    }
+
+    private static void assertSameContents(final String name,
+                                           final Storage<Integer> actual,
+                                           final Storage<Integer> expected) {
+        for (int i = 0; i < 4 * N; i++) {
+            assertThat(name + " at " + i, actual.get(i), is(expected.get(i)));
+        }
+        final List<Integer> actualIndices = new ArrayList<>();
+        actual.foreachNonNull(actualIndices::add);
+        final List<Integer> expectedIndices = new ArrayList<>();
+        expected.foreachNonNull(expectedIndices::add);
+        assertThat(name, actualIndices, equalTo(expectedIndices));
+    }
+
+    @Test
+    public void pmaBulkLoadMatchesLoop() {
+        assertSameAsLoop(PMAStorage::bulkLoad, PMAStorage::bulkLoad);
+    }
+
+    @Test
+    public void sortedArrayBulkLoadMatchesLoop() {
+        assertSameAsLoop(SortedArrayStorage::bulkLoad, SortedArrayStorage::bulkLoad);
+    }
+
+    @Test
+    public void emptyBulkLoad() {
+        final Storage<Integer> pma = PMAStorage.bulkLoad(new int[0], new Integer[0]);
+        final Storage<Integer> sorted = SortedArrayStorage.bulkLoad(new HashMapStorage<Integer>().cursor());
+        for (final Storage<Integer> s : new Storage[] {pma, sorted}) {
+            assertThat(s.maxIdx(), is(0));
+            assertThat(s.set(3, 3).get(3), is(3));
+        }
+    }
+
+    @Test
+    public void sortedArraySetAllMergesWithPresentIndices() {
+        final SortedArrayStorage<Integer> s = new SortedArrayStorage<>();
+        for (int i = 0; i < 100; i += 2) {
+            s.set(i, i);
+        }
+        s.setAll(new int[] {101, 3, 4, 3}, new Integer[] {101, 0, -4, 3});
+        assertThat(s.get(3), is(3));
+        assertThat(s.get(4), is(-4));
+        assertThat(s.get(6), is(6));
+        assertThat(s.get(101), is(101));
+        assertThat(s.maxIdx(), is(102));
+    }
+}
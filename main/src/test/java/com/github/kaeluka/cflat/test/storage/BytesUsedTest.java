@@ -0,0 +1,139 @@
+package com.github.kaeluka.cflat.test.storage;
+
+import com.github.kaeluka.cflat.storage.*;
+import com.github.kaeluka.cflat.util.Storages;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Checks bytesUsed against the heap: for storages that never discard an
+ * allocation while being filled, the bytes the JVM allocated on this thread
+ * are exactly the bytes the storage retains.
+ */
+public class BytesUsedTest {
+    private static final Object X = new Object();
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private static com.sun.management.ThreadMXBean threads() {
+        try {
+            final com.sun.management.ThreadMXBean ret =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            return ret.isThreadAllocatedMemorySupported() ? ret : null;
+        } catch (ClassCastException e) {
+            return null;
+        }
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static <T> Storage<T> fill(final Storage<T> s, final T x, final int[] indices) {
+        Storage<T> ret = s;
+        for (final int i : indices) {
+            ret = ret.set(i, x);
+        }
+        return ret;
+    }
+
+    private static final int[] INDICES = {0, 1, 2, 100, 127, 128, 300, 1000, 1023};
+    private static final int[] SPREAD_INDICES = {0, 1, 0x100, 0x10000, 0x1000000, 0x1234567, Integer.MAX_VALUE};
+
+    /**
+     * Builds the storage once to warm up, then again while measuring.
+     */
+    private static <T> void assertMatchesHeap(final Supplier<Storage<T>> factory,
+                                              final T x,
+                                              final int[] indices) {
+        Assume.assumeThat(THREADS, notNullValue());
+        long measured = 0;
+        Storage<T> s = null;
+        for (int round = 0; round < 3; round++) {
+            final long before = allocatedBytes();
+            s = fill(factory.get(), x, indices);
+            measured = allocatedBytes() - before;
+        }
+        assertThat(s.getClass().getSimpleName(), s.bytesUsed(), is(measured));
+    }
+
+    @Test
+    public void trieMatchesHeap() {
+        assertMatchesHeap(TrieStorage::new, X, INDICES);
+        assertMatchesHeap(TrieStorage::new, X, SPREAD_INDICES);
+    }
+
+    @Test
+    public void shallowTrieMatchesHeap() {
+        assertMatchesHeap(ShallowTrieStorage::new, X, INDICES);
+        assertMatchesHeap(ShallowTrieStorage::new, X, SPREAD_INDICES);
+    }
+
+    @Test
+    public void chunkedMatchesHeap() {
+        // stays within the initial chunk directory
+        assertMatchesHeap(ChunkedStorage::new, X, INDICES);
+    }
+
+    @Test
+    public void primitiveTriesMatchHeap() {
+        final int[] spread = SPREAD_INDICES;
+        Assume.assumeThat(THREADS, notNullValue());
+        for (int round = 0; round < 3; round++) {
+            final long before = allocatedBytes();
+            final IntStorage ints = new IntTrieStorage();
+            for (final int i : spread) {
+                ints.setInt(i, i);
+            }
+            final long measured = allocatedBytes() - before;
+            if (round == 2) {
+                assertThat(ints.bytesUsed(), is(measured));
+            }
+        }
+        for (int round = 0; round < 3; round++) {
+            final long before = allocatedBytes();
+            final DoubleStorage doubles = new DoubleChunkedStorage();
+            for (final int i : INDICES) {
+                doubles.setDouble(i, i);
+            }
+            final long measured = allocatedBytes() - before;
+            if (round == 2) {
+                assertThat(doubles.bytesUsed(), is(measured));
+            }
+        }
+    }
+
+    @Test
+    public void bytesUsedIsCountedInBytes() {
+        final IntArrayStorage ints = new IntArrayStorage();
+        ints.setInt(1000, 1);
+        // 1001 ints, not 1001 bits, and not less than the raw payload:
+        assertThat(ints.bytesUsed(), greaterThanOrEqualTo(1001L * Integer.BYTES));
+        assertThat(ints.bytesUsed(), lessThan(4 * 1001L * Integer.BYTES));
+    }
+
+    @Test
+    public void clearAllReleasesAccountedBytes() {
+        final Storage<Object> trie = fill(new TrieStorage<>(), X, SPREAD_INDICES);
+        final long empty = new TrieStorage<>().bytesUsed();
+        assertThat(trie.bytesUsed(), greaterThan(empty));
+        assertThat(trie.clearAll().bytesUsed(), is(empty));
+    }
+
+    @Test
+    public void allStoragesReportPositiveSizes() {
+        for (final Supplier<Storage> factory : Storages.genericStorages()) {
+            @SuppressWarnings("unchecked")
+            final Storage<Object> s = fill(factory.get(), X, INDICES);
+            final String name = s.getClass().getSimpleName();
+            assertThat(name, s.bytesUsed(), greaterThan(0L));
+            assertThat(name, s.bytesUsed(), greaterThanOrEqualTo(s.emptyCopy().bytesUsed()));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.kaeluka.cflat.test.storage;
+
+import com.github.kaeluka.cflat.storage.ConcurrentChunkedStorage;
+import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.util.Mutable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.github.kaeluka.cflat.test.storage.ConcurrentTesting.THREADS;
+import static com.github.kaeluka.cflat.test.storage.ConcurrentTesting.runConcurrently;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ConcurrentChunkedStorageTest {
+    @Test
+    public void disjointWritersLoseNothing() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final Storage<Integer> st = new ConcurrentChunkedStorage<>();
+            final int perThread = 5000;
+            // interleaved ranges, so threads race on chunk creation and
+            // directory growth:
+            runConcurrently(thread -> {
+                for (int i = 0; i < perThread; i++) {
+                    final int idx = i * THREADS + thread;
+                    st.set(idx, idx);
+                }
+            });
+            for (int idx = 0; idx < perThread * THREADS; idx++) {
+                assertThat(st.get(idx), is(idx));
+            }
+            assertThat(st.maxIdx(), is(perThread * THREADS));
+            assertThat(st.maxIdxOverapproximation(), is(perThread * THREADS));
+        }
+    }
+
+    @Test
+    public void readersSeeCompleteValues() throws Exception {
+        final Storage<int[]> st = new ConcurrentChunkedStorage<>();
+        final int n = 100000;
+        final AtomicBoolean done = new AtomicBoolean(false);
+        runConcurrently(thread -> {
+            if (thread == 0) {
+                for (int i = 0; i < n; i++) {
+                    final int[] v = new int[] { i, -i };
+                    st.set(i, v);
+                }
+                done.set(true);
+            } else {
+                while (!done.get()) {
+                    final int idx = ThreadLocalRandom.current().nextInt(n);
+                    final int[] v = st.get(idx);
+                    if (v != null) {
+                        // the writes to the array happen-before its publication
+                        assertThat(v[0], is(idx));
+                        assertThat(v[1], is(-idx));
+                    }
+                }
+            }
+        });
+        for (int i = 0; i < n; i++) {
+            assertThat(st.get(i)[0], is(i));
+        }
+    }
+
+    @Test
+    public void computeIfAbsentHasOneWinner() throws Exception {
+        final Storage<Object> st = new ConcurrentChunkedStorage<>();
+        final int n = 2000;
+        final Object[][] results = new Object[THREADS][n];
+        runConcurrently(thread -> {
+            final Mutable<Object> result = new Mutable<>(null);
+            for (int i = 0; i < n; i++) {
+                st.computeIfAbsent(i * 37, idx -> new Object(), result);
+                results[thread][i] = result.x;
+            }
+        });
+        for (int i = 0; i < n; i++) {
+            final Object stored = st.get(i * 37);
+            for (int t = 0; t < THREADS; t++) {
+                assertThat(results[t][i], sameInstance(stored));
+            }
+        }
+    }
+
+    @Test
+    public void removalsAreVisible() throws Exception {
+        final Storage<Integer> st = new ConcurrentChunkedStorage<>();
+        for (int i = 0; i < 10000; i++) {
+            st.set(i, i);
+        }
+        runConcurrently(thread -> {
+            for (int i = thread; i < 10000; i += THREADS) {
+                if (i % 2 == 0) {
+                    st.set(i, null);
+                }
+            }
+        });
+        final List<Integer> idxs = new ArrayList<>();
+        st.foreachNonNull(idxs::add);
+        assertThat(idxs.size(), is(5000));
+        for (final int idx : idxs) {
+            assertThat(idx % 2, is(1));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.kaeluka.cflat.test.storage;
+
+import com.github.kaeluka.cflat.storage.*;
+import com.github.kaeluka.cflat.util.Mutable;
+import com.github.kaeluka.cflat.util.NamedSupplier;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.github.kaeluka.cflat.test.storage.ConcurrentTesting.THREADS;
+import static com.github.kaeluka.cflat.test.storage.ConcurrentTesting.runConcurrently;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(Parameterized.class)
+public class ConcurrentStorageWrapperTest {
+    private final Supplier<Storage> storageSupplier;
+
+    @Parameterized.Parameters(name="{0}")
+    public static List<Supplier<Storage>> storages() {
+        final List<Supplier<Storage>> ret = new ArrayList<>();
+        ret.add(new NamedSupplier<>(TrieStorage.class));
+        ret.add(new NamedSupplier<>(HashMapStorage.class));
+        ret.add(new NamedSupplier<>(SortedArrayStorage.class));
+        // set returns a new identity:
+        ret.add(new NamedSupplier<>(ImmutableStorage.class));
+        return ret;
+    }
+
+    public ConcurrentStorageWrapperTest(final Supplier<Storage> storageSupplier) {
+        this.storageSupplier = storageSupplier;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> ConcurrentStorageWrapper<T> mkStorage() {
+        return new ConcurrentStorageWrapper<T>(storageSupplier.get());
+    }
+
+    @Test
+    public void concurrentWritersLoseNothing() throws Exception {
+        final ConcurrentStorageWrapper<Integer> st = mkStorage();
+        final int perThread = 500;
+        runConcurrently(thread -> {
+            for (int i = 0; i < perThread; i++) {
+                final int idx = i * THREADS + thread;
+                assertThat(st.set(idx, idx), sameInstance(st));
+            }
+        });
+        for (int idx = 0; idx < perThread * THREADS; idx++) {
+            assertThat(st.get(idx), is(idx));
+        }
+        assertThat(st.maxIdx(), is(perThread * THREADS));
+    }
+
+    @Test
+    public void readersNeverSeeTornState() throws Exception {
+        final ConcurrentStorageWrapper<Integer> st = mkStorage();
+        final int n = 2000;
+        final AtomicBoolean done = new AtomicBoolean(false);
+        runConcurrently(thread -> {
+            if (thread == 0) {
+                for (int i = 0; i < n; i++) {
+                    st.set(i, i);
+                }
+                done.set(true);
+            } else {
+                while (!done.get()) {
+                    final int idx = ThreadLocalRandom.current().nextInt(n);
+                    final Integer v = st.get(idx);
+                    if (v != null) {
+                        assertThat(v, is(idx));
+                    }
+                    if (st.has(idx)) {
+                        assertThat(st.get(idx), is(idx));
+                    }
+                    final Mutable<Integer> v2 = new Mutable<>(null);
+                    st.get2(idx, v2);
+                    if (v2.x != null) {
+                        assertThat(v2.x, is(idx + 1));
+                    }
+                }
+            }
+        });
+    }
+
+    @Test
+    public void computeIfAbsentCallsFunctionOnce() throws Exception {
+        final ConcurrentStorageWrapper<Integer> st = mkStorage();
+        final int n = 200;
+        final AtomicInteger calls = new AtomicInteger();
+        runConcurrently(thread -> {
+            final Mutable<Integer> result = new Mutable<>(null);
+            for (int i = 0; i < n; i++) {
+                st.computeIfAbsent(i, idx -> {
+                    calls.incrementAndGet();
+                    return idx * 2;
+                }, result);
+                assertThat(result.x, is(i * 2));
+            }
+        });
+        assertThat(calls.get(), is(n));
+    }
+
+    @Test
+    public void copiesAreIndependentWrappers() {
+        final ConcurrentStorageWrapper<Integer> st = mkStorage();
+        st.set(3, 3);
+        final Storage<Integer> cp = st.copy();
+        final Storage<Integer> empty = st.emptyCopy();
+        assertThat(cp, instanceOf(ConcurrentStorageWrapper.class));
+        assertThat(empty, instanceOf(ConcurrentStorageWrapper.class));
+        st.set(3, 4);
+        assertThat(cp.get(3), is(3));
+        assertThat(empty.get(3), nullValue());
+        assertThat(st.get(3), is(4));
+    }
+
+    @Test
+    public void foreachNonNullMayWrite() {
+        final ConcurrentStorageWrapper<Integer> st = mkStorage();
+        for (int i = 0; i < 100; i++) {
+            st.set(i, i);
+        }
+        // the consumer runs without holding any locks:
+        st.foreachNonNull(i -> st.set(i + 1000, i));
+        assertThat(st.get(1099), is(99));
+    }
+}
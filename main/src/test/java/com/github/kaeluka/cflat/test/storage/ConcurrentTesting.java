@@ -0,0 +1,48 @@
+package com.github.kaeluka.cflat.test.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+final class ConcurrentTesting {
+    static final int THREADS = 8;
+
+    private ConcurrentTesting() { }
+
+    /**
+     * Starts {@code THREADS} copies of {@code task} at once and waits for
+     * all of them, rethrowing the first failure.
+     */
+    static void runConcurrently(final ThreadTask task) throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    task.run(thread);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<?> f : futures) {
+                try {
+                    f.get(60, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+}
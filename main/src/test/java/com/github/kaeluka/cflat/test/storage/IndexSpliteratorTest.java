@@ -1,105 +1,127 @@
 package com.github.kaeluka.cflat.test.storage;
 
 import com.github.kaeluka.cflat.storage.Iteration;
+import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.storage.TrieStorage;
+import com.github.kaeluka.cflat.traversal.GenericShape;
+import gnu.trove.list.array.TIntArrayList;
 import org.junit.Test;
 
-import java.util.PrimitiveIterator;
-import java.util.function.LongConsumer;
-import java.util.stream.LongStream;
+import java.util.Spliterator;
 import java.util.stream.StreamSupport;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
-//public class IndexSpliteratorTest {
-//    private Iteration getSpliter(long start, long size, int branchingFactor) {
-//        return Iteration.any(start, size, branchingFactor);
-//    }
-//
-//    private Iteration getSpliter(long start, int branchingFactor) {
-//        return this.getSpliter(start, 1, branchingFactor);
-//    }
-//
-//    private LongStream getStream(long start, long size, int branchingFactor) {
-//        Iteration spliterator = this.getSpliter(start, size, branchingFactor);
-//        LongStream strm = StreamSupport.longStream(
-//                spliterator,
-//                false);
-//        return strm;
-//    }
-//
-//    private LongStream getStream(long start, int branchingFactor) {
-//        return this.getStream(start, 1, branchingFactor);
-//    }
-//
-//    @Test
-//    public void fromRoot() {
-//        final PrimitiveIterator.OfLong iter = this.getStream(0, 2).iterator();
-//        for(long i=0; i<100; ++i) {
-//            assertThat(iter.next(), is(i));
-//        }
-//    }
-//
-//    @Test
-//    public void fromLeftChild() {
-//        final PrimitiveIterator.OfLong iter = this.getStream(1, 2).iterator();
-//        assertThat(iter.next(), is(1L));
-//        assertThat(iter.next(), is(3L));
-//        assertThat(iter.next(), is(4L));
-//        assertThat(iter.next(), is(7L));
-//        assertThat(iter.next(), is(8L));
-//    }
-//
-//    @Test
-//    public void split() {
-//        final Iteration all = this.getSpliter(0, 2);
-//        all.tryAdvance((LongConsumer) System.out::println);
-//        final PrimitiveIterator.OfLong split = StreamSupport.longStream(all.trySplit(), false).iterator();
-//
-//        final PrimitiveIterator.OfLong expected = this.getStream(1, 2).iterator();
-//
-//        for (int i=0; i<100; ++i) {
-//            assertThat(split.next(), is(expected.next()));
-//        }
-//    }
-//
-//    @Test
-//    public void splitRoot() {
-//        final Iteration allspl = this.getSpliter(0, 2);
-//        final PrimitiveIterator.OfLong all = StreamSupport.longStream(allspl, false).iterator();
-//        final PrimitiveIterator.OfLong split = StreamSupport.longStream(allspl.trySplit(), false).iterator();
-//
-//        assertThat(all.next(), is(0L));
-//        final PrimitiveIterator.OfLong expectedAll = this.getStream(1, 2).iterator();
-//        final PrimitiveIterator.OfLong expectedSplit = this.getStream(2, 2).iterator();
-//
-//        for (int i=0; i<100; ++i) {
-//            assertThat(all.next(), is(expectedAll.next()));
-//        }
-//        for (int i=0; i<100; ++i) {
-//            assertThat(split.next(), is(expectedSplit.next()));
-//        }
-//    }
-//
-//    /**
-//     * same as split root, but with a 7-ary-tree.
-//     */
-//    @Test
-//    public void splitRoot7() {
-//        final Iteration allspl = this.getSpliter(0, 7);
-//        final PrimitiveIterator.OfLong all = StreamSupport.longStream(allspl, false).iterator();
-//        final PrimitiveIterator.OfLong split = StreamSupport.longStream(allspl.trySplit(), false).iterator();
-//
-//        assertThat(all.next(), is(0L));
-//        final PrimitiveIterator.OfLong expectedAll = this.getStream(1, 7).iterator();
-//        final PrimitiveIterator.OfLong expectedSplit = this.getStream(2, 6,7).iterator();
-//
-//        for (int i=0; i<100; ++i) {
-//            assertThat(all.next(), is(expectedAll.next()));
-//        }
-//
-//        for (int i=0; i<100; ++i) {
-//            assertThat(split.next(), is(expectedSplit.next()));
-//        }
-//    }
-//}
+public class IndexSpliteratorTest {
+    private static Storage<Integer> storageOfSize(final int size) {
+        return new TrieStorage<Integer>().set(size - 1, 1);
+    }
+
+    private static Spliterator.OfInt getSpliter(final int start, final int branchingFactor, final int size) {
+        return Iteration.any(start, GenericShape.mkStar(branchingFactor, 1), storageOfSize(size));
+    }
+
+    /**
+     * The subtree below {@code start}, layer by layer.
+     */
+    private static int[] expected(final int start, final int branchingFactor, final int size) {
+        final TIntArrayList ret = new TIntArrayList();
+        long lo = start;
+        long hi = start + 1;
+        while (lo < size) {
+            for (long i = lo; i < Math.min(hi, size); i++) {
+                ret.add((int) i);
+            }
+            lo = lo * branchingFactor + 1;
+            hi = hi * branchingFactor + 1;
+        }
+        return ret.toArray();
+    }
+
+    private static void splitFully(final Spliterator.OfInt spliter, final TIntArrayList into) {
+        final Spliterator.OfInt prefix = spliter.trySplit();
+        if (prefix != null) {
+            splitFully(prefix, into);
+            splitFully(spliter, into);
+        } else {
+            final long size = spliter.estimateSize();
+            final int before = into.size();
+            spliter.forEachRemaining((int i) -> into.add(i));
+            assertThat((long) (into.size() - before), is(size));
+        }
+    }
+
+    @Test
+    public void otherShapes() {
+        final Storage<Integer> s = new TrieStorage<Integer>().set(3, 3).set(7, 7);
+        final Object[] alt = GenericShape.mkAlt(1, 2);
+        final int[] all = StreamSupport.intStream(Iteration.any(0, alt, s), false).toArray();
+        assertThat(all.length, is(s.maxIdxOverapproximation()));
+        // the subtree is unknown, so all non-null indices are visited:
+        final int[] fallback = StreamSupport.intStream(Iteration.any(1, alt, s), false).toArray();
+        assertThat(fallback, is(new int[] {3, 7}));
+    }
+
+    @Test
+    public void fromRoot() {
+        final int[] all = StreamSupport.intStream(getSpliter(0, 2, 100), false).toArray();
+        assertThat(all, is(expected(0, 2, 100)));
+    }
+
+    @Test
+    public void fromLeftChild() {
+        final int[] all = StreamSupport.intStream(getSpliter(1, 2, 100), false).toArray();
+        assertThat(all, is(expected(1, 2, 100)));
+        assertThat(all[0], is(1));
+        assertThat(all[1], is(3));
+        assertThat(all[2], is(4));
+        assertThat(all[3], is(7));
+        assertThat(all[4], is(8));
+    }
+
+    @Test
+    public void terminatesWithExactSize() {
+        for (final int k : new int[]{2, 3, 7}) {
+            for (final int start : new int[]{1, 2, 5, 99, 1000}) {
+                final Spliterator.OfInt spliter = getSpliter(start, k, 1000);
+                final int[] exp = expected(start, k, 1000);
+                assertThat(spliter.hasCharacteristics(Spliterator.SIZED), is(true));
+                assertThat(spliter.estimateSize(), is((long) exp.length));
+                assertThat(StreamSupport.intStream(spliter, false).toArray(), is(exp));
+            }
+        }
+    }
+
+    @Test
+    public void splitCoversSubtree() {
+        for (final int k : new int[]{2, 3, 7}) {
+            for (final int start : new int[]{1, 2, 5}) {
+                final Spliterator.OfInt spliter = getSpliter(start, k, 100000);
+                // split after consuming a few indices, too:
+                final TIntArrayList visited = new TIntArrayList();
+                for (int i = 0; i < 3; i++) {
+                    spliter.tryAdvance((int x) -> visited.add(x));
+                }
+                splitFully(spliter, visited);
+                visited.sort();
+                final TIntArrayList exp = new TIntArrayList(expected(start, k, 100000));
+                exp.sort();
+                assertThat(visited, is(exp));
+            }
+        }
+    }
+
+    @Test
+    public void parallelStream() {
+        final int[] exp = expected(1, 2, 1 << 20);
+        final long sum = StreamSupport.intStream(getSpliter(1, 2, 1 << 20), true)
+                .asLongStream()
+                .sum();
+        long expSum = 0;
+        for (final int i : exp) {
+            expSum += i;
+        }
+        assertThat(sum, is(expSum));
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.kaeluka.cflat.test.storage;
+
+import com.github.kaeluka.cflat.storage.FixedWidthCodec;
+import com.github.kaeluka.cflat.storage.MappedStorage;
+import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.storage.VariableWidthCodec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class MappedStorageTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void survivesReopen() throws IOException {
+        final Path file = tmp.getRoot().toPath().resolve("ints.mapped");
+        try (MappedStorage<Integer> st = MappedStorage.open(file, FixedWidthCodec.INT)) {
+            for (int i = 0; i < 200000; i += 3) {
+                st.set(i, -i);
+            }
+            st.set(3, null);
+        }
+        try (MappedStorage<Integer> st = MappedStorage.open(file, FixedWidthCodec.INT)) {
+            assertThat(st.maxIdxOverapproximation(), is(199998 + 1));
+            assertThat(st.maxIdx(), is(199998 + 1));
+            assertThat(st.get(3), nullValue());
+            for (int i = 6; i < 200000; i++) {
+                assertThat(st.get(i), is(i % 3 == 0 ? -i : null));
+            }
+            final List<Integer> idxs = new ArrayList<>();
+            st.foreachNonNull(idxs::add);
+            assertThat(idxs.size(), is(200000 / 3));
+            assertThat(idxs.get(0), is(0));
+            assertThat(idxs.get(1), is(6));
+        }
+    }
+
+    @Test
+    public void bytesUsedCountsMappedChunks() throws IOException {
+        final Path file = tmp.getRoot().toPath().resolve("sized.mapped");
+        try (MappedStorage<Integer> st = MappedStorage.open(file, FixedWidthCodec.INT)) {
+            final long empty = st.bytesUsed();
+            st.set(0, 1);
+            final long oneChunk = st.bytesUsed() - empty;
+            assertThat(oneChunk, greaterThan((long) (1 << 16) * Integer.BYTES));
+            st.set(1, 2);
+            assertThat(st.bytesUsed(), is(empty + oneChunk));
+            st.set(1 << 16, 3);
+            assertThat(st.bytesUsed(), is(empty + 2 * oneChunk));
+            st.clearAll();
+            assertThat(st.bytesUsed(), is(empty));
+        }
+    }
+
+    @Test
+    public void variableSizeValuesGoToTheLog() throws IOException {
+        final Path file = tmp.getRoot().toPath().resolve("strings.mapped");
+        try (MappedStorage<String> st = MappedStorage.openWithLog(file, VariableWidthCodec.UTF8_STRING)) {
+            st.set(0, "");
+            st.set(1, "hello");
+            st.set(70000, "wörld");
+            st.set(1, "hello again");
+        }
+        assertThat(Files.exists(MappedStorage.logFileFor(file)), is(true));
+        try (MappedStorage<String> st = MappedStorage.openWithLog(file, VariableWidthCodec.UTF8_STRING)) {
+            assertThat(st.get(0), is(""));
+            assertThat(st.get(1), is("hello again"));
+            assertThat(st.get(2), nullValue());
+            assertThat(st.get(70000), is("wörld"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsDifferentCodec() throws IOException {
+        final Path file = tmp.getRoot().toPath().resolve("longs.mapped");
+        MappedStorage.open(file, FixedWidthCodec.LONG).close();
+        MappedStorage.open(file, FixedWidthCodec.INT);
+    }
+
+    @Test
+    public void copiesGoToCopyDirectory() throws IOException {
+        final File copies = tmp.newFolder("copies");
+        final Path file = tmp.getRoot().toPath().resolve("orig.mapped");
+        try (MappedStorage<String> st = MappedStorage.openWithLog(file, VariableWidthCodec.UTF8_STRING)
+                .withCopyDirectory(copies.toPath())) {
+            st.set(5, "five");
+            try (MappedStorage<String> cp = st.copy();
+                 MappedStorage<String> empty = st.emptyCopy()) {
+                assertThat(cp.file().getParent(), is(copies.toPath()));
+                assertThat(empty.file().getParent(), is(copies.toPath()));
+                st.set(5, "changed");
+                assertThat(cp.get(5), is("five"));
+                assertThat(empty.get(5), nullValue());
+                assertThat(empty.maxIdxOverapproximation(), is(0));
+            }
+        }
+    }
+
+    @Test
+    public void clearAllTruncates() throws IOException {
+        final Path file = tmp.getRoot().toPath().resolve("cleared.mapped");
+        try (MappedStorage<Double> st = MappedStorage.open(file, FixedWidthCodec.DOUBLE)) {
+            final Storage<Double> cleared = st.set(100000, 1.5).clearAll();
+            assertThat(cleared.get(100000), nullValue());
+            assertThat(cleared.maxIdx(), is(0));
+            cleared.set(1, 2.5);
+        }
+        try (MappedStorage<Double> st = MappedStorage.open(file, FixedWidthCodec.DOUBLE)) {
+            assertThat(st.get(1), is(2.5));
+            assertThat(st.get(100000), nullValue());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void useAfterCloseThrows() throws IOException {
+        final MappedStorage<Integer> st = MappedStorage.open(tmp.newFile().toPath(), FixedWidthCodec.INT);
+        st.close();
+        st.get(0);
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.kaeluka.cflat.test.storage;
+
+import com.github.kaeluka.cflat.storage.FixedWidthCodec;
+import com.github.kaeluka.cflat.storage.OffHeapStorage;
+import com.github.kaeluka.cflat.storage.Storage;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class OffHeapStorageTest {
+    private static final class Point {
+        final int x;
+        final int y;
+
+        Point(final int x, final int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Point && ((Point) o).x == x && ((Point) o).y == y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * x + y;
+        }
+    }
+
+    private static final FixedWidthCodec<Point> POINT = new FixedWidthCodec<Point>() {
+        @Override public int width() { return 2 * Integer.BYTES; }
+
+        @Override
+        public void write(final ByteBuffer buf, final int offset, final Point p) {
+            buf.putInt(offset, p.x);
+            buf.putInt(offset + Integer.BYTES, p.y);
+        }
+
+        @Override
+        public Point read(final ByteBuffer buf, final int offset) {
+            return new Point(buf.getInt(offset), buf.getInt(offset + Integer.BYTES));
+        }
+    };
+
+    @Test
+    public void customCodec() {
+        Storage<Point> st = new OffHeapStorage<>(POINT);
+        for (int i = 0; i < 5000; i += 7) {
+            st = st.set(i, new Point(i, -i));
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertThat(st.get(i), is(i % 7 == 0 ? new Point(i, -i) : null));
+        }
+        assertThat(st.maxIdx(), is(4998 + 1));
+    }
+
+    @Test
+    public void longsAndDoubles() {
+        final OffHeapStorage<Long> longs = OffHeapStorage.ofLongs();
+        final OffHeapStorage<Double> doubles = OffHeapStorage.ofDoubles();
+        longs.set(100000, Long.MIN_VALUE);
+        doubles.set(3, -0.5);
+        assertThat(longs.get(100000), is(Long.MIN_VALUE));
+        assertThat(longs.get(99999), nullValue());
+        assertThat(doubles.get(3), is(-0.5));
+        longs.close();
+        doubles.close();
+    }
+
+    @Test
+    public void bytesUsedCountsOffHeapChunks() {
+        final OffHeapStorage<Integer> st = OffHeapStorage.ofInts();
+        final long empty = st.bytesUsed();
+        assertThat(st.offHeapBytesUsed(), is(0L));
+
+        st.set(0, 1);
+        final long oneChunk = st.offHeapBytesUsed();
+        assertThat(oneChunk, greaterThan((long) 1024 * Integer.BYTES));
+        assertThat(st.bytesUsed(), greaterThan(empty + oneChunk));
+
+        // same chunk, no new memory:
+        st.set(1, 2);
+        assertThat(st.offHeapBytesUsed(), is(oneChunk));
+
+        st.set(5000, 3);
+        assertThat(st.offHeapBytesUsed(), is(2 * oneChunk));
+
+        st.clearAll();
+        assertThat(st.offHeapBytesUsed(), is(0L));
+        assertThat(st.bytesUsed(), is(empty));
+        assertThat(st.get(5000), nullValue());
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        final OffHeapStorage<Integer> st = OffHeapStorage.ofInts();
+        st.set(10, 10);
+        final OffHeapStorage<Integer> cp = st.copy();
+        st.set(10, 11);
+        st.close();
+        assertThat(cp.get(10), is(10));
+        assertThat(cp.offHeapBytesUsed(), greaterThan(0L));
+        cp.close();
+    }
+
+    @Test
+    public void closeReleasesMemory() {
+        final OffHeapStorage<Integer> st = OffHeapStorage.ofInts();
+        st.set(3, 3);
+        st.close();
+        assertThat(st.isClosed(), is(true));
+        assertThat(st.offHeapBytesUsed(), is(0L));
+        // closing twice is fine:
+        st.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void useAfterCloseThrows() {
+        final OffHeapStorage<Integer> st = OffHeapStorage.ofInts();
+        st.set(3, 3);
+        st.close();
+        st.get(3);
+    }
+}
@@ -0,0 +1,178 @@
+package com.github.kaeluka.cflat.test.storage;
+
+import com.github.kaeluka.cflat.storage.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * The hash-based storages keep their indices in a compressed presence
+ * index; these tests push it through its array, bitmap and run forms and
+ * compare it to a sorted set.
+ */
+public class PresenceIndexTest {
+    private static final Integer X = 42;
+
+    @SuppressWarnings("unchecked")
+    private static List<Supplier<Storage<Integer>>> storages() {
+        final List<Supplier<Storage<Integer>>> ret = new ArrayList<>();
+        ret.add(HashMapStorage::new);
+        ret.add(IndexedStorage::new);
+        ret.add(ImmutableStorage::new);
+        return ret;
+    }
+
+    private static void assertSameIndices(final Storage<Integer> s, final TreeSet<Integer> expected) {
+        final String name = s.getClass().getSimpleName();
+        final List<Integer> visited = new ArrayList<>();
+        s.foreachNonNull(visited::add);
+        assertThat(name, visited, equalTo(new ArrayList<>(expected)));
+
+        final List<Integer> walked = new ArrayList<>();
+        final StorageCursor<Integer> cursor = s.cursor();
+        while (cursor.advance()) {
+            walked.add(cursor.index());
+            assertThat(name, cursor.value(), is(X));
+        }
+        assertThat(name, walked, equalTo(visited));
+
+        final int max = expected.isEmpty() ? 0 : expected.last() + 1;
+        assertThat(name, s.maxIdx(), is(max));
+        assertThat(name, s.maxIdxOverapproximation(), is(max));
+    }
+
+    private static Storage<Integer> setAll(Storage<Integer> s, final Iterable<Integer> indices, final Integer x) {
+        for (final int i : indices) {
+            s = s.set(i, x);
+        }
+        return s;
+    }
+
+    @Test
+    public void denseBlockBecomesBitmapAndBack() {
+        for (final Supplier<Storage<Integer>> sup : storages()) {
+            final TreeSet<Integer> expected = new TreeSet<>();
+            // every other index: too many for an array, too many runs for a run list
+            for (int i = 0; i < 20000; i += 2) {
+                expected.add(i);
+            }
+            Storage<Integer> s = setAll(sup.get(), expected, X);
+            assertSameIndices(s, expected);
+
+            final List<Integer> removed = new ArrayList<>();
+            for (int i = 0; i < 20000; i += 4) {
+                removed.add(i);
+            }
+            s = setAll(s, removed, null);
+            expected.removeAll(removed);
+            assertSameIndices(s, expected);
+        }
+    }
+
+    @Test
+    public void consecutiveIndicesFormRuns() {
+        for (final Supplier<Storage<Integer>> sup : storages()) {
+            final TreeSet<Integer> expected = new TreeSet<>();
+            for (int i = 1000; i < 71000; i++) {
+                expected.add(i);
+            }
+            Storage<Integer> s = setAll(sup.get(), expected, X);
+            assertSameIndices(s, expected);
+
+            // punch holes, splitting runs:
+            final List<Integer> removed = new ArrayList<>();
+            for (int i = 1000; i < 71000; i += 1000) {
+                removed.add(i);
+                removed.add(i + 999);
+            }
+            s = setAll(s, removed, null);
+            expected.removeAll(removed);
+            assertSameIndices(s, expected);
+            assertThat(s.hasInRange(1000, 1001), is(false));
+            assertThat(s.hasInRange(1000, 1002), is(true));
+        }
+    }
+
+    @Test
+    public void setRangeAddsRuns() {
+        final Storage<Integer> s = new HashMapStorage<>();
+        s.setRange(0x1FFF0, X, 0x30);
+        s.set(5, X);
+        final TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0x1FFF0; i < 0x20020; i++) {
+            expected.add(i);
+        }
+        expected.add(5);
+        assertSameIndices(s, expected);
+        s.set(0x1FFF0, null).set(0x2001F, null);
+        expected.remove(0x1FFF0);
+        expected.remove(0x2001F);
+        assertSameIndices(s, expected);
+    }
+
+    @Test
+    public void randomOperationsAcrossBlocks() {
+        final Random rnd = new Random(12345);
+        for (final Supplier<Storage<Integer>> sup : storages()) {
+            final TreeSet<Integer> expected = new TreeSet<>();
+            Storage<Integer> s = sup.get();
+            for (int op = 0; op < 20000; op++) {
+                final int i = rnd.nextBoolean()
+                        ? rnd.nextInt(0x30000)
+                        : rnd.nextInt(Integer.MAX_VALUE);
+                if (rnd.nextInt(3) == 0) {
+                    s = s.set(i, null);
+                    expected.remove(i);
+                } else {
+                    s = s.set(i, X);
+                    expected.add(i);
+                }
+            }
+            assertSameIndices(s, expected);
+
+            final StorageCursor<Integer> cursor = s.cursor();
+            for (int probe = 0; probe < 100; probe++) {
+                final int from = rnd.nextInt(Integer.MAX_VALUE - 100000);
+                final Integer next = expected.ceiling(from);
+                cursor.reset();
+                assertThat(cursor.seek(from), is(next != null));
+                if (next != null) {
+                    assertThat(cursor.index(), is(next));
+                }
+                final Integer inRange = expected.ceiling(from);
+                assertThat(s.hasInRange(from, from + 100000),
+                        is(inRange != null && inRange < from + 100000));
+            }
+        }
+    }
+
+    @Test
+    public void immutableVersionsDoNotShareChanges() {
+        final Storage<Integer> empty = new ImmutableStorage<>();
+        final Storage<Integer> v1 = empty.set(3, X).set(70000, X);
+        final Storage<Integer> v2 = v1.set(4, X);
+        final Storage<Integer> v3 = v2.set(3, null);
+
+        assertSameIndices(empty, new TreeSet<>());
+        assertSameIndices(v1, new TreeSet<>(java.util.Arrays.asList(3, 70000)));
+        assertSameIndices(v2, new TreeSet<>(java.util.Arrays.asList(3, 4, 70000)));
+        assertSameIndices(v3, new TreeSet<>(java.util.Arrays.asList(4, 70000)));
+    }
+
+    @Test
+    public void clearAllEmptiesTheIndex() {
+        for (final Supplier<Storage<Integer>> sup : storages()) {
+            final TreeSet<Integer> expected = new TreeSet<>(java.util.Arrays.asList(1, 100000, 5000000));
+            final Storage<Integer> s = setAll(sup.get(), expected, X).clearAll();
+            assertSameIndices(s, new TreeSet<>());
+            assertThat(s.hasInRange(0, Integer.MAX_VALUE), is(false));
+        }
+    }
+}
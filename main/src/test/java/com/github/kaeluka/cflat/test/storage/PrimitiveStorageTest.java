@@ -0,0 +1,298 @@
+package com.github.kaeluka.cflat.test.storage;
+
+import com.github.kaeluka.cflat.storage.DoubleStorage;
+import com.github.kaeluka.cflat.storage.IntStorage;
+import com.github.kaeluka.cflat.storage.LongStorage;
+import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.util.Storages;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(Parameterized.class)
+public class PrimitiveStorageTest {
+    private final Supplier<Storage> storageSupplier;
+
+    @Parameterized.Parameters(name="{0}")
+    public static List<Supplier<Storage>> storages() {
+        final List<Supplier<Storage>> ret = new ArrayList<>();
+        ret.addAll(Storages.intStorages());
+        ret.addAll(Storages.longStorages());
+        ret.addAll(Storages.doubleStorages());
+        return ret;
+    }
+
+    public PrimitiveStorageTest(final Supplier<Storage> storageSupplier) {
+        this.storageSupplier = storageSupplier;
+    }
+
+    private static Storage put(final Storage st, final int i, final long x) {
+        if (st instanceof IntStorage) {
+            return ((IntStorage) st).setInt(i, (int) x);
+        } else if (st instanceof LongStorage) {
+            return ((LongStorage) st).setLong(i, x);
+        } else {
+            return ((DoubleStorage) st).setDouble(i, x);
+        }
+    }
+
+    private static long read(final Storage st, final int i) {
+        if (st instanceof IntStorage) {
+            return ((IntStorage) st).getInt(i);
+        } else if (st instanceof LongStorage) {
+            return ((LongStorage) st).getLong(i);
+        } else {
+            return (long) ((DoubleStorage) st).getDouble(i);
+        }
+    }
+
+    private static long minValue(final Storage st) {
+        if (st instanceof IntStorage) {
+            return Integer.MIN_VALUE;
+        } else if (st instanceof LongStorage) {
+            return Long.MIN_VALUE;
+        } else {
+            return -(1L << 53);
+        }
+    }
+
+    @Test
+    public void storesZeroAndMinValue() {
+        Storage st = storageSupplier.get();
+        final long min = minValue(st);
+        st = put(st, 5, 0);
+        st = put(st, 7, min);
+
+        assertThat(st.has(5), is(true));
+        assertThat(st.has(6), is(false));
+        assertThat(st.has(7), is(true));
+        assertThat(read(st, 5), is(0L));
+        assertThat(read(st, 6), is(0L));
+        assertThat(read(st, 7), is(min));
+        assertThat(st.get(6), nullValue());
+        assertThat(((Number) st.get(7)).longValue(), is(min));
+    }
+
+    @Test
+    public void remove() {
+        Storage st = storageSupplier.get();
+        st = put(st, 3, 42);
+        assertThat(st.has(3), is(true));
+        st = st.set(3, null);
+        assertThat(st.has(3), is(false));
+        assertThat(st.get(3), nullValue());
+        assertThat(st.maxIdx(), is(0));
+    }
+
+    @Test
+    public void foreachNonNullAndMaxIdx() {
+        Storage st = storageSupplier.get();
+        final Random random = new Random(12345L);
+        final TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < 1000; i++) {
+            final int idx = random.nextInt(1 << 20);
+            expected.add(idx);
+            st = put(st, idx, idx);
+        }
+        final List<Integer> visited = new ArrayList<>();
+        st.foreachNonNull(visited::add);
+        assertThat(visited, is(new ArrayList<>(expected)));
+        assertThat(st.maxIdx(), is(expected.last() + 1));
+
+        final Storage cp = st.copy();
+        for (final int idx : expected) {
+            st = st.set(idx, null);
+        }
+        assertThat(st.maxIdx(), is(0));
+        for (final int idx : expected) {
+            assertThat(read(cp, idx), is((long) idx));
+        }
+    }
+
+    @Test
+    public void rangeOperations() {
+        Storage st = storageSupplier.get();
+        st = st.setRange(250, null, 10);
+        assertThat(st.hasInRange(0, 1000), is(false));
+
+        for (int i = 250; i < 260; i++) {
+            st = put(st, i, i);
+        }
+        st = st.copyRange(250, 255, 10);
+        for (int i = 250; i < 255; i++) {
+            assertThat(read(st, i), is((long) i));
+        }
+        for (int i = 255; i < 265; i++) {
+            assertThat("at "+i, read(st, i), is((long) i - 5));
+        }
+        assertThat(st.has(265), is(false));
+        assertThat(st.maxIdx(), is(265));
+    }
+
+    @Test
+    public void copyRangeAcrossWords() {
+        Storage st = storageSupplier.get();
+        final Long[] model = new Long[1000];
+        final Random random = new Random(54321L);
+        for (int i = 0; i < model.length; i += 1 + random.nextInt(3)) {
+            st = put(st, i, i);
+            model[i] = (long) i;
+        }
+        // unaligned and overlapping, in both directions
+        final int[][] copies = { {3, 200, 300}, {500, 130, 250}, {10, 17, 150}, {640, 640, 64}, {700, 0, 70} };
+        for (final int[] c : copies) {
+            st = st.copyRange(c[0], c[1], c[2]);
+            System.arraycopy(model, c[0], model, c[1], c[2]);
+            for (int i = 0; i < model.length; i++) {
+                assertThat("at " + i, st.has(i), is(model[i] != null));
+                if (model[i] != null) {
+                    assertThat("at " + i, read(st, i), is(model[i]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void unboxedStreams() {
+        Storage st = storageSupplier.get();
+        final Random random = new Random(12345L);
+        final TreeSet<Integer> expected = new TreeSet<>();
+        long sum = 0;
+        for (int i = 0; i < 1000; i++) {
+            final int idx = random.nextInt(1 << 20);
+            if (expected.add(idx)) {
+                sum += idx;
+            }
+            st = put(st, idx, idx);
+        }
+        final int[] indices = expected.stream().mapToInt(i -> i).toArray();
+        assertThat(st.indexStream().toArray(), is(indices));
+        assertThat(st.indexStream().parallel().toArray(), is(indices));
+
+        final long streamed;
+        if (st instanceof IntStorage) {
+            streamed = ((IntStorage) st).valueStreamInt().parallel().asLongStream().sum();
+        } else if (st instanceof LongStorage) {
+            streamed = ((LongStorage) st).valueStreamLong().parallel().sum();
+        } else {
+            streamed = (long) ((DoubleStorage) st).valueStreamDouble().parallel().sum();
+        }
+        assertThat(streamed, is(sum));
+    }
+
+    private static long sum(final Storage st, final int start, final int end) {
+        if (st instanceof IntStorage) {
+            return ((IntStorage) st).sumInt(start, end);
+        } else if (st instanceof LongStorage) {
+            return ((LongStorage) st).sumLong(start, end);
+        } else {
+            return (long) ((DoubleStorage) st).sumDouble(start, end);
+        }
+    }
+
+    private static long min(final Storage st, final int start, final int end) {
+        if (st instanceof IntStorage) {
+            return ((IntStorage) st).minInt(start, end);
+        } else if (st instanceof LongStorage) {
+            return ((LongStorage) st).minLong(start, end);
+        } else {
+            return (long) ((DoubleStorage) st).minDouble(start, end);
+        }
+    }
+
+    private static long max(final Storage st, final int start, final int end) {
+        if (st instanceof IntStorage) {
+            return ((IntStorage) st).maxInt(start, end);
+        } else if (st instanceof LongStorage) {
+            return ((LongStorage) st).maxLong(start, end);
+        } else {
+            return (long) ((DoubleStorage) st).maxDouble(start, end);
+        }
+    }
+
+    private static int count(final Storage st, final int start, final int end) {
+        if (st instanceof IntStorage) {
+            return ((IntStorage) st).count(start, end);
+        } else if (st instanceof LongStorage) {
+            return ((LongStorage) st).count(start, end);
+        } else {
+            return ((DoubleStorage) st).count(start, end);
+        }
+    }
+
+    private static int findFirstAbove(final Storage st, final long threshold, final int start, final int end) {
+        if (st instanceof IntStorage) {
+            return ((IntStorage) st).findFirstInt(x -> x > threshold, start, end);
+        } else if (st instanceof LongStorage) {
+            return ((LongStorage) st).findFirstLong(x -> x > threshold, start, end);
+        } else {
+            return ((DoubleStorage) st).findFirstDouble(x -> x > threshold, start, end);
+        }
+    }
+
+    private static int replace(final Storage st, final long expected, final long x, final int start, final int end) {
+        if (st instanceof IntStorage) {
+            return ((IntStorage) st).replaceInt((int) expected, (int) x, start, end);
+        } else if (st instanceof LongStorage) {
+            return ((LongStorage) st).replaceLong(expected, x, start, end);
+        } else {
+            return ((DoubleStorage) st).replaceDouble(expected, x, start, end);
+        }
+    }
+
+    @Test
+    public void bulkOperationsMatchElementwise() {
+        Storage st = storageSupplier.get();
+        final Random random = new Random(12345L);
+        final TreeMap<Integer, Long> expected = new TreeMap<>();
+        // a dense stretch, for the full-word loops, and scattered values:
+        for (int idx = 1000; idx < 3000; idx++) {
+            expected.put(idx, (long) (idx % 97) - 50);
+        }
+        for (int i = 0; i < 2000; i++) {
+            expected.put(random.nextInt(1 << 18), (long) random.nextInt(1000) - 500);
+        }
+        for (final Map.Entry<Integer, Long> e : expected.entrySet()) {
+            st = put(st, e.getKey(), e.getValue());
+        }
+
+        for (int probe = 0; probe < 200; probe++) {
+            final int start = random.nextInt(1 << 18);
+            final int end = start + random.nextInt(probe % 2 == 0 ? 300 : 1 << 17);
+            final SortedMap<Integer, Long> range = expected.subMap(start, end);
+            final String msg = "["+start+", "+end+")";
+
+            assertThat(msg, sum(st, start, end), is(range.values().stream().mapToLong(x -> x).sum()));
+            assertThat(msg, count(st, start, end), is(range.size()));
+            if (!range.isEmpty()) {
+                assertThat(msg, min(st, start, end), is(Collections.min(range.values())));
+                assertThat(msg, max(st, start, end), is(Collections.max(range.values())));
+            }
+            final int firstAbove = range.entrySet().stream()
+                    .filter(e -> e.getValue() > 400)
+                    .mapToInt(Map.Entry::getKey)
+                    .findFirst().orElse(-1);
+            assertThat(msg, findFirstAbove(st, 400, start, end), is(firstAbove));
+        }
+        assertThat(count(st, 0, 0), is(0));
+        assertThat(count(st, 0, Integer.MAX_VALUE), is(expected.size()));
+        assertThat(sum(st, 1 << 19, Integer.MAX_VALUE), is(0L));
+
+        final int start = 500;
+        final int end = 2500;
+        final long replaced = expected.subMap(start, end).values().stream().filter(x -> x == 7).count();
+        assertThat(replace(st, 7, 1234, start, end), is((int) replaced));
+        for (final Map.Entry<Integer, Long> e : expected.entrySet()) {
+            final boolean inRange = e.getKey() >= start && e.getKey() < end;
+            final long want = inRange && e.getValue() == 7 ? 1234 : e.getValue();
+            assertThat(read(st, e.getKey()), is(want));
+        }
+        assertThat(count(st, 0, Integer.MAX_VALUE), is(expected.size()));
+    }
+}
@@ -0,0 +1,187 @@
+package com.github.kaeluka.cflat.test.storage;
+
+import com.github.kaeluka.cflat.storage.NestedStorage;
+import com.github.kaeluka.cflat.storage.SparseKernels;
+import com.github.kaeluka.cflat.util.Storages;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * The sparse kernels must compute what the dense textbook loops compute.
+ * There are enough rows that the CSR kernels split them into several
+ * parallel pieces.
+ */
+@RunWith(Parameterized.class)
+public class SparseKernelsTest {
+    private static final int ROWS = 3 * SparseKernels.PARALLEL_ROWS + 17;
+    private static final int COLS = 70;
+
+    @Parameterized.Parameter
+    public Supplier<NestedStorage<Double>> supplier;
+
+    @Parameterized.Parameters(name="{0}")
+    public static Collection<Supplier<NestedStorage<Double>>> sparseStorages() {
+        return Storages.nestedStorages();
+    }
+
+    private static double[][] randomDense(final int rows, final int cols, final long seed) {
+        final Random random = new Random(seed);
+        final double[][] ret = new double[rows][cols];
+        for (int k = 0; k < 4 * rows; k++) {
+            ret[random.nextInt(rows)][random.nextInt(cols)] = random.nextInt(100) - 50;
+        }
+        return ret;
+    }
+
+    private NestedStorage<Double> sparse(final double[][] dense) {
+        final NestedStorage<Double> ret = supplier.get();
+        for (int row = 0; row < dense.length; row++) {
+            for (int col = 0; col < dense[row].length; col++) {
+                if (dense[row][col] != 0) {
+                    ret.get(row).set(col, dense[row][col]);
+                }
+            }
+        }
+        // every row counts, even when the last ones are empty:
+        ret.get(dense.length - 1);
+        return ret;
+    }
+
+    private static double cell(final NestedStorage<Double> m, final int row, final int col) {
+        final Double x = m.get(row).get(col);
+        return x == null ? 0 : x;
+    }
+
+    @Test
+    public void multiplyVectorTest() {
+        final double[][] a = randomDense(ROWS, COLS, 1L);
+        final double[] x = new double[COLS - 5];
+        for (int col = 0; col < x.length; col++) {
+            x[col] = col % 7 - 3;
+        }
+        final double[] y = SparseKernels.multiply(sparse(a), x);
+        assertThat(y.length, is(ROWS));
+        for (int row = 0; row < ROWS; row++) {
+            double expected = 0;
+            for (int col = 0; col < x.length; col++) {
+                expected += a[row][col] * x[col];
+            }
+            assertThat("row " + row, y[row], is(expected));
+        }
+    }
+
+    @Test
+    public void multiplyMatrixTest() {
+        final double[][] a = randomDense(ROWS, COLS, 2L);
+        final double[][] b = randomDense(COLS, 40, 3L);
+        final NestedStorage<Double> ab = SparseKernels.multiply(sparse(a), sparse(b));
+        for (int row = 0; row < ROWS; row++) {
+            for (int col = 0; col < 40; col++) {
+                double expected = 0;
+                for (int k = 0; k < COLS; k++) {
+                    expected += a[row][k] * b[k][col];
+                }
+                assertThat("at [" + row + ", " + col + "]", cell(ab, row, col), is(expected));
+            }
+        }
+    }
+
+    @Test
+    public void transposeTest() {
+        final double[][] a = randomDense(200, COLS, 4L);
+        final NestedStorage<Double> st = sparse(a);
+        final NestedStorage<Double> t = SparseKernels.transpose(st);
+        assertThat(t.getClass(), equalTo((Object) st.getClass()));
+        for (int row = 0; row < 200; row++) {
+            for (int col = 0; col < COLS; col++) {
+                assertThat(cell(t, col, row), is(a[row][col]));
+            }
+        }
+    }
+
+    @Test
+    public void reductionsTest() {
+        final double[][] a = randomDense(ROWS, COLS, 5L);
+        final NestedStorage<Double> st = sparse(a);
+        final double[] rowSums = SparseKernels.rowSums(st);
+        final double[] rowMax = SparseKernels.reduceRows(st, Double.NEGATIVE_INFINITY, Math::max);
+        final double[] colSums = SparseKernels.colSums(st);
+        assertThat(rowSums.length, is(ROWS));
+        assertThat(colSums.length, greaterThanOrEqualTo(COLS));
+        final double[] expectedColSums = new double[COLS];
+        for (int row = 0; row < ROWS; row++) {
+            double sum = 0;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int col = 0; col < COLS; col++) {
+                sum += a[row][col];
+                if (a[row][col] != 0) {
+                    max = Math.max(max, a[row][col]);
+                }
+                expectedColSums[col] += a[row][col];
+            }
+            assertThat(rowSums[row], is(sum));
+            assertThat(rowMax[row], is(max));
+        }
+        for (int col = 0; col < COLS; col++) {
+            assertThat(colSums[col], is(expectedColSums[col]));
+        }
+    }
+
+    @Test
+    public void emptyMatrixTest() {
+        final NestedStorage<Double> st = supplier.get();
+        assertThat(SparseKernels.multiply(st, new double[] { 1, 2, 3 }).length, is(0));
+        assertThat(SparseKernels.rowSums(st).length, is(0));
+        final NestedStorage<Double> product = SparseKernels.multiply(st, st);
+        assertThat(product.maxIdx(), is(0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void copiedMatrixTest() {
+        // rows of a timed storage copy their histograms, so keep it small
+        final int rows = 200;
+        final double[][] a = randomDense(rows, COLS, 6L);
+        final NestedStorage<Double> st = (NestedStorage<Double>) sparse(a).copy();
+        final double[] x = new double[COLS];
+        for (int col = 0; col < x.length; col++) {
+            x[col] = col % 5 - 2;
+        }
+        final double[] y = SparseKernels.multiply(st, x);
+        final double[] rowSums = SparseKernels.rowSums(st);
+        assertThat(y.length, is(rows));
+        assertThat(rowSums.length, is(rows));
+        for (int row = 0; row < rows; row++) {
+            double expected = 0;
+            double sum = 0;
+            for (int col = 0; col < COLS; col++) {
+                expected += a[row][col] * x[col];
+                sum += a[row][col];
+            }
+            assertThat("row " + row, y[row], is(expected));
+            assertThat("row " + row, rowSums[row], is(sum));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void columnWritesTest() {
+        final NestedStorage<Double> st = supplier.get();
+        st.set(1, 1, 1.0);
+        st.getCol(0).set(10, 2.0);
+        assertThat(st.maxIdx(), is(11));
+        assertThat(SparseKernels.multiply(st, new double[] { 3, 4 })[10], is(6.0));
+        assertThat(SparseKernels.rowSums(st)[10], is(2.0));
+        final NestedStorage<Double> cp = (NestedStorage<Double>) st.copy();
+        assertThat(cp.get(10, 0), is(2.0));
+        assertThat(cp.get(1, 1), is(1.0));
+    }
+}
@@ -1,18 +1,26 @@
 package com.github.kaeluka.cflat.test.storage;
 
 import com.github.kaeluka.cflat.storage.NestedStorage;
+import com.github.kaeluka.cflat.storage.SparseStorage;
 import com.github.kaeluka.cflat.storage.Storage;
 import com.github.kaeluka.cflat.util.Storages;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.function.Supplier;
 
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.*;
 
 @RunWith(Parameterized.class)
@@ -101,6 +109,143 @@ public class SparseStorageTest {
         }
     }
 
+    @Test
+    public void writesInAnyOrderTest() {
+        final NestedStorage<Integer> st = supplier.get();
+        final Map<Long, Integer> expected = new HashMap<>();
+        final Random random = new Random(12345L);
+        final int ROWS = 300;
+        final int COLS = 40;
+        for (int k = 0; k < 5000; k++) {
+            final int row = random.nextInt(ROWS);
+            final int col = random.nextInt(COLS);
+            st.get(row).set(col, k);
+            expected.put((long) row * COLS + col, k);
+            if (k % 997 == 0) {
+                // reads in between writes see all earlier writes:
+                assertThat(st.get(row).get(col), is(k));
+            }
+        }
+        st.compact();
+        for (int row = 0; row < ROWS; row++) {
+            for (int col = 0; col < COLS; col++) {
+                assertThat("at [" + row + ", " + col + "]",
+                        st.get(row).get(col), is(expected.get((long) row * COLS + col)));
+            }
+        }
+        // compacting again does not change anything:
+        st.compact();
+        assertThat(st.get(7).get(3), is(expected.get(7L * COLS + 3)));
+    }
+
+    @Test
+    public void columnsTest() {
+        final NestedStorage<Integer> st = supplier.get();
+        // a dense cluster and a few scattered cells:
+        for (int row = 3; row < 13; row++) {
+            for (int col = 5; col < 15; col++) {
+                st.get(row).set(col, row * 100 + col);
+            }
+        }
+        st.get(40).set(2, 1);
+        st.get(0).set(70, 2);
+        st.getCol(70).set(33, 3);
+
+        final List<Integer> cols = new ArrayList<>();
+        st.foreachColNonNull(cols::add);
+        final List<Integer> expectedCols = new ArrayList<>();
+        expectedCols.add(2);
+        for (int col = 5; col < 15; col++) {
+            expectedCols.add(col);
+        }
+        expectedCols.add(70);
+        assertThat(cols, is(expectedCols));
+
+        for (int col = 0; col < 80; col++) {
+            assertThat("hasCol(" + col + ")", st.hasCol(col), is(expectedCols.contains(col)));
+        }
+        for (int row = 3; row < 13; row++) {
+            assertThat(st.getCol(9).get(row), is(row * 100 + 9));
+        }
+        assertThat(st.getCol(9).get(2), nullValue());
+        assertThat(st.getCol(2).get(40), is(1));
+        assertThat(st.get(33).get(70), is(3));
+        assertThat(st.getCol(70).get(0), is(2));
+
+        final List<Integer> rows = new ArrayList<>();
+        st.getCol(70).foreachNonNull(rows::add);
+        assertThat(rows, is(Arrays.asList(0, 33)));
+        assertThat(st.getCol(14).maxIdx(), is(13));
+    }
+
+    @Test
+    public void reshapeTest() {
+        final NestedStorage<Integer> st = supplier.get();
+        final Map<Long, Integer> expected = new HashMap<>();
+        final Random random = new Random(4711L);
+        final int ROWS = 60;
+        final int COLS = 50;
+        for (int k = 0; k < 800; k++) {
+            final int row = random.nextInt(ROWS);
+            final int col = random.nextInt(COLS);
+            st.get(row).set(col, k);
+            expected.put((long) row * COLS + col, k);
+        }
+
+        Storage<Storage<Integer>> reshaped = st;
+        for (final SparseStorage.USAGE u : new SparseStorage.USAGE[] {
+                SparseStorage.USAGE.SIZE,
+                SparseStorage.USAGE.INSERT_PERFORMANCE,
+                SparseStorage.USAGE.COLUMN_SCAN,
+                SparseStorage.USAGE.DENSE_BLOCKS,
+                SparseStorage.USAGE.SIZE,
+                SparseStorage.USAGE.READ_PERFORMANCE}) {
+            reshaped = SparseStorage.reshape(reshaped, u);
+            for (int row = 0; row < ROWS; row++) {
+                for (int col = 0; col < COLS; col++) {
+                    assertThat(u + " at [" + row + ", " + col + "]",
+                            reshaped.get(row).get(col), is(expected.get((long) row * COLS + col)));
+                }
+            }
+            // the new layout takes writes:
+            reshaped.get(ROWS).set(1, -1);
+            expected.put((long) ROWS * COLS + 1, -1);
+            assertThat(reshaped.get(ROWS).get(1), is(-1));
+        }
+        // reshaping to the layout at hand is free:
+        assertThat(SparseStorage.reshape(reshaped, SparseStorage.USAGE.READ_PERFORMANCE), sameInstance(reshaped));
+    }
+
+    @Test
+    public void cellAccessTest() {
+        final NestedStorage<Integer> st = supplier.get();
+        for (int row = 0; row < 30; row++) {
+            for (int col = 0; col < 30; col += 3) {
+                st.set(row, col, row * col);
+            }
+        }
+        assertThat(st.maxIdx(), is(30));
+        for (int row = 0; row < 30; row++) {
+            for (int col = 0; col < 30; col++) {
+                final Integer expected = col % 3 == 0 ? row * col : null;
+                assertThat(st.get(row, col), is(expected));
+                assertThat(st.get(row).get(col), is(expected));
+            }
+        }
+        // writes through a row and through the matrix see each other:
+        final Storage<Integer> row = st.get(4);
+        row.set(1, -1);
+        st.set(4, 2, -2);
+        assertThat(st.get(4, 1), is(-1));
+        assertThat(row.get(2), is(-2));
+        assertThat(st.get(4).get(2), is(-2));
+
+        // reading an absent row does not create it:
+        assertThat(st.get(100, 0), nullValue());
+        assertThat(st.has(100), is(false));
+        assertThat(st.maxIdx(), is(30));
+    }
+
     @Test
     public void regressionSetColumnReverseTest() {
         // used to hit a bug in the CSR storage
@@ -118,6 +263,15 @@ public class SparseStorageTest {
         }
     }
 
+    @Test
+    public void clearedColumnIsEmpty() {
+        final NestedStorage<Integer> st = supplier.get();
+        st.set(3, 2, 1);
+        assertTrue(st.hasCol(2));
+        st.set(3, 2, null);
+        assertFalse(st.hasCol(2));
+    }
+
     @Test
     public void regression1() {
         final Storage<Storage<Integer>> st = supplier.get();
@@ -0,0 +1,92 @@
+package com.github.kaeluka.cflat.test.storage;
+
+import com.github.kaeluka.cflat.storage.ArrayStorage;
+import com.github.kaeluka.cflat.storage.HashMapStorage;
+import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.storage.TimerStorage;
+import com.github.kaeluka.cflat.storage.TimersStorage;
+import com.github.kaeluka.cflat.storage.TrieStorage;
+import com.github.kaeluka.cflat.storage.metrics.InProcessMetricsRegistry;
+import com.github.kaeluka.cflat.storage.metrics.JmxMetricsRegistry;
+import com.github.kaeluka.cflat.storage.metrics.StorageMetrics;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class StorageMetricsTest {
+    @Test
+    public void publishesTimerStatistics() {
+        final InProcessMetricsRegistry registry = new InProcessMetricsRegistry();
+        final TimerStorage<Integer> st = new TimerStorage<>(new TrieStorage<>());
+        StorageMetrics.register(registry, "st", () -> st, 0);
+        for (int i = 0; i < 100; i++) {
+            st.set(i, i);
+        }
+        st.get(3);
+
+        assertThat(registry.value("st", "SET.count"), is(100.0));
+        assertThat(registry.value("st", "GET.count"), is(1.0));
+        assertThat(registry.value("st", "HAS.count"), is(0.0));
+        assertThat(registry.value("st", "SET.p99"), lessThanOrEqualTo(registry.value("st", "SET.max")));
+        assertThat(registry.value("st", "maxIdxOverapproximation"), is(100.0));
+        assertThat(registry.value("st", "bytesUsed"), is((double) st.bytesUsed()));
+        assertThat(registry.value("st", "totalTimeNanos"), greaterThan(0.0));
+        // reading the gauges is not timed:
+        assertThat(registry.value("st", "SIZEOVERAPPROXIMATION.count"), is(0.0));
+    }
+
+    @Test
+    public void refreshesSeeNewCalls() {
+        final InProcessMetricsRegistry registry = new InProcessMetricsRegistry();
+        final TimerStorage<Integer> st = new TimerStorage<>(new TrieStorage<>());
+        StorageMetrics.register(registry, "st", () -> st, 0);
+        for (int round = 1; round <= 3; round++) {
+            for (int i = 0; i < 10; i++) {
+                st.set(i, i);
+            }
+            assertThat(registry.value("st", "SET.count"), is(10.0 * round));
+        }
+    }
+
+    @Test
+    public void plainStoragesOnlyHaveSizeGauges() {
+        final InProcessMetricsRegistry registry = new InProcessMetricsRegistry();
+        final Storage<Integer> st = new ArrayStorage<Integer>().set(9, 9);
+        StorageMetrics.register(registry, "st", st);
+        assertThat(registry.snapshot("st").keySet(), contains("bytesUsed", "maxIdxOverapproximation"));
+        assertThat(registry.value("st", "maxIdxOverapproximation"), is(10.0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void publishesEveryTimer() {
+        final InProcessMetricsRegistry registry = new InProcessMetricsRegistry();
+        final TimersStorage<Integer> st = new TimersStorage<>("st", new ArrayStorage<>(), new HashMapStorage<>());
+        StorageMetrics.register(registry, "st", st);
+        st.set(1, 1);
+        assertThat(registry.snapshot("st/ArrayStorage").get("SET.count"), is(1.0));
+        assertThat(registry.snapshot("st/HashMapStorage").get("SET.count"), is(1.0));
+    }
+
+    @Test
+    public void publishesToJmx() throws Exception {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final JmxMetricsRegistry registry = new JmxMetricsRegistry(server, "test");
+        final TimerStorage<Integer> st = new TimerStorage<>(new TrieStorage<>());
+        StorageMetrics.register(registry, "my storage", () -> st, 0);
+        st.set(41, 1);
+
+        final ObjectName name = new ObjectName("test:type=Storage,name=\"my storage\"");
+        assertThat(server.getAttribute(name, "SET.count"), is((Object) 1.0));
+        assertThat(server.getAttribute(name, "maxIdxOverapproximation"), is((Object) 42.0));
+        assertThat(server.getMBeanInfo(name).getAttributes().length, greaterThan(2));
+
+        registry.removeScope("my storage");
+        assertThat(server.isRegistered(name), is(false));
+    }
+}
@@ -1,9 +1,12 @@
 package com.github.kaeluka.cflat.test.storage;
 
+import com.github.kaeluka.cflat.storage.ChunkedStorage;
 import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.storage.StorageCursor;
 import com.github.kaeluka.cflat.traversal.GenericShape;
 import com.github.kaeluka.cflat.util.Mutable;
 import com.github.kaeluka.cflat.util.Storages;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.set.hash.TIntHashSet;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -11,6 +14,7 @@ import org.junit.runners.Parameterized;
 import scala.util.Random;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.function.Supplier;
@@ -25,7 +29,10 @@ public class StorageTest extends junit.framework.TestCase {
 
     @Parameterized.Parameters(name="{0}")
     public static List<Supplier<Storage>> storages() {
-        return Storages.genericStorages();
+        final List<Supplier<Storage>> ret = new ArrayList<>(Storages.genericStorages());
+        ret.addAll(Storages.intStorages());
+        ret.addAll(Storages.offHeapStorages());
+        return ret;
     }
 
     @SuppressWarnings("unchecked")
@@ -131,6 +138,91 @@ public class StorageTest extends junit.framework.TestCase {
         }
     }
 
+    @Test
+    public void parallelForeachNonNullTest() {
+        Storage<Integer> st = mkStorage();
+        final Random random = new Random(12345L);
+        final TIntHashSet keys = new TIntHashSet();
+        for (int i = 0; i < 1000; ++i) {
+            final int key = random.nextInt(200000);
+            keys.add(key);
+            st = st.set(key, key);
+        }
+
+        final TIntHashSet visited = new TIntHashSet();
+        st.parallelForeachNonNull(i -> {
+            synchronized (visited) {
+                assertThat("visited "+i+" twice", visited.add(i));
+            }
+        });
+        assertThat(visited, is(keys));
+    }
+
+    @Test
+    public void parallelFindAnyTest() {
+        Storage<Integer> st = mkStorage();
+        for (int i = 0; i < 100000; i += 100) {
+            st = st.set(i, i % 1000);
+        }
+        final int found = st.parallelFindAny(500);
+        assertThat(found % 1000, is(500));
+        assertThat(st.get(found), is(500));
+        assertThat(st.parallelFindAny(501), is(-1));
+    }
+
+    @Test
+    public void parallelSetRangeTest() {
+        Storage<Integer> st = mkStorage();
+        // crosses chunk and trie node boundaries:
+        st = st.parallelSetRange(65400, 7, 600);
+        st = st.parallelSetRange(65500, null, 100);
+        for (int i = 65000; i < 66500; i++) {
+            if (i >= 65400 && i < 66000 && !(i >= 65500 && i < 65600)) {
+                assertThat("i="+i, st.get(i), is(7));
+            } else {
+                assertThat("i="+i, st.has(i), is(false));
+            }
+        }
+        assertThat(st.maxIdx(), is(66000));
+    }
+
+    @Test
+    public void indexStreamTest() {
+        Storage<Integer> st = mkStorage();
+        final Random random = new Random(12345L);
+        for (int i = 0; i < 1000; ++i) {
+            final int key = random.nextInt(200000);
+            st = st.set(key, key);
+        }
+        final TIntArrayList expected = new TIntArrayList();
+        st.foreachNonNull(expected::add);
+        expected.sort();
+
+        final int[] sequential = st.indexStream().toArray();
+        Arrays.sort(sequential);
+        assertThat(sequential, is(expected.toArray()));
+
+        final int[] parallel = st.indexStream().parallel().toArray();
+        Arrays.sort(parallel);
+        assertThat(parallel, is(expected.toArray()));
+
+        assertThat(st.indexSpliterator().estimateSize(), is((long) expected.size()));
+        assertThat(st.indexStream().parallel().count(), is((long) expected.size()));
+    }
+
+    @Test
+    public void valueStreamTest() {
+        Storage<Integer> st = mkStorage();
+        long expected = 0;
+        for (int i = 0; i < 100000; i += 7) {
+            st = st.set(i, i);
+            expected += i;
+        }
+        assertThat(st.valueStream().mapToLong(x -> x).sum(), is(expected));
+        assertThat(st.valueStream().parallel().mapToLong(x -> x).sum(), is(expected));
+        assertThat(mkStorage().valueStream().count(), is(0L));
+    }
+
     @Test
     public void randomSetAndGetTest() {
         Storage<Integer> st = mkStorage();
@@ -171,6 +263,41 @@ public class StorageTest extends junit.framework.TestCase {
         }
     }
 
+    @Test
+    public void setAllAndGetAllTest() {
+        Storage<Integer> st = mkStorage();
+        final Integer[] expected = new Integer[5000];
+        final Random random = new Random(12345L);
+        for (int round = 0; round < 5; ++round) {
+            // batches repeat indices and remove values, in no particular order
+            final int n = round == 0 ? 3000 : 200;
+            final int[] idx = new int[n];
+            final Integer[] values = new Integer[n];
+            for (int k = 0; k < n; ++k) {
+                idx[k] = random.nextInt(expected.length);
+                values[k] = random.nextInt(4) == 0 ? null : random.nextInt(1000);
+                expected[idx[k]] = values[k];
+            }
+            st = st.setAll(idx, values);
+
+            final int[] all = new int[expected.length];
+            for (int i = 0; i < all.length; ++i) {
+                all[i] = all.length - 1 - i;
+            }
+            final Integer[] out = new Integer[all.length];
+            st.getAll(all, out);
+            for (int i = 0; i < all.length; ++i) {
+                assertThat("at " + all[i], out[i], is(expected[all[i]]));
+                assertThat("at " + all[i], st.get(all[i]), is(expected[all[i]]));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setAllThrowsOnLengthMismatchTest() {
+        mkStorage().setAll(new int[] {1, 2}, new Integer[] {1});
+    }
+
     @Test(expected = IndexOutOfBoundsException.class)
     public void getThrowsTest() {
         Storage<Integer> st = mkStorage();
@@ -224,6 +351,42 @@ public class StorageTest extends junit.framework.TestCase {
         assertFalse(idxIter.hasNext());
     }
 
+    @Test
+    public void cursorTest() {
+        Storage<Integer> st = mkStorage();
+        assertThat(st.cursor().advance(), is(false));
+        final Random random = new Random(12345L);
+        for (int i = 0; i < 1000; ++i) {
+            final int key = random.nextInt(200000);
+            st = st.set(key, key);
+        }
+        final TIntArrayList expected = new TIntArrayList();
+        st.foreachNonNull(expected::add);
+        expected.sort();
+
+        final StorageCursor<Integer> cursor = st.cursor();
+        for (int round = 0; round < 2; round++) {
+            final TIntArrayList visited = new TIntArrayList();
+            while (cursor.advance()) {
+                assertThat(cursor.value(), is(cursor.index()));
+                visited.add(cursor.index());
+            }
+            assertThat(visited, is(expected));
+            assertThat(cursor.advance(), is(false));
+            cursor.reset();
+        }
+
+        // seek lands on the next index and never moves backwards:
+        final int target = expected.get(expected.size() / 2);
+        assertThat(cursor.seek(target - 1), is(true));
+        assertThat(cursor.index(), is(target));
+        assertThat(cursor.seek(target - 100), is(true));
+        assertThat(cursor.index(), is(target));
+        assertThat(cursor.advance(), is(true));
+        assertThat(cursor.index(), is(expected.get(expected.size() / 2 + 1)));
+        assertThat(cursor.seek(expected.get(expected.size() - 1) + 1), is(false));
+    }
+
     @Test
     public void findTest() {
         Storage<Integer> st = mkStorage();
@@ -242,6 +405,29 @@ public class StorageTest extends junit.framework.TestCase {
         }
     }
 
+    @Test
+    public void sparseScanTest() {
+        Storage<Integer> st = mkStorage();
+        final int[] keys = {3, 70000, (1 << 20) + 17, 2000000};
+        for (final int key : keys) {
+            st = st.set(key, key);
+        }
+        for (final int key : keys) {
+            assertThat(st.findFirst(key, -1), is(key));
+        }
+        assertThat(st.hasInRange(4, 70000), is(false));
+        assertThat(st.hasInRange(4, 70001), is(true));
+        assertThat(st.hasInRange(70001, (1 << 20) + 17), is(false));
+        assertThat(st.maxIdx(), is(2000001));
+
+        st = st.set(2000000, null);
+        assertThat(st.maxIdx(), is((1 << 20) + 18));
+        final TIntArrayList visited = new TIntArrayList();
+        st.foreachNonNull(visited::add);
+        visited.sort();
+        assertThat(visited, is(new TIntArrayList(new int[]{3, 70000, (1 << 20) + 17})));
+    }
+
     @Test(expected = IndexOutOfBoundsException.class)
     public void setThrowsTest() {
         Storage<Integer> st = mkStorage();
@@ -442,6 +628,46 @@ public class StorageTest extends junit.framework.TestCase {
         }
     }
 
+    @Test
+    public void copyIsIndependentTest() {
+        Storage<Integer> st = mkStorage();
+        for (int i = 0; i < 300; i++) {
+            st = st.set(i, i);
+        }
+        Storage<Integer> cp = st.copy();
+        cp = cp.set(5, -5);
+        st = st.set(6, -6);
+        assertThat(st.get(5), is(5));
+        assertThat(cp.get(5), is(-5));
+        assertThat(cp.get(6), is(6));
+        assertThat(st.get(6), is(-6));
+    }
+
+    @Test
+    public void randomMoveRangeTest() {
+        Storage<Integer> st = mkStorage();
+        Storage<Integer> expected = new ChunkedStorage<>();
+        final int N = 1000;
+        final Random random = new Random(4242L);
+        for (int i = 0; i < N; i++) {
+            if (random.nextInt(3) > 0) {
+                st = st.set(i, i);
+                expected = expected.set(i, i);
+            }
+        }
+        for (int k = 0; k < 300; k++) {
+            final int source = random.nextInt(N);
+            final int dest = Math.max(0, source + random.nextInt(5) - 2);
+            final int length = random.nextInt(30);
+            st = st.moveRange(source, dest, length);
+            expected = expected.moveRange(source, dest, length);
+            for (int i = 0; i < N + 40; i++) {
+                assertThat("moveRange(" + source + ", " + dest + ", " + length + ") at " + i,
+                        st.get(i), is(expected.get(i)));
+            }
+        }
+    }
+
     @Test
     public void moveRangeTest() {
         Storage<Integer> st = mkStorage();
@@ -0,0 +1,123 @@
+package com.github.kaeluka.cflat.test.storage;
+
+import com.github.kaeluka.cflat.storage.ImmutableStorage;
+import com.github.kaeluka.cflat.storage.Storage;
+import com.github.kaeluka.cflat.storage.TimerStorage;
+import com.github.kaeluka.cflat.storage.TimerStorage.TIMER_CATEGORY;
+import com.github.kaeluka.cflat.storage.TrieStorage;
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+import java.util.EnumMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class TimerStorageTest {
+    @Test
+    public void timesEveryCallByDefault() {
+        final TimerStorage<Integer> st = new TimerStorage<>(new TrieStorage<>());
+        for (int i = 0; i < 100; i++) {
+            st.get(i);
+        }
+        assertThat(st.getHistogram(TIMER_CATEGORY.GET).getTotalCount(), is(100L));
+        assertThat(st.getHistogram(TIMER_CATEGORY.SET), nullValue());
+    }
+
+    @Test
+    public void histogramsCanBeCopiedIntoAReusedOne() {
+        final TimerStorage<Integer> st = new TimerStorage<>(new TrieStorage<>());
+        assertThat(st.getHistogram(TIMER_CATEGORY.GET, null), nullValue());
+        for (int i = 0; i < 10; i++) {
+            st.get(i);
+        }
+        final Histogram h = st.getHistogram(TIMER_CATEGORY.GET, null);
+        assertThat(h.getTotalCount(), is(10L));
+        for (int i = 0; i < 10; i++) {
+            st.get(i);
+        }
+        assertThat(st.getHistogram(TIMER_CATEGORY.GET, h), sameInstance(h));
+        assertThat(h.getTotalCount(), is(20L));
+        // the copy is not the storage's own histogram:
+        h.reset();
+        assertThat(st.getHistogram(TIMER_CATEGORY.GET).getTotalCount(), is(20L));
+    }
+
+    @Test
+    public void everyNthSamplingEstimatesCounts() {
+        final TimerStorage<Integer> st = new TimerStorage<>(new TrieStorage<>());
+        st.setSampling(TimerStorage.Sampling.EVERY_NTH, 10);
+        for (int i = 0; i < 1000; i++) {
+            st.get(i);
+        }
+        assertThat(st.getHistogram(TIMER_CATEGORY.GET).getTotalCount(), is(1000L));
+        assertThat(st.getTotalTime(), greaterThan(0L));
+    }
+
+    @Test
+    public void randomSamplingEstimatesCounts() {
+        final TimerStorage<Integer> st = new TimerStorage<>(new TrieStorage<>());
+        st.setSampling(TimerStorage.Sampling.RANDOM, 8);
+        for (int i = 0; i < 100000; i++) {
+            st.has(i);
+        }
+        final long count = st.getHistogram(TIMER_CATEGORY.HAS).getTotalCount();
+        assertThat(count % 8, is(0L));
+        assertThat(count, allOf(greaterThan(90000L), lessThan(110000L)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void allMeansEveryCall() {
+        new TimerStorage<>(new TrieStorage<>()).setSampling(TimerStorage.Sampling.ALL, 2);
+    }
+
+    @Test
+    public void intervalSnapshots() {
+        final TimerStorage<Integer> st = new TimerStorage<>(new TrieStorage<>());
+        for (int i = 0; i < 10; i++) {
+            st.set(i, i);
+        }
+        EnumMap<TIMER_CATEGORY, Histogram> snapshot = st.intervalSnapshot();
+        assertThat(snapshot.keySet(), contains(TIMER_CATEGORY.SET));
+        assertThat(snapshot.get(TIMER_CATEGORY.SET).getTotalCount(), is(10L));
+
+        for (int i = 0; i < 5; i++) {
+            st.get(i);
+        }
+        // printing the statistics must not swallow the interval:
+        st.getStatistics("test");
+        snapshot = st.intervalSnapshot();
+        assertThat(snapshot.keySet(), contains(TIMER_CATEGORY.GET));
+        assertThat(snapshot.get(TIMER_CATEGORY.GET).getTotalCount(), is(5L));
+        assertThat(st.intervalSnapshot().isEmpty(), is(true));
+
+        // the totals are unaffected by snapshots:
+        assertThat(st.getHistogram(TIMER_CATEGORY.SET).getTotalCount(), is(10L));
+        assertThat(st.getHistogram(TIMER_CATEGORY.GET).getTotalCount(), is(5L));
+    }
+
+    @Test
+    public void newIdentityKeepsStatistics() {
+        Storage<Integer> st = new TimerStorage<>(new ImmutableStorage<>());
+        for (int i = 0; i < 10; i++) {
+            st = st.set(i, i);
+        }
+        final TimerStorage<Integer> timer = (TimerStorage<Integer>) st;
+        assertThat(timer.getHistogram(TIMER_CATEGORY.SET).getTotalCount(), is(10L));
+        assertThat(timer.getTotalTime(), greaterThan(0L));
+
+        timer.resetStatistics();
+        assertThat(timer.getTotalTime(), is(0L));
+        assertThat(timer.getHistogram(TIMER_CATEGORY.SET), nullValue());
+    }
+
+    @Test
+    public void copyHasOwnStatistics() {
+        final TimerStorage<Integer> st = new TimerStorage<>(new TrieStorage<>());
+        st.set(1, 1);
+        final TimerStorage<Integer> cp = (TimerStorage<Integer>) st.copy();
+        cp.set(2, 2);
+        assertThat(st.getHistogram(TIMER_CATEGORY.SET).getTotalCount(), is(1L));
+        assertThat(cp.getHistogram(TIMER_CATEGORY.SET).getTotalCount(), is(2L));
+    }
+}
@@ -9,9 +9,7 @@ package com.github.kaeluka.pma;
  * @author Stephan Brandauer
  */
 
-import gnu.trove.list.array.TIntArrayList;
-
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.function.Consumer;
 
@@ -20,10 +18,29 @@ import static org.hamcrest.CoreMatchers.is;
 import static java.lang.Integer.numberOfLeadingZeros;
 import static org.hamcrest.MatcherAssert.assertThat;
 
-@SuppressWarnings({"WeakerAccess", "unused"})
+@SuppressWarnings({"WeakerAccess", "unused", "unchecked"})
 public class PMA<T> implements Iterable<T> {
-    protected TIntArrayList keys;
-    protected ArrayList<T> values;
+    protected int[] keys;
+    protected Object[] values;
+    // the number of keys in each segment, which always are its first slots
+    protected int[] counts;
+
+    /*
+     * The search tree find() descends: a static Eytzinger layout (the
+     * segments in-order, stored breadth-first from index 1) of one routing
+     * key per segment. A segment's routing key is its last key; an empty
+     * segment inherits the routing key of the segment before it, or gets
+     * Integer.MAX_VALUE if no keys follow it. The routing keys never
+     * decrease, so the first segment whose routing key is at least k holds
+     * the first key that is at least k, or is the empty segment right after
+     * all keys.
+     */
+    protected int[] routes;
+    // the segment at each node of the tree, and the node of each segment
+    private int[] segmentAt;
+    private int[] nodeOf;
+    // the last segment holding a key, or -1
+    protected int lastSegment;
     protected int segmentSize;
 //    private int nSegments;
     protected int nLevels;
@@ -56,14 +73,14 @@ public class PMA<T> implements Iterable<T> {
         }
 
         private void maintainNxt() {
-            while (!isPresent(nxt) && nxt < keys.size()) {
+            while (nxt < keys.length && !isPresent(nxt)) {
                 nxt++;
             }
         }
 
         @Override
         public boolean hasNext() {
-            return nxt < keys.size();
+            return nxt < keys.length;
         }
 
         @Override
@@ -71,14 +88,14 @@ public class PMA<T> implements Iterable<T> {
             final int oldNxt = nxt;
             nxt++;
             maintainNxt();
-            return values.get(oldNxt);
+            return (T) values[oldNxt];
         }
 
         @Override
         public void forEachRemaining(final Consumer<? super T> action) {
-            final int size = values.size();
+            final int size = values.length;
             for (int i = nxt; i < size; i++) {
-                final T value = values.get(i);
+                final T value = (T) values[i];
                 if (value != null) {
                     action.accept(value);
                 }
@@ -98,8 +115,8 @@ public class PMA<T> implements Iterable<T> {
     }
     
     protected boolean isPresent(int idx) {
-//        if (idx >= keys.size()) { return false; }
-        return keys.get(idx) != EMPTY;
+//        if (idx >= keys.length) { return false; }
+        return keys[idx] != EMPTY;
     }
 
 //    protected static void debug(String fmt, Object... args) {
@@ -129,24 +146,19 @@ public class PMA<T> implements Iterable<T> {
         assert capacity > 1;
         assert 1 << log2(capacity) == capacity;
         this.initialise(capacity);
-        this.keys = new TIntArrayList(capacity, EMPTY);
-        this.values = new ArrayList<>(capacity);
-        for (int i = 0; i < capacity; i++) {
-            this.keys.add(EMPTY);
-            this.values.add(null);
-        }
+        this.allocate(capacity);
 //        assertRepInvariants();
 //        this.present = new BitSet(capacity);
     }
 
     void print() {
-        for (int i = 0; i < this.values.size(); ++i) {
+        for (int i = 0; i < this.values.length; ++i) {
             String annotation = "";
-            if (isPresent(i) && (keys.get(i) == EMPTY || values.get(i) == null)) {
+            if (isPresent(i) && (keys[i] == EMPTY || values[i] == null)) {
                 annotation = " BUG!";
             }
 //            if (isPresent(i) || annotation.length() > 0) {
-//                debug("%s -> %s%s", keys.get(i) == EMPTY ? "empty" : keys.get(i), values.get(i), annotation);
+//                debug("%s -> %s%s", keys[i] == EMPTY ? "empty" : keys[i], values[i], annotation);
 //            }
         }
 //        debug("");
@@ -170,8 +182,9 @@ public class PMA<T> implements Iterable<T> {
         double t = upperThreshold(level);
         int w = getWindowWidth(level);
         int sz = 0;
-        for (int i = left; i < left + w; ++i) {
-            sz += this.isPresent(i) ? 1 : 0;
+        final int firstSegment = fastDiv(left, segmentSize);
+        for (int seg = firstSegment; seg < firstSegment + (1 << level); ++seg) {
+            sz += counts[seg];
         }
         if (msz != null) {
             msz.x = sz;
@@ -187,15 +200,15 @@ public class PMA<T> implements Iterable<T> {
 
 //    private void assertLevels() {
 //        if (DEBUG) {
-//            assertThat(keys.size(), is(segmentSize * (1 << nLevels)));
+//            assertThat(keys.length, is(segmentSize * (1 << nLevels)));
 //        }
 //    }
 
 //    private void assertSorted() {
 //        if (DEBUG) {
 //            int prev = EMPTY;
-//            for (int i = 0; i < keys.size(); i++) {
-//                int cur = keys.get(i);
+//            for (int i = 0; i < keys.length; i++) {
+//                int cur = keys[i];
 //                if (cur != EMPTY) {
 //                    if (!(prev == EMPTY || cur > prev)) {
 //                        throw new AssertionError("not sorted at location " + i + "!\n" + neighbourhoodToString(i));
@@ -240,19 +253,19 @@ public class PMA<T> implements Iterable<T> {
 
 //    private void assertLeftBiasedSegments() {
 //        if (DEBUG) {
-//            final int NSEGMENTS = fastDivBothPow2(keys.size(), segmentSize);
-//            assert NSEGMENTS == keys.size() / segmentSize;
+//            final int NSEGMENTS = fastDivBothPow2(keys.length, segmentSize);
+//            assert NSEGMENTS == keys.length / segmentSize;
 //            for (int seg = 0; seg < NSEGMENTS; seg++) {
 //                int i = seg * segmentSize;
 //
 //                boolean hadEmpty = false;
 //                for (int cur = seg * segmentSize; cur < (seg + 1) * segmentSize; ++cur) {
-//                    if (hadEmpty && keys.get(cur) != EMPTY) {
+//                    if (hadEmpty && keys[cur] != EMPTY) {
 //                        String msg = String.format("invalid segment %d: %s", i, neighbourhoodToString(i));
 //                        throw new AssertionError(msg);
 //
 //                    } else {
-//                        if (keys.get(cur) == EMPTY) {
+//                        if (keys[cur] == EMPTY) {
 //                            hadEmpty = true;
 //                        }
 //                    }
@@ -262,29 +275,26 @@ public class PMA<T> implements Iterable<T> {
 //    }
 
     protected void mergeInto(int segmentStart, int key, T val) {
-        int insertTo = segmentStart;
-        for (int i = segmentStart; i < segmentStart+segmentSize; i++) {
-            final int curKey = keys.get(i);
-            if (curKey >= key || curKey == EMPTY) {
-                insertTo = i;
-                break;
-            }
-        }
-        assert insertTo < segmentStart + segmentSize;
+        final int seg = fastDiv(segmentStart, segmentSize);
+        final int end = segmentStart + counts[seg];
+        assert end < segmentStart + segmentSize;
 
-        int moveTo = insertTo;
-        while (moveTo < segmentStart + segmentSize - 1 && isPresent(moveTo)) {
-            moveTo++;
+        int insertTo = segmentStart;
+        while (insertTo < end && keys[insertTo] < key) {
+            insertTo++;
         }
 
-        assert moveTo < segmentStart + segmentSize;
-        for (int m = moveTo; m > insertTo; --m) {
-            keys  .set(m,   keys.get(m - 1));
-            values.set(m, values.get(m - 1));
+        System.arraycopy(keys,   insertTo, keys,   insertTo + 1, end - insertTo);
+        System.arraycopy(values, insertTo, values, insertTo + 1, end - insertTo);
+        keys  [insertTo] = key;
+        values[insertTo] = val;
+        counts[seg]++;
+        if (insertTo == end) {
+            // the segment's last key changed
+            final int oldLast = lastSegment;
+            lastSegment = Math.max(lastSegment, seg);
+            updateRoutes(Math.min(seg, oldLast + 1), seg + 1);
         }
-
-        keys  .set(insertTo, key);
-        values.set(insertTo, val);
 //        assertRepInvariants();
     }
 
@@ -297,14 +307,14 @@ public class PMA<T> implements Iterable<T> {
 
     protected String neighbourhoodToString(final int idx) {
         final int start = Math.max(0, idx - segmentSize);
-        final int end = Math.min(keys.size()-1, idx+segmentSize);
+        final int end = Math.min(keys.length-1, idx+segmentSize);
         StringBuilder ret = new StringBuilder();
         for (int i=start; i<=end; ++i) {
             if (i % segmentSize == 0) {
                 ret.append("(");
             }
 
-            String valStr = keys.get(i) == EMPTY ? "_" : Integer.toString(keys.get(i));
+            String valStr = keys[i] == EMPTY ? "_" : Integer.toString(keys[i]);
 
             if (i == idx) {
                 ret.append("<").append(valStr).append(">");
@@ -322,48 +332,107 @@ public class PMA<T> implements Iterable<T> {
 
     protected void grow() {
 //        assertRepInvariants();
-        int capacity = 2 * values.size();
+        int capacity = 2 * values.length;
 //        assertPowerOfTwo(capacity);
+        final int[] oldKeys = keys;
+        final Object[] oldValues = values;
         initialise(capacity);
-        final TIntArrayList newKeys = new TIntArrayList(capacity, EMPTY);
-        final ArrayList<T> newValues = new ArrayList<>(capacity);
-
-        final int NEW_NSEGMENTS = 2 * keys.size() / segmentSize;
-        for (int seg = 0; seg < NEW_NSEGMENTS; seg++) {
-            for (int i = 0; i < segmentSize/2; i++) {
-                int idx = seg*segmentSize/2+i;
-                newKeys  .add(keys.get(idx));
-                newValues.add(values.get(idx));
-            }
-            for (int i = 0; i < segmentSize/2; i++) {
-                newKeys  .add(EMPTY);
-                newValues.add(null);
+        allocate(capacity);
+
+        // each new segment takes the next half segment of old slots
+        final int half = segmentSize/2;
+        for (int seg = 0; seg < counts.length; seg++) {
+            System.arraycopy(oldKeys,   seg*half, keys,   seg*segmentSize, half);
+            System.arraycopy(oldValues, seg*half, values, seg*segmentSize, half);
+            int count = 0;
+            while (count < half && isPresent(seg*segmentSize + count)) {
+                count++;
             }
+            counts[seg] = count;
         }
+        rebuildRoutes();
+//        assertRepInvariants();
+    }
 
-        assert newKeys.size() == capacity;
+    private void allocate(final int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new Object[capacity];
+        final int nSegments = capacity / segmentSize;
+        counts = new int[nSegments];
+        routes = new int[nSegments + 1];
+        Arrays.fill(routes, Integer.MAX_VALUE);
+        segmentAt = new int[nSegments + 1];
+        nodeOf = new int[nSegments];
+        layOutTree(1, 0);
+        lastSegment = -1;
+    }
 
-        keys = newKeys;
-        values = newValues;
-//        assertRepInvariants();
+    /**
+     * Numbers the nodes of the subtree at {@code node} in-order, starting
+     * with {@code seg}.
+     *
+     * @return the next segment to number.
+     */
+    private int layOutTree(final int node, int seg) {
+        if (node >= segmentAt.length) {
+            return seg;
+        }
+        seg = layOutTree(2 * node, seg);
+        segmentAt[node] = seg;
+        nodeOf[seg] = node;
+        return layOutTree(2 * node + 1, seg + 1);
+    }
+
+    /**
+     * Recomputes the routing keys of the segments {@code [from, to)}, and of
+     * the empty segments after them that inherit their routing key.
+     */
+    protected void updateRoutes(final int from, final int to) {
+        final int nSegments = counts.length;
+        int route = from == 0 ? EMPTY : routes[nodeOf[from - 1]];
+        for (int seg = from; seg < nSegments && (seg < to || (seg < lastSegment && counts[seg] == 0)); seg++) {
+            if (seg > lastSegment) {
+                route = Integer.MAX_VALUE;
+            } else if (counts[seg] > 0) {
+                route = keys[seg * segmentSize + counts[seg] - 1];
+            }
+            routes[nodeOf[seg]] = route;
+        }
+    }
+
+    /**
+     * Must be called after changing {@link #keys} other than through the
+     * methods of this class.
+     */
+    protected void rebuildRoutes() {
+        lastSegment = -1;
+        for (int seg = counts.length - 1; seg >= 0; seg--) {
+            if (counts[seg] > 0) {
+                lastSegment = seg;
+                break;
+            }
+        }
+        updateRoutes(0, counts.length);
     }
 
     protected void rebalanceWindow(int windowStart, int level) {
 //        debug("rebalanceWindow(%d, %d)", windowStart, level);
         int wWidth = getWindowWidth(level);
-
-        TIntArrayList tmpKeys = new TIntArrayList(wWidth, EMPTY);
-        ArrayList<T> tmpValues = new ArrayList<>(wWidth);
-        for (int i = 0; i < wWidth; i++) {
-            if (isPresent(windowStart+i)) {
-                tmpKeys  .add(  keys.get(windowStart+i));
-                tmpValues.add(values.get(windowStart+i));
-                keys  .set(windowStart+i, EMPTY);
-                values.set(windowStart+i, null);
+        final int windowEnd = windowStart + wWidth;
+
+        // pack the window's values at its start, in place
+        int nValues = 0;
+        for (int i = windowStart; i < windowEnd; i++) {
+            if (isPresent(i)) {
+                keys  [windowStart+nValues] =   keys[i];
+                values[windowStart+nValues] = values[i];
+                nValues++;
             }
         }
+        Arrays.fill(keys,   windowStart+nValues, windowEnd, EMPTY);
+        Arrays.fill(values, windowStart+nValues, windowEnd, null);
 
-        final int nValues = tmpKeys.size();
         assert nValues > 1; // shouldn't be called, otherwise
 //        if (nValues <= 1) {
 //            //evenly distributed per definition
@@ -374,19 +443,29 @@ public class PMA<T> implements Iterable<T> {
         final int valuesPerSegment = (int) Math.ceil(segmentSize*fullness);
 //        debug("rebalancing %d values in window [%d, %d), fullness: %f, values per segment: %d", nValues, windowStart, windowStart+wWidth, fullness, valuesPerSegment);
 //        assert stride >= 1.0;
-        int destSegStart = segmentStart(windowStart);
-        int destSegIdx = 0;
-        for (int i = 0; i < nValues; i++) {
-            final int dest = destSegStart + destSegIdx;
-//            debug("dest=%d: %d -> %s", dest, tmpKeys.get(i), tmpValues.get(i));
-            keys  .set(dest, tmpKeys.get(i));
-            values.set(dest, tmpValues.get(i));
-            destSegIdx++;
-            if (destSegIdx == valuesPerSegment) {
-                destSegStart+=segmentSize;
-                destSegIdx = 0;
+        // Spread the values out, starting with the last. A value never
+        // moves left, so it cannot overwrite one that has not moved yet.
+        for (int i = nValues - 1; i >= 0; i--) {
+            final int src = windowStart + i;
+            final int dest = windowStart + (i / valuesPerSegment) * segmentSize + i % valuesPerSegment;
+//            debug("dest=%d: %d -> %s", dest, keys[src], values[src]);
+            if (dest != src) {
+                keys  [dest] =   keys[src];
+                values[dest] = values[src];
+                keys  [src] = EMPTY;
+                values[src] = null;
             }
         }
+        final int firstSegment = fastDiv(windowStart, segmentSize);
+        final int endSegment = firstSegment + (1 << level);
+        for (int seg = firstSegment; seg < endSegment; seg++) {
+            counts[seg] = Math.max(0, Math.min(valuesPerSegment, nValues - (seg - firstSegment) * valuesPerSegment));
+        }
+        if (lastSegment < endSegment) {
+            // the window holds the last key
+            lastSegment = firstSegment + (nValues - 1) / valuesPerSegment;
+        }
+        updateRoutes(firstSegment, endSegment);
 
 //        int windows = 1;
 //        int curWindowWidth = wWidth;
@@ -411,116 +490,252 @@ public class PMA<T> implements Iterable<T> {
 
 
         int idx = find(key);
-        if (idx >= 0 && keys.get(idx) == key) {
-            values.set(idx, x);
+        if (idx >= 0 && keys[idx] != key && x == null && values[idx] == null) { return; }
+        if (putInSegment(idx, key, x)) {
             return;
         }
-        if (idx >= 0 && x == null && values.get(idx) == null) { return; }
-
-        int curWindowStart = Math.max(0, segmentStart(idx));
-        if (curWindowStart == keys.size()) {
-            curWindowStart = 0;
-        }
-        assert curWindowStart >= 0;
-        assert curWindowStart <= keys.size() - segmentSize;
 
-        // Check in a window of size 'curChunkSize'
+        // No space in this segment. Find an interval above this
+        // segment that is within limits, re-balance, and re-start
+        // insertion.
+        int curWindowStart = targetSegment(idx);
         int curChunkSize = segmentSize;
         int level = 0;
-
-        int sz = curChunkSize - 1;
-
-        boolean in_limit;
-
-        if (this.isPresent(curWindowStart + segmentSize - 1)) {
+        int sz = curChunkSize;
+        boolean in_limit = false;
+        while (!in_limit) {
+            curChunkSize *= 2;
+            level++;
+            if (level > this.nLevels) {
+                grow();
+                put(key, x);
+                return;
+            }
+            curWindowStart = this.windowStart(curWindowStart, level);
             final MutableInt rsz = new MutableInt(sz);
-            intervalStats(curWindowStart, level, rsz);
+            in_limit = intervalStats(curWindowStart, level, rsz);
             sz = rsz.x;
+//            debug("level: %d, this.nLevels: %d, in_limit: %b, sz: %d", level, this.nLevels, in_limit, sz);
         }
+        this.rebalanceWindow(curWindowStart, level);
+        this.put(key, x);
+//        assertRepInvariants();
+    }
 
-        if (sz < curChunkSize) {
-            // There is some space in this interval. We can just
-            // shuffle elements and put.
-            this.mergeInto(curWindowStart, key, x);
-        } else {
-            // No space in this interval. Find an interval above this
-            // interval that is within limits, re-balance, and
-            // re-start insertion.
-            in_limit = false;
-            while (!in_limit) {
-                curChunkSize *= 2;
-                level++;
-                if (level > this.nLevels) {
-                    grow();
-                    put(key, x);
-                    return;
-                }
-                curWindowStart = this.windowStart(curWindowStart, level);
-                final MutableInt rsz = new MutableInt(sz);
-                in_limit = intervalStats(curWindowStart, level, rsz);
-                sz = rsz.x;
-//                debug("level: %d, this.nLevels: %d, in_limit: %b, sz: %d", level, this.nLevels, in_limit, sz);
-            }
-            this.rebalanceWindow(curWindowStart, level);
-            this.put(key, x);
+    /**
+     * @param idx the slot {@link #find} returned for a key.
+     * @return the start of the segment the key goes to.
+     */
+    private int targetSegment(final int idx) {
+        int segStart = Math.max(0, segmentStart(idx));
+        if (segStart == keys.length) {
+            segStart = 0;
         }
-//        assertRepInvariants();
+        assert segStart <= keys.length - segmentSize;
+        return segStart;
     }
 
-    /** Find the index {@code key}, or the first value larger than {@code key}
-     * in the {@code keys} array.
+    /**
+     * Puts {@code x} at {@code key} if that needs no rebalancing: overwrites
+     * the value if {@code idx} holds the key already, and otherwise merges
+     * the key into the segment of {@code idx} if it has room.
      *
-     * @param key the key to look for.
-     * @return the index of key in the keys array, -1 if there are no keys,
-     * or {@code }keys.size()} if all keys are smaller than {@code key}.
+     * @param idx the slot {@link #find} returned for the key.
+     * @return false if the segment is full, and nothing was put.
      */
-    protected int find(final int key) {
-        int l = 0, r = keys.size()-1;
-        int m;
-        int segL = 0;
-        int segR = (keys.size()/segmentSize)-1;
-        while (segL < segR) {
-            if (!isPresent(segR * segmentSize)) {
-                segR--;
+    private boolean putInSegment(final int idx, final int key, final T x) {
+        if (idx >= 0 && keys[idx] == key) {
+            values[idx] = x;
+            return true;
+        }
+        final int segStart = targetSegment(idx);
+        if (isPresent(segStart + segmentSize - 1)) {
+            return false;
+        }
+        mergeInto(segStart, key, x);
+        return true;
+    }
+
+    /**
+     * Batches holding at least this fraction of the array's capacity are
+     * merged with the present entries in one pass, instead of being put one
+     * by one.
+     */
+    private static final int MERGE_FRACTION = 8;
+
+    /**
+     * Puts {@code vals[k]} at {@code sortedKeys[k]} for {@code k < n}. The
+     * keys must be strictly ascending.
+     *
+     * Small batches are put one by one, but a key that lands in the same
+     * segment as the previous one is merged into it without another
+     * {@link #find}. Large batches are merged with the present entries and
+     * laid out evenly in a single pass, which also drops null values.
+     */
+    public void putAllSorted(final int[] sortedKeys, final T[] vals, final int n) {
+        if (n == 0) {
+            return;
+        }
+        if ((long) n * MERGE_FRACTION >= keys.length) {
+            mergeAll(sortedKeys, vals, n);
+            return;
+        }
+        // the segment the previous key went to, or -1
+        int segStart = -1;
+        for (int k = 0; k < n; k++) {
+            final int key = sortedKeys[k];
+            final T x = vals[k];
+            if (x == null) {
+                put(key, null);
+                segStart = -1;
                 continue;
             }
-            if (!isPresent(segL * segmentSize)) {
-                segL++;
-                continue;
+            // if the previous key is smaller and in the same segment,
+            // find(key) would land in that segment as well
+            final int idx = segStart >= 0 && key <= lastKeyInSegment(segStart)
+                    ? findInSegment(segStart, key)
+                    : find(key);
+            if (putInSegment(idx, key, x)) {
+                segStart = targetSegment(idx);
+            } else {
+                // the segment is full: rebalance as usual
+                put(key, x);
+                segStart = -1;
             }
+        }
+    }
 
-            int segM = segL + (segR - segL) / 2;
-
-            while (!isPresent(segM * segmentSize) && segL < segM) {
-                segM--;
+    /**
+     * Must only be called on a segment that holds a key.
+     */
+    protected int lastKeyInSegment(final int segStart) {
+        return keys[segStart + counts[fastDiv(segStart, segmentSize)] - 1];
+    }
+
+    private void mergeAll(final int[] sortedKeys, final T[] vals, final int n) {
+        final int size = keys.length;
+        final int[] mergedKeys = new int[size + n];
+        final Object[] mergedValues = new Object[size + n];
+        int m = 0;
+        int k = 0;
+        for (int i = 0; i < size; i++) {
+            if (!isPresent(i)) {
+                continue;
             }
-
-            final int segStart = segM * segmentSize;
-            final int keyM = keys.get(segStart);
-            assert keyM != EMPTY;
-            if (keyM <= key) {
-                for (int i = 0; i < segmentSize; ++i) {
-                    final int curIdx = segStart + i;
-                    final int curKey = keys.get(curIdx);
-                    if (curKey >= key) {
-                        return curIdx;
-                    }
+            final int key = keys[i];
+            for (; k < n && sortedKeys[k] < key; k++) {
+                if (vals[k] != null) {
+                    mergedKeys[m] = sortedKeys[k];
+                    mergedValues[m++] = vals[k];
                 }
-
-                segL = segM + 1;
+            }
+            final T x;
+            if (k < n && sortedKeys[k] == key) {
+                x = vals[k++];
             } else {
-                segR = segM;
+                x = (T) values[i];
+            }
+            if (x != null) {
+                mergedKeys[m] = key;
+                mergedValues[m++] = x;
             }
         }
+        for (; k < n; k++) {
+            if (vals[k] != null) {
+                mergedKeys[m] = sortedKeys[k];
+                mergedValues[m++] = vals[k];
+            }
+        }
+        layOut(mergedKeys, (T[]) mergedValues, m);
+    }
+
+    /**
+     * Builds a PMA holding {@code vals[k]} at {@code sortedKeys[k]} for
+     * {@code k < n} in a single pass, without the grows and rebalances that
+     * putting the keys one by one would cause. Null values are skipped.
+     *
+     * @throws IllegalArgumentException if the keys are not strictly
+     * ascending.
+     */
+    public static <T> PMA<T> bulkLoad(final int[] sortedKeys, final T[] vals, final int n) {
+        final PMA<T> ret = new PMA<>();
+        ret.loadSorted(sortedKeys, vals, n);
+        return ret;
+    }
 
-        for (int i = 0; i < segmentSize; ++i) {
-            final int curIdx = segL*segmentSize + i;
-            final int curKey = keys.get(curIdx);
-            if (curKey >= key || curKey == EMPTY || i == segmentSize - 1) {
-                return curIdx;
+    /**
+     * Replaces the contents, see {@link #bulkLoad}.
+     */
+    protected void loadSorted(final int[] sortedKeys, final T[] vals, final int n) {
+        final int[] presentKeys = new int[n];
+        final Object[] presentValues = new Object[n];
+        int m = 0;
+        for (int k = 0; k < n; k++) {
+            if (k > 0 && sortedKeys[k - 1] >= sortedKeys[k]) {
+                throw new IllegalArgumentException("keys not strictly ascending at position " + k
+                        + ": " + sortedKeys[k - 1] + ", " + sortedKeys[k]);
             }
+            if (vals[k] != null) {
+                presentKeys[m] = sortedKeys[k];
+                presentValues[m++] = vals[k];
+            }
+        }
+        layOut(presentKeys, (T[]) presentValues, m);
+    }
+
+    /**
+     * Replaces the contents with the {@code n} ascending keys, spread evenly
+     * over the segments of an array that is at most half full, like after
+     * a {@link #grow}.
+     */
+    private void layOut(final int[] sortedKeys, final T[] vals, final int n) {
+        int capacity = keys.length;
+        while (capacity < 2 * n) {
+            capacity *= 2;
+        }
+        initialise(capacity);
+        allocate(capacity);
+        final int nSegments = counts.length;
+        for (int seg = 0; seg < nSegments; seg++) {
+            final int from = (int) ((long) seg * n / nSegments);
+            final int to = (int) ((long) (seg + 1) * n / nSegments);
+            System.arraycopy(sortedKeys, from, keys,   seg * segmentSize, to - from);
+            System.arraycopy(vals,       from, values, seg * segmentSize, to - from);
+            counts[seg] = to - from;
+        }
+        rebuildRoutes();
+    }
+
+    /** Find the index {@code key}, or the first value larger than {@code key}
+     * in the {@code keys} array. Costs O(log(segments)) reads of the search
+     * tree, however sparse the array is, plus a scan of one segment.
+     *
+     * @param key the key to look for.
+     * @return the index of key in the keys array; if all keys are smaller
+     * than {@code key}, a free slot right after them, or the last slot of the
+     * last segment if that is full.
+     */
+    protected int find(final int key) {
+        // Descend without branching on the comparison: the path is the
+        // binary representation of k. When k falls off the tree, the node
+        // we are looking for is where the path last turned left.
+        final int nSegments = counts.length;
+        int k = 1;
+        while (k <= nSegments) {
+            k = 2 * k + (routes[k] < key ? 1 : 0);
+        }
+        k >>= Integer.numberOfTrailingZeros(~k) + 1;
+
+        if (k == 0) {
+            // all segments are in use and all keys are smaller
+            final int segStart = lastSegment * segmentSize;
+            return segStart + Math.min(counts[lastSegment], segmentSize - 1);
         }
-        return -1;
+        final int segStart = segmentAt[k] * segmentSize;
+        if (counts[segmentAt[k]] == 0) {
+            return segStart;
+        }
+        return findInSegment(segStart, key);
     }
 
     protected int findSegmentStart(final int key) {
@@ -553,7 +768,7 @@ public class PMA<T> implements Iterable<T> {
         int mi = Integer.MAX_VALUE;
         int ma = Integer.MIN_VALUE;
         for (int i=idx; i < idx+segmentSize; i++) {
-            final int cur = keys.get(i);
+            final int cur = keys[i];
             if (cur != EMPTY) {
                 if (cur < mi) { mi = cur; }
                 if (cur > ma) { ma = cur; }
@@ -575,9 +790,9 @@ public class PMA<T> implements Iterable<T> {
     }
     */
 
-    private int findInSegment(int idx, int key) {
+    protected int findInSegment(int idx, int key) {
         for (int i=idx; i < idx+segmentSize; i++) {
-            if (keys.get(i) >= key) {
+            if (keys[i] >= key) {
                 return i;
             }
         }
@@ -587,16 +802,14 @@ public class PMA<T> implements Iterable<T> {
     public String getDensityMap() {
         final int level = Math.max(0, this.nLevels-6);
         final int windowSize = getWindowWidth(level);
-        final int nWindows = keys.size() / windowSize;
+        final int nWindows = keys.length / windowSize;
         StringBuilder ret = new StringBuilder(level+" |");
         final String charMap = " .+*%#";
 
         for (int i = 0; i < nWindows; i++) {
             int valsInWindow = 0;
-            for (int j = 0; j < windowSize; j++) {
-                if (isPresent(i*windowSize + j)) {
-                    valsInWindow++;
-                }
+            for (int seg = 0; seg < 1 << level; seg++) {
+                valsInWindow += counts[i * (1 << level) + seg];
             }
             double density = valsInWindow / (double) windowSize;
             ret.append(charMap.charAt((int) (density * (charMap.length() - 1))));
@@ -607,7 +820,7 @@ public class PMA<T> implements Iterable<T> {
     private int findMinInSegment(int idx) {
         int m = EMPTY;
         for (int i=idx; i < idx+segmentSize; i++) {
-            final int cur = keys.get(i);
+            final int cur = keys[i];
             if (cur != EMPTY && cur > m) {
                 m = cur;
             }
@@ -619,7 +832,7 @@ public class PMA<T> implements Iterable<T> {
         int i;
         for (i = idx; i < idx + segmentSize; ++i) {
             if (this.isPresent(i)) {
-                if (this.keys.get(i) >= v) {
+                if (this.keys[i] >= v) {
                     return i;
                 }
             }
@@ -646,21 +859,19 @@ public class PMA<T> implements Iterable<T> {
 
     public T get(final int key) {
         final int i = find(key);
-        if (i >= 0 && keys.get(i) == key) {
-            return values.get(i);
+        if (i >= 0 && keys[i] == key) {
+            return (T) values[i];
         } else {
             return null;
         }
     }
 
     public void clear() {
-        final int capacity = keys.size();
-        keys = new TIntArrayList(capacity, EMPTY);
-        values = new ArrayList<>(capacity);
-        for (int i = 0; i < capacity; i++) {
-            keys.add(EMPTY);
-            values.add(null);
-        }
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, null);
+        Arrays.fill(counts, 0);
+        Arrays.fill(routes, Integer.MAX_VALUE);
+        lastSegment = -1;
 
 //        assertRepInvariants();
     }
@@ -95,4 +95,136 @@ public class PMATest {
             assertThat(p1.get(i), is(i));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPutAllSorted() {
+        final Random random = new Random(12345L);
+        // a small batch goes through the segments, a large one is merged
+        for (final int batchSize : new int[] {10, 3000}) {
+            PMA<Integer> p1 = new PMA<>(16);
+            final TreeMap<Integer, Integer> expected = new TreeMap<>();
+            for (int i = 0; i < 2000; i++) {
+                final int key = random.nextInt(100000);
+                p1.put(key, key);
+                expected.put(key, key);
+            }
+            for (int round = 0; round < 20; round++) {
+                final TreeMap<Integer, Integer> batch = new TreeMap<>();
+                while (batch.size() < batchSize) {
+                    final int key = random.nextInt(100000);
+                    batch.put(key, random.nextInt());
+                }
+                final int[] keys = new int[batchSize];
+                final Integer[] vals = new Integer[batchSize];
+                int k = 0;
+                for (final Map.Entry<Integer, Integer> e : batch.entrySet()) {
+                    keys[k] = e.getKey();
+                    vals[k++] = e.getValue();
+                }
+                p1.putAllSorted(keys, vals, batchSize);
+                expected.putAll(batch);
+            }
+            for (int key = 0; key < 100000; key++) {
+                assertThat("key " + key, p1.get(key), is(expected.get(key)));
+            }
+        }
+    }
+
+    @Test
+    public void testBulkLoad() {
+        final int N = 10000;
+        final int[] keys = new int[N];
+        final Integer[] vals = new Integer[N];
+        for (int i = 0; i < N; i++) {
+            keys[i] = 3 * i;
+            vals[i] = i % 10 == 0 ? null : i;
+        }
+        final PMA<Integer> p1 = PMA.bulkLoad(keys, vals, N);
+        for (int i = 0; i < 3 * N; i++) {
+            assertThat("key " + i, p1.get(i), is(i % 3 == 0 ? vals[i / 3] : null));
+        }
+        // still accepts puts between the loaded keys
+        for (int i = 1; i < 3 * N; i += 3) {
+            p1.put(i, -i);
+        }
+        for (int i = 1; i < 3 * N; i += 3) {
+            assertThat(p1.get(i), is(-i));
+            assertThat(p1.get(i - 1), is(vals[(i - 1) / 3]));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBulkLoadRejectsUnsortedKeys() {
+        PMA.bulkLoad(new int[] {1, 3, 2}, new String[] {"a", "b", "c"}, 3);
+    }
+
+    private static void assertSegmentCounts(final PMA<?> p) {
+        for (int seg = 0; seg < p.counts.length; seg++) {
+            for (int i = 0; i < p.segmentSize; i++) {
+                assertThat("segment " + seg + ", slot " + i,
+                        p.isPresent(seg * p.segmentSize + i), is(i < p.counts[seg]));
+            }
+        }
+    }
+
+    @Test
+    public void testSegmentCountsTrackRebalances() {
+        PMA<Integer> p1 = new PMA<>(16);
+        Random random = new Random(12345L);
+        for (int i = 0; i < 5000; i++) {
+            // clustered keys force rebalances of growing windows
+            final int key = random.nextBoolean() ? random.nextInt(100) * 1000 + i : random.nextInt(1000000);
+            p1.put(key, key);
+            if (i % 100 == 0) {
+                assertSegmentCounts(p1);
+            }
+        }
+        assertSegmentCounts(p1);
+        p1.clear();
+        assertSegmentCounts(p1);
+    }
+
+    private static void assertFindMatchesScan(final PMA<?> p, final int key) {
+        int expected = -1;
+        for (int i = 0; i < p.keys.length; i++) {
+            if (p.isPresent(i) && p.keys[i] >= key) {
+                expected = i;
+                break;
+            }
+        }
+        final int found = p.find(key);
+        if (expected >= 0) {
+            assertThat("find(" + key + ")", found, is(expected));
+        } else {
+            // every key is smaller: any free slot after all of them will do
+            for (int i = found; i < p.keys.length; i++) {
+                assertThat("find(" + key + ")", p.isPresent(i) && i != found, is(false));
+            }
+        }
+    }
+
+    @Test
+    public void testFindAtAnyDensity() {
+        PMA<Integer> p1 = new PMA<>(16);
+        Random random = new Random(12345L);
+        for (int i = 0; i < 3000; i++) {
+            final int key = random.nextInt(10000000);
+            p1.put(key, key);
+            if (i % 50 == 0) {
+                for (int probe = 0; probe < 20; probe++) {
+                    assertFindMatchesScan(p1, random.nextInt(11000000));
+                }
+            }
+        }
+        // few keys in a large array
+        final PMA<Integer> sparse = new PMA<>(1 << 14);
+        for (final int key : new int[] {5, 70000, 3, 123456789}) {
+            sparse.put(key, key);
+        }
+        for (int probe = 0; probe < 200; probe++) {
+            assertFindMatchesScan(sparse, random.nextInt(200000000));
+        }
+        assertThat(sparse.get(70000), is(70000));
+        assertThat(sparse.get(69999), is((Integer) null));
+    }
+}